@@ -0,0 +1,254 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.agendamento.AgendadorTopicos;
+import com.flaviodavim.initialkafka.agendamento.PoliticaTopico;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.metricas.Histograma;
+import com.flaviodavim.initialkafka.metricas.Instantaneo;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* Latência de um tópico urgente consumido junto com um tópico com muito atraso
+ *
+ * O tópico volume tem um atraso sem fim: todo poll pode trazer max.poll.records registros dele.
+ * No tópico urgente chegam taxaUrgente registros por segundo, e cada um guarda o momento em que chegou.
+ * Um MockConsumer simula a ordem do KafkaConsumer: o que já estava buscado do volume vem antes no poll,
+ * e os registros urgentes que chegaram depois vêm no fim. Processar qualquer registro custa custoRegistroMicros.
+ *
+ *      -> fifo: o laço do ConsumerDemo, com o lote inteiro processado na ordem do poll
+ *      -> agendado: o AgendadorTopicos, com o urgente em prioridade maior
+ *      -> agendadoComLimite: o mesmo, com o volume limitado a limiteVolume registros por segundo
+ *
+ * Cada rodada termina quando URGENTES registros urgentes foram processados, então o tempo dela é quase fixo.
+ * O agendador é novo a cada rodada e o balde do volume começa cheio, então a vazão limitada passa um pouco do limite.
+ * No fim são impressas a latência dos registros urgentes (da chegada ao processamento) e a vazão do volume.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class AgendamentoBenchmark {
+
+    private static final String TOPICO_URGENTE = "urgente";
+    private static final String TOPICO_VOLUME = "volume";
+    private static final int PARTICOES_VOLUME = 4;
+    private static final int MAX_POLL_RECORDS = 500;
+    private static final int URGENTES = 1000;
+
+    @Param({"fifo", "agendado", "agendadoComLimite"})
+    String modo;
+
+    @Param({"1000"})
+    int taxaUrgente;
+
+    @Param({"20"})
+    long custoRegistroMicros;
+
+    @Param({"2000"})
+    long limiteVolume;
+
+    private TopicPartition urgente;
+    private List<TopicPartition> volume;
+    private final Histograma latenciaUrgente = new Histograma();
+    private long volumeProcessado;
+    private long nanosRodadas;
+
+    @Setup
+    public void preparar() {
+        urgente = new TopicPartition(TOPICO_URGENTE, 0);
+        volume = new ArrayList<TopicPartition>();
+        for (int p = 0; p < PARTICOES_VOLUME; p++) {
+            volume.add(new TopicPartition(TOPICO_VOLUME, p));
+        }
+    }
+
+    @TearDown
+    public void relatar() {
+        Instantaneo latencia = latenciaUrgente.instantaneo();
+        System.out.println(String.format(Locale.ROOT,
+                "%nUrgente: p50=%.2fms p99=%.2fms max=%.2fms; volume: %.0f registros/s",
+                latencia.percentil(50) / 1e6, latencia.percentil(99) / 1e6, latencia.getMaximo() / 1e6,
+                volumeProcessado / (nanosRodadas / 1e9)));
+    }
+
+    @Benchmark
+    public void consumir() throws InterruptedException {
+        final ConsumidorMisto consumidor = new ConsumidorMisto();
+        final CountDownLatch concluida = new CountDownLatch(URGENTES);
+        final long custoNanos = TimeUnit.MICROSECONDS.toNanos(custoRegistroMicros);
+        final long[] volumeRodada = new long[1];
+        // Os dois laços processam na thread do poll, então os contadores não precisam ser atômicos
+        ProcessadorRegistro<Long, Long> processador = registro -> {
+            if (TOPICO_URGENTE.equals(registro.topic())) {
+                latenciaUrgente.registrar(System.nanoTime() - registro.value());
+                concluida.countDown();
+            } else {
+                volumeRodada[0]++;
+            }
+            LockSupport.parkNanos(custoNanos);
+        };
+
+        Runnable laco;
+        AgendadorTopicos<Long, Long> agendador = null;
+        LacoFifo fifo = null;
+        if ("fifo".equals(modo)) {
+            fifo = new LacoFifo(consumidor, processador);
+            laco = fifo;
+        } else {
+            agendador = new AgendadorTopicos<Long, Long>(consumidor, processador);
+            agendador.definir(new PoliticaTopico(TOPICO_URGENTE, 10, 1));
+            agendador.definir("agendadoComLimite".equals(modo)
+                    ? new PoliticaTopico(TOPICO_VOLUME, 0, 1, limiteVolume, 0)
+                    : new PoliticaTopico(TOPICO_VOLUME, 0, 1));
+            agendador.setLimites(100, MAX_POLL_RECORDS);
+            laco = agendador;
+        }
+
+        long inicio = System.nanoTime();
+        Thread threadPoll = new Thread(laco, "benchmark-poll");
+        threadPoll.start();
+        concluida.await();
+        if (agendador != null) {
+            agendador.encerrar();
+        } else {
+            fifo.encerrado = true;
+            consumidor.wakeup();
+        }
+        threadPoll.join();
+        nanosRodadas += System.nanoTime() - inicio;
+        volumeProcessado += volumeRodada[0];
+    }
+
+    // O laço do ConsumerDemo: o poll inteiro é processado na ordem em que veio
+    static final class LacoFifo implements Runnable {
+
+        private final MockConsumer<Long, Long> consumidor;
+        private final ProcessadorRegistro<Long, Long> processador;
+        volatile boolean encerrado;
+
+        LacoFifo(MockConsumer<Long, Long> consumidor, ProcessadorRegistro<Long, Long> processador) {
+            this.consumidor = consumidor;
+            this.processador = processador;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!encerrado) {
+                    for (ConsumerRecord<Long, Long> registro : consumidor.poll(Duration.ofMillis(100))) {
+                        processador.processar(registro);
+                    }
+                    consumidor.commitAsync();
+                }
+            } catch (WakeupException e) {
+                // Pedido pelo benchmark no fim da rodada
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /* Entrega em cada poll os urgentes que já chegaram e, das partições do volume que não estão pausadas,
+     * o que falta para max.poll.records; o volume vem antes, como os dados já buscados no KafkaConsumer
+     * Sem nada para entregar, o poll espera até a próxima chegada ou o fim do tempo
+     */
+    final class ConsumidorMisto extends MockConsumer<Long, Long> {
+
+        private final long inicio = System.nanoTime();
+        private final long periodoNanos = TimeUnit.SECONDS.toNanos(1) / taxaUrgente;
+        private long proximoUrgente;
+
+        ConsumidorMisto() {
+            super(OffsetResetStrategy.EARLIEST);
+            List<TopicPartition> todas = new ArrayList<TopicPartition>(volume);
+            todas.add(urgente);
+            assign(todas);
+            Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+            for (TopicPartition particao : todas) {
+                inicios.put(particao, 0L);
+            }
+            updateBeginningOffsets(inicios);
+        }
+
+        @Override
+        public synchronized ConsumerRecords<Long, Long> poll(Duration tempo) {
+            long limite = System.nanoTime() + tempo.toNanos();
+            while (true) {
+                Set<TopicPartition> pausadas = paused();
+                int adicionados = 0;
+                if (!pausadas.contains(urgente)) {
+                    long agora = System.nanoTime();
+                    while (inicio + proximoUrgente * periodoNanos <= agora) {
+                        long offset = proximoUrgente++;
+                        addRecord(new ConsumerRecord<Long, Long>(TOPICO_URGENTE, 0, offset, offset,
+                                inicio + offset * periodoNanos));
+                        adicionados++;
+                    }
+                }
+                List<TopicPartition> ativas = new ArrayList<TopicPartition>();
+                for (TopicPartition particao : volume) {
+                    if (!pausadas.contains(particao)) {
+                        ativas.add(particao);
+                    }
+                }
+                for (TopicPartition particao : ativas) {
+                    long posicao = position(particao);
+                    long fim = posicao + (MAX_POLL_RECORDS - adicionados) / ativas.size();
+                    for (long offset = posicao; offset < fim; offset++) {
+                        addRecord(new ConsumerRecord<Long, Long>(TOPICO_VOLUME, particao.partition(), offset, offset, 0L));
+                    }
+                }
+                if (adicionados > 0 || !ativas.isEmpty()) {
+                    break;
+                }
+                long espera = Math.min(limite, inicio + proximoUrgente * periodoNanos) - System.nanoTime();
+                if (System.nanoTime() >= limite) {
+                    break;
+                }
+                LockSupport.parkNanos(espera);
+            }
+            ConsumerRecords<Long, Long> lote = super.poll(Duration.ZERO);
+            Map<TopicPartition, List<ConsumerRecord<Long, Long>>> ordenados =
+                    new LinkedHashMap<TopicPartition, List<ConsumerRecord<Long, Long>>>();
+            for (TopicPartition particao : volume) {
+                if (!lote.records(particao).isEmpty()) {
+                    ordenados.put(particao, lote.records(particao));
+                }
+            }
+            if (!lote.records(urgente).isEmpty()) {
+                ordenados.put(urgente, lote.records(urgente));
+            }
+            return new ConsumerRecords<Long, Long>(ordenados);
+        }
+    }
+}
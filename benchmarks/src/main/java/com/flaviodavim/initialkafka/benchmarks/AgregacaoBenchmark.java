@@ -0,0 +1,172 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.agregacao.AgregadorProdutor;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/* Envio de mensagens pequenas com e sem o AgregadorProdutor
+ *
+ * Os registros entregues ao Produtor são gravados em lotes reais do Kafka (MemoryRecordsBuilder), um por partição,
+ * com o batch.size padrão e a compressão do parâmetro, como o acumulador do KafkaProducer faz antes de ir para a rede.
+ * Assim o tempo inclui o custo de montar e comprimir os lotes, e o tamanho dos lotes é o que iria para o broker.
+ *
+ * O resultado é mensagens/s, e os bytes no fio por mensagem são escritos no fim da execução.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgregacaoBenchmark {
+
+    private static final int MENSAGENS = 1000;
+
+    @Param({"none", "lz4"})
+    String compressao;
+
+    @Param({"16", "100"})
+    int tamanhoPayload;
+
+    @Param({"8192"})
+    int tamanhoQuadro;
+
+    private EscritorRegistro escritor;
+    private String texto;
+    private AcumuladorLotes acumulador;
+    private AgregadorProdutor<Long> agregador;
+
+    @Setup
+    public void preparar() {
+        escritor = new EscritorRegistro(tamanhoPayload + 32);
+        texto = Dados.payload(tamanhoPayload);
+        acumulador = new AcumuladorLotes(CompressionType.forName(compressao), 6, 16384);
+        // Sem tempo máximo: os quadros saem por tamanho e pelo descarregar() no fim de cada invocação
+        agregador = new AgregadorProdutor<Long>(acumulador, tamanhoQuadro, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void relatarTamanho() {
+        if (acumulador.mensagens > 0) {
+            System.out.println("\nBytes no fio por mensagem: "
+                    + String.format("%.2f", (double) acumulador.bytes / acumulador.mensagens)
+                    + " (" + acumulador.registros + " registros em " + acumulador.lotes + " lotes)");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MENSAGENS)
+    public void semAgregacao() {
+        for (int i = 0; i < MENSAGENS; i++) {
+            ByteBuffer valor = MensagemDemo.escrever(escritor, i, texto);
+            acumulador.send(new ProducerRecord<Long, ByteBuffer>(Dados.TOPICO, valor));
+            acumulador.mensagens++;
+        }
+        acumulador.fecharLotes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MENSAGENS)
+    public void comAgregacao() {
+        for (int i = 0; i < MENSAGENS; i++) {
+            agregador.enviar(Dados.TOPICO, null, MensagemDemo.escrever(escritor, i, texto));
+            acumulador.mensagens++;
+        }
+        agregador.descarregar();
+        acumulador.fecharLotes();
+    }
+
+    /* Produtor que grava os registros em lotes do Kafka em vez de enviá-los
+     * Registros sem chave são distribuídos em rodízio entre as partições, como o DefaultPartitioner do kafka-clients 2.0
+     */
+    static final class AcumuladorLotes extends MockProducer<Long, ByteBuffer> {
+
+        private final SerializadorLong serializadorChave = new SerializadorLong();
+        private final SerializadorByteBuffer serializadorValor = new SerializadorByteBuffer();
+        private final CompressionType compressao;
+        private final int tamanhoLote;
+        private final MemoryRecordsBuilder[] abertos;
+        private int proximaParticao;
+
+        long mensagens;
+        long registros;
+        long lotes;
+        long bytes;
+
+        AcumuladorLotes(CompressionType compressao, int numeroParticoes, int tamanhoLote) {
+            super(true, new SerializadorLong(), new SerializadorByteBuffer());
+            this.compressao = compressao;
+            this.tamanhoLote = tamanhoLote;
+            this.abertos = new MemoryRecordsBuilder[numeroParticoes];
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<Long, ByteBuffer> registro, Callback callback) {
+            byte[] chave = serializadorChave.serialize(registro.topic(), registro.key());
+            byte[] valor = serializadorValor.serialize(registro.topic(), registro.value());
+            Header[] cabecalhos = registro.headers().toArray();
+            long timestamp = System.currentTimeMillis();
+
+            int particao = proximaParticao++ % abertos.length;
+            MemoryRecordsBuilder lote = abertos[particao];
+            if (lote != null && !lote.hasRoomFor(timestamp, chave, valor, cabecalhos)) {
+                fechar(particao);
+                lote = null;
+            }
+            if (lote == null) {
+                lote = MemoryRecords.builder(ByteBuffer.allocate(tamanhoLote), compressao, TimestampType.CREATE_TIME, 0L);
+                abertos[particao] = lote;
+            }
+            lote.append(timestamp, chave, valor, cabecalhos);
+            registros++;
+
+            if (callback != null) {
+                callback.onCompletion(null, null);
+            }
+            return null;
+        }
+
+        void fecharLotes() {
+            for (int i = 0; i < abertos.length; i++) {
+                if (abertos[i] != null) {
+                    fechar(i);
+                }
+            }
+        }
+
+        private void fechar(int particao) {
+            bytes += abertos[particao].build().sizeInBytes();
+            lotes++;
+            abertos[particao] = null;
+        }
+    }
+}
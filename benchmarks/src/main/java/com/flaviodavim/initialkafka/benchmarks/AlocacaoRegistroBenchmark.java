@@ -0,0 +1,94 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Compara a alocação por registro do log antigo com a do ProcessadorLog
+ *
+ * Cada operação trata um registro, então com -prof gc (ligado por padrão no ExecutarBenchmarks)
+ * a métrica gc.alloc.rate.norm é diretamente o número de bytes alocados por registro.
+ *      -> concatenacao: o logger.info com + dos Consumidores de exemplo (antes)
+ *      -> processadorLog: o ProcessadorLog com o INFO desligado (depois)
+ *      -> processadorAmostrado: o ProcessadorLog com o INFO ligado, escrevendo 1 a cada 100 registros
+ *
+ * O logger "amostrado" fica no nível INFO e a saída do log vai para /dev/null.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn",
+        "-Dorg.slf4j.simpleLogger.log.amostrado=info",
+        "-Dorg.slf4j.simpleLogger.logFile=/dev/null"})
+public class AlocacaoRegistroBenchmark {
+
+    private static final int REGISTROS = 1024;
+
+    @Param({"16", "256"})
+    int tamanhoPayload;
+
+    private final Logger logger = LoggerFactory.getLogger(AlocacaoRegistroBenchmark.class);
+
+    private ConsumerRecord<String, String>[] registros;
+    private int indice;
+    private ProcessadorLog<String, String> processadorLog;
+    private ProcessadorLog<String, String> processadorAmostrado;
+
+    @Setup
+    public void preparar() {
+        List<ConsumerRecord<String, String>> lista = new ArrayList<ConsumerRecord<String, String>>();
+        ConsumerRecords<String, String> lote = Dados.lote(REGISTROS, tamanhoPayload, 3);
+        for (ConsumerRecord<String, String> registro : lote) {
+            lista.add(registro);
+        }
+        @SuppressWarnings("unchecked")
+        ConsumerRecord<String, String>[] vazio = (ConsumerRecord<String, String>[]) new ConsumerRecord<?, ?>[0];
+        registros = lista.toArray(vazio);
+        processadorLog = new ProcessadorLog<String, String>(logger, 1);
+        processadorAmostrado = new ProcessadorLog<String, String>(LoggerFactory.getLogger("amostrado"), 100);
+    }
+
+    private ConsumerRecord<String, String> proximo() {
+        indice = (indice + 1) & (REGISTROS - 1);
+        return registros[indice];
+    }
+
+    @Benchmark
+    public void concatenacao() {
+        ConsumerRecord<String, String> registro = proximo();
+        logger.info(
+                "Key: " + registro.key() + ", Value: " + registro.value() + "\n" +
+                "Partition: " + registro.partition() + ", Offset: " + registro.offset()
+        );
+    }
+
+    @Benchmark
+    public void processadorLog() {
+        processadorLog.processar(proximo());
+    }
+
+    @Benchmark
+    public void processadorAmostrado() {
+        processadorAmostrado.processar(proximo());
+    }
+}
@@ -0,0 +1,113 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import kafka.metrics.KafkaMetricsReporter;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServer;
+import org.apache.kafka.common.utils.Time;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import scala.Option;
+import scala.collection.JavaConverters;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/* Um ZooKeeper e um broker Kafka de um nó só, dentro da mesma JVM, para testes de ponta a ponta sem instalar nada
+ *
+ * Os dois escutam em portas livres do 127.0.0.1 e guardam os dados em diretórios temporários, apagados no close().
+ * Os tópicos internos (offsets e transações) ficam com réplica 1, e o primeiro rebalanceamento do grupo não espera
+ * outros membros. O resto é a configuração padrão do broker, que pode ser trocada pelos ajustes do construtor.
+ *
+ * Os números servem para comparar uma mudança com a anterior na mesma máquina: o broker divide a CPU com
+ * o Produtor e o Consumidor, e o disco é o do diretório temporário.
+ */
+public class BrokerEmbutido implements Closeable {
+
+    private final Path diretorio;
+    private final ZooKeeperServer zooKeeper;
+    private final NIOServerCnxnFactory conexoesZooKeeper;
+    private final KafkaServer broker;
+    private final String bootstrapServers;
+
+    public BrokerEmbutido(Properties ajustes) throws IOException, InterruptedException {
+        diretorio = Files.createTempDirectory("broker-embutido");
+        ZooKeeperServer servidorZooKeeper = null;
+        NIOServerCnxnFactory conexoes = null;
+        try {
+            File dadosZooKeeper = diretorio.resolve("zookeeper").toFile();
+            servidorZooKeeper = new ZooKeeperServer(dadosZooKeeper, dadosZooKeeper, 500);
+            conexoes = new NIOServerCnxnFactory();
+            conexoes.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+            conexoes.startup(servidorZooKeeper);
+
+            bootstrapServers = "127.0.0.1:" + portaLivre();
+            Properties propriedades = new Properties();
+            propriedades.put("broker.id", "0");
+            propriedades.put("zookeeper.connect", "127.0.0.1:" + conexoes.getLocalPort());
+            propriedades.put("listeners", "PLAINTEXT://" + bootstrapServers);
+            propriedades.put("log.dirs", diretorio.resolve("kafka").toString());
+            propriedades.put("offsets.topic.replication.factor", "1");
+            propriedades.put("offsets.topic.num.partitions", "1");
+            propriedades.put("transaction.state.log.replication.factor", "1");
+            propriedades.put("transaction.state.log.min.isr", "1");
+            propriedades.put("group.initial.rebalance.delay.ms", "0");
+            propriedades.putAll(ajustes);
+
+            /* O KafkaServer direto, e não o KafkaServerStartable: este encerra a JVM quando o startup() falha,
+             * e aquele desfaz o que já tinha iniciado e lança a exceção, para o ZooKeeper ser parado aqui embaixo
+             */
+            broker = new KafkaServer(KafkaConfig.fromProps(propriedades), Time.SYSTEM, Option.<String>empty(),
+                    JavaConverters.asScalaBuffer(Collections.<KafkaMetricsReporter>emptyList()));
+            broker.startup();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (conexoes != null) {
+                conexoes.shutdown();
+            }
+            if (servidorZooKeeper != null) {
+                servidorZooKeeper.shutdown();
+            }
+            apagar(diretorio);
+            throw e;
+        }
+        zooKeeper = servidorZooKeeper;
+        conexoesZooKeeper = conexoes;
+    }
+
+    public String getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            broker.shutdown();
+            broker.awaitShutdown();
+            conexoesZooKeeper.shutdown();
+            zooKeeper.shutdown();
+        } finally {
+            apagar(diretorio);
+        }
+    }
+
+    // O broker só aceita uma porta fixa no listener, então pedimos uma livre ao sistema e a liberamos logo em seguida
+    private static int portaLivre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void apagar(Path diretorio) throws IOException {
+        try (Stream<Path> caminhos = Files.walk(diretorio)) {
+            caminhos.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.colunar.LoteColunar;
+import com.flaviodavim.initialkafka.colunar.PoolLotes;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* Um filtro com soma sobre um poll inteiro: a soma do preço dos registros de uma categoria
+ *
+ * O valor de cada registro tem o preço (long) na posição 0, a categoria (int) na posição 8 e preenchimento até
+ * tamanhoValor bytes; 1 em cada CATEGORIAS registros passa no filtro. Cada operação trata um poll com registros
+ * registros, espalhados em PARTICOES partições.
+ *      -> iteradorBytes: o for sobre o ConsumerRecords com o ByteArrayDeserializer, lendo os campos do byte[]
+ *      -> iteradorByteBuffer: o mesmo com o DesserializadorByteBuffer dos Consumidores de exemplo
+ *      -> colunar: o poll convertido num LoteColunar do pool a cada operação, e o for sobre as colunas
+ *      -> colunarConvertido: só o for sobre um lote já convertido, o custo do processador
+ *
+ * Com -prof gc (ligado por padrão no ExecutarBenchmarks) o gc.alloc.rate.norm do colunar mostra
+ * que a conversão não aloca depois que o lote do pool cresceu até o tamanho do poll.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ColunarBenchmark {
+
+    private static final int PARTICOES = 6;
+    private static final int CATEGORIAS = 8;
+    private static final int CATEGORIA_FILTRADA = 3;
+
+    @Param({"500", "5000"})
+    int registros;
+
+    @Param({"64"})
+    int tamanhoValor;
+
+    private ConsumerRecords<byte[], byte[]> loteBytes;
+    private ConsumerRecords<ByteBuffer, ByteBuffer> loteByteBuffer;
+    private PoolLotes pool;
+    private LoteColunar convertido;
+
+    @Setup
+    public void preparar() {
+        Random aleatorio = new Random(42);
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> porParticao =
+                new HashMap<TopicPartition, List<ConsumerRecord<byte[], byte[]>>>();
+        Map<TopicPartition, List<ConsumerRecord<ByteBuffer, ByteBuffer>>> porParticaoBuffer =
+                new HashMap<TopicPartition, List<ConsumerRecord<ByteBuffer, ByteBuffer>>>();
+        for (int i = 0; i < registros; i++) {
+            int particao = i % PARTICOES;
+            TopicPartition topicPartition = new TopicPartition(Dados.TOPICO, particao);
+            byte[] chave = ByteBuffer.allocate(8).putLong(0, i).array();
+            byte[] valor = new byte[tamanhoValor];
+            ByteBuffer.wrap(valor).putLong(0, 1 + aleatorio.nextInt(1000)).putInt(8, aleatorio.nextInt(CATEGORIAS));
+            List<ConsumerRecord<byte[], byte[]>> lista = porParticao.get(topicPartition);
+            List<ConsumerRecord<ByteBuffer, ByteBuffer>> listaBuffer = porParticaoBuffer.get(topicPartition);
+            if (lista == null) {
+                lista = new ArrayList<ConsumerRecord<byte[], byte[]>>();
+                listaBuffer = new ArrayList<ConsumerRecord<ByteBuffer, ByteBuffer>>();
+                porParticao.put(topicPartition, lista);
+                porParticaoBuffer.put(topicPartition, listaBuffer);
+            }
+            long offset = i / PARTICOES;
+            lista.add(new ConsumerRecord<byte[], byte[]>(Dados.TOPICO, particao, offset, chave, valor));
+            listaBuffer.add(new ConsumerRecord<ByteBuffer, ByteBuffer>(Dados.TOPICO, particao, offset,
+                    ByteBuffer.wrap(chave.clone()), ByteBuffer.wrap(valor.clone())));
+        }
+        loteBytes = new ConsumerRecords<byte[], byte[]>(porParticao);
+        loteByteBuffer = new ConsumerRecords<ByteBuffer, ByteBuffer>(porParticaoBuffer);
+        pool = new PoolLotes();
+        convertido = pool.converter(loteBytes);
+        if (somar(convertido) != iteradorBytes()) {
+            throw new IllegalStateException("O lote colunar não tem os mesmos valores do ConsumerRecords");
+        }
+    }
+
+    @TearDown
+    public void liberar() {
+        convertido.close();
+    }
+
+    @Benchmark
+    public long iteradorBytes() {
+        long soma = 0;
+        for (ConsumerRecord<byte[], byte[]> registro : loteBytes) {
+            byte[] valor = registro.value();
+            if (LoteColunar.lerInt(valor, 8) == CATEGORIA_FILTRADA) {
+                soma += LoteColunar.lerLong(valor, 0);
+            }
+        }
+        return soma;
+    }
+
+    @Benchmark
+    public long iteradorByteBuffer() {
+        long soma = 0;
+        for (ConsumerRecord<ByteBuffer, ByteBuffer> registro : loteByteBuffer) {
+            ByteBuffer valor = registro.value();
+            if (valor.getInt(valor.position() + 8) == CATEGORIA_FILTRADA) {
+                soma += valor.getLong(valor.position());
+            }
+        }
+        return soma;
+    }
+
+    @Benchmark
+    public long colunar() {
+        try (LoteColunar lote = pool.converter(loteBytes)) {
+            return somar(lote);
+        }
+    }
+
+    @Benchmark
+    public long colunarConvertido() {
+        return somar(convertido);
+    }
+
+    private static long somar(LoteColunar lote) {
+        byte[] valores = lote.getValores();
+        int[] inicios = lote.getInicioValores();
+        long soma = 0;
+        for (int i = 0; i < lote.tamanho(); i++) {
+            int inicio = inicios[i];
+            if (LoteColunar.lerInt(valores, inicio + 8) == CATEGORIA_FILTRADA) {
+                soma += LoteColunar.lerLong(valores, inicio);
+            }
+        }
+        return soma;
+    }
+}
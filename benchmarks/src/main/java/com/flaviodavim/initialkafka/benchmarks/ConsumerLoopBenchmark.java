@@ -0,0 +1,59 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/* Mede o loop de tratamento dos registros do ConsumerDemo para um lote de poll
+ *
+ * O log roda com o nível WARN, como em produção, então o logger.info não escreve nada,
+ * mas a concatenação da mensagem continua sendo feita para cada registro.
+ * O resultado é o tempo por lote; divida por tamanhoLote para ter o tempo por registro.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ConsumerLoopBenchmark {
+
+    @Param({"1", "100", "500"})
+    int tamanhoLote;
+
+    @Param({"16", "256", "4096"})
+    int tamanhoPayload;
+
+    private final Logger logger = LoggerFactory.getLogger(ConsumerLoopBenchmark.class);
+
+    private ConsumerRecords<String, String> registros;
+
+    @Setup
+    public void preparar() {
+        registros = Dados.lote(tamanhoLote, tamanhoPayload, 3);
+    }
+
+    @Benchmark
+    public void loopConsumerDemo() {
+        for (ConsumerRecord<String, String> registro : registros) {
+            logger.info(
+                    "Key: " + registro.key() + ", Value: " + registro.value() + "\n" +
+                    "Partition: " + registro.partition() + ", Offset: " + registro.offset()
+            );
+        }
+    }
+}
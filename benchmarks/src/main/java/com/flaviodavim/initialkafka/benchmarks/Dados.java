@@ -0,0 +1,61 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Geração dos dados usados pelos benchmarks
+final class Dados {
+
+    static final String TOPICO = "first_topic";
+
+    private Dados() {}
+
+    static String payload(int tamanho) {
+        StringBuilder payload = new StringBuilder(tamanho);
+        String base = "Hello World! ";
+        while (payload.length() < tamanho) {
+            payload.append(base.charAt(payload.length() % base.length()));
+        }
+        return payload.toString();
+    }
+
+    // Cluster local com um único broker e o tópico dividido em numeroParticoes
+    static Cluster cluster(int numeroParticoes) {
+        Node broker = new Node(0, "127.0.0.1", 9092);
+        Node[] replicas = new Node[] {broker};
+        List<PartitionInfo> particoes = new ArrayList<PartitionInfo>();
+        for (int i = 0; i < numeroParticoes; i++) {
+            particoes.add(new PartitionInfo(TOPICO, i, broker, replicas, replicas));
+        }
+        return new Cluster("benchmark", Collections.singletonList(broker), particoes,
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+
+    // Um lote de poll com tamanhoLote registros distribuídos entre numeroParticoes
+    static ConsumerRecords<String, String> lote(int tamanhoLote, int tamanhoPayload, int numeroParticoes) {
+        String valor = payload(tamanhoPayload);
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> registros =
+                new HashMap<TopicPartition, List<ConsumerRecord<String, String>>>();
+        for (int i = 0; i < tamanhoLote; i++) {
+            int particao = i % numeroParticoes;
+            TopicPartition topicPartition = new TopicPartition(TOPICO, particao);
+            List<ConsumerRecord<String, String>> lista = registros.get(topicPartition);
+            if (lista == null) {
+                lista = new ArrayList<ConsumerRecord<String, String>>();
+                registros.put(topicPartition, lista);
+            }
+            lista.add(new ConsumerRecord<String, String>(TOPICO, particao, i / numeroParticoes, "Id_" + (i % 10), valor));
+        }
+        return new ConsumerRecords<String, String>(registros);
+    }
+}
@@ -0,0 +1,124 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.deduplicacao.ConjuntoVistos;
+import com.flaviodavim.initialkafka.deduplicacao.Hash64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* Custo por registro de verificar e guardar o id de um registro já processado
+ *      -> hashSet: HashSet<Long> com todos os ids, o jeito comum; cada id vira um Long e uma entrada no heap
+ *      -> conjunto: ConjuntoVistos, com os recentes exatos e o filtro de Bloom fora do heap
+ *
+ * A sequência tem numeroIds ids, e um em cada dez é a reentrega de um id visto ~1000 registros antes,
+ * como depois de um rebalanceamento. Quando a sequência dá a volta, as duas estruturas recomeçam vazias.
+ *
+ * No fim é impressa a memória das duas com numeroIds ids e a taxa de falso positivo medida do ConjuntoVistos
+ * (ids nunca vistos respondidos como suspeitos), ao lado da estimada.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DeduplicacaoBenchmark {
+
+    private static final int DISTANCIA_REENTREGA = 1000;
+    private static final int CAPACIDADE_EXATA = 100000;
+    private static final double TAXA_FALSO_POSITIVO = 0.001;
+    private static final int SONDAGENS = 1000000;
+
+    @Param({"1000000"})
+    int numeroIds;
+
+    private long[] ids;
+    private int proximo;
+
+    private Set<Long> hashSet;
+    private ConjuntoVistos conjunto;
+    private long repetidos;
+
+    @Setup
+    public void preparar() {
+        ids = new long[numeroIds];
+        for (int i = 0; i < numeroIds; i++) {
+            ids[i] = i % 10 == 9 && i >= DISTANCIA_REENTREGA ? ids[i - DISTANCIA_REENTREGA] : Hash64.misturar(i);
+        }
+        hashSet = new HashSet<Long>();
+        conjunto = criarConjunto();
+    }
+
+    private ConjuntoVistos criarConjunto() {
+        // Janela de uma hora, então o filtro não gira durante a medição
+        return new ConjuntoVistos(TimeUnit.HOURS.toMillis(1), numeroIds, TAXA_FALSO_POSITIVO, CAPACIDADE_EXATA);
+    }
+
+    private int avancar() {
+        int indice = proximo;
+        proximo = indice + 1 == numeroIds ? 0 : indice + 1;
+        return indice;
+    }
+
+    @TearDown(Level.Trial)
+    public void relatar() {
+        ConjuntoVistos cheio = criarConjunto();
+        for (int i = 0; i < numeroIds; i++) {
+            cheio.adicionar(Hash64.misturar(i));
+        }
+        long suspeitos = 0;
+        for (int i = 0; i < SONDAGENS; i++) {
+            // Ids fora da faixa adicionada, então nunca vistos
+            if (cheio.verificar(Hash64.misturar(numeroIds + i)) != ConjuntoVistos.Verificacao.NOVO) {
+                suspeitos++;
+            }
+        }
+
+        // Entrada do HashMap (32 bytes) + Long (16) + 8 da tabela, com a tabela em carga 0.75 e oops comprimidos
+        long bytesHashSet = (long) numeroIds * (32 + 16) + Integer.highestOneBit(numeroIds * 4 / 3) * 2L * 4;
+        System.out.println("\nCom " + numeroIds + " ids: hashSet ~" + bytesHashSet / 1024 + " KiB no heap, conjunto "
+                + cheio.getBytes() / 1024 + " KiB fora do heap");
+        System.out.println("Falso positivo: medido " + String.format("%.5f", (double) suspeitos / SONDAGENS)
+                + ", estimado " + String.format("%.5f", cheio.taxaFalsoPositivoEstimada())
+                + " (" + repetidos + " repetidos durante a medição)");
+    }
+
+    @Benchmark
+    public boolean hashSet() {
+        int i = avancar();
+        if (i == 0) {
+            hashSet = new HashSet<Long>();
+        }
+        return hashSet.add(ids[i]);
+    }
+
+    @Benchmark
+    public ConjuntoVistos.Verificacao conjunto() {
+        int i = avancar();
+        if (i == 0) {
+            conjunto = criarConjunto();
+        }
+        long id = ids[i];
+        ConjuntoVistos.Verificacao verificacao = conjunto.verificar(id);
+        if (verificacao == ConjuntoVistos.Verificacao.NOVO) {
+            conjunto.adicionar(id);
+        } else {
+            repetidos++;
+        }
+        return verificacao;
+    }
+}
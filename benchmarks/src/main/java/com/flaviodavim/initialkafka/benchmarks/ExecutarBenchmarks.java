@@ -0,0 +1,41 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* Executa os benchmarks e grava o resultado em JSON
+ *
+ * Aceita os mesmos argumentos do JMH, por exemplo:
+ *      java -jar target/benchmarks.jar ProducerEnvio -p tamanhoPayload=16
+ * Se -rf e -rff não forem informados, o resultado vai para jmh-result-<versão>.json,
+ * o que permite comparar o arquivo de uma versão com o da anterior.
+ * Sem -prof, o profiler de GC é ligado para que o JSON também traga os bytes alocados por operação.
+ */
+public class ExecutarBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions linhaDeComando = new CommandLineOptions(args);
+
+        String versao = ExecutarBenchmarks.class.getPackage().getImplementationVersion();
+        if (versao == null) {
+            versao = "dev";
+        }
+
+        ChainedOptionsBuilder opcoes = new OptionsBuilder().parent(linhaDeComando);
+        if (!linhaDeComando.getResultFormat().hasValue()) {
+            opcoes.resultFormat(ResultFormatType.JSON);
+        }
+        if (!linhaDeComando.getResult().hasValue()) {
+            opcoes.result("jmh-result-" + versao + ".json");
+        }
+        if (linhaDeComando.getProfilers().isEmpty()) {
+            opcoes.addProfiler(GCProfiler.class);
+        }
+
+        new Runner(opcoes.build()).run();
+    }
+}
@@ -0,0 +1,211 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.Histograma;
+import com.flaviodavim.initialkafka.metricas.Instantaneo;
+import com.flaviodavim.initialkafka.produtor.GeradorCarga;
+import com.flaviodavim.initialkafka.produtor.ProdutorAssincrono;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TopicExistsException;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/* Teste de ponta a ponta: um GeradorCarga envia para um tópico e um Consumidor na mesma JVM lê de volta
+ *
+ * Os argumentos são pares chave=valor com as mesmas chaves do kafka.properties, por exemplo:
+ *      java -cp target/benchmarks.jar com.flaviodavim.initialkafka.benchmarks.ExecutarFimAFim \
+ *          carga.registros=500000 carga.taxa=50000 carga.tamanho.distribuicao=exponencial perfil=throughput
+ * Sem bootstrap.servers, o teste sobe um BrokerEmbutido; as chaves broker.* vão para ele (ex: broker.num.io.threads=4).
+ * Também valem particoes (do tópico, criado se não existir) e aquecimento (fração inicial dos registros fora da latência).
+ *
+ * A latência vai do momento programado de cada registro no gerador até o Consumidor recebê-lo,
+ * então inclui o tempo parado no Produtor quando ele não acompanha a taxa.
+ * Sem taxa (carga.taxa=0) o gerador enche o Produtor e a latência mede quase só a fila; a vazão é o número útil.
+ */
+public class ExecutarFimAFim {
+
+    private static final String PREFIXO_BROKER = "broker.";
+
+    public static void main(String[] args) throws Exception {
+        Properties propriedades = new Properties();
+        propriedades.setProperty("carga.topico", "fim_a_fim");
+        propriedades.setProperty("carga.registros", "200000");
+        propriedades.setProperty("carga.taxa", "20000");
+        for (String argumento : args) {
+            int separador = argumento.indexOf('=');
+            if (separador <= 0) {
+                throw new IllegalArgumentException("Argumento deve ser chave=valor: " + argumento);
+            }
+            propriedades.setProperty(argumento.substring(0, separador), argumento.substring(separador + 1));
+        }
+
+        BrokerEmbutido broker = null;
+        if (!propriedades.containsKey("bootstrap.servers")) {
+            Properties ajustesBroker = new Properties();
+            for (String chave : propriedades.stringPropertyNames()) {
+                if (chave.startsWith(PREFIXO_BROKER)) {
+                    ajustesBroker.setProperty(chave.substring(PREFIXO_BROKER.length()), propriedades.getProperty(chave));
+                }
+            }
+            broker = new BrokerEmbutido(ajustesBroker);
+            propriedades.setProperty("bootstrap.servers", broker.getBootstrapServers());
+        }
+
+        try {
+            executar(ConfiguracaoKafka.de(propriedades));
+        } finally {
+            if (broker != null) {
+                broker.close();
+            }
+        }
+    }
+
+    private static void executar(ConfiguracaoKafka configuracao) throws Exception {
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorLong.class, SerializadorByteBuffer.class,
+                ProdutorAssincrono.configurarOrdenacao(new Properties()));
+        ProdutorAssincrono<Long, ByteBuffer> produtorAssincrono = new ProdutorAssincrono<Long, ByteBuffer>(
+                produtor, configuracao.getInt("carga.em.voo", 1000));
+        GeradorCarga gerador = GeradorCarga.configurado(configuracao, produtorAssincrono);
+        gerador.setSemente(configuracao.getLong("carga.semente", 42L));
+
+        criarTopico(configuracao, gerador.getTopico(), configuracao.getInt("particoes", 6));
+
+        long total = configuracao.getLong("carga.registros", 100000L);
+        long aquecimento = (long) (total * Double.parseDouble(configuracao.get("aquecimento", "0.1")));
+        // Um grupo novo a cada execução, para ler só o que esta execução enviou
+        Properties ajustesConsumidor = new Properties();
+        ajustesConsumidor.setProperty("auto.offset.reset", "latest");
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor("fim-a-fim-" + System.currentTimeMillis(),
+                DesserializadorLong.class, DesserializadorByteBuffer.class, ajustesConsumidor);
+        LeitorLatencia leitor = new LeitorLatencia(consumidor, gerador.getTopico(), total, aquecimento);
+        Thread threadConsumidor = new Thread(leitor, "fim-a-fim-consumidor");
+        threadConsumidor.start();
+
+        // O gerador só começa com as partições atribuídas, senão a entrada no grupo apareceria como latência
+        if (!leitor.atribuido.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("O Consumidor não recebeu partições em 60 s");
+        }
+
+        long inicio = System.nanoTime();
+        gerador.run();
+        produtorAssincrono.aguardarConclusao();
+        double segundosProducao = (System.nanoTime() - inicio) / 1e9;
+
+        // Um registro perdido não pode travar o teste para sempre
+        threadConsumidor.join(TimeUnit.SECONDS.toMillis(configuracao.getLong("espera.segundos", 60L)));
+        leitor.encerrado = true;
+        threadConsumidor.join();
+        produtorAssincrono.close();
+
+        double segundosConsumo = (leitor.fim - inicio) / 1e9;
+        Instantaneo latencias = leitor.latencias.instantaneo();
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Produção: %d registros em %.2f s, %.0f registros/s, %.2f MB/s, %d falhas",
+                gerador.getEnviados(), segundosProducao, gerador.getEnviados() / segundosProducao,
+                gerador.getBytesEnviados() / segundosProducao / (1024 * 1024), produtorAssincrono.getFalhas()));
+        System.out.println(String.format(Locale.ROOT, "Consumo:  %d registros em %.2f s, %.0f registros/s, %.2f MB/s",
+                leitor.recebidos, segundosConsumo, leitor.recebidos / segundosConsumo,
+                leitor.bytes / segundosConsumo / (1024 * 1024)));
+        System.out.println(String.format(Locale.ROOT,
+                "Latência (%d registros depois do aquecimento): p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                latencias.getContagem(), latencias.percentil(50) / 1e6, latencias.percentil(99) / 1e6,
+                latencias.percentil(99.9) / 1e6, latencias.getMaximo() / 1e6));
+        if (leitor.recebidos < gerador.getEnviados()) {
+            System.out.println("Faltaram " + (gerador.getEnviados() - leitor.recebidos) + " registros no Consumidor");
+        }
+    }
+
+    private static void criarTopico(ConfiguracaoKafka configuracao, String topico, int particoes) throws Exception {
+        Properties propriedades = new Properties();
+        propriedades.setProperty(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, configuracao.get("bootstrap.servers", null));
+        try (AdminClient admin = AdminClient.create(propriedades)) {
+            admin.createTopics(Collections.singleton(new NewTopic(topico, particoes, (short) 1))).all().get();
+        } catch (ExecutionException e) {
+            // Com um broker externo o tópico pode ter ficado de outra execução; o número de partições é o que já existe
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                throw e;
+            }
+        }
+    }
+
+    // Lê até receber o total e registra a latência de cada registro depois do aquecimento
+    static final class LeitorLatencia implements Runnable {
+
+        private final KafkaConsumer<Long, ByteBuffer> consumidor;
+        private final String topico;
+        private final long total;
+        private final long aquecimento;
+
+        final CountDownLatch atribuido = new CountDownLatch(1);
+        final Histograma latencias = new Histograma();
+        volatile boolean encerrado;
+        volatile long recebidos;
+        volatile long bytes;
+        volatile long fim;
+
+        LeitorLatencia(KafkaConsumer<Long, ByteBuffer> consumidor, String topico, long total, long aquecimento) {
+            this.consumidor = consumidor;
+            this.topico = topico;
+            this.total = total;
+            this.aquecimento = aquecimento;
+        }
+
+        @Override
+        public void run() {
+            try {
+                consumidor.subscribe(Collections.singleton(topico), new ConsumerRebalanceListener() {
+                    public void onPartitionsRevoked(Collection<TopicPartition> particoes) {
+                    }
+
+                    public void onPartitionsAssigned(Collection<TopicPartition> particoes) {
+                        // Com offset latest, a posição precisa ser fixada antes do primeiro registro ser enviado
+                        for (TopicPartition particao : particoes) {
+                            consumidor.position(particao);
+                        }
+                        atribuido.countDown();
+                    }
+                });
+                long contagem = 0;
+                long tamanho = 0;
+                while (!encerrado && contagem < total) {
+                    ConsumerRecords<Long, ByteBuffer> registros = consumidor.poll(Duration.ofMillis(100));
+                    long agora = System.nanoTime();
+                    for (ConsumerRecord<Long, ByteBuffer> registro : registros) {
+                        if (contagem++ >= aquecimento) {
+                            latencias.registrar(agora - GeradorCarga.lerMomentoProgramado(registro.value()));
+                        }
+                        tamanho += registro.value().remaining();
+                    }
+                    if (!registros.isEmpty()) {
+                        recebidos = contagem;
+                        bytes = tamanho;
+                        fim = agora;
+                    }
+                }
+            } finally {
+                consumidor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.gravacao.GravadorSegmentos;
+import com.flaviodavim.initialkafka.metricas.Histograma;
+import com.flaviodavim.initialkafka.metricas.Instantaneo;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Gravação de um lote de poll em arquivo, até os registros estarem no disco e poderem ser commitados
+ *      -> registroARegistro: cada registro em um byte[] próprio, escrito e gravado no disco (fsync) sozinho,
+ *         o jeito comum de só commitar o que está salvo
+ *      -> fsyncPorPoll: GravadorSegmentos, com o lote montado em um buffer direto e um fsync por poll
+ *      -> fsyncAgrupado: GravadorSegmentos com um fsync a cada POLLS_POR_FSYNC polls (group commit),
+ *         como o ConsumidorGravacao faz com gravacao.fsync.ms
+ *
+ * O tempo é por registro. No fim da execução são impressos os MB/s da última iteração e a latência do commit:
+ * do momento em que o registro é escrito até o fsync que o torna durável (o offset pode ser commitado).
+ * Cada iteração grava em um diretório novo no diretório temporário, apagado no fim dela.
+ * O resultado depende muito do disco: o custo do fsync é o que separa os três.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class GravacaoBenchmark {
+
+    private static final int TAMANHO_LOTE = 500;
+    private static final int POLLS_POR_FSYNC = 8;
+    private static final TopicPartition PARTICAO = new TopicPartition(Dados.TOPICO, 0);
+
+    @Param({"100", "1024"})
+    int tamanhoValor;
+
+    private ByteBuffer valor;
+    private long proximoOffset;
+
+    private File diretorio;
+    private GravadorSegmentos gravador;
+    private FileChannel canal;
+    private long posicaoCanal;
+
+    // Início de cada poll ainda não gravado no disco, para a latência do commit
+    private final long[] inicioPendentes = new long[POLLS_POR_FSYNC];
+    private int pendentes;
+    private final Histograma latenciaCommit = new Histograma();
+
+    private long bytesIteracao;
+    private long inicioIteracao;
+    private double megabytesPorSegundo;
+
+    @Setup
+    public void preparar() {
+        byte[] bytes = new byte[tamanhoValor];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        valor = ByteBuffer.wrap(bytes);
+    }
+
+    @Setup(Level.Iteration)
+    public void iniciarIteracao() throws IOException {
+        diretorio = Files.createTempDirectory("gravacao-benchmark").toFile();
+        gravador = new GravadorSegmentos(diretorio);
+        canal = new RandomAccessFile(new File(diretorio, "por-registro.log"), "rw").getChannel();
+        posicaoCanal = 0;
+        pendentes = 0;
+        latenciaCommit.zerar();
+        bytesIteracao = 0;
+        inicioIteracao = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void encerrarIteracao() throws IOException {
+        megabytesPorSegundo = bytesIteracao / ((System.nanoTime() - inicioIteracao) / 1e9) / (1024 * 1024);
+        gravador.close();
+        canal.close();
+        apagar(diretorio);
+    }
+
+    @TearDown
+    public void relatar() {
+        Instantaneo latencia = latenciaCommit.instantaneo();
+        System.out.println(String.format(Locale.ROOT, "%nÚltima iteração: %.1f MB/s, commit p50=%.3fms p99=%.3fms max=%.3fms",
+                megabytesPorSegundo, latencia.percentil(50) / 1e6, latencia.percentil(99) / 1e6,
+                latencia.getMaximo() / 1e6));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TAMANHO_LOTE)
+    public long registroARegistro() throws IOException {
+        ConsumerRecords<ByteBuffer, ByteBuffer> lote = lote();
+        for (ConsumerRecord<ByteBuffer, ByteBuffer> registro : lote) {
+            long inicio = System.nanoTime();
+            ByteBuffer chave = registro.key();
+            ByteBuffer valor = registro.value();
+            byte[] bytes = new byte[8 + 8 + 8 + 4 + chave.remaining() + 4 + valor.remaining()];
+            ByteBuffer dados = ByteBuffer.wrap(bytes);
+            dados.putInt(bytes.length - 8).putInt(0).putLong(registro.offset()).putLong(registro.timestamp());
+            dados.putInt(chave.remaining()).put(chave.duplicate()).putInt(valor.remaining()).put(valor.duplicate());
+            dados.flip();
+            while (dados.hasRemaining()) {
+                posicaoCanal += canal.write(dados, posicaoCanal);
+            }
+            canal.force(false);
+            latenciaCommit.registrar(System.nanoTime() - inicio);
+            bytesIteracao += bytes.length;
+        }
+        return posicaoCanal;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TAMANHO_LOTE)
+    public long fsyncPorPoll() throws IOException {
+        return gravar(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TAMANHO_LOTE)
+    public long fsyncAgrupado() throws IOException {
+        return gravar(POLLS_POR_FSYNC);
+    }
+
+    private long gravar(int pollsPorFsync) throws IOException {
+        inicioPendentes[pendentes++] = System.nanoTime();
+        bytesIteracao += gravador.anexar(lote());
+        if (pendentes == pollsPorFsync) {
+            gravador.forcar();
+            long fim = System.nanoTime();
+            for (int i = 0; i < pendentes; i++) {
+                latenciaCommit.registrar(fim - inicioPendentes[i]);
+            }
+            pendentes = 0;
+        }
+        return gravador.getBytesNaoDuraveis();
+    }
+
+    // Lote de poll com offsets novos, como o Consumidor entregaria; o valor é o mesmo em todos os registros
+    private ConsumerRecords<ByteBuffer, ByteBuffer> lote() {
+        List<ConsumerRecord<ByteBuffer, ByteBuffer>> registros =
+                new ArrayList<ConsumerRecord<ByteBuffer, ByteBuffer>>(TAMANHO_LOTE);
+        for (int i = 0; i < TAMANHO_LOTE; i++) {
+            long offset = proximoOffset++;
+            ByteBuffer chave = ByteBuffer.allocate(8);
+            chave.putLong(0, offset % 1000);
+            registros.add(new ConsumerRecord<ByteBuffer, ByteBuffer>(Dados.TOPICO, 0, offset, chave, valor));
+        }
+        return new ConsumerRecords<ByteBuffer, ByteBuffer>(
+                Collections.singletonMap(PARTICAO, registros));
+    }
+
+    private static void apagar(File diretorio) {
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                if (arquivo.isDirectory()) {
+                    apagar(arquivo);
+                } else {
+                    arquivo.delete();
+                }
+            }
+        }
+        diretorio.delete();
+    }
+}
@@ -0,0 +1,87 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.metricas.Histograma;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Custo de registrar uma latência no Histograma com várias threads registrando ao mesmo tempo
+ *      -> semTrava*: o Histograma do pacote metricas, com incrementos atômicos
+ *      -> sincronizado*: os mesmos baldes protegidos por synchronized, como referência
+ *
+ * O histograma é compartilhado entre as threads, como no callback do Produtor ou nas threads do pool de consumidores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistogramaBenchmark {
+
+    private final Histograma histograma = new Histograma();
+    private final HistogramaSincronizado sincronizado = new HistogramaSincronizado();
+
+    // Latências entre 1µs e ~1ms, em nanossegundos
+    private static long latencia() {
+        return 1000 + ThreadLocalRandom.current().nextLong(1_000_000);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void semTrava1Thread() {
+        histograma.registrar(latencia());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void semTrava4Threads() {
+        histograma.registrar(latencia());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void sincronizado1Thread() {
+        sincronizado.registrar(latencia());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sincronizado4Threads() {
+        sincronizado.registrar(latencia());
+    }
+
+    // Mesma divisão de baldes do Histograma, com uma trava em volta
+    static final class HistogramaSincronizado {
+
+        private final long[] baldes = new long[3712];
+        private long soma;
+        private long maximo;
+
+        synchronized void registrar(long valor) {
+            baldes[indice(valor)]++;
+            soma += valor;
+            if (valor > maximo) {
+                maximo = valor;
+            }
+        }
+
+        private static int indice(long valor) {
+            if (valor < 128) {
+                return (int) valor;
+            }
+            int expoente = 63 - Long.numberOfLeadingZeros(valor) - 6;
+            return 128 + (expoente - 1) * 64 + (int) (valor >>> expoente) - 64;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.janelas.AgregacaoJanelas;
+import com.flaviodavim.initialkafka.janelas.ArmazemJanelas;
+import com.flaviodavim.initialkafka.janelas.DefinicaoJanela;
+import com.flaviodavim.initialkafka.janelas.ExtratorAgregacao;
+import com.flaviodavim.initialkafka.janelas.ReceptorJanela;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Custo por registro de somar em uma janela
+ *      -> hashMap: HashMap<String, Long> com a chave "chave@início", montada a cada registro como o código comum faz;
+ *         cada soma cria um Long
+ *         e as janelas fechadas são removidas todas de uma vez na virada da janela
+ *      -> armazem: ArmazemJanelas, com chave e início primitivos
+ *      -> etapa: AgregacaoJanelas.processar inteiro (janelas fixas de 1 minuto), com a trava da partição e o relógio
+ *
+ * Os registros avançam 1 ms cada, então janelas fecham e são removidas durante a medição, como no consumo real.
+ * O valor somado é o índice do registro, grande o bastante para não cair no cache de Long.
+ * Quando os registros dão a volta, as três estruturas recomeçam vazias, então o custo de crescer entra na média.
+ * Com -prof gc aparece a alocação dos Long no hashMap e nenhuma nos outros dois.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class JanelasBenchmark {
+
+    private static final int NUMERO_REGISTROS = 1 << 18;
+    private static final long TAMANHO_JANELA_MS = 60000;
+
+    @Param({"1000", "100000"})
+    int numeroChaves;
+
+    private long[] chaves;
+    private long[] inicios;
+    private ConsumerRecord<Long, Long>[] registros;
+    private int proximo;
+
+    private Map<String, Long> hashMap;
+    private ArmazemJanelas armazem;
+    private AgregacaoJanelas<Long, Long> etapa;
+    private long fechadas;
+
+    @Setup
+    public void preparar() {
+        chaves = new long[NUMERO_REGISTROS];
+        inicios = new long[NUMERO_REGISTROS];
+        @SuppressWarnings("unchecked")
+        ConsumerRecord<Long, Long>[] criados = (ConsumerRecord<Long, Long>[]) new ConsumerRecord<?, ?>[NUMERO_REGISTROS];
+        registros = criados;
+        for (int i = 0; i < NUMERO_REGISTROS; i++) {
+            chaves[i] = (i * 2654435761L) % numeroChaves;
+            inicios[i] = i - i % TAMANHO_JANELA_MS;
+            registros[i] = new ConsumerRecord<Long, Long>(Dados.TOPICO, 0, i, i, TimestampType.CREATE_TIME, 0L, 8, 8,
+                    chaves[i], (long) i);
+        }
+
+        hashMap = new HashMap<String, Long>();
+        armazem = new ArmazemJanelas(1024, TAMANHO_JANELA_MS);
+        etapa = criarEtapa();
+    }
+
+    private AgregacaoJanelas<Long, Long> criarEtapa() {
+        return new AgregacaoJanelas<Long, Long>(DefinicaoJanela.fixa(Duration.ofMillis(TAMANHO_JANELA_MS)),
+                new ExtratorAgregacao<Long, Long>() {
+                    public long chave(ConsumerRecord<Long, Long> registro) {
+                        return registro.key();
+                    }
+
+                    public long valor(ConsumerRecord<Long, Long> registro) {
+                        return registro.value();
+                    }
+                },
+                new ReceptorJanela() {
+                    public void janelaFechada(long chave, long inicio, long fim, long contagem, long soma) {
+                        fechadas += contagem;
+                    }
+                }, null);
+    }
+
+    private int avancar() {
+        int indice = proximo;
+        proximo = (indice + 1) & (NUMERO_REGISTROS - 1);
+        return indice;
+    }
+
+    @Benchmark
+    public Long hashMap() {
+        int i = avancar();
+        if (i == 0) {
+            hashMap = new HashMap<String, Long>();
+        } else if (i % TAMANHO_JANELA_MS == 0) {
+            hashMap.clear();
+        }
+        String chave = chaves[i] + "@" + inicios[i];
+        Long atual = hashMap.get(chave);
+        Long novo = atual == null ? i : atual + i;
+        hashMap.put(chave, novo);
+        return novo;
+    }
+
+    @Benchmark
+    public long armazem() {
+        int i = avancar();
+        if (i == 0) {
+            armazem = new ArmazemJanelas(1024, TAMANHO_JANELA_MS);
+        }
+        armazem.somar(chaves[i], inicios[i], i);
+        if (i >= armazem.getMenorFim()) {
+            armazem.removerFechadas(i, null);
+        }
+        return armazem.tamanho();
+    }
+
+    @Benchmark
+    public long etapa() {
+        int i = avancar();
+        if (i == 0) {
+            etapa = criarEtapa();
+        }
+        etapa.processar(registros[i]);
+        return fechadas;
+    }
+}
@@ -0,0 +1,135 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.consumidor.ModoExecucao;
+import com.flaviodavim.initialkafka.consumidor.ModoOrdenacao;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* PipelineConsumo com threads de plataforma e virtuais, com um processador que espera I/O
+ *
+ * Cada registro simula uma chamada bloqueante de latenciaIoMicros (ex: HTTP ou banco de dados).
+ * O pipeline roda no modo CHAVE, com faixasPorParticao para ocupar toda a concorrência,
+ * e os registros vêm de um MockConsumer, então o tempo é só o do pipeline e do processador.
+ *
+ * O resultado é o tempo por registro. O limite teórico é latenciaIoMicros / concorrencia.
+ * O modo virtual precisa de uma JVM 21+ (ex: JAVA_HOME apontando para ela no java -jar). Numa JVM mais antiga
+ * o ModoExecucao lança IllegalStateException e o modo virtual falha no setup. O início de cada medição mostra o tipo de thread usado e a versão da JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ModoExecucaoBenchmark {
+
+    private static final int REGISTROS = 2000;
+    private static final int PARTICOES = 4;
+
+    @Param({"plataforma", "virtual"})
+    String modo;
+
+    @Param({"16", "256"})
+    int concorrencia;
+
+    @Param({"1000"})
+    long latenciaIoMicros;
+
+    private ModoExecucao modoExecucao;
+    private List<TopicPartition> particoes;
+    private List<ConsumerRecord<Long, Long>> registros;
+
+    @Setup
+    public void preparar() {
+        modoExecucao = ModoExecucao.deNome(modo);
+        String versao = System.getProperty("java.version");
+        // Falha aqui, e não na primeira medição, quando a JVM não tem threads virtuais
+        modoExecucao.criarExecutor(1, "verificacao").shutdown();
+        System.out.println("\nModo " + modo + ": threads "
+                + (modoExecucao == ModoExecucao.VIRTUAL ? "virtuais" : "de plataforma") + ", Java " + versao);
+        particoes = new ArrayList<TopicPartition>();
+        for (int p = 0; p < PARTICOES; p++) {
+            particoes.add(new TopicPartition("benchmark", p));
+        }
+        registros = new ArrayList<ConsumerRecord<Long, Long>>(REGISTROS);
+        for (int i = 0; i < REGISTROS; i++) {
+            // A chave é o offset, para os registros de cada partição se espalharem por todas as faixas dela
+            registros.add(new ConsumerRecord<Long, Long>("benchmark", i % PARTICOES, i / PARTICOES, (long) (i / PARTICOES), (long) i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void processar() throws InterruptedException {
+        ConsumidorSimulado consumidor = new ConsumidorSimulado();
+        consumidor.assign(particoes);
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : particoes) {
+            inicios.put(particao, 0L);
+        }
+        consumidor.updateBeginningOffsets(inicios);
+        for (ConsumerRecord<Long, Long> registro : registros) {
+            consumidor.addRecord(registro);
+        }
+
+        final CountDownLatch concluidos = new CountDownLatch(REGISTROS);
+        final long latenciaNanos = TimeUnit.MICROSECONDS.toNanos(latenciaIoMicros);
+        PipelineConsumo<Long, Long> pipeline = new PipelineConsumo<Long, Long>(consumidor,
+                registro -> {
+                    LockSupport.parkNanos(latenciaNanos);
+                    concluidos.countDown();
+                },
+                modoExecucao, concorrencia, REGISTROS);
+        pipeline.setModoOrdenacao(ModoOrdenacao.CHAVE);
+        pipeline.setFaixasPorParticao(Math.max(1, concorrencia / PARTICOES));
+        pipeline.setTempoPoll(Duration.ofMillis(1));
+
+        Thread threadPoll = new Thread(pipeline, "benchmark-poll");
+        threadPoll.start();
+        concluidos.await();
+        pipeline.encerrar();
+        threadPoll.join();
+    }
+
+    // O MockConsumer volta na hora de um poll vazio; aqui ele espera o tempo do poll, como o KafkaConsumer
+    static final class ConsumidorSimulado extends MockConsumer<Long, Long> {
+
+        ConsumidorSimulado() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public ConsumerRecords<Long, Long> poll(Duration tempo) {
+            ConsumerRecords<Long, Long> lote = super.poll(tempo);
+            if (lote.isEmpty()) {
+                LockSupport.parkNanos(tempo.toNanos());
+            }
+            return lote;
+        }
+    }
+}
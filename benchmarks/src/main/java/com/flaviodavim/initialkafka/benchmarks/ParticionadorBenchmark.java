@@ -0,0 +1,124 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.metricas.MetricasParticionamento;
+import com.flaviodavim.initialkafka.produtor.ParticionadorChavesQuentes;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* Custo por registro de escolher a partição
+ *      -> padrao: DefaultPartitioner do Kafka (murmur2 da chave, rodízio sem chave)
+ *      -> quentes: ParticionadorChavesQuentes, com o count-min sketch a cada registro
+ *      -> quentesComMetricas: o mesmo, contando os registros por partição no MetricasParticionamento
+ *
+ * As chaves saem de 4096 chaves já serializadas; com distribuicao=quente, 1 em cada 10 registros usa a mesma chave,
+ * o que faz o particionador detectá-la e espalhá-la. Os benchmarks semChave comparam o rodízio com o sticky.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ParticionadorBenchmark {
+
+    private static final int NUMERO_CHAVES = 4096;
+
+    @Param({"uniforme", "quente"})
+    String distribuicao;
+
+    private Cluster cluster;
+    private DefaultPartitioner padrao;
+    private ParticionadorChavesQuentes quentes;
+    private ParticionadorChavesQuentes quentesComMetricas;
+    private ParticionadorChavesQuentes rodizio;
+    private String[] chaves;
+    private byte[][] chavesSerializadas;
+    private byte[] valor;
+    private int proxima;
+
+    @Setup
+    public void preparar() {
+        cluster = Dados.cluster(6);
+        padrao = new DefaultPartitioner();
+
+        Map<String, Object> configuracao = new HashMap<String, Object>();
+        configuracao.put(ParticionadorChavesQuentes.CONFIG_ESPALHAR_QUENTES, "true");
+        quentes = new ParticionadorChavesQuentes();
+        quentes.configure(configuracao);
+
+        configuracao.put(ParticionadorChavesQuentes.CONFIG_METRICAS, new MetricasParticionamento("benchmark"));
+        quentesComMetricas = new ParticionadorChavesQuentes();
+        quentesComMetricas.configure(configuracao);
+
+        configuracao.remove(ParticionadorChavesQuentes.CONFIG_METRICAS);
+        configuracao.put(ParticionadorChavesQuentes.CONFIG_STICKY, "false");
+        rodizio = new ParticionadorChavesQuentes();
+        rodizio.configure(configuracao);
+
+        Random aleatorio = new Random(42);
+        chaves = new String[NUMERO_CHAVES];
+        chavesSerializadas = new byte[NUMERO_CHAVES][];
+        for (int i = 0; i < NUMERO_CHAVES; i++) {
+            boolean quente = distribuicao.equals("quente") && aleatorio.nextInt(10) == 0;
+            chaves[i] = quente ? "Id_quente" : "Id_" + aleatorio.nextInt(1000000);
+            chavesSerializadas[i] = chaves[i].getBytes(StandardCharsets.UTF_8);
+        }
+        valor = Dados.payload(100).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int avancar() {
+        int indice = proxima;
+        proxima = (indice + 1) & (NUMERO_CHAVES - 1);
+        return indice;
+    }
+
+    @Benchmark
+    public int padrao() {
+        int i = avancar();
+        return padrao.partition(Dados.TOPICO, chaves[i], chavesSerializadas[i], null, valor, cluster);
+    }
+
+    @Benchmark
+    public int quentes() {
+        int i = avancar();
+        return quentes.partition(Dados.TOPICO, chaves[i], chavesSerializadas[i], null, valor, cluster);
+    }
+
+    @Benchmark
+    public int quentesComMetricas() {
+        int i = avancar();
+        return quentesComMetricas.partition(Dados.TOPICO, chaves[i], chavesSerializadas[i], null, valor, cluster);
+    }
+
+    @Benchmark
+    public int semChavePadrao() {
+        return padrao.partition(Dados.TOPICO, null, null, null, valor, cluster);
+    }
+
+    @Benchmark
+    public int semChaveRodizio() {
+        return rodizio.partition(Dados.TOPICO, null, null, null, valor, cluster);
+    }
+
+    @Benchmark
+    public int semChaveSticky() {
+        return quentes.partition(Dados.TOPICO, null, null, null, valor, cluster);
+    }
+}
@@ -0,0 +1,310 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.consumidor.ConsumidorAdaptativo;
+import com.flaviodavim.initialkafka.consumidor.ControladorPoll;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* Tempo para consumir uma carga em rajadas com o poll fixo e com o ConsumidorAdaptativo
+ *
+ * Os registros chegam em rajadas (rajada registros por partição a cada periodoRajadaMs), e em cada rajada
+ * uma parte dos registros é pesada: custa custoPesadoMicros em vez de custoRegistroMicros.
+ * Um MockConsumer entrega no máximo MAX_POLL_RECORDS por poll e simula o max.poll.interval.ms:
+ * se o intervalo entre dois polls passar de intervaloMaximoPollMs, o Consumidor é tirado do grupo.
+ * Como no KafkaConsumer, o commit do ouvinte falha (CommitFailedException), as partições voltam para o último commit
+ * e a volta ao grupo custa reentradaMs.
+ * O commit feito logo depois do lote longo ainda é aceito, o que favorece o modo fixo: no KafkaConsumer ele falharia,
+ * o lote seria processado de novo e, com os mesmos registros pesados, o Consumidor poderia sair do grupo para sempre.
+ *
+ *      -> fixo: o laço do ConsumerDemo, com poll de 100 ms e o lote inteiro processado antes do próximo poll
+ *      -> adaptativo: o ConsumidorAdaptativo, com lotes do tamanho que cabe em metade do intervalo
+ *
+ * No fim de cada rodada aparecem as saídas do grupo, os registros processados de novo e os polls vazios.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class PollAdaptativoBenchmark {
+
+    private static final String TOPICO = "benchmark";
+    private static final int PARTICOES = 4;
+    private static final int REGISTROS_POR_PARTICAO = 2000;
+    private static final int MAX_POLL_RECORDS = 500;
+
+    @Param({"fixo", "adaptativo"})
+    String modo;
+
+    @Param({"500"})
+    int rajada;
+
+    @Param({"100"})
+    long periodoRajadaMs;
+
+    // Fração inicial de cada rajada com registros pesados
+    @Param({"0.2"})
+    double fracaoPesada;
+
+    @Param({"20"})
+    long custoRegistroMicros;
+
+    @Param({"1000"})
+    long custoPesadoMicros;
+
+    @Param({"200"})
+    long intervaloMaximoPollMs;
+
+    @Param({"100"})
+    long reentradaMs;
+
+    private List<TopicPartition> particoes;
+    private long saidas;
+    private long duplicados;
+    private long pollsVazios;
+    private long operacoes;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        particoes = new ArrayList<TopicPartition>();
+        for (int p = 0; p < PARTICOES; p++) {
+            particoes.add(new TopicPartition(TOPICO, p));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void relatar() {
+        System.out.println("\n" + operacoes + " rodadas: " + saidas + " saídas do grupo, " + duplicados
+                + " registros processados de novo, " + pollsVazios + " polls vazios");
+    }
+
+    @Benchmark
+    public void consumir() throws InterruptedException {
+        final ConsumidorRajadas consumidor = new ConsumidorRajadas();
+        consumidor.assign(particoes);
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : particoes) {
+            inicios.put(particao, 0L);
+        }
+        consumidor.updateBeginningOffsets(inicios);
+
+        final CountDownLatch concluidas = new CountDownLatch(PARTICOES);
+        final long[] maioresOffsets = new long[PARTICOES];
+        Arrays.fill(maioresOffsets, -1);
+        final long custoNanos = TimeUnit.MICROSECONDS.toNanos(custoRegistroMicros);
+        final long custoPesadoNanos = TimeUnit.MICROSECONDS.toNanos(custoPesadoMicros);
+        final long pesadosPorRajada = (long) (rajada * fracaoPesada);
+        // Os dois modos processam na thread do poll, então os contadores não precisam ser atômicos
+        ProcessadorRegistro<Long, Long> processador = registro -> {
+            LockSupport.parkNanos(registro.offset() % rajada < pesadosPorRajada ? custoPesadoNanos : custoNanos);
+            int p = registro.partition();
+            if (registro.offset() <= maioresOffsets[p]) {
+                duplicados++;
+            } else {
+                maioresOffsets[p] = registro.offset();
+                if (registro.offset() == REGISTROS_POR_PARTICAO - 1) {
+                    concluidas.countDown();
+                }
+            }
+        };
+
+        Runnable laco;
+        ConsumidorAdaptativo<Long, Long> adaptativo = null;
+        LacoFixo fixo = null;
+        if ("adaptativo".equals(modo)) {
+            ControladorPoll controlador = new ControladorPoll(intervaloMaximoPollMs);
+            controlador.setLimitesLote(1, MAX_POLL_RECORDS);
+            adaptativo = new ConsumidorAdaptativo<Long, Long>(consumidor, processador, controlador);
+            consumidor.ouvinte = adaptativo.ouvinteRebalanceamento();
+            laco = adaptativo;
+        } else {
+            fixo = new LacoFixo(consumidor, processador);
+            consumidor.ouvinte = fixo.ouvinte;
+            laco = fixo;
+        }
+
+        Thread threadPoll = new Thread(laco, "benchmark-poll");
+        threadPoll.start();
+        concluidas.await();
+        if (adaptativo != null) {
+            adaptativo.encerrar();
+            pollsVazios += adaptativo.getPollsVazios();
+        } else {
+            fixo.encerrado = true;
+            consumidor.wakeup();
+            pollsVazios += fixo.pollsVazios;
+        }
+        threadPoll.join();
+        saidas += consumidor.saidas;
+        operacoes++;
+    }
+
+    // O laço do ConsumerDemo, com commit manual do que foi processado
+    static final class LacoFixo implements Runnable {
+
+        private final ConsumidorRajadas consumidor;
+        private final ProcessadorRegistro<Long, Long> processador;
+        private final Map<TopicPartition, OffsetAndMetadata> processados = new HashMap<TopicPartition, OffsetAndMetadata>();
+        volatile boolean encerrado;
+        long pollsVazios;
+
+        final ConsumerRebalanceListener ouvinte = new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                consumidor.commitSync(processados);
+                processados.clear();
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+            }
+        };
+
+        LacoFixo(ConsumidorRajadas consumidor, ProcessadorRegistro<Long, Long> processador) {
+            this.consumidor = consumidor;
+            this.processador = processador;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!encerrado) {
+                    ConsumerRecords<Long, Long> registros = consumidor.poll(Duration.ofMillis(100));
+                    if (registros.isEmpty()) {
+                        pollsVazios++;
+                    }
+                    for (ConsumerRecord<Long, Long> registro : registros) {
+                        processador.processar(registro);
+                        processados.put(new TopicPartition(registro.topic(), registro.partition()),
+                                new OffsetAndMetadata(registro.offset() + 1));
+                    }
+                    if (!processados.isEmpty()) {
+                        consumidor.commitAsync(new HashMap<TopicPartition, OffsetAndMetadata>(processados),
+                                new OffsetCommitCallback() {
+                                    public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                                    }
+                                });
+                        processados.clear();
+                    }
+                }
+            } catch (WakeupException e) {
+                // Pedido pelo benchmark no fim da rodada
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /* Entrega as rajadas que já chegaram, no máximo MAX_POLL_RECORDS por poll, e simula a saída do grupo
+     * Sem registros disponíveis, o poll espera até a próxima rajada ou o fim do tempo, como o KafkaConsumer
+     */
+    final class ConsumidorRajadas extends MockConsumer<Long, Long> {
+
+        private final long inicio = System.nanoTime();
+        private final long periodoNanos = TimeUnit.MILLISECONDS.toNanos(periodoRajadaMs);
+        private final long intervaloMaximoNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMaximoPollMs);
+        private long ultimoPoll = System.nanoTime();
+        private boolean expulso;
+
+        ConsumerRebalanceListener ouvinte;
+        long saidas;
+
+        ConsumidorRajadas() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized ConsumerRecords<Long, Long> poll(Duration tempo) {
+            long agora = System.nanoTime();
+            if (agora - ultimoPoll > intervaloMaximoNanos) {
+                sairDoGrupo();
+            }
+
+            long limite = System.nanoTime() + tempo.toNanos();
+            while (true) {
+                long rajadas = 1 + (System.nanoTime() - inicio) / periodoNanos;
+                long disponiveis = Math.min(REGISTROS_POR_PARTICAO, rajadas * rajada);
+                Set<TopicPartition> pausadas = paused();
+                int adicionados = 0;
+                for (TopicPartition particao : assignment()) {
+                    if (!pausadas.contains(particao)) {
+                        long posicao = position(particao);
+                        long fim = Math.min(disponiveis, posicao + MAX_POLL_RECORDS / PARTICOES);
+                        for (long offset = posicao; offset < fim; offset++) {
+                            addRecord(new ConsumerRecord<Long, Long>(TOPICO, particao.partition(), offset, offset, offset));
+                            adicionados++;
+                        }
+                    }
+                }
+                long espera = Math.min(limite, inicio + rajadas * periodoNanos) - System.nanoTime();
+                if (adicionados > 0 || espera <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(espera);
+            }
+            ConsumerRecords<Long, Long> lote = super.poll(Duration.ZERO);
+            ultimoPoll = System.nanoTime();
+            return lote;
+        }
+
+        // O que estava no buffer é perdido e as partições voltam para o último commit, depois da volta ao grupo
+        private void sairDoGrupo() {
+            saidas++;
+            expulso = true;
+            List<TopicPartition> atribuidas = new ArrayList<TopicPartition>(assignment());
+            try {
+                ouvinte.onPartitionsRevoked(atribuidas);
+            } catch (CommitFailedException e) {
+                // Como no KafkaConsumer: o membro já foi tirado do grupo e o commit é recusado
+            }
+            expulso = false;
+            for (TopicPartition particao : atribuidas) {
+                OffsetAndMetadata commitado = committed(particao);
+                seek(particao, commitado == null ? 0 : commitado.offset());
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(reentradaMs));
+            ouvinte.onPartitionsAssigned(atribuidas);
+        }
+
+        @Override
+        public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            if (expulso) {
+                throw new CommitFailedException();
+            }
+            super.commitSync(offsets);
+        }
+    }
+}
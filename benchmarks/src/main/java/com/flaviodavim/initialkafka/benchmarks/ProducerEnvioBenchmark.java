@@ -0,0 +1,124 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.produtor.ProdutorAssincrono;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/* Compara as formas de envio usadas nos Produtores de exemplo
+ *      -> semEsperar: send(registro), como no ProducerDemo
+ *      -> comCallback: send(registro, callback), como no ProducerDemoComCallback
+ *      -> sincrono: send(registro, callback).get(), como o ProducerDemoComChaves fazia antes do ProdutorAssincrono
+ *      -> janelaAssincrona: ProdutorAssincrono, como o ProducerDemoComChaves faz hoje
+ *
+ * O MockProducer confirma cada envio na hora, então aqui medimos só o custo do lado do cliente
+ * (criação do registro, serialização, particionamento e callback), sem a ida e volta ao broker.
+ * Cada invocação envia REGISTROS registros, então o resultado é em registros por segundo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ProducerEnvioBenchmark {
+
+    private static final int REGISTROS = 1000;
+
+    @Param({"16", "1024"})
+    int tamanhoPayload;
+
+    private final Logger logger = LoggerFactory.getLogger(ProducerEnvioBenchmark.class);
+
+    private MockProducer<String, String> produtor;
+    private ProdutorAssincrono<String, String> produtorAssincrono;
+    private Callback callback;
+    private String valor;
+
+    @Setup
+    public void preparar() {
+        produtor = new MockProducer<String, String>(Dados.cluster(6), true, new DefaultPartitioner(),
+                new StringSerializer(), new StringSerializer());
+        produtorAssincrono = new ProdutorAssincrono<String, String>(produtor, 100);
+        valor = Dados.payload(tamanhoPayload);
+
+        // O mesmo callback dos Produtores de exemplo
+        callback = new Callback() {
+            public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+                if (e == null) {
+                    logger.info(
+                        "Recebe um novo metadado. \n" +
+                        "Tópico: " + recordMetadata.topic() + "\n" +
+                        "Partição: " + recordMetadata.partition() + "\n" +
+                        "Offset: " + recordMetadata.offset() + "\n" +
+                        "Timestamp: " + recordMetadata.timestamp()
+                    );
+                } else {
+                    logger.error("Erro durante a produção", e);
+                }
+            }
+        };
+    }
+
+    private ProducerRecord<String, String> registro(int i) {
+        return new ProducerRecord<String, String>(Dados.TOPICO, "Id_" + (i % 10), valor);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void semEsperar() {
+        for (int i = 0; i < REGISTROS; i++) {
+            produtor.send(registro(i));
+        }
+        // O MockProducer guarda o histórico de envios, que é descartado para não crescer sem limite
+        produtor.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void comCallback() {
+        for (int i = 0; i < REGISTROS; i++) {
+            produtor.send(registro(i), callback);
+        }
+        produtor.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void sincrono() throws ExecutionException, InterruptedException {
+        for (int i = 0; i < REGISTROS; i++) {
+            produtor.send(registro(i), callback).get();
+        }
+        produtor.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void janelaAssincrona() throws InterruptedException {
+        for (int i = 0; i < REGISTROS; i++) {
+            produtorAssincrono.enviar(registro(i), callback);
+        }
+        produtorAssincrono.aguardarConclusao();
+        produtor.clear();
+    }
+}
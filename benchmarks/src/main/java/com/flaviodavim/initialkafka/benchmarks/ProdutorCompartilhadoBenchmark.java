@@ -0,0 +1,186 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.Instantaneo;
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import com.flaviodavim.initialkafka.produtor.ProdutorCompartilhado;
+import com.flaviodavim.initialkafka.produtor.RegistroProdutores;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Muitas threads enviando para o mesmo tópico, com um Produtor compartilhado ou um Produtor por thread
+ *      -> compartilhado: todas as threads adquirem o perfil padrão do RegistroProdutores, um único KafkaProducer
+ *      -> umPorThread: cada thread tem o próprio perfil no registro, então o próprio KafkaProducer
+ * Nos dois casos o envio passa pelo ProdutorCompartilhado, então a única diferença é o compartilhamento.
+ *
+ * Cada invocação envia REGISTROS registros divididos entre as threads, e cada thread termina com um flush(),
+ * como uma rajada que precisa ser confirmada. O resultado é em registros por segundo.
+ * Os registros vão para um BrokerEmbutido na mesma JVM, que divide a CPU com os Produtores.
+ * No fim da execução são impressas a latência do envio até a confirmação e o tamanho médio dos lotes:
+ * com um Produtor por thread, os registros de cada partição se dividem entre os Produtores em lotes menores,
+ * e cada Produtor tem a própria thread de I/O disputando a CPU com as threads que enviam.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ProdutorCompartilhadoBenchmark {
+
+    // Divisível por todos os números de threads abaixo
+    private static final int REGISTROS = 6400;
+    private static final int PARTICOES = 6;
+    private static final String TOPICO = "produtor_compartilhado";
+
+    @Param({"compartilhado", "umPorThread"})
+    String modo;
+
+    @Param({"1", "4", "16", "64"})
+    int threads;
+
+    @Param({"100"})
+    int tamanhoValor;
+
+    private BrokerEmbutido broker;
+    private RegistroProdutores<Long, byte[]> registro;
+    private final List<KafkaProducer<Long, byte[]>> criados = new ArrayList<KafkaProducer<Long, byte[]>>();
+    private final List<ProdutorCompartilhado<Long, byte[]>> produtores = new ArrayList<ProdutorCompartilhado<Long, byte[]>>();
+    private ExecutorService executor;
+    private List<Callable<Long>> tarefas;
+
+    // Latência de todos os envios, de todas as threads
+    private final MetricasProdutor latencia = new MetricasProdutor("benchmark");
+
+    @Setup
+    public void preparar() throws Exception {
+        broker = new BrokerEmbutido(new Properties());
+        Properties propriedades = new Properties();
+        propriedades.setProperty("bootstrap.servers", broker.getBootstrapServers());
+        criarTopico(broker.getBootstrapServers());
+
+        final ConfiguracaoKafka configuracao = ConfiguracaoKafka.de(propriedades);
+        registro = new RegistroProdutores<Long, byte[]>(new RegistroProdutores.Fabrica<Long, byte[]>() {
+            public Producer<Long, byte[]> criar(String perfil, Properties ajustes) {
+                KafkaProducer<Long, byte[]> produtor = configuracao.criarProdutor(
+                        SerializadorLong.class, ByteArraySerializer.class, ajustes);
+                criados.add(produtor);
+                return produtor;
+            }
+        }, RegistroProdutores.TEMPO_FECHAMENTO_PADRAO_MS);
+
+        for (int i = 0; i < threads; i++) {
+            String chamador = "thread-" + i;
+            if ("compartilhado".equals(modo)) {
+                produtores.add(registro.adquirir(chamador));
+            } else {
+                registro.definirPerfil(chamador, new Properties());
+                produtores.add(registro.adquirir(chamador, chamador));
+            }
+        }
+
+        final byte[] valor = new byte[tamanhoValor];
+        ThreadLocalRandom.current().nextBytes(valor);
+        executor = Executors.newFixedThreadPool(threads);
+        tarefas = new ArrayList<Callable<Long>>();
+        for (final ProdutorCompartilhado<Long, byte[]> produtor : produtores) {
+            tarefas.add(new Callable<Long>() {
+                private long proximaChave;
+
+                public Long call() {
+                    for (int i = 0; i < REGISTROS / threads; i++) {
+                        produtor.enviar(new ProducerRecord<Long, byte[]>(TOPICO, proximaChave++, valor),
+                                latencia.medir(null));
+                    }
+                    produtor.flush();
+                    return proximaChave;
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        Instantaneo envio = latencia.getEnvioAteConfirmacao().instantaneo();
+        double tamanhoLote = 0;
+        double registrosPorRequisicao = 0;
+        for (KafkaProducer<Long, byte[]> produtor : criados) {
+            tamanhoLote += metrica(produtor, "batch-size-avg");
+            registrosPorRequisicao += metrica(produtor, "records-per-request-avg");
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%n%d Produtor(es): envio->confirmação p50=%.3fms p99=%.3fms max=%.3fms, "
+                        + "lote médio %.0f bytes, %.1f registros por requisição, erros=%d",
+                criados.size(), envio.percentil(50) / 1e6, envio.percentil(99) / 1e6, envio.getMaximo() / 1e6,
+                tamanhoLote / criados.size(), registrosPorRequisicao / criados.size(), latencia.getErros()));
+
+        executor.shutdown();
+        for (ProdutorCompartilhado<Long, byte[]> produtor : produtores) {
+            produtor.close();
+        }
+        registro.close();
+        broker.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public long enviar() throws Exception {
+        long soma = 0;
+        for (Future<Long> resultado : executor.invokeAll(tarefas)) {
+            soma += resultado.get();
+        }
+        return soma;
+    }
+
+    private static double metrica(Producer<?, ?> produtor, String nome) {
+        for (Map.Entry<MetricName, ? extends Metric> metrica : produtor.metrics().entrySet()) {
+            if (metrica.getKey().group().equals("producer-metrics") && metrica.getKey().name().equals(nome)) {
+                Object valor = metrica.getValue().metricValue();
+                return valor instanceof Double && !((Double) valor).isNaN() ? (Double) valor : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static void criarTopico(String bootstrapServers) throws Exception {
+        Properties propriedades = new Properties();
+        propriedades.setProperty(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        try (AdminClient admin = AdminClient.create(propriedades)) {
+            admin.createTopics(Collections.singleton(new NewTopic(TOPICO, PARTICOES, (short) 1))).all().get();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.consumidor.OuvinteParticoes;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/* Quanto tempo o PipelineConsumo fica parado em um rebalanceamento
+ *
+ * Um MockConsumer gera registros sem parar para as partições atribuídas, e cada registro custa custoRegistroMicros.
+ * A cada operação acontece um rebalanceamento dentro do poll, como no KafkaConsumer:
+ * o Consumidor alterna entre 8 partições e 5 delas, como quando outro membro entra e sai do grupo.
+ * O tempo medido vai do pedido de rebalanceamento até o primeiro registro processado depois dele.
+ *
+ *      -> estado: mantido guarda o estado das partições que voltam para o mesmo Consumidor (como com o StickyAssignor);
+ *         descartado joga fora o estado de todas as revogadas, e cada partição atribuída precisa ser aquecida de novo.
+ *         O aquecimento (ex: ler um snapshot) custa aquecimentoMs por partição.
+ *      -> drenagem: com, o pipeline espera os registros em processamento antes de commitar;
+ *         sem, commita só o que já terminou e o resto é processado de novo.
+ *
+ * No fim de cada rodada aparecem quantos registros foram processados duas vezes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class RebalanceamentoBenchmark {
+
+    private static final String TOPICO = "benchmark";
+    private static final int PARTICOES = 8;
+    private static final int PARTICOES_REDUZIDAS = 5;
+    private static final int REGISTROS_POR_POLL = 50;
+    private static final int CAPACIDADE_POR_PARTICAO = 100;
+    private static final int WORKERS = 4;
+
+    @Param({"mantido", "descartado"})
+    String estado;
+
+    @Param({"com", "sem"})
+    String drenagem;
+
+    @Param({"50"})
+    long custoRegistroMicros;
+
+    @Param({"2"})
+    long aquecimentoMs;
+
+    private ConsumidorGerador consumidor;
+    private PipelineConsumo<Long, Long> pipeline;
+    private ConsumerRebalanceListener ouvinte;
+    private Thread threadPoll;
+
+    private List<TopicPartition> todas;
+    private List<TopicPartition> reduzidas;
+    private int rebalanceamentos;
+
+    private final Set<TopicPartition> aquecidas = new HashSet<TopicPartition>();
+    private final AtomicLongArray maioresOffsets = new AtomicLongArray(PARTICOES);
+    private final LongAdder processados = new LongAdder();
+    private final LongAdder duplicados = new LongAdder();
+    private volatile CountDownLatch retomada;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        todas = new ArrayList<TopicPartition>();
+        for (int p = 0; p < PARTICOES; p++) {
+            todas.add(new TopicPartition(TOPICO, p));
+            maioresOffsets.set(p, -1);
+        }
+        reduzidas = todas.subList(0, PARTICOES_REDUZIDAS);
+
+        consumidor = new ConsumidorGerador();
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : todas) {
+            inicios.put(particao, 0L);
+        }
+        consumidor.updateBeginningOffsets(inicios);
+
+        final long custoNanos = TimeUnit.MICROSECONDS.toNanos(custoRegistroMicros);
+        pipeline = new PipelineConsumo<Long, Long>(consumidor,
+                registro -> {
+                    LockSupport.parkNanos(custoNanos);
+                    long anterior = maioresOffsets.getAndAccumulate(registro.partition(), registro.offset(), Math::max);
+                    if (registro.offset() <= anterior) {
+                        duplicados.increment();
+                    }
+                    processados.increment();
+                    // O valor do registro é o número do rebalanceamento em que ele foi gerado
+                    CountDownLatch latch = retomada;
+                    if (latch != null && registro.value() == consumidor.geracao) {
+                        latch.countDown();
+                    }
+                },
+                WORKERS, CAPACIDADE_POR_PARTICAO);
+        pipeline.setTempoPoll(Duration.ofMillis(1));
+        pipeline.setTempoMaximoDrenagemMs("com".equals(drenagem) ? 10000 : 0);
+
+        final long aquecimentoNanos = TimeUnit.MILLISECONDS.toNanos(aquecimentoMs);
+        final boolean manterEstado = "mantido".equals(estado);
+        pipeline.setOuvinteParticoes(new OuvinteParticoes() {
+            public void aoRevogar(Collection<TopicPartition> revogadas) {
+                if (!manterEstado) {
+                    aquecidas.removeAll(revogadas);
+                }
+            }
+
+            public void aoAtribuir(Collection<TopicPartition> novas, Collection<TopicPartition> perdidas) {
+                aquecidas.removeAll(perdidas);
+                for (TopicPartition particao : consumidor.assignment()) {
+                    if (aquecidas.add(particao)) {
+                        LockSupport.parkNanos(aquecimentoNanos);
+                    }
+                }
+            }
+        });
+
+        ouvinte = pipeline.ouvinteRebalanceamento();
+        consumidor.subscribe(Collections.singleton(TOPICO), ouvinte);
+        consumidor.rebalancear(todas);
+        ouvinte.onPartitionsAssigned(todas);
+
+        threadPoll = new Thread(pipeline, "benchmark-poll");
+        threadPoll.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() throws InterruptedException {
+        pipeline.encerrar();
+        threadPoll.join();
+        System.out.println("\n" + rebalanceamentos + " rebalanceamentos, " + processados.sum()
+                + " registros processados, " + duplicados.sum() + " processados de novo");
+    }
+
+    @Benchmark
+    public void rebalancear() throws InterruptedException {
+        final List<TopicPartition> proximas = rebalanceamentos++ % 2 == 0 ? reduzidas : todas;
+        final CountDownLatch atribuido = new CountDownLatch(1);
+        // Como no KafkaConsumer, o ouvinte é chamado pela thread do poll, dentro do poll()
+        consumidor.schedulePollTask(() -> {
+            ouvinte.onPartitionsRevoked(new ArrayList<TopicPartition>(consumidor.assignment()));
+            consumidor.rebalancear(proximas);
+            ouvinte.onPartitionsAssigned(proximas);
+            retomada = new CountDownLatch(1);
+            atribuido.countDown();
+        });
+        atribuido.await();
+        retomada.await();
+    }
+
+    /* Gera registros para as partições atribuídas e não pausadas a cada poll
+     * O MockConsumer descarta no poll tudo que não entregou, então os registros são gerados de novo a partir da posição
+     * O rebalance() do MockConsumer não chama o ouvinte; o benchmark chama os dois lados em volta dele
+     */
+    static final class ConsumidorGerador extends MockConsumer<Long, Long> {
+
+        volatile long geracao;
+
+        ConsumidorGerador() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        synchronized void rebalancear(Collection<TopicPartition> particoes) {
+            geracao++;
+            rebalance(particoes);
+        }
+
+        @Override
+        public synchronized ConsumerRecords<Long, Long> poll(Duration tempo) {
+            ConsumerRecords<Long, Long> lote = super.poll(tempo);
+            Set<TopicPartition> pausadas = paused();
+            for (TopicPartition particao : assignment()) {
+                if (!pausadas.contains(particao)) {
+                    long posicao = position(particao);
+                    for (long offset = posicao; offset < posicao + REGISTROS_POR_POLL; offset++) {
+                        addRecord(new ConsumerRecord<Long, Long>(TOPICO, particao.partition(), offset, offset, geracao));
+                    }
+                }
+            }
+            if (lote.isEmpty()) {
+                LockSupport.parkNanos(tempo.toNanos());
+            }
+            return lote;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.retentativa.PoliticaRetentativa;
+import com.flaviodavim.initialkafka.retentativa.ProcessadorComRetentativa;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* Vazão do Consumidor principal quando uma fração dos registros falha
+ *      -> bloqueante: o registro é tentado de novo na mesma thread, depois de esperar atrasoMs (o sleep entre tentativas);
+ *         a partição inteira fica parada durante a espera
+ *      -> topicos: o ProcessadorComRetentativa envia o registro para o primeiro nível e segue para o próximo
+ *         (um MockProducer que confirma na hora, então só o custo de montar e enviar o registro entra na conta)
+ *
+ * Cada registro custa custoRegistroMicros e o pipeline usa uma thread de trabalho por partição.
+ * Os registros que falham são espalhados pelo offset, um a cada 1 / fracaoFalhas.
+ * O resultado é o tempo por registro do tópico de origem; o processamento dos níveis não entra.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class RetentativaBenchmark {
+
+    private static final int REGISTROS = 4000;
+    private static final int PARTICOES = 4;
+
+    @Param({"bloqueante", "topicos"})
+    String modo;
+
+    @Param({"0", "0.01", "0.1"})
+    double fracaoFalhas;
+
+    @Param({"20"})
+    long custoRegistroMicros;
+
+    @Param({"5"})
+    long atrasoMs;
+
+    private List<TopicPartition> particoes;
+    private List<ConsumerRecord<Long, Long>> registros;
+    private PoliticaRetentativa politica;
+
+    @Setup
+    public void preparar() {
+        particoes = new ArrayList<TopicPartition>();
+        for (int p = 0; p < PARTICOES; p++) {
+            particoes.add(new TopicPartition("benchmark", p));
+        }
+        registros = new ArrayList<ConsumerRecord<Long, Long>>(REGISTROS);
+        for (int i = 0; i < REGISTROS; i++) {
+            registros.add(new ConsumerRecord<Long, Long>("benchmark", i % PARTICOES, i / PARTICOES, (long) i, (long) i));
+        }
+        politica = PoliticaRetentativa.padrao("benchmark", Duration.ofMillis(atrasoMs));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGISTROS)
+    public void consumir() throws InterruptedException {
+        ModoExecucaoBenchmark.ConsumidorSimulado consumidor = new ModoExecucaoBenchmark.ConsumidorSimulado();
+        consumidor.assign(particoes);
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : particoes) {
+            inicios.put(particao, 0L);
+        }
+        consumidor.updateBeginningOffsets(inicios);
+        for (ConsumerRecord<Long, Long> registro : registros) {
+            consumidor.addRecord(registro);
+        }
+
+        final CountDownLatch concluidos = new CountDownLatch(REGISTROS);
+        final long custoNanos = TimeUnit.MICROSECONDS.toNanos(custoRegistroMicros);
+        final long periodoFalhas = fracaoFalhas > 0 ? Math.round(1 / fracaoFalhas) : 0;
+        // Falha só na primeira tentativa; a segunda (no mesmo lugar ou no nível) funciona
+        final ProcessadorRegistro<Long, Long> instavel = registro -> {
+            LockSupport.parkNanos(custoNanos);
+            if (periodoFalhas > 0 && registro.value() % periodoFalhas == 0) {
+                throw new IllegalStateException("Falha simulada");
+            }
+        };
+
+        ProcessadorRegistro<Long, Long> processador;
+        if ("bloqueante".equals(modo)) {
+            final long atrasoNanos = TimeUnit.MILLISECONDS.toNanos(atrasoMs);
+            processador = registro -> {
+                try {
+                    instavel.processar(registro);
+                } catch (Exception e) {
+                    LockSupport.parkNanos(atrasoNanos);
+                    LockSupport.parkNanos(custoNanos);
+                }
+            };
+        } else {
+            MockProducer<Long, Long> produtor = new MockProducer<Long, Long>(true, new SerializadorLong(), new SerializadorLong());
+            processador = new ProcessadorComRetentativa<Long, Long>(instavel, produtor, politica);
+        }
+
+        final ProcessadorRegistro<Long, Long> etapa = processador;
+        PipelineConsumo<Long, Long> pipeline = new PipelineConsumo<Long, Long>(consumidor,
+                registro -> {
+                    try {
+                        etapa.processar(registro);
+                    } finally {
+                        concluidos.countDown();
+                    }
+                },
+                PARTICOES, REGISTROS);
+        pipeline.setTempoPoll(Duration.ofMillis(1));
+
+        Thread threadPoll = new Thread(pipeline, "benchmark-poll");
+        threadPoll.start();
+        concluidos.await();
+        pipeline.encerrar();
+        threadPoll.join();
+    }
+}
@@ -0,0 +1,113 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.LeitorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Compara o caminho com String dos exemplos antigos com a chave long e o registro binário
+ *      -> produzir*: monta e serializa chave e valor, como o KafkaProducer faz dentro do send()
+ *      -> consumir*: desserializa e lê o índice e o tamanho do texto, como um processador faria
+ *
+ * Cada operação é um registro: o tempo é ns/registro e gc.alloc.rate.norm é bytes alocados por registro.
+ * O tamanho de cada registro no fio (chave + valor) é escrito no fim da execução.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerdeBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int tamanhoPayload;
+
+    private final StringSerializer serializadorString = new StringSerializer();
+    private final StringDeserializer desserializadorString = new StringDeserializer();
+    private final SerializadorLong serializadorLong = new SerializadorLong();
+    private final DesserializadorLong desserializadorLong = new DesserializadorLong();
+    private final SerializadorByteBuffer serializadorBuffer = new SerializadorByteBuffer();
+    private final DesserializadorByteBuffer desserializadorBuffer = new DesserializadorByteBuffer();
+    private final LeitorRegistro leitor = new LeitorRegistro();
+
+    private EscritorRegistro escritor;
+    private String texto;
+    private int indice;
+
+    private byte[] chaveString;
+    private byte[] valorString;
+    private byte[] chaveBinaria;
+    private byte[] valorBinario;
+
+    @Setup
+    public void preparar() {
+        escritor = new EscritorRegistro(tamanhoPayload + 32);
+        texto = Dados.payload(tamanhoPayload);
+        indice = 7;
+
+        chaveString = serializadorString.serialize(Dados.TOPICO, "Id_" + indice);
+        valorString = serializadorString.serialize(Dados.TOPICO, texto + " (" + indice + ") ");
+        chaveBinaria = serializadorLong.serialize(Dados.TOPICO, (long) indice);
+        valorBinario = serializadorBuffer.serialize(Dados.TOPICO, MensagemDemo.escrever(escritor, indice, texto));
+    }
+
+    @TearDown(Level.Trial)
+    public void relatarTamanho() {
+        System.out.println("\nBytes por registro com String: " + (chaveString.length + valorString.length)
+                + ", binário: " + (chaveBinaria.length + valorBinario.length));
+    }
+
+    @Benchmark
+    public void produzirString(Blackhole blackhole) {
+        blackhole.consume(serializadorString.serialize(Dados.TOPICO, "Id_" + indice));
+        blackhole.consume(serializadorString.serialize(Dados.TOPICO, texto + " (" + indice + ") "));
+    }
+
+    @Benchmark
+    public void produzirBinario(Blackhole blackhole) {
+        blackhole.consume(serializadorLong.serialize(Dados.TOPICO, (long) indice));
+        blackhole.consume(serializadorBuffer.serialize(Dados.TOPICO, MensagemDemo.escrever(escritor, indice, texto)));
+    }
+
+    @Benchmark
+    public void consumirString(Blackhole blackhole) {
+        blackhole.consume(desserializadorString.deserialize(Dados.TOPICO, chaveString));
+        String valor = desserializadorString.deserialize(Dados.TOPICO, valorString);
+        // O índice só pode ser obtido procurando dentro do texto
+        int abre = valor.lastIndexOf('(');
+        blackhole.consume(Integer.parseInt(valor.substring(abre + 1, valor.indexOf(')', abre))));
+        blackhole.consume(abre);
+    }
+
+    @Benchmark
+    public void consumirBinario(Blackhole blackhole) {
+        blackhole.consume(desserializadorLong.deserialize(Dados.TOPICO, chaveBinaria));
+        ByteBuffer valor = desserializadorBuffer.deserialize(Dados.TOPICO, valorBinario);
+        leitor.ler(valor);
+        blackhole.consume(leitor.lerInt(MensagemDemo.CAMPO_INDICE));
+        blackhole.consume(leitor.tamanhoBytes(MensagemDemo.CAMPO_TEXTO));
+    }
+}
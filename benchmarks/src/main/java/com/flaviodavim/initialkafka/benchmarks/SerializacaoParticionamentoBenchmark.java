@@ -0,0 +1,70 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/* Mede separadamente o que o KafkaProducer faz com cada registro antes de colocá-lo no lote:
+ * serializar chave e valor e escolher a partição pelo murmur2 da chave
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializacaoParticionamentoBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int tamanhoPayload;
+
+    private final StringSerializer serializador = new StringSerializer();
+    private final DefaultPartitioner particionador = new DefaultPartitioner();
+    private Cluster cluster;
+    private String chave;
+    private String valor;
+    private byte[] chaveSerializada;
+    private byte[] valorSerializado;
+
+    @Setup
+    public void preparar() {
+        cluster = Dados.cluster(6);
+        chave = "Id_7";
+        valor = Dados.payload(tamanhoPayload);
+        chaveSerializada = serializador.serialize(Dados.TOPICO, chave);
+        valorSerializado = serializador.serialize(Dados.TOPICO, valor);
+    }
+
+    @Benchmark
+    public void serializar(Blackhole blackhole) {
+        blackhole.consume(serializador.serialize(Dados.TOPICO, chave));
+        blackhole.consume(serializador.serialize(Dados.TOPICO, valor));
+    }
+
+    @Benchmark
+    public int particionar() {
+        return particionador.partition(Dados.TOPICO, chave, chaveSerializada, valor, valorSerializado, cluster);
+    }
+
+    @Benchmark
+    public int serializarEParticionar(Blackhole blackhole) {
+        byte[] bytesChave = serializador.serialize(Dados.TOPICO, chave);
+        byte[] bytesValor = serializador.serialize(Dados.TOPICO, valor);
+        blackhole.consume(bytesValor);
+        return particionador.partition(Dados.TOPICO, chave, bytesChave, valor, bytesValor, cluster);
+    }
+}
@@ -0,0 +1,127 @@
+package com.flaviodavim.initialkafka.benchmarks;
+
+import com.flaviodavim.initialkafka.spool.LogSpool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Custo do LogSpool usado pelo SpoolProdutor
+ *      -> anexar: acrescentar um registro ao segmento mapeado (com -prof gc, a alocação por registro deve ser zero)
+ *      -> recuperar: abrir um spool com megabytesPendentes ainda não enviados, que é percorrido conferindo o crc
+ *         de cada registro; é o tempo para voltar a drenar depois de reiniciar o processo
+ *
+ * Os arquivos ficam no diretório temporário e as páginas já estão no cache do sistema,
+ * então a recuperação mede o custo de percorrer os registros, e não o da leitura do disco.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class SpoolBenchmark {
+
+    private static final int TAMANHO_CHAVE = 8;
+
+    @State(Scope.Thread)
+    public static class EstadoAnexar {
+
+        @Param({"100", "1024"})
+        int tamanhoValor;
+
+        File diretorio;
+        LogSpool spool;
+        ByteBuffer chave;
+        ByteBuffer valor;
+
+        @Setup
+        public void preparar() throws IOException {
+            diretorio = Files.createTempDirectory("spool-benchmark").toFile();
+            spool = new LogSpool(diretorio);
+            chave = ByteBuffer.allocate(TAMANHO_CHAVE);
+            byte[] bytes = new byte[tamanhoValor];
+            ThreadLocalRandom.current().nextBytes(bytes);
+            valor = ByteBuffer.wrap(bytes);
+        }
+
+        @TearDown
+        public void encerrar() throws IOException {
+            spool.close();
+            apagar(diretorio);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EstadoRecuperar {
+
+        @Param({"64"})
+        int megabytesPendentes;
+
+        File diretorio;
+
+        // Escreve os registros uma vez; cada execução do benchmark só abre e fecha o spool
+        @Setup
+        public void preparar() throws IOException {
+            diretorio = Files.createTempDirectory("spool-benchmark").toFile();
+            LogSpool spool = new LogSpool(diretorio);
+            ByteBuffer chave = ByteBuffer.allocate(TAMANHO_CHAVE);
+            ByteBuffer valor = ByteBuffer.allocate(100);
+            long alvo = megabytesPendentes * 1024L * 1024L;
+            for (long i = 0; spool.getPosicaoEscrita() < alvo; i++) {
+                chave.putLong(0, i);
+                spool.anexar("benchmark", null, chave, valor);
+            }
+            spool.close();
+        }
+
+        @TearDown
+        public void encerrar() {
+            apagar(diretorio);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean anexar(EstadoAnexar estado) throws IOException {
+        LogSpool spool = estado.spool;
+        // Sem drenador, o benchmark confirma sozinho para os segmentos antigos serem apagados
+        if (spool.getBytesPendentes() > 2L * LogSpool.TAMANHO_SEGMENTO_PADRAO) {
+            spool.confirmar(spool.getPosicaoEscrita());
+        }
+        estado.chave.putLong(0, spool.getPosicaoEscrita());
+        return spool.anexar("benchmark", null, estado.chave, estado.valor);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long recuperar(EstadoRecuperar estado) throws IOException {
+        LogSpool spool = new LogSpool(estado.diretorio);
+        long pendentes = spool.getBytesPendentes();
+        spool.close();
+        return pendentes;
+    }
+
+    private static void apagar(File diretorio) {
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                arquivo.delete();
+            }
+        }
+        diretorio.delete();
+    }
+}
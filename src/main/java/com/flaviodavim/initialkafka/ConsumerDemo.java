@@ -1,21 +1,26 @@
 package com.flaviodavim.initialkafka;
 
-import org.apache.kafka.clients.consumer.ConsumerConfig;
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.sql.Array;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Properties;
 
 public class ConsumerDemo {
 
@@ -31,36 +36,32 @@ public class ConsumerDemo {
         final Logger logger = LoggerFactory.getLogger(ProducerDemoComChaves.class);
 
         /* O primeiro passo é definir as propriedades do Consumidor que vão ser utilizadas para a sua criação
-         * Para definí-las, utilizamos o objeto Properties do Java
-         * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-         * Para definir as chaves, utilizamos as variáveis estáticas do ConsumerConfig
+         * As propriedades ficam centralizadas na ConfiguracaoKafka, que junta o arquivo kafka.properties,
+         * as variáveis de ambiente KAFKA_* e as propriedades de sistema -Dkafka.*
+         * Assim o servidor, o perfil (throughput ou low-latency) e qualquer ajuste podem mudar sem alterar o código
          * https://kafka.apache.org/documentation/#consumerconfigs
          */
-        String bootstrapServers = "127.0.0.1:9092";
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
         String idGrupo = "my-fourth-application";
         String topico = "first_topic";
 
-        Properties propriedades = new Properties();
-        propriedades.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        propriedades.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        propriedades.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // As variáveis key.serializer e value.serializer ajudam o Consumidor a saber os tipos de dados que ele está recebendo
+        // Os desserializadores são passados na criação e ajudam o Consumidor a saber os tipos de dados que ele está recebendo
         // Isso é importante para o Consumidor saber como deserializar os dados
-        // O StringSerializer é um tipo pronto que identifica o dado como String
-        propriedades.setProperty(ConsumerConfig.GROUP_ID_CONFIG, idGrupo);
-        propriedades.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        // A variável acima indica a quais dados devem ser lidos. A opções são:
+        // O DesserializadorLong lê a chave long e o DesserializadorByteBuffer entrega o valor sem copiar nem converter para String
+        // O idGrupo é o padrão desta aplicação e pode ser trocado pela chave group.id
+        // A variável auto.offset.reset, que por padrão é earliest, indica a quais dados devem ser lidos. A opções são:
         //      -> earliest: deseja ler desde o início do tópico
         //      -> latest: deseja ler apenas as mensagens que estão chegando
         //      -> none: lança um erro
 
 
         /* Em seguida, o segundo passo é criar o Consumidor
-         * O Consumidor é criado utilizando as propriedades definidas na passo 1
-         * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso os dois serão String
+         * O Consumidor é criado utilizando as propriedades definidas na passo 1, que são escritas no log
+         * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
          */
 
-        KafkaConsumer<String, String> consumidor = new KafkaConsumer<String, String>(propriedades);
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class);
 
         /* O terceiro passo é inscrever o Consumidor ao tópico
          */
@@ -75,15 +76,22 @@ public class ConsumerDemo {
          * A forma de consulta é consultar todos os dados de uma partição antes de seguir para a próxima
          */
 
+        // O processador monta a mensagem de log sem alocar nada quando o INFO está desligado
+        // Com a chave consumidor.log.amostragem=N apenas 1 a cada N registros é escrito
+        // O DesagregadorRegistros abre os registros enviados pelo AgregadorProdutor e entrega cada mensagem separada
+        ProcessadorRegistro<Long, ByteBuffer> processador = new DesagregadorRegistros<Long>(
+                ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar));
+
         while(true) {
-             ConsumerRecords<String, String> registros = consumidor.poll(Duration.ofMillis(100));
+             ConsumerRecords<Long, ByteBuffer> registros = consumidor.poll(Duration.ofMillis(100));
 
-             for(ConsumerRecord<String, String> registro : registros) {
+             for(ConsumerRecord<Long, ByteBuffer> registro : registros) {
                  // O poll vai trazer os registros que foram consultados a cada tempo, e exibimos cada mensagem lida
-                 logger.info(
-                         "Key: " + registro.key() + ", Value: " + registro.value() + "\n" +
-                         "Partition: " + registro.partition() + ", Offset: " + registro.offset()
-                 );
+                 try {
+                     processador.processar(registro);
+                 } catch (Exception e) {
+                     logger.error("Erro ao processar o registro.", e);
+                 }
              }
         }
 
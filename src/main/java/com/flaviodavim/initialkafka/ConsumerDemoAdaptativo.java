@@ -0,0 +1,81 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.ConsumidorAdaptativo;
+import com.flaviodavim.initialkafka.consumidor.ControladorPoll;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Properties;
+
+public class ConsumerDemoAdaptativo {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoAdaptativo.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-twelfth-application";
+        String topico = "first_topic";
+
+        // O laço commita só o que foi processado, e não o que está na fila esperando
+        Properties ajustes = ConsumidorAdaptativo.configurar(new Properties());
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, ajustes);
+
+        /* Em vez do poll fixo de 100 ms com o lote inteiro do max.poll.records, o controlador decide:
+         *      -> quanto o poll espera quando não há nada para processar: de consumidor.poll.minimo.ms,
+         *         com registros chegando, até consumidor.poll.maximo.ms, com o tópico parado;
+         *      -> quantos registros processar até o próximo poll, para nunca passar do max.poll.interval.ms.
+         * O max.poll.records vira só o maior lote possível. Os limites vêm das mesmas propriedades do Consumidor.
+         */
+        ControladorPoll controlador = ConsumidorAdaptativo.controlador(configuracao.propriedadesConsumidor(idGrupo, ajustes));
+        controlador.setTempoPoll(Duration.ofMillis(configuracao.getLong("consumidor.poll.minimo.ms", 100L)),
+                Duration.ofMillis(configuracao.getLong("consumidor.poll.maximo.ms", 1000L)));
+        ConsumidorAdaptativo<Long, ByteBuffer> adaptativo = new ConsumidorAdaptativo<Long, ByteBuffer>(consumidor,
+                new DesagregadorRegistros<Long>(
+                        ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar)),
+                controlador);
+
+        MetricasConsumidor metricas = new MetricasConsumidor("adaptativo");
+        adaptativo.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasConsumidor", metricas.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000).adicionar(metricas);
+        relatorio.iniciar();
+
+        consumidor.subscribe(Collections.singleton(topico), adaptativo.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(adaptativo, "adaptativo-poll");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            adaptativo.encerrar();
+            try {
+                threadPoll.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            relatorio.close();
+            logger.info(adaptativo.getProcessados() + " registros processados em " + adaptativo.getPolls()
+                    + " polls (" + adaptativo.getPollsVazios() + " vazios), lote final de " + controlador.getTamanhoLote()
+                    + " registros e maior intervalo entre polls de " + adaptativo.getMaiorIntervaloPollMs() + " ms.");
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
@@ -0,0 +1,104 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.colunar.LoteColunar;
+import com.flaviodavim.initialkafka.colunar.PoolLotes;
+import com.flaviodavim.initialkafka.colunar.ProcessadorLote;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+public class ConsumerDemoColunar {
+
+    public static void main(String[] args) {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoColunar.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-fifteenth-application";
+        String topico = configuracao.get("carga.topico", "carga_topic");
+        final int tamanhoMinimo = configuracao.getInt("colunar.tamanho.minimo", 100);
+        final long intervaloRelatorioMs = configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000;
+
+        // O lote colunar copia os bytes da chave e do valor, então eles vêm do broker sem conversão
+        KafkaConsumer<ByteBuffer, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorByteBuffer.class, DesserializadorByteBuffer.class);
+        consumidor.subscribe(Collections.singleton(topico));
+
+        /* Uma análise sobre o tópico do ProducerDemoCarga: quantos registros com chave têm o valor com pelo menos
+         * colunar.tamanho.minimo bytes, quantos bytes eles somam e quanto tempo passou desde o timestamp de cada um.
+         * Em vez de um ConsumerRecord por vez, cada poll vira um LoteColunar e o processador percorre as colunas
+         * de tamanhos e timestamps com um for. Os lotes vêm de um PoolLotes e são devolvidos depois de cada poll,
+         * então os arrays são os mesmos de um poll para o outro
+         */
+        final long[] totais = new long[3];
+        ProcessadorLote processador = new ProcessadorLote() {
+            @Override
+            public void processar(LoteColunar lote) {
+                int[] tamanhoChaves = lote.getTamanhoChaves();
+                int[] tamanhoValores = lote.getTamanhoValores();
+                long[] timestamps = lote.getTimestamps();
+                long agora = System.currentTimeMillis();
+                long filtrados = 0;
+                long bytes = 0;
+                long atraso = 0;
+                for (int i = 0; i < lote.tamanho(); i++) {
+                    if (tamanhoChaves[i] >= 0 && tamanhoValores[i] >= tamanhoMinimo) {
+                        filtrados++;
+                        bytes += tamanhoValores[i];
+                        atraso += agora - timestamps[i];
+                    }
+                }
+                totais[0] += filtrados;
+                totais[1] += bytes;
+                totais[2] += atraso;
+            }
+        };
+
+        PoolLotes pool = new PoolLotes();
+        final CountDownLatch finalizado = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            consumidor.wakeup();
+            try {
+                finalizado.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        try {
+            long proximoRelatorio = System.currentTimeMillis() + intervaloRelatorioMs;
+            while (true) {
+                ConsumerRecords<ByteBuffer, ByteBuffer> registros = consumidor.poll(Duration.ofMillis(100));
+                // O lote volta para o pool no fim do bloco, mesmo se o processador falhar
+                try (LoteColunar lote = pool.converter(registros)) {
+                    processador.processar(lote);
+                } catch (Exception e) {
+                    logger.error("Erro ao processar o lote.", e);
+                }
+                if (System.currentTimeMillis() >= proximoRelatorio) {
+                    logger.info(totais[0] + " registros com chave e valor de " + tamanhoMinimo + " bytes ou mais, "
+                            + totais[1] + " bytes, atraso médio desde o timestamp de "
+                            + (totais[0] == 0 ? 0 : totais[2] / totais[0]) + " ms. Lotes criados pelo pool: "
+                            + pool.getCriados());
+                    proximoRelatorio += intervaloRelatorioMs;
+                }
+            }
+        } catch (WakeupException e) {
+            logger.info("Recebido o sinal de desligamento.");
+        } finally {
+            consumidor.close();
+            finalizado.countDown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.ModoExecucao;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Properties;
+
+public class ConsumerDemoComPipeline {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoComPipeline.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-eighth-application";
+        String topico = "first_topic";
+
+        // O pipeline commita os offsets sozinho, apenas depois que os registros foram processados
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, PipelineConsumo.configurar(new Properties()));
+
+        /* O processamento sai da thread do poll e vai para um pool de threads de trabalho
+         * Cada partição tem uma fila limitada; quando ela enche, a partição é pausada até esvaziar
+         * Assim um processamento lento não impede o poll e não causa rebalanceamentos por max.poll.interval.ms
+         * Com consumidor.modo=virtual as threads de trabalho são virtuais (Java 21+), com o mesmo ProcessadorRegistro
+         */
+        ModoExecucao modoExecucao = ModoExecucao.deNome(configuracao.get("consumidor.modo", "plataforma"));
+        int numeroWorkers = configuracao.getInt("consumidor.workers", Runtime.getRuntime().availableProcessors());
+        int capacidadePorParticao = configuracao.getInt("consumidor.capacidade", 1000);
+        PipelineConsumo<Long, ByteBuffer> pipeline = new PipelineConsumo<Long, ByteBuffer>(consumidor,
+                new DesagregadorRegistros<Long>(
+                        ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar)),
+                modoExecucao, numeroWorkers, capacidadePorParticao);
+
+        /* As métricas do poll ficam no JMX (com.flaviodavim.initialkafka:type=MetricasConsumidor)
+         * e um relatório com a vazão, a latência desde a produção e o lag é escrito no log a cada período
+         */
+        MetricasConsumidor metricas = new MetricasConsumidor("pipeline");
+        pipeline.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasConsumidor", metricas.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000).adicionar(metricas);
+        relatorio.iniciar();
+
+        // O ouvinte commita o que já foi processado antes das partições serem levadas para outro Consumidor
+        consumidor.subscribe(Collections.singleton(topico), pipeline.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(pipeline, "pipeline-poll");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            pipeline.encerrar();
+            try {
+                threadPoll.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            relatorio.close();
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
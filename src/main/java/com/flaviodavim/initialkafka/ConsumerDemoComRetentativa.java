@@ -0,0 +1,114 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.retentativa.ConsumidorRetentativa;
+import com.flaviodavim.initialkafka.retentativa.PoliticaRetentativa;
+import com.flaviodavim.initialkafka.retentativa.ProcessadorComRetentativa;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ConsumerDemoComRetentativa {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoComRetentativa.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-eleventh-application";
+        String topico = "first_topic";
+
+        /* Os registros que falham vão para first_topic.retry-5s, depois first_topic.retry-1m e por fim first_topic.dlq
+         * Os atrasos vêm da chave retentativa.atrasos.segundos; os tópicos são criados pelo broker no primeiro envio
+         * se auto.create.topics.enable estiver ligado, senão precisam ser criados antes
+         */
+        String[] segundos = configuracao.get("retentativa.atrasos.segundos", "5,60").split(",");
+        Duration[] atrasos = new Duration[segundos.length];
+        for (int i = 0; i < segundos.length; i++) {
+            atrasos[i] = Duration.ofSeconds(Long.parseLong(segundos[i].trim()));
+        }
+        PoliticaRetentativa politica = PoliticaRetentativa.padrao(topico, atrasos);
+        logger.info("Retentativas: " + politica);
+
+        /* Para ver a retentativa funcionando, o processamento falha em uma fração dos registros (retentativa.falhas.fracao)
+         * Na vida real seria uma chamada a um serviço fora do ar ou um banco de dados ocupado
+         */
+        final double fracaoFalhas = Double.parseDouble(configuracao.get("retentativa.falhas.fracao", "0.01"));
+        final ProcessadorRegistro<Long, ByteBuffer> log =
+                ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar);
+        ProcessadorRegistro<Long, ByteBuffer> instavel = new ProcessadorRegistro<Long, ByteBuffer>() {
+            public void processar(ConsumerRecord<Long, ByteBuffer> registro) throws Exception {
+                if (ThreadLocalRandom.current().nextDouble() < fracaoFalhas) {
+                    throw new IllegalStateException("Falha simulada no registro " + registro.offset());
+                }
+                log.processar(registro);
+            }
+        };
+
+        // Um único Produtor leva as falhas do tópico de origem e dos níveis para o destino seguinte
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(SerializadorLong.class, SerializadorByteBuffer.class);
+        ProcessadorComRetentativa<Long, ByteBuffer> comRetentativa =
+                new ProcessadorComRetentativa<Long, ByteBuffer>(instavel, produtor, politica);
+
+        // O tópico de origem é consumido pelo pipeline, que não para quando um registro falha
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, PipelineConsumo.configurar(new Properties()));
+        PipelineConsumo<Long, ByteBuffer> pipeline = new PipelineConsumo<Long, ByteBuffer>(consumidor,
+                new DesagregadorRegistros<Long>(comRetentativa),
+                configuracao.getInt("consumidor.workers", Runtime.getRuntime().availableProcessors()),
+                configuracao.getInt("consumidor.capacidade", 1000));
+        consumidor.subscribe(Collections.singleton(topico), pipeline.ouvinteRebalanceamento());
+
+        /* Os níveis são consumidos por outro Consumidor, em um grupo próprio
+         * Cada partição fica pausada até o próximo registro dela vencer
+         */
+        KafkaConsumer<Long, ByteBuffer> consumidorNiveis = configuracao.criarConsumidor(idGrupo + "-retentativa",
+                DesserializadorLong.class, DesserializadorByteBuffer.class,
+                ConsumidorRetentativa.configurar(new Properties()));
+        ConsumidorRetentativa<Long, ByteBuffer> retentativa =
+                new ConsumidorRetentativa<Long, ByteBuffer>(consumidorNiveis, comRetentativa);
+        consumidorNiveis.subscribe(politica.getTopicosNiveis(), retentativa.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(pipeline, "pipeline-poll");
+        Thread threadRetentativa = new Thread(retentativa, "retentativa-poll");
+        threadPoll.start();
+        threadRetentativa.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            pipeline.encerrar();
+            retentativa.encerrar();
+            try {
+                threadPoll.join();
+                threadRetentativa.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            produtor.close();
+            logger.info(comRetentativa.getRetentativas() + " registros enviados para retentativa, "
+                    + comRetentativa.getEnviadosDlq() + " para a DLQ e " + retentativa.getProcessados()
+                    + " processados de novo.");
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+        threadRetentativa.join();
+    }
+}
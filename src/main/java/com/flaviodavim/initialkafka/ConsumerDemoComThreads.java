@@ -1,18 +1,34 @@
 package com.flaviodavim.initialkafka;
 
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.PoolConsumidores;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
-import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConsumerDemoComThreads {
 
@@ -25,37 +41,38 @@ public class ConsumerDemoComThreads {
     private void run() {
         Logger logger = LoggerFactory.getLogger(ConsumerDemoComThreads.class.getName());
 
-        String servidorBootstrap = "127.0.0.1:9092";
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
         String idGrupo = "my-sixth-application";
         String topico = "first_topic";
 
-        // O latch serve para lidar com múltiplas threads
-        CountDownLatch latch = new CountDownLatch(1);
+        // O número de threads vem da chave consumidor.threads (ex: -Dkafka.consumidor.threads=8)
+        // Se não for informado, usamos uma thread por partição do tópico
+        int numeroThreads = PoolConsumidores.definirNumeroThreads(topico, configuracao,
+                configuracao.getInt("consumidor.threads", 0));
 
-        // Estamos criando um novo objeto ConsumerRunnable
-        logger.info("Criando a thread consumidora.");
-        Runnable myConsumerRunnable = new ConsumerRunnable(topico, idGrupo, servidorBootstrap, latch);
-
-        // Aqui estamos inicializando a thread
-        Thread myThread = new Thread(myConsumerRunnable);
-        myThread.start();
+        // O pool cria um ConsumerRunnable por thread, todos no mesmo grupo
+        // O Kafka divide as partições do tópico entre eles
+        logger.info("Criando " + numeroThreads + " threads consumidoras.");
+        PoolConsumidores pool = new PoolConsumidores(topico, idGrupo, configuracao, numeroThreads);
+        pool.iniciar(configuracao.getLong("consumidor.relatorio.segundos", 10L));
 
         // Adicionamos um gancho de desligamento
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Pego pelo gancho de desligamento.");
-            ((ConsumerRunnable) myConsumerRunnable).shutDown();
+            pool.encerrar();
 
            try {
-               latch.await();
+               pool.aguardar();
            } catch (InterruptedException e) {
                e.printStackTrace();
            }
 
+           pool.relatarVazao();
            logger.info("Aplicação foi finalizada.");
         }));
 
         try {
-            latch.await();
+            pool.aguardar();
         } catch (InterruptedException e) {
             logger.error("Aplicação interrompida.", e);
         } finally {
@@ -63,45 +80,72 @@ public class ConsumerDemoComThreads {
         }
     }
 
-    public class ConsumerRunnable implements Runnable {
+    public static class ConsumerRunnable implements Runnable {
 
         private CountDownLatch latch;
-        private KafkaConsumer<String, String> consumidor;
+        private KafkaConsumer<Long, ByteBuffer> consumidor;
         private Logger logger = LoggerFactory.getLogger(ConsumerRunnable.class);
+        private ProcessadorRegistro<Long, ByteBuffer> processador;
+        private volatile MetricasConsumidor metricas;
+
+        // Contadores para medir a vazão de cada thread
+        private final AtomicLong registrosProcessados = new AtomicLong();
+        private volatile long inicio;
 
         public ConsumerRunnable(String topico,
                               String idGrupo,
-                              String servidorBootstrap,
+                              ConfiguracaoKafka configuracao,
                               CountDownLatch latch) {
+            this(topico, idGrupo, configuracao, latch, null);
+        }
+
+        // O processador é chamado para cada mensagem; sem ele, as mensagens são escritas no log
+        // Registros enviados pelo AgregadorProdutor são abertos antes de chegar ao processador
+        public ConsumerRunnable(String topico,
+                              String idGrupo,
+                              ConfiguracaoKafka configuracao,
+                              CountDownLatch latch,
+                              ProcessadorRegistro<Long, ByteBuffer> processador) {
             this.latch = latch;
+            this.processador = new DesagregadorRegistros<Long>(processador != null
+                    ? processador
+                    : ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar));
 
             /* O primeiro passo é definir as propriedades do Consumidor que vão ser utilizadas para a sua criação
-             * Para definí-las, utilizamos o objeto Properties do Java
-             * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-             * Para definir as chaves, utilizamos as variáveis estáticas do ConsumerConfig
+             * As propriedades vêm da ConfiguracaoKafka, que junta o arquivo kafka.properties, as variáveis KAFKA_*
+             * e as propriedades -Dkafka.*, então podem ser ajustadas sem mudar o código
              * https://kafka.apache.org/documentation/#consumerconfigs
              */
-            Properties propriedades = new Properties();
-            propriedades.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, servidorBootstrap);
-            propriedades.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-            propriedades.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-            // As variáveis key.serializer e value.serializer ajudam o Consumidor a saber os tipos de dados que ele está recebendo
-            // Isso é importante para o Consumidor saber como deserializar os dados
-            // O StringSerializer é um tipo pronto que identifica o dado como String
-            propriedades.setProperty(ConsumerConfig.GROUP_ID_CONFIG, idGrupo);
-            propriedades.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-            // A variável acima indica a quais dados devem ser lidos. A opções são:
-            //      -> earliest: deseja ler desde o início do tópico
-            //      -> latest: deseja ler apenas as mensagens que estão chegando
-            //      -> none: lança um erro
+            // Os desserializadores ajudam o Consumidor a saber os tipos de dados que ele está recebendo
+            // O DesserializadorLong lê a chave long e o DesserializadorByteBuffer entrega o valor sem copiar nem converter para String
+            // O auto.offset.reset padrão é earliest, para ler desde o início do tópico
 
             /* Em seguida, vamos criar o Consumidor
-             * O Consumidor é criado utilizando as propriedades definidas na passo acima
-             * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso os dois serão String
+             * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
+             * A configuração efetiva é escrita no log
              */
-            consumidor = new KafkaConsumer<String, String>(propriedades);
-            /* Depois vamos inscrever o Consumidor ao tópico */
-            consumidor.subscribe(Collections.singleton(topico));
+            // O commit é feito por este ConsumerRunnable depois de processar cada poll, e não pelo commit automático
+            Properties ajustes = new Properties();
+            ajustes.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+            consumidor = configuracao.criarConsumidor(idGrupo, DesserializadorLong.class, DesserializadorByteBuffer.class,
+                    ajustes);
+
+            /* Depois vamos inscrever o Consumidor ao tópico
+             * O ouvinte é chamado dentro do poll(), quando outra thread do grupo entra ou sai
+             * Como os registros são processados na própria thread do poll, tudo que o poll anterior trouxe
+             * já foi processado quando as partições são revogadas: basta commitar antes de entregá-las
+             */
+            consumidor.subscribe(Collections.singleton(topico), new ConsumerRebalanceListener() {
+                public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                    if (!revogadas.isEmpty()) {
+                        consumidor.commitSync();
+                    }
+                }
+
+                public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                    logger.info("Partições atribuídas: " + atribuidas);
+                }
+            });
 
         }
 
@@ -114,21 +158,43 @@ public class ConsumerDemoComThreads {
              * O poll vai consultar todos os registros desse período
              * A forma de consulta é consultar todos os dados de uma partição antes de seguir para a próxima
              */
+            inicio = System.nanoTime();
             try {
                 while(true) {
-                    ConsumerRecords<String, String> registros = consumidor.poll(Duration.ofMillis(100));
+                    ConsumerRecords<Long, ByteBuffer> registros = consumidor.poll(Duration.ofMillis(100));
+                    registrosProcessados.addAndGet(registros.count());
+                    if (metricas != null) {
+                        metricas.registrarLote(registros);
+                        metricas.atualizarLag(consumidor);
+                    }
 
-                    for(ConsumerRecord<String, String> registro : registros) {
+                    for(ConsumerRecord<Long, ByteBuffer> registro : registros) {
                         // O poll vai trazer os registros que foram consultados a cada tempo, e exibimos cada mensagem lida
-                        logger.info(
-                                "Key: " + registro.key() + ", Value: " + registro.value() + "\n" +
-                                        "Partition: " + registro.partition() + ", Offset: " + registro.offset()
-                        );
+                        try {
+                            processador.processar(registro);
+                        } catch (Exception e) {
+                            logger.error("Erro ao processar o registro.", e);
+                        }
+                    }
+                    // Assíncrono para não esperar o broker a cada poll; o commit seguinte cobre um que falhar
+                    if (!registros.isEmpty()) {
+                        consumidor.commitAsync(new OffsetCommitCallback() {
+                            public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                                if (e != null) {
+                                    logger.warn("Falha ao commitar os offsets " + offsets, e);
+                                }
+                            }
+                        });
                     }
                 }
             } catch (WakeupException e) {
                 logger.info("Recebeu sinal de encerramento.");
             } finally {
+                try {
+                    consumidor.commitSync();
+                } catch (Exception e) {
+                    logger.warn("Falha ao commitar os offsets no encerramento.", e);
+                }
                 consumidor.close();
                 latch.countDown(); // Avisa ao código principal que esse Consumidor foi finalizado
             }
@@ -139,5 +205,24 @@ public class ConsumerDemoComThreads {
             // Ele lança uma exceção: WakeUpException
             consumidor.wakeup();
         }
+
+        // Deve ser chamado antes do run(); cada ConsumerRunnable precisa do seu próprio MetricasConsumidor
+        public void setMetricas(MetricasConsumidor metricas) {
+            this.metricas = metricas;
+        }
+
+        public long getRegistrosProcessados() {
+            return registrosProcessados.get();
+        }
+
+        // Registros por segundo desde o início do run()
+        public double getVazao() {
+            long inicioRun = inicio;
+            if (inicioRun == 0) {
+                return 0;
+            }
+            double segundos = (System.nanoTime() - inicioRun) / 1e9;
+            return segundos > 0 ? registrosProcessados.get() / segundos : 0;
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.gravacao.ConsumidorGravacao;
+import com.flaviodavim.initialkafka.gravacao.GravadorSegmentos;
+import com.flaviodavim.initialkafka.metricas.MetricasGravacao;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Properties;
+
+public class ConsumerDemoGravacao {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoGravacao.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-thirteenth-application";
+        String topico = "first_topic";
+
+        // Os registros são gravados como vieram do broker, então a chave e o valor ficam em bytes
+        KafkaConsumer<ByteBuffer, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorByteBuffer.class, DesserializadorByteBuffer.class,
+                ConsumidorGravacao.configurar(new Properties()));
+
+        /* Em vez de escrever cada registro no log, cada poll é anexado aos segmentos da partição em gravacao.diretorio
+         * O fsync é feito a cada gravacao.fsync.ms ou gravacao.fsync.bytes, para todos os polls desde o anterior,
+         * e só depois dele os offsets são commitados. Um segmento novo começa a cada gravacao.segmento.bytes
+         * ou gravacao.segmento.segundos, com um índice para achar um offset no arquivo
+         * Rode de novo depois de interromper: a gravação continua do último registro no disco, sem repetir registros
+         */
+        GravadorSegmentos gravador = GravadorSegmentos.configurado(configuracao);
+        ConsumidorGravacao gravacao = new ConsumidorGravacao(consumidor, gravador);
+        gravacao.setIntervaloFsync(configuracao.getLong("gravacao.fsync.ms", 100L),
+                configuracao.getLong("gravacao.fsync.bytes", 8L * 1024 * 1024));
+
+        MetricasGravacao metricas = new MetricasGravacao("gravacao");
+        gravacao.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasGravacao", metricas.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000).adicionar(metricas);
+        relatorio.iniciar();
+
+        consumidor.subscribe(Collections.singleton(topico), gravacao.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(gravacao, "gravacao-poll");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            gravacao.encerrar();
+            try {
+                threadPoll.join();
+                gravador.close();
+            } catch (InterruptedException | IOException e) {
+                e.printStackTrace();
+            }
+            relatorio.close();
+            logger.info(metricas.getRegistros() + " registros gravados em " + gravador.getDiretorio() + " com "
+                    + gravacao.getFsyncs() + " fsyncs.");
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
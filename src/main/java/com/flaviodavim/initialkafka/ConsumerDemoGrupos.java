@@ -1,14 +1,25 @@
 package com.flaviodavim.initialkafka;
 
-import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.ModoExecucao;
+import com.flaviodavim.initialkafka.consumidor.ModoOrdenacao;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.deduplicacao.ConjuntoVistos;
+import com.flaviodavim.initialkafka.deduplicacao.IdentificadorRegistro;
+import com.flaviodavim.initialkafka.deduplicacao.ProcessadorDeduplicado;
+import com.flaviodavim.initialkafka.metricas.MetricasDeduplicacao;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Properties;
 
@@ -26,40 +37,79 @@ public class ConsumerDemoGrupos {
         final Logger logger = LoggerFactory.getLogger(ProducerDemoComChaves.class);
 
         /* O primeiro passo é definir as propriedades do Consumidor que vão ser utilizadas para a sua criação
-         * Para definí-las, utilizamos o objeto Properties do Java
-         * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-         * Para definir as chaves, utilizamos as variáveis estáticas do ConsumerConfig
+         * As propriedades ficam centralizadas na ConfiguracaoKafka, que junta o arquivo kafka.properties,
+         * as variáveis de ambiente KAFKA_* e as propriedades de sistema -Dkafka.*
+         * Assim o servidor, o perfil (throughput ou low-latency) e qualquer ajuste podem mudar sem alterar o código
          * https://kafka.apache.org/documentation/#consumerconfigs
          */
-        String bootstrapServers = "127.0.0.1:9092";
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
         String idGrupo = "my-fourth-application";
         String topico = "first_topic";
 
-        Properties propriedades = new Properties();
-        propriedades.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        propriedades.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        propriedades.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // As variáveis key.serializer e value.serializer ajudam o Consumidor a saber os tipos de dados que ele está recebendo
+        // Os desserializadores são passados na criação e ajudam o Consumidor a saber os tipos de dados que ele está recebendo
         // Isso é importante para o Consumidor saber como deserializar os dados
-        // O StringSerializer é um tipo pronto que identifica o dado como String
-        propriedades.setProperty(ConsumerConfig.GROUP_ID_CONFIG, idGrupo);
-        propriedades.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        // A variável acima indica a quais dados devem ser lidos. A opções são:
+        // O DesserializadorLong lê a chave long e o DesserializadorByteBuffer entrega o valor sem copiar nem converter para String
+        // O idGrupo é o padrão desta aplicação e pode ser trocado pela chave group.id
+        // A variável auto.offset.reset, que por padrão é earliest, indica a quais dados devem ser lidos. A opções são:
         //      -> earliest: deseja ler desde o início do tópico
         //      -> latest: deseja ler apenas as mensagens que estão chegando
         //      -> none: lança um erro
+        // O commit automático é desligado nos ajustes, porque o pipeline só commita os registros que já foram processados
+        // O StickyAssignor faz cada instância ficar com as mesmas partições quando outra entra ou sai do grupo
 
 
         /* Em seguida, o segundo passo é criar o Consumidor
-         * O Consumidor é criado utilizando as propriedades definidas na passo 1
-         * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso os dois serão String
+         * O Consumidor é criado utilizando as propriedades definidas na passo 1, que são escritas no log
+         * Na criação do Consumidor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
          */
 
-        KafkaConsumer<String, String> consumidor = new KafkaConsumer<String, String>(propriedades);
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class,
+                PipelineConsumo.configurarAtribuicaoEstavel(PipelineConsumo.configurar(new Properties())));
+
+        /* Os registros de uma mesma partição não precisam ser processados um de cada vez
+         * As chaves (0..9 no ProducerDemoComChaves) só precisam manter a ordem entre registros da mesma chave
+         * No modo CHAVE o pipeline distribui os registros da partição entre várias faixas pelo hash da chave
+         * Cada faixa mantém a ordem das suas chaves e as faixas são processadas em paralelo
+         * Com consumidor.modo=virtual cada faixa roda em uma thread virtual (Java 21+), o que permite
+         * centenas de registros esperando I/O ao mesmo tempo; consumidor.workers é o limite de concorrência
+         */
+        ModoExecucao modoExecucao = ModoExecucao.deNome(configuracao.get("consumidor.modo", "plataforma"));
+        int numeroWorkers = configuracao.getInt("consumidor.workers", Runtime.getRuntime().availableProcessors());
+
+        /* O ProcessadorDeduplicado guarda os ids dos registros já processados e pula os repetidos
+         * A memória é fixa (chaves deduplicacao.*): um filtro de Bloom por janela de tempo e uma tabela exata dos mais recentes
+         * Os ids ficam só na memória deste processo: uma partição que vai para outra instância, ou esta instância
+         * reiniciando, volta ao último commit sem o conjunto saber o que já foi processado
+         * O padrão é o id pela posição (deduplicacao.identificador=posicao): só o mesmo offset lido de novo por esta
+         * instância é pulado. Com conteudo, a chave e o valor, pega também o mesmo dado reenviado pelo Produtor,
+         * mas dois registros legítimos iguais viram um só
+         */
+        ConjuntoVistos vistos = ConjuntoVistos.configurado(configuracao);
+        IdentificadorRegistro<Long, ByteBuffer> identificador =
+                "conteudo".equals(configuracao.get("deduplicacao.identificador", "posicao"))
+                ? IdentificadorRegistro.<Long>conteudo()
+                : IdentificadorRegistro.<Long, ByteBuffer>posicao();
+        ProcessadorDeduplicado<Long, ByteBuffer> deduplicado = new ProcessadorDeduplicado<Long, ByteBuffer>(
+                new DesagregadorRegistros<Long>(
+                        ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar)),
+                identificador, vistos);
+
+        // Os repetidos, os suspeitos e a taxa de falso positivo estimada do filtro aparecem no log e no JMX
+        MetricasDeduplicacao metricas = new MetricasDeduplicacao("deduplicacao", vistos::taxaFalsoPositivoEstimada);
+        deduplicado.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasDeduplicacao", metricas.getNome());
+        new RelatorioMetricas(configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000)
+                .adicionar(metricas).iniciar();
+
+        PipelineConsumo<Long, ByteBuffer> pipeline = new PipelineConsumo<Long, ByteBuffer>(consumidor,
+                deduplicado, modoExecucao, numeroWorkers, 1000);
+        pipeline.setModoOrdenacao(ModoOrdenacao.CHAVE);
+        pipeline.setFaixasPorParticao(numeroWorkers);
 
         /* O terceiro passo é inscrever o Consumidor ao tópico
          */
-        consumidor.subscribe(Collections.singleton(topico));
+        consumidor.subscribe(Collections.singleton(topico), pipeline.ouvinteRebalanceamento());
         // consumidor.subscribe(Arrays.asList("first_topic", "second_topic"));
 
         /* O último passo é receber o dado
@@ -68,25 +118,16 @@ public class ConsumerDemoGrupos {
          * O poll recebe o objeto Duration que indica o tempo que o Consumidor tem para terminar de consumir os dados
          * O poll vai consultar todos os registros desse período
          * A forma de consulta é consultar todos os dados de uma partição antes de seguir para a próxima
+         * O pipeline faz o poll nessa thread e entrega os registros para as threads de trabalho
          */
-
-        while(true) {
-             ConsumerRecords<String, String> registros = consumidor.poll(Duration.ofMillis(100));
-
-             for(ConsumerRecord<String, String> registro : registros) {
-                 // O poll vai trazer os registros que foram consultados a cada tempo, e exibimos cada mensagem lida
-                 logger.info(
-                         "Key: " + registro.key() + ", Value: " + registro.value() + "\n" +
-                         "Partition: " + registro.partition() + ", Offset: " + registro.offset()
-                 );
-             }
-        }
+        pipeline.run();
 
         /*
          * Se rodarmos mais de uma instância dessa aplicação, vamos ver a ação do ConsumerCoordinator
          * Ele vai separando a responsabilidade de consumo das partições, entre as instâncias
          * Caso haja o número de instâncias igual ao de partições, cada uma é responsável por uma partição
          * A instância do Consumidor só vai ler os dados das partições que ele é responsável
+         * A cada entrada ou saída o pipeline escreve no log quantas partições são novas e quanto tempo o processamento parou
          */
 
     }
@@ -0,0 +1,104 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.janelas.AgregacaoJanelas;
+import com.flaviodavim.initialkafka.janelas.DefinicaoJanela;
+import com.flaviodavim.initialkafka.janelas.ExtratorAgregacao;
+import com.flaviodavim.initialkafka.janelas.ReceptorJanela;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Properties;
+
+public class ConsumerDemoJanelas {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoJanelas.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-tenth-application";
+        String topico = "first_topic";
+
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, PipelineConsumo.configurar(new Properties()));
+
+        /* Em vez de escrever cada registro no log, o pipeline conta e soma os registros de cada chave por janela de tempo
+         * Com janelas.avanco.segundos menor que janelas.tamanho.segundos as janelas se sobrepõem (hopping)
+         * A soma é do índice da MensagemDemo, só para ter um valor numérico em cada registro
+         */
+        Duration tamanho = Duration.ofSeconds(configuracao.getLong("janelas.tamanho.segundos", 60L));
+        Duration avanco = Duration.ofSeconds(configuracao.getLong("janelas.avanco.segundos", tamanho.getSeconds()));
+        DefinicaoJanela definicao = DefinicaoJanela.comSalto(tamanho, avanco);
+
+        ExtratorAgregacao<Long, ByteBuffer> extrator = new ExtratorAgregacao<Long, ByteBuffer>() {
+            public long chave(ConsumerRecord<Long, ByteBuffer> registro) {
+                return registro.key() == null ? -1 : registro.key();
+            }
+
+            public long valor(ConsumerRecord<Long, ByteBuffer> registro) {
+                return registro.value() == null ? 0 : MensagemDemo.lerIndice(registro.value());
+            }
+        };
+
+        // O resultado de cada janela só aparece quando ela fecha: quando chega um registro depois do fim dela mais a carência
+        ReceptorJanela receptor = new ReceptorJanela() {
+            public void janelaFechada(long chave, long inicio, long fim, long contagem, long soma) {
+                logger.info("Chave " + chave + ", janela [" + Instant.ofEpochMilli(inicio) + ", " + Instant.ofEpochMilli(fim)
+                        + "): " + contagem + " registros, soma " + soma);
+            }
+        };
+
+        /* O estado das janelas abertas é gravado no disco periodicamente, junto com o offset até onde ele vai
+         * Ao reiniciar, o Consumidor continua desse offset em vez de ler tudo de novo para remontar as janelas
+         */
+        File diretorio = new File(configuracao.get("janelas.diretorio",
+                new File(System.getProperty("java.io.tmpdir"), "initial-kafka-janelas").getPath()));
+        AgregacaoJanelas<Long, ByteBuffer> agregacao = new AgregacaoJanelas<Long, ByteBuffer>(
+                definicao, extrator, receptor, diretorio);
+        agregacao.setCarenciaMs(configuracao.getLong("janelas.carencia.segundos", 5L) * 1000);
+        agregacao.setIntervaloSnapshotMs(configuracao.getLong("janelas.snapshot.segundos", 30L) * 1000);
+        logger.info("Agregando " + topico + " em janelas " + definicao + ", estado em " + diretorio);
+
+        // O modo de ordenação padrão (PARTICAO) processa um registro por vez em cada partição, como a agregação precisa
+        PipelineConsumo<Long, ByteBuffer> pipeline = new PipelineConsumo<Long, ByteBuffer>(consumidor,
+                new DesagregadorRegistros<Long>(agregacao),
+                configuracao.getInt("consumidor.workers", Runtime.getRuntime().availableProcessors()),
+                configuracao.getInt("consumidor.capacidade", 1000));
+
+        // O ouvinte da agregação grava o estado das partições revogadas e restaura o das atribuídas
+        consumidor.subscribe(Collections.singleton(topico),
+                agregacao.ouvinteRebalanceamento(consumidor, pipeline.ouvinteRebalanceamento()));
+
+        Thread threadPoll = new Thread(pipeline, "pipeline-poll");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            pipeline.encerrar();
+            try {
+                threadPoll.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            agregacao.gravarEstado();
+            logger.info(agregacao.getRegistros() + " registros agregados, " + agregacao.getJanelasFechadas()
+                    + " janelas fechadas e " + agregacao.getJanelasAbertas() + " ainda abertas.");
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
@@ -0,0 +1,80 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agendamento.AgendadorTopicos;
+import com.flaviodavim.initialkafka.agendamento.PoliticaTopico;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.metricas.MetricasAgendamento;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class ConsumerDemoPrioridades {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoPrioridades.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-fourteenth-application";
+
+        // O laço commita só o que foi processado, e não o que está nas filas dos tópicos
+        Properties ajustes = AgendadorTopicos.configurar(new Properties());
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, ajustes);
+
+        /* Um Consumidor para vários tópicos, em vez de um tópico só como no ConsumerDemoComThreads
+         * Sem o agendador, um tópico com muito atraso (ex: o carga_topic do ProducerDemoCarga) enche todos os polls
+         * e os registros do first_topic esperam atrás dele. Com ele, cada tópico tem a política das chaves
+         * agendamento.<tópico>.*: o de prioridade maior é processado primeiro, os de mesma prioridade dividem
+         * cada volta pelo peso, e a taxa limita os registros por segundo de um tópico.
+         */
+        AgendadorTopicos<Long, ByteBuffer> agendador = new AgendadorTopicos<Long, ByteBuffer>(consumidor,
+                ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger));
+        agendador.setLimites(configuracao.getInt("agendamento.registros.por.volta", 100),
+                configuracao.getInt("agendamento.fila", 500));
+        List<String> topicos = new ArrayList<String>();
+        for (String topico : configuracao.get("agendamento.topicos", "first_topic").split(",")) {
+            PoliticaTopico politica = PoliticaTopico.configurada(configuracao, topico.trim());
+            agendador.definir(politica);
+            topicos.add(politica.getTopico());
+        }
+
+        MetricasAgendamento metricas = new MetricasAgendamento("agendador");
+        agendador.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasAgendamento", metricas.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000).adicionar(metricas);
+        relatorio.iniciar();
+
+        consumidor.subscribe(topicos, agendador.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(agendador, "agendador-poll");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            agendador.encerrar();
+            try {
+                threadPoll.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            relatorio.close();
+            logger.info(agendador.getProcessados() + " registros processados, " + agendador.getPausas()
+                    + " pausas. Espera p99 por tópico: " + metricas.getEsperaP99PorTopico());
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
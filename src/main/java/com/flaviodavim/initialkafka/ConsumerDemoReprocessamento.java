@@ -0,0 +1,94 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.agregacao.DesagregadorRegistros;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.consumidor.IntervaloReprocessamento;
+import com.flaviodavim.initialkafka.consumidor.PipelineConsumo;
+import com.flaviodavim.initialkafka.consumidor.ProcessadorLog;
+import com.flaviodavim.initialkafka.consumidor.Reprocessador;
+import com.flaviodavim.initialkafka.consumidor.ResultadoReprocessamento;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+
+public class ConsumerDemoReprocessamento {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoReprocessamento.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String topico = configuracao.get("reprocessamento.topico", "first_topic");
+
+        /* O trecho a ser lido de novo pode ser dado por tempo ou por offset, igual para todas as partições
+         *      -> reprocessamento.inicio / reprocessamento.fim: instantes ISO-8601 (ex: 2018-08-01T00:00:00Z)
+         *      -> reprocessamento.horas: sem início, lê as últimas horas (padrão 24)
+         *      -> reprocessamento.offset.inicio / reprocessamento.offset.fim: por offset, no lugar do tempo
+         * Sem fim, a leitura vai até o fim de cada partição no momento em que o reprocessamento começa
+         */
+        IntervaloReprocessamento intervalo = intervalo(configuracao);
+
+        /* O Reprocessador usa assign em vez de subscribe, então não entra em nenhum grupo e não commita offsets
+         * Por isso o Consumidor é criado sem group.id e sem commit automático
+         * Para reprocessar muitos dados, use o perfil throughput (-Dkafka.perfil=throughput): fetch e polls maiores
+         */
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(null,
+                DesserializadorLong.class, DesserializadorByteBuffer.class, PipelineConsumo.configurar(new Properties()));
+
+        // As partições são lidas ao mesmo tempo e entregues ao destino por um pool de threads, em ordem dentro da partição
+        int numeroWorkers = configuracao.getInt("consumidor.workers", Runtime.getRuntime().availableProcessors());
+        int capacidadePorParticao = configuracao.getInt("consumidor.capacidade", 1000);
+        Reprocessador<Long, ByteBuffer> reprocessador = new Reprocessador<Long, ByteBuffer>(consumidor,
+                new DesagregadorRegistros<Long>(
+                        ProcessadorLog.<Long, ByteBuffer>configurado(configuracao, logger, MensagemDemo::formatar)),
+                numeroWorkers, capacidadePorParticao);
+        reprocessador.setIntervaloRelatorioMs(configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000);
+        reprocessador.setTempoPoll(Duration.ofMillis(500));
+
+        Thread principal = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            reprocessador.cancelar();
+            try {
+                principal.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }));
+
+        try {
+            ResultadoReprocessamento resultado = reprocessador.executar(topico, intervalo);
+            logger.info("Reprocessados " + resultado);
+        } finally {
+            reprocessador.close();
+            logger.info("Aplicação foi finalizada.");
+        }
+    }
+
+    private static IntervaloReprocessamento intervalo(ConfiguracaoKafka configuracao) {
+        long offsetInicio = configuracao.getLong("reprocessamento.offset.inicio", -1L);
+        if (offsetInicio >= 0) {
+            long offsetFim = configuracao.getLong("reprocessamento.offset.fim", -1L);
+            return offsetFim >= 0
+                    ? IntervaloReprocessamento.porOffset(offsetInicio, offsetFim)
+                    : IntervaloReprocessamento.desdeOffset(offsetInicio);
+        }
+
+        String inicio = configuracao.get("reprocessamento.inicio", null);
+        Instant instanteInicio = inicio != null
+                ? Instant.parse(inicio)
+                : Instant.now().minus(Duration.ofHours(configuracao.getLong("reprocessamento.horas", 24L)));
+        String fim = configuracao.get("reprocessamento.fim", null);
+        return fim != null
+                ? IntervaloReprocessamento.porTempo(instanteInicio, Instant.parse(fim))
+                : IntervaloReprocessamento.desde(instanteInicio);
+    }
+}
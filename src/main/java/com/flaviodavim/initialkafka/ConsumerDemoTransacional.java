@@ -0,0 +1,82 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.serde.DesserializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.DesserializadorLong;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import com.flaviodavim.initialkafka.transacao.PipelineTransacional;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Properties;
+
+public class ConsumerDemoTransacional {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ConsumerDemoTransacional.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String idGrupo = "my-ninth-application";
+        String topicoEntrada = "first_topic";
+        String topicoSaida = configuracao.get("transacao.topico.saida", "first_topic_processado");
+
+        /* O Consumidor lê só o que já foi confirmado (read_committed) e não commita sozinho:
+         * os offsets dele são commitados pela transação do Produtor, junto com a saída
+         */
+        KafkaConsumer<Long, ByteBuffer> consumidor = configuracao.criarConsumidor(idGrupo,
+                DesserializadorLong.class, DesserializadorByteBuffer.class,
+                PipelineTransacional.configurarConsumidor(new Properties()));
+
+        /* O transactional.id deve ser o mesmo entre reinícios desta instância e diferente entre instâncias
+         * Ao reiniciar, o Produtor novo aborta a transação que a instância anterior deixou aberta
+         * Com subscribe() e um id fixo, o exatamente uma vez só vale com uma instância no grupo: com várias, um
+         * rebalanceamento pode deixar uma instância atrasada commitar registros que já são de outra (ver PipelineTransacional)
+         */
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(SerializadorLong.class, SerializadorByteBuffer.class,
+                PipelineTransacional.configurarProdutor(new Properties(),
+                        configuracao.get("transacao.id", "initial-kafka-transacional-0")));
+
+        // Cada registro lido é copiado para o tópico de saída com a mesma chave; registros sem valor são descartados
+        PipelineTransacional<Long, ByteBuffer, Long, ByteBuffer> pipeline = new PipelineTransacional<Long, ByteBuffer, Long, ByteBuffer>(
+                consumidor, produtor,
+                (registro, saida) -> {
+                    if (registro.value() != null) {
+                        saida.add(new ProducerRecord<Long, ByteBuffer>(topicoSaida, registro.key(), registro.value()));
+                    }
+                },
+                idGrupo);
+
+        /* Uma transação junta polls inteiros até passar do número de registros ou do intervalo
+         * Transações maiores dão mais vazão, e menores deixam a saída visível mais cedo para os Consumidores read_committed
+         */
+        pipeline.setRegistrosPorTransacao(configuracao.getInt("transacao.registros", 5000));
+        pipeline.setIntervaloTransacaoMs(configuracao.getLong("transacao.intervalo.ms", 100L));
+
+        consumidor.subscribe(Collections.singleton(topicoEntrada), pipeline.ouvinteRebalanceamento());
+
+        Thread threadPoll = new Thread(pipeline, "pipeline-transacional");
+        threadPoll.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            pipeline.encerrar();
+            try {
+                threadPoll.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            logger.info(pipeline.getTransacoes() + " transações, " + pipeline.getAbortadas() + " abortadas, "
+                    + pipeline.getConsumidos() + " registros consumidos e " + pipeline.getProduzidos() + " produzidos.");
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        threadPoll.join();
+    }
+}
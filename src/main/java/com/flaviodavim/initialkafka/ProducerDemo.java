@@ -1,11 +1,14 @@
 package com.flaviodavim.initialkafka;
 
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
 import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.StringSerializer;
 
-import java.util.Properties;
+import java.nio.ByteBuffer;
 
 public class ProducerDemo {
 
@@ -19,34 +22,34 @@ public class ProducerDemo {
          */
 
         /* O primeiro passo é definir as propriedades do Produtor que vão ser utilizadas para a criação do Produtor.
-         * Para definí-las, utilizamos o objeto Properties do Java
-         * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-         * Para definir as chaves, utilizamos as variáveis estáticas do ProducerConfig
+         * As propriedades ficam centralizadas na ConfiguracaoKafka, que junta o arquivo kafka.properties,
+         * as variáveis de ambiente KAFKA_* e as propriedades de sistema -Dkafka.*
+         * Assim o servidor, o perfil (throughput ou low-latency) e qualquer ajuste podem mudar sem alterar o código
          * https://kafka.apache.org/documentation/#producerconfigs
          */
-        String bootstrapServers = "127.0.0.1:9092";
-
-        Properties propriedades = new Properties();
-        propriedades.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        propriedades.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        propriedades.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // As variáveis key.serializer e value.serializer ajudam o Produtor a saber os tipos de dados que ele está enviando
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        // Os serializadores são passados na criação e ajudam o Produtor a saber os tipos de dados que ele está enviando
         // Isso é importante para o Produtor saber como serializar os dados
-        // O StringSerializer é um tipo pronto que identifica o dado como String
+        // A chave é um long (SerializadorLong) e o valor é um registro binário montado pelo EscritorRegistro
+        // Assim a mensagem não precisa ser convertida para String antes do envio
 
 
         /* Em seguida, o segundo passo é criar o Produtor
-         * O produtor é criado utilizando as propriedades definidas na passo 1
-         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso os dois serão String
+         * O produtor é criado utilizando as propriedades definidas na passo 1, que são escritas no log
+         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
          */
 
-        KafkaProducer<String, String> produtor = new KafkaProducer<String, String>(propriedades);
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorLong.class, SerializadorByteBuffer.class);
 
         /* O terceiro passo é criar um registro
          * O registro é basicamente a mensagem que o Produtor vai enviar
          * O registro precisa indicar o tópico para quem vai mandar e a mensagem. A chave é opcional
          */
-        ProducerRecord<String, String> registro = new ProducerRecord<String, String>("first_topic", "Hello World!");
+        // O EscritorRegistro monta o valor no formato binário definido em MensagemDemo
+        EscritorRegistro escritor = new EscritorRegistro(64);
+        ByteBuffer valor = MensagemDemo.escrever(escritor, 0, "Hello World!");
+        ProducerRecord<Long, ByteBuffer> registro = new ProducerRecord<Long, ByteBuffer>("first_topic", valor);
 
         /* O último passo é enviar o dado
          * Isso é feito utilizando um método do próprio Produtor
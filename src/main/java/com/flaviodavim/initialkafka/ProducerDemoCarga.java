@@ -0,0 +1,68 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.produtor.GeradorCarga;
+import com.flaviodavim.initialkafka.produtor.ProdutorAssincrono;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Properties;
+
+public class ProducerDemoCarga {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ProducerDemoCarga.class);
+
+        /* Envia uma carga configurável para um tópico, para ver como o broker e os Consumidores se comportam
+         * Tudo vem das chaves carga.* do kafka.properties (ou -Dkafka.carga.taxa=5000, KAFKA_CARGA_TAXA=5000...)
+         * O perfil (throughput ou low-latency) muda bastante o resultado com a mesma carga
+         */
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorLong.class, SerializadorByteBuffer.class,
+                ProdutorAssincrono.configurarOrdenacao(new Properties()));
+        final ProdutorAssincrono<Long, ByteBuffer> produtorAssincrono = new ProdutorAssincrono<Long, ByteBuffer>(
+                produtor, configuracao.getInt("carga.em.voo", 1000));
+
+        MetricasProdutor metricas = new MetricasProdutor("produtor-carga");
+        produtorAssincrono.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasProdutor", metricas.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000).adicionar(metricas);
+        relatorio.iniciar();
+
+        final GeradorCarga gerador = GeradorCarga.configurado(configuracao, produtorAssincrono);
+
+        // Ctrl+C para o gerador antes do total; o que já foi enviado ainda é confirmado antes de fechar
+        final Thread principal = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            gerador.encerrar();
+            try {
+                principal.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }));
+
+        long inicio = System.nanoTime();
+        gerador.run();
+        produtorAssincrono.aguardarConclusao();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        logger.info(String.format(Locale.ROOT, "Enviados: %d registros (%.1f MB) em %.1f s, %.0f registros/s. Falhas: %d",
+                gerador.getEnviados(), gerador.getBytesEnviados() / (1024.0 * 1024), segundos,
+                gerador.getEnviados() / segundos, produtorAssincrono.getFalhas()));
+        relatorio.close();
+        produtorAssincrono.close();
+    }
+}
@@ -1,11 +1,16 @@
 package com.flaviodavim.initialkafka;
 
+import com.flaviodavim.initialkafka.agregacao.AgregadorProdutor;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
 import org.apache.kafka.clients.producer.*;
-import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Properties;
+import java.nio.ByteBuffer;
 
 public class ProducerDemoComCallback {
 
@@ -21,37 +26,68 @@ public class ProducerDemoComCallback {
         final Logger logger = LoggerFactory.getLogger(ProducerDemoComCallback.class);
 
         /* O primeiro passo é definir as propriedades do Produtor que vão ser utilizadas para a criação do Produtor.
-         * Para definí-las, utilizamos o objeto Properties do Java
-         * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-         * Para definir as chaves, utilizamos as variáveis estáticas do ProducerConfig
+         * As propriedades ficam centralizadas na ConfiguracaoKafka, que junta o arquivo kafka.properties,
+         * as variáveis de ambiente KAFKA_* e as propriedades de sistema -Dkafka.*
+         * Assim o servidor, o perfil (throughput ou low-latency) e qualquer ajuste podem mudar sem alterar o código
          * https://kafka.apache.org/documentation/#producerconfigs
          */
-        String bootstrapServers = "127.0.0.1:9092";
-
-        Properties propriedades = new Properties();
-        propriedades.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        propriedades.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        propriedades.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // As variáveis key.serializer e value.serializer ajudam o Produtor a saber os tipos de dados que ele está enviando
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        // Os serializadores são passados na criação e ajudam o Produtor a saber os tipos de dados que ele está enviando
         // Isso é importante para o Produtor saber como serializar os dados
-        // O StringSerializer é um tipo pronto que identifica o dado como String
+        // A chave é um long (SerializadorLong) e o valor é um registro binário montado pelo EscritorRegistro
+        // Assim a mensagem não precisa ser convertida para String antes do envio
 
 
         /* Em seguida, o segundo passo é criar o Produtor
-         * O produtor é criado utilizando as propriedades definidas na passo 1
-         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso os dois serão String
+         * O produtor é criado utilizando as propriedades definidas na passo 1, que são escritas no log
+         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
          */
 
-        KafkaProducer<String, String> produtor = new KafkaProducer<String, String>(propriedades);
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorLong.class, SerializadorByteBuffer.class);
 
         /* O terceiro passo é criar um registro
          * O registro é basicamente a mensagem que o Produtor vai enviar
          * O registro precisa indicar o tópico para quem vai mandar e a mensagem. A chave é opcional
          * Podemos criar vários registros e mandá-los enquanto o Produtor esteja ativo
          */
+        // O escritor reaproveita o mesmo buffer para todas as mensagens
+        // Isso é seguro porque o send() serializa o registro antes de retornar
+        EscritorRegistro escritor = new EscritorRegistro(64);
+
+        // Esse método é executado sempre que um registro é enviado com sucesso ou quando é lançada alguma excessão
+        Callback callback = new Callback() {
+            public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+                if (e == null) {
+                    // Se essa condição for verdadeira, não houve exceção e o registro foi enviado com sucesso
+                    logger.info(
+                        "Recebe um novo metadado. \n" +
+                        "Tópico: " + recordMetadata.topic() + "\n" +
+                        "Partição: " + recordMetadata.partition() + "\n" +
+                        "Offset: " + recordMetadata.offset() + "\n" +
+                        "Timestamp: " + recordMetadata.timestamp()
+                    );
+                } else {
+                    logger.error("Erro durante a produção", e) ;
+                }
+            }
+        };
+
+        /* Mensagens pequenas como essas custam mais pelo registro do que pelo conteúdo
+         * Com a chave produtor.agregacao=true, o AgregadorProdutor junta as mensagens em um único registro,
+         * que é enviado quando passa de produtor.agregacao.bytes ou espera mais de produtor.agregacao.ms
+         * Nesse caso o callback é chamado uma vez por registro agregado, e não por mensagem
+         * Os Consumidores de exemplo abrem os registros agregados com o DesagregadorRegistros
+         */
+        AgregadorProdutor<Long> agregador = null;
+        if (configuracao.getBoolean("produtor.agregacao", false)) {
+            agregador = new AgregadorProdutor<Long>(produtor,
+                    configuracao.getInt("produtor.agregacao.bytes", AgregadorProdutor.TAMANHO_MAXIMO_PADRAO),
+                    configuracao.getLong("produtor.agregacao.ms", 10L), callback);
+        }
+
         for(int i=0; i < 10; i++) {
-            ProducerRecord<String, String> registro =
-                    new ProducerRecord<String, String>("first_topic", "Hello World! (" + Integer.toString(i) + ") ");
+            ByteBuffer valor = MensagemDemo.escrever(escritor, i, "Hello World!");
 
             /* O último passo é enviar o dado
              * Isso é feito utilizando um método do próprio Produtor
@@ -60,27 +96,21 @@ public class ProducerDemoComCallback {
              *      -> flush: espera o envio
              *      -> close: espera o envio e depois fecha o Produtor
              */
-            produtor.send(registro, new Callback() {
-                public void onCompletion(RecordMetadata recordMetadata, Exception e) {
-                    // Esse método é executado sempre que um registro é enviado com sucesso ou quando é lançada alguma excessão
-                    if (e == null) {
-                        // Se essa condição for verdadeira, não houve exceção e o registro foi enviado com sucesso
-                        logger.info(
-                            "Recebe um novo metadado. \n" +
-                            "Tópico: " + recordMetadata.topic() + "\n" +
-                            "Partição: " + recordMetadata.partition() + "\n" +
-                            "Offset: " + recordMetadata.offset() + "\n" +
-                            "Timestamp: " + recordMetadata.timestamp()
-                        );
-                    } else {
-                        logger.error("Erro durante a produção", e) ;
-                    }
-                }
-            });
+            if (agregador != null) {
+                agregador.enviar("first_topic", null, valor);
+            } else {
+                produtor.send(new ProducerRecord<Long, ByteBuffer>("first_topic", valor), callback);
+            }
         }
 
-        produtor.flush();
-        produtor.close();
+        if (agregador != null) {
+            // Envia o último quadro, espera o envio e fecha o Produtor
+            agregador.close();
+            logger.info(agregador.getMensagens() + " mensagens enviadas em " + agregador.getRegistros() + " registros.");
+        } else {
+            produtor.flush();
+            produtor.close();
+        }
 
     }
 }
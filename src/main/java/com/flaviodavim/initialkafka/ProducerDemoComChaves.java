@@ -1,16 +1,26 @@
 package com.flaviodavim.initialkafka;
 
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.MetricasParticionamento;
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import com.flaviodavim.initialkafka.produtor.ParticionadorChavesQuentes;
+import com.flaviodavim.initialkafka.produtor.ProdutorAssincrono;
 import org.apache.kafka.clients.producer.*;
-import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.Properties;
-import java.util.concurrent.ExecutionException;
 
 public class ProducerDemoComChaves {
 
-    public static void main(String[] args) throws ExecutionException, InterruptedException {
+    public static void main(String[] args) throws InterruptedException {
 
         /* O funcionamento de um Produtor é separado em 4 etapas:
          * 1. Definir as propriedades do Produtor
@@ -22,44 +32,66 @@ public class ProducerDemoComChaves {
         final Logger logger = LoggerFactory.getLogger(ProducerDemoComChaves.class);
 
         /* O primeiro passo é definir as propriedades do Produtor que vão ser utilizadas para a criação do Produtor.
-         * Para definí-las, utilizamos o objeto Properties do Java
-         * Cada propriedade é definida passando uma chave, que identifica a propriedade, e o valor que a define.
-         * Para definir as chaves, utilizamos as variáveis estáticas do ProducerConfig
+         * As propriedades ficam centralizadas na ConfiguracaoKafka, que junta o arquivo kafka.properties,
+         * as variáveis de ambiente KAFKA_* e as propriedades de sistema -Dkafka.*
+         * Assim o servidor, o perfil (throughput ou low-latency) e qualquer ajuste podem mudar sem alterar o código
          * https://kafka.apache.org/documentation/#producerconfigs
          */
-        String bootstrapServers = "127.0.0.1:9092";
-
-        Properties propriedades = new Properties();
-        propriedades.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        propriedades.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        propriedades.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // As variáveis key.serializer e value.serializer ajudam o Produtor a saber os tipos de dados que ele está enviando
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        // Os serializadores são passados na criação e ajudam o Produtor a saber os tipos de dados que ele está enviando
         // Isso é importante para o Produtor saber como serializar os dados
-        // O StringSerializer é um tipo pronto que identifica o dado como String
+        // A chave é um long (SerializadorLong) e o valor é um registro binário montado pelo EscritorRegistro
+        // Assim a mensagem não precisa ser convertida para String antes do envio
+        // Com vários envios em voo, a idempotência garante que mensagens com a mesma chave continuem na ordem dentro da partição
+        // Ela é passada como ajuste na criação, e por isso ganha de qualquer valor configurado
 
 
         /* Em seguida, o segundo passo é criar o Produtor
-         * O produtor é criado utilizando as propriedades definidas na passo 1
-         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso os dois serão String
+         * O produtor é criado utilizando as propriedades definidas na passo 1, que são escritas no log
+         * Na criação do produtor definimos que os objetos de chave e valor, nesse caso Long e ByteBuffer
          */
 
-        KafkaProducer<String, String> produtor = new KafkaProducer<String, String>(propriedades);
+        // O ParticionadorChavesQuentes escolhe a mesma partição do particionador padrão e ainda detecta chaves quentes
+        // As métricas dele mostram quantos registros cada partição recebeu
+        MetricasParticionamento metricasParticionamento = new MetricasParticionamento("particionador-com-chaves");
+        KafkaProducer<Long, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorLong.class, SerializadorByteBuffer.class,
+                ParticionadorChavesQuentes.configurar(ProdutorAssincrono.configurarOrdenacao(new Properties()),
+                        metricasParticionamento));
+
+        // O ProdutorAssincrono limita quantos envios podem ficar aguardando confirmação ao mesmo tempo
+        // Assim não precisamos bloquear cada envio esperando a resposta do broker
+        int maxEmVoo = 100;
+        ProdutorAssincrono<Long, ByteBuffer> produtorAssincrono = new ProdutorAssincrono<Long, ByteBuffer>(produtor, maxEmVoo);
+
+        // As métricas medem o tempo de cada envio até a confirmação do broker, e também ficam no JMX
+        MetricasProdutor metricas = new MetricasProdutor("produtor-com-chaves");
+        produtorAssincrono.setMetricas(metricas);
+        RegistroJmx.registrar(metricas, "MetricasProdutor", metricas.getNome());
+        RegistroJmx.registrar(metricasParticionamento, "MetricasParticionamento", metricasParticionamento.getNome());
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000)
+                .adicionar(metricas).adicionar(metricasParticionamento);
+        relatorio.iniciar();
 
         /* O terceiro passo é criar um registro
          * O registro é basicamente a mensagem que o Produtor vai enviar
          * O registro precisa indicar o tópico para quem vai mandar e a mensagem. A chave é opcional
          * Podemos criar vários registros e mandá-los enquanto o Produtor esteja ativo 
          */
+        // O escritor reaproveita o mesmo buffer para todas as mensagens
+        // Isso é seguro porque o send() serializa o registro antes de retornar
+        EscritorRegistro escritor = new EscritorRegistro(64);
         for(int i=0; i < 10; i++) {
 
             String topico = "first_topic";
-            String valor = "Hello World! (" + Integer.toString(i) + ") ";
-            String chave = "Id_" + Integer.toString(i);
+            ByteBuffer valor = MensagemDemo.escrever(escritor, i, "Hello World!");
+            Long chave = (long) i;
             logger.info("Chave: " + chave);
 
             // Ao utilizar a chave garantimos que as mensagens com mesma chave sempre vão para a mesma partição
             // O mapeamento muda caso o número de partições também mude
-            ProducerRecord<String, String> registro = new ProducerRecord<String, String>(topico, chave, valor);
+            ProducerRecord<Long, ByteBuffer> registro = new ProducerRecord<Long, ByteBuffer>(topico, chave, valor);
 
             /* O último passo é enviar o dado
              * Isso é feito utilizando um método do próprio Produtor
@@ -67,8 +99,9 @@ public class ProducerDemoComChaves {
              * Para resolver o provlema de assíncronismo, podemos utilizar:
              *      -> flush: espera o envio
              *      -> close: espera o envio e depois fecha o Produtor
+             * O ProdutorAssincrono só bloqueia quando há maxEmVoo registros aguardando confirmação
              */
-            produtor.send(registro, new Callback() {
+            produtorAssincrono.enviar(registro, new Callback() {
                 public void onCompletion(RecordMetadata recordMetadata, Exception e) {
                     // Esse método é executado sempre que um registro é enviado com sucesso ou quando é lançada alguma excessão
                     if (e == null) {
@@ -84,11 +117,15 @@ public class ProducerDemoComChaves {
                         logger.error("Erro durante a produção", e) ;
                     }
                 }
-            }).get(); // Bloqueia o send() para torná-lo síncrono. NÃO DEVE SER UTILIZADO EM PRODUÇÃO
+            });
         }
 
-        produtor.flush();
-        produtor.close();
+        // Espera todos os envios em voo serem confirmados antes de fechar
+        produtorAssincrono.aguardarConclusao();
+        logger.info("Enviados: " + produtorAssincrono.getConfirmados() + ", Falhas: " + produtorAssincrono.getFalhas());
+        // Ao fechar, o relatório escreve o último intervalo, com a latência dos envios desta execução
+        relatorio.close();
+        produtorAssincrono.close();
 
     }
 }
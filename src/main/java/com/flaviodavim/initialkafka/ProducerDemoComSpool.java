@@ -0,0 +1,66 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.spool.LogSpool;
+import com.flaviodavim.initialkafka.spool.SpoolProdutor;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class ProducerDemoComSpool {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ProducerDemoComSpool.class);
+
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        String topico = "first_topic";
+
+        /* O spool recebe os registros já serializados, então o Produtor trabalha com ByteBuffer na chave e no valor
+         * A chave long é escrita em 8 bytes, no mesmo formato do SerializadorLong
+         */
+        KafkaProducer<ByteBuffer, ByteBuffer> produtor = configuracao.criarProdutor(
+                SerializadorByteBuffer.class, SerializadorByteBuffer.class, SpoolProdutor.configurar(new Properties()));
+
+        /* Os registros vão primeiro para arquivos mapeados na memória e uma thread os envia em ordem para o broker
+         * Se o broker estiver fora do ar, eles continuam no diretório do spool e são enviados na próxima execução
+         * Experimente rodar este exemplo com o broker parado e depois de novo com ele no ar
+         */
+        File diretorio = new File(configuracao.get("spool.diretorio",
+                new File(System.getProperty("java.io.tmpdir"), "initial-kafka-spool").getPath()));
+        LogSpool spool = new LogSpool(diretorio,
+                configuracao.getInt("spool.segmento.bytes", LogSpool.TAMANHO_SEGMENTO_PADRAO),
+                configuracao.getInt("spool.segmentos", LogSpool.MAX_SEGMENTOS_PADRAO));
+        SpoolProdutor spoolProdutor = new SpoolProdutor(produtor, spool, 1000);
+        spoolProdutor.iniciar();
+
+        EscritorRegistro escritor = new EscritorRegistro(64);
+        ByteBuffer chave = ByteBuffer.allocate(8);
+        int numeroMensagens = configuracao.getInt("spool.mensagens", 10);
+        for (int i = 0; i < numeroMensagens; i++) {
+            chave.putLong(0, i % 10);
+            // O spool copia os bytes, então o escritor e a chave podem ser reaproveitados logo em seguida
+            if (!spoolProdutor.enviar(topico, chave, MensagemDemo.escrever(escritor, i, "Hello World!"))) {
+                logger.error("O spool está cheio, a mensagem " + i + " foi descartada");
+            }
+        }
+
+        if (spoolProdutor.aguardarDrenagem(configuracao.getLong("spool.espera.segundos", 10L), TimeUnit.SECONDS)) {
+            logger.info("Todas as mensagens foram confirmadas pelo broker.");
+        } else {
+            logger.warn("O broker não confirmou todas as mensagens; elas serão enviadas na próxima execução.");
+        }
+        spoolProdutor.close();
+        logger.info(spoolProdutor.getConfirmados() + " registros confirmados, " + spoolProdutor.getFalhas()
+                + " falhas de envio e " + spoolProdutor.getReenvios() + " reenvios.");
+    }
+}
@@ -0,0 +1,101 @@
+package com.flaviodavim.initialkafka;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import com.flaviodavim.initialkafka.produtor.ProdutorCompartilhado;
+import com.flaviodavim.initialkafka.produtor.RegistroProdutores;
+import com.flaviodavim.initialkafka.serde.EscritorRegistro;
+import com.flaviodavim.initialkafka.serde.MensagemDemo;
+import com.flaviodavim.initialkafka.serde.SerializadorByteBuffer;
+import com.flaviodavim.initialkafka.serde.SerializadorLong;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProducerDemoCompartilhado {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        final Logger logger = LoggerFactory.getLogger(ProducerDemoCompartilhado.class);
+
+        /* Várias threads enviando pelo mesmo Produtor, em vez de cada uma criar o seu
+         * O RegistroProdutores entrega a cada thread um ProdutorCompartilhado do mesmo perfil:
+         * o KafkaProducer é um só, criado na primeira referência, e cada thread tem as próprias métricas
+         * O número de threads e de mensagens por thread vem das chaves produtor.compartilhado.*
+         */
+        ConfiguracaoKafka configuracao = ConfiguracaoKafka.carregar();
+        final RegistroProdutores<Long, ByteBuffer> registro = new RegistroProdutores<Long, ByteBuffer>(
+                configuracao, SerializadorLong.class, SerializadorByteBuffer.class);
+
+        int numeroThreads = configuracao.getInt("produtor.compartilhado.threads", 4);
+        final int mensagens = configuracao.getInt("produtor.compartilhado.mensagens", 1000);
+
+        RelatorioMetricas relatorio = new RelatorioMetricas(
+                configuracao.getLong("metricas.relatorio.segundos", 10L) * 1000);
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<ProdutorCompartilhado<Long, ByteBuffer>> produtores =
+                new ArrayList<ProdutorCompartilhado<Long, ByteBuffer>>();
+
+        for (int i = 0; i < numeroThreads; i++) {
+            // A referência é adquirida aqui, e não dentro da thread, para o Produtor não ser fechado e
+            // criado de novo se uma thread terminar antes da seguinte começar
+            final ProdutorCompartilhado<Long, ByteBuffer> produtor = registro.adquirir("thread-" + i);
+            produtores.add(produtor);
+            relatorio.adicionar(produtor.getMetricas());
+            final long chave = i;
+
+            threads.add(new Thread(() -> {
+                // Cada thread tem o seu escritor, já que ele reaproveita o mesmo buffer
+                EscritorRegistro escritor = new EscritorRegistro(64);
+                try {
+                    for (int j = 0; j < mensagens && !Thread.currentThread().isInterrupted(); j++) {
+                        ByteBuffer valor = MensagemDemo.escrever(escritor, j, "Hello World!");
+                        produtor.enviar(new ProducerRecord<Long, ByteBuffer>("first_topic", chave, valor));
+                    }
+                } finally {
+                    // Devolve a referência; a última a ser devolvida envia o que falta e fecha o Produtor
+                    produtor.close();
+                }
+            }, "produtor-" + i));
+        }
+        logger.info(numeroThreads + " threads usando " + registro.getPerfisAbertos() + " com "
+                + registro.getReferencias(RegistroProdutores.PERFIL_PADRAO) + " referências.");
+        relatorio.iniciar();
+
+        // Como no ConsumerDemoComThreads: para as threads, espera elas terminarem e só então fecha o Produtor
+        final Thread principal = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            try {
+                principal.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            logger.info("Aplicação foi finalizada.");
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            // Envia o que ficou no acumulador, caso alguma referência não tenha sido devolvida
+            registro.close();
+            relatorio.close();
+            for (ProdutorCompartilhado<Long, ByteBuffer> produtor : produtores) {
+                logger.info(produtor.getChamador() + ": " + produtor.getMetricas().getRegistros()
+                        + " registros confirmados, " + produtor.getMetricas().getErros() + " erros.");
+            }
+        }
+    }
+}
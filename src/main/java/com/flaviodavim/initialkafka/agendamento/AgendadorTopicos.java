@@ -0,0 +1,375 @@
+package com.flaviodavim.initialkafka.agendamento;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.metricas.MetricasAgendamento;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Laço de consumo de vários tópicos com prioridade, peso e limite de taxa por tópico (ver PoliticaTopico)
+ *
+ * Com um poll comum, um tópico com muito atraso enche cada poll com max.poll.records registros dele,
+ * e um registro de um tópico urgente espera o lote inteiro, e os lotes já buscados antes dele, para ser processado.
+ * Aqui os registros do poll vão para uma fila por tópico, e cada volta do laço processa no máximo registrosPorVolta:
+ *      -> primeiro os tópicos de prioridade maior, enquanto tiverem registros (e tokens);
+ *      -> o que sobra vai para a prioridade seguinte, dividido entre os tópicos dela na proporção dos pesos.
+ * Entre as voltas o poll é feito sem espera, então um registro urgente espera no máximo uma volta.
+ *
+ * A fila de cada tópico é limitada: quando ela chega a limiteFila, ou quando o tópico fica sem tokens com registros
+ * esperando, as partições do tópico são pausadas (pause) e o Consumidor para de buscá-las; elas são retomadas (resume)
+ * quando a fila cai para menos da metade do limite e os tokens cobrem o que ainda está nela.
+ * Assim o tópico com atraso ocupa só o que cabe na fila dele, e os polls trazem os tópicos urgentes logo.
+ * Uma prioridade maior sem limite de taxa pode deixar as menores sem nada; a taxaMaxima é o que impede isso.
+ *
+ * Os tópicos sem política são tratados com a politicaPadrao (prioridade 0, peso 1, sem limite).
+ * Os registros são processados na thread do poll, e os offsets commitados são os dos registros já processados;
+ * o Consumidor precisa ser criado com enable.auto.commit=false (ver configurar()).
+ */
+public class AgendadorTopicos<K, V> implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(AgendadorTopicos.class);
+
+    private final Consumer<K, V> consumidor;
+    private final ProcessadorRegistro<K, V> processador;
+    private final Map<String, PoliticaTopico> politicas = new HashMap<String, PoliticaTopico>();
+
+    private int registrosPorVolta = 100;
+    private int limiteFila = 500;
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private long intervaloCommitMs = 1000;
+    private MetricasAgendamento metricas;
+
+    // Só são acessados pela thread do poll
+    private final Map<String, EstadoTopico> topicos = new HashMap<String, EstadoTopico>();
+    private final List<EstadoTopico> porPrioridade = new ArrayList<EstadoTopico>();
+    private final Map<TopicPartition, Long> processadosAte = new HashMap<TopicPartition, Long>();
+    private TopicPartition ultimaParticao;
+    private long ultimoCommit;
+
+    private final LongAdder processados = new LongAdder();
+    private volatile long pausas;
+    private volatile boolean encerrado;
+
+    public AgendadorTopicos(Consumer<K, V> consumidor, ProcessadorRegistro<K, V> processador) {
+        this.consumidor = consumidor;
+        this.processador = processador;
+    }
+
+    // Desliga o commit automático, já que só os registros processados são commitados
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return propriedades;
+    }
+
+    // Deve ser chamado antes do run()
+    public void definir(PoliticaTopico politica) {
+        politicas.put(politica.getTopico(), politica);
+    }
+
+    /* registrosPorVolta: quantos registros são processados entre dois polls; é o quanto um registro urgente pode esperar
+     * limiteFila: registros na fila de um tópico a partir dos quais ele é pausado
+     */
+    public void setLimites(int registrosPorVolta, int limiteFila) {
+        if (registrosPorVolta <= 0 || limiteFila < 2) {
+            throw new IllegalArgumentException("Limites inválidos: " + registrosPorVolta + " registros por volta, fila de "
+                    + limiteFila);
+        }
+        this.registrosPorVolta = registrosPorVolta;
+        this.limiteFila = limiteFila;
+    }
+
+    // A maior espera do poll quando não há nada para processar
+    public void setTempoPoll(Duration tempoPoll) {
+        this.tempoPoll = tempoPoll;
+    }
+
+    public void setIntervaloCommitMs(long intervaloCommitMs) {
+        this.intervaloCommitMs = intervaloCommitMs;
+    }
+
+    // Opcional; registra por tópico os processados, a espera na fila e as pausas
+    public void setMetricas(MetricasAgendamento metricas) {
+        this.metricas = metricas;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Descarta das filas os registros das partições revogadas e commita o que já foi processado delas
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                boolean algumPausado = false;
+                for (EstadoTopico topico : porPrioridade) {
+                    topico.fila.removerParticoes(revogadas);
+                    algumPausado |= topico.pausado;
+                    topico.pausado = false;
+                }
+                // Uma partição que voltar para este Consumidor não pode continuar pausada; a próxima volta pausa de novo
+                if (algumPausado) {
+                    consumidor.resume(consumidor.assignment());
+                }
+                commitar(true);
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        ultimoCommit = System.currentTimeMillis();
+        try {
+            while (!encerrado) {
+                ConsumerRecords<K, V> registros = consumidor.poll(tempoEspera());
+                long chegada = System.nanoTime();
+                for (TopicPartition particao : registros.partitions()) {
+                    FilaRegistros<K, V> fila = topico(particao.topic()).fila;
+                    for (ConsumerRecord<K, V> registro : registros.records(particao)) {
+                        fila.adicionar(registro, chegada);
+                    }
+                }
+                processarVolta();
+                ajustarPausas();
+
+                long agora = System.currentTimeMillis();
+                if (agora - ultimoCommit >= intervaloCommitMs) {
+                    commitar(false);
+                    ultimoCommit = agora;
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (!encerrado) {
+                throw e;
+            }
+        } finally {
+            try {
+                commitar(true);
+            } catch (Exception e) {
+                logger.warn("Falha ao commitar os offsets no encerramento.", e);
+            } finally {
+                consumidor.close();
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    public long getProcessados() {
+        return processados.sum();
+    }
+
+    // Quantas vezes um tópico foi pausado, por fila cheia ou por falta de tokens
+    public long getPausas() {
+        return pausas;
+    }
+
+    // As prioridades são percorridas da maior para a menor, e cada uma recebe o que sobrou da volta
+    private void processarVolta() {
+        int orcamento = registrosPorVolta;
+        int inicio = 0;
+        while (inicio < porPrioridade.size() && orcamento > 0) {
+            int prioridade = porPrioridade.get(inicio).politica.getPrioridade();
+            int fim = inicio + 1;
+            while (fim < porPrioridade.size() && porPrioridade.get(fim).politica.getPrioridade() == prioridade) {
+                fim++;
+            }
+            orcamento = processarNivel(porPrioridade.subList(inicio, fim), orcamento);
+            inicio = fim;
+        }
+    }
+
+    /* Divide o orçamento entre os tópicos de uma prioridade na proporção dos pesos (round-robin ponderado)
+     * Um tópico sem registros ou sem tokens fica de fora, e o que seria dele volta para os outros na rodada seguinte
+     * Devolve o orçamento que sobrou
+     */
+    private int processarNivel(List<EstadoTopico> nivel, int orcamento) {
+        while (orcamento > 0) {
+            long agora = System.nanoTime();
+            int somaPesos = 0;
+            for (EstadoTopico topico : nivel) {
+                if (topico.permitidos(agora) > 0) {
+                    somaPesos += topico.politica.getPeso();
+                }
+            }
+            if (somaPesos == 0) {
+                break;
+            }
+            int unidade = Math.max(1, orcamento / somaPesos);
+            for (EstadoTopico topico : nivel) {
+                long cota = Math.min(Math.min(topico.permitidos(agora), (long) topico.politica.getPeso() * unidade), orcamento);
+                for (long i = 0; i < cota; i++) {
+                    processar(topico);
+                }
+                orcamento -= cota;
+                if (orcamento == 0) {
+                    break;
+                }
+            }
+        }
+        return orcamento;
+    }
+
+    private void processar(EstadoTopico topico) {
+        long chegada = topico.fila.chegadaPrimeiro();
+        ConsumerRecord<K, V> registro = topico.fila.remover();
+        if (topico.metricas != null) {
+            topico.metricas.registrarProcessamento(System.nanoTime() - chegada);
+        }
+        try {
+            processador.processar(registro);
+        } catch (Exception e) {
+            logger.error("Erro ao processar o registro " + registro.topic() + "-" + registro.partition()
+                    + "@" + registro.offset(), e);
+        }
+        if (topico.balde != null) {
+            topico.balde.consumir(1);
+        }
+        processadosAte.put(particao(registro), registro.offset() + 1);
+        processados.increment();
+    }
+
+    private void ajustarPausas() {
+        long agora = System.nanoTime();
+        for (EstadoTopico topico : porPrioridade) {
+            int tamanho = topico.fila.tamanho();
+            long tokens = topico.balde == null ? Long.MAX_VALUE : topico.balde.disponiveis(agora);
+            if (!topico.pausado && (tamanho >= limiteFila || (tamanho > 0 && tokens == 0))) {
+                consumidor.pause(particoes(topico.politica.getTopico()));
+                topico.pausado = true;
+                pausas++;
+                if (topico.metricas != null) {
+                    topico.metricas.registrarPausa();
+                }
+            } else if (topico.pausado && tamanho < limiteFila / 2 && tokens >= tamanho) {
+                consumidor.resume(particoes(topico.politica.getTopico()));
+                topico.pausado = false;
+            }
+        }
+    }
+
+    /* Sem espera quando há registros que podem ser processados agora
+     * Se só há registros esperando tokens, o poll acorda quando o primeiro token chegar
+     */
+    private Duration tempoEspera() {
+        long esperaNanos = tempoPoll.toNanos();
+        long agora = System.nanoTime();
+        for (EstadoTopico topico : porPrioridade) {
+            if (topico.fila.tamanho() == 0) {
+                continue;
+            }
+            long ate = topico.balde == null ? 0 : topico.balde.nanosAte(1, agora);
+            if (ate == 0) {
+                return Duration.ZERO;
+            }
+            esperaNanos = Math.min(esperaNanos, ate);
+        }
+        return Duration.ofMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(esperaNanos + 999999)));
+    }
+
+    private List<TopicPartition> particoes(String topico) {
+        List<TopicPartition> particoes = new ArrayList<TopicPartition>();
+        for (TopicPartition particao : consumidor.assignment()) {
+            if (particao.topic().equals(topico)) {
+                particoes.add(particao);
+            }
+        }
+        return particoes;
+    }
+
+    // Estado do tópico, criado quando o primeiro registro dele chega
+    private EstadoTopico topico(String nome) {
+        EstadoTopico topico = topicos.get(nome);
+        if (topico == null) {
+            PoliticaTopico politica = politicas.get(nome);
+            topico = new EstadoTopico(politica != null ? politica : new PoliticaTopico(nome, 0, 1));
+            topicos.put(nome, topico);
+            porPrioridade.add(topico);
+            porPrioridade.sort(new Comparator<EstadoTopico>() {
+                public int compare(EstadoTopico a, EstadoTopico b) {
+                    return Integer.compare(b.politica.getPrioridade(), a.politica.getPrioridade());
+                }
+            });
+            logger.info("Agendando " + topico.politica);
+        }
+        return topico;
+    }
+
+    // Os registros chegam agrupados por partição, então quase sempre a partição é a mesma do registro anterior
+    private TopicPartition particao(ConsumerRecord<K, V> registro) {
+        TopicPartition particao = ultimaParticao;
+        if (particao == null || particao.partition() != registro.partition() || !particao.topic().equals(registro.topic())) {
+            particao = new TopicPartition(registro.topic(), registro.partition());
+            ultimaParticao = particao;
+        }
+        return particao;
+    }
+
+    private void commitar(boolean sincrono) {
+        if (processadosAte.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (Map.Entry<TopicPartition, Long> entrada : processadosAte.entrySet()) {
+            offsets.put(entrada.getKey(), new OffsetAndMetadata(entrada.getValue()));
+        }
+        processadosAte.clear();
+        if (sincrono) {
+            consumidor.commitSync(offsets);
+        } else {
+            consumidor.commitAsync(offsets, new OffsetCommitCallback() {
+                public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                    if (e != null) {
+                        logger.warn("Falha ao commitar os offsets " + offsets, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private final class EstadoTopico {
+
+        final PoliticaTopico politica;
+        final BaldeTokens balde;
+        final MetricasAgendamento.Topico metricas;
+        final FilaRegistros<K, V> fila = new FilaRegistros<K, V>();
+        boolean pausado;
+
+        EstadoTopico(PoliticaTopico politica) {
+            this.politica = politica;
+            this.balde = politica.criarBalde();
+            this.metricas = AgendadorTopicos.this.metricas != null
+                    ? AgendadorTopicos.this.metricas.topico(politica.getTopico()) : null;
+        }
+
+        // Registros que podem ser processados agora: os da fila, limitados pelos tokens
+        long permitidos(long agora) {
+            long tamanho = fila.tamanho();
+            return balde == null || tamanho == 0 ? tamanho : Math.min(tamanho, balde.disponiveis(agora));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.flaviodavim.initialkafka.agendamento;
+
+/* Balde de tokens: limita a taxa média a taxaPorSegundo, permitindo rajadas de até capacidade registros
+ *
+ * Os tokens são recarregados pelo tempo passado desde a última consulta, sem thread nem timer.
+ * Cada registro processado gasta um token; sem tokens, o AgendadorTopicos deixa o registro na fila.
+ * É usado só pela thread do poll.
+ */
+final class BaldeTokens {
+
+    private final double taxaPorNano;
+    private final double capacidade;
+    private double tokens;
+    private long ultimaRecarga;
+
+    BaldeTokens(double taxaPorSegundo, double capacidade) {
+        if (taxaPorSegundo <= 0 || capacidade < 1) {
+            throw new IllegalArgumentException("Balde inválido: " + taxaPorSegundo + " por segundo, capacidade "
+                    + capacidade);
+        }
+        this.taxaPorNano = taxaPorSegundo / 1e9;
+        this.capacidade = capacidade;
+        this.tokens = capacidade;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    // Tokens inteiros disponíveis agora
+    long disponiveis(long agoraNanos) {
+        recarregar(agoraNanos);
+        return (long) tokens;
+    }
+
+    void consumir(long quantidade) {
+        tokens -= quantidade;
+    }
+
+    // Tempo até haver quantidade tokens; 0 se já há
+    long nanosAte(long quantidade, long agoraNanos) {
+        recarregar(agoraNanos);
+        double faltam = quantidade - tokens;
+        return faltam <= 0 ? 0 : (long) Math.ceil(faltam / taxaPorNano);
+    }
+
+    private void recarregar(long agoraNanos) {
+        long passado = agoraNanos - ultimaRecarga;
+        if (passado > 0) {
+            tokens = Math.min(capacidade, tokens + passado * taxaPorNano);
+            ultimaRecarga = agoraNanos;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.flaviodavim.initialkafka.agendamento;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/* Fila circular dos registros de um tópico, com o momento em que cada um chegou do poll
+ *
+ * Os momentos ficam em um long[] ao lado dos registros, sem um objeto a mais por registro.
+ * A fila dobra quando enche; o limite de verdade é a pausa do tópico no AgendadorTopicos.
+ * É usada só pela thread do poll.
+ */
+final class FilaRegistros<K, V> {
+
+    private ConsumerRecord<K, V>[] registros;
+    private long[] chegadas;
+    private int inicio;
+    private int tamanho;
+
+    FilaRegistros() {
+        @SuppressWarnings("unchecked")
+        ConsumerRecord<K, V>[] criados = (ConsumerRecord<K, V>[]) new ConsumerRecord<?, ?>[64];
+        registros = criados;
+        chegadas = new long[64];
+    }
+
+    int tamanho() {
+        return tamanho;
+    }
+
+    void adicionar(ConsumerRecord<K, V> registro, long chegada) {
+        if (tamanho == registros.length) {
+            crescer();
+        }
+        int posicao = (inicio + tamanho) & (registros.length - 1);
+        registros[posicao] = registro;
+        chegadas[posicao] = chegada;
+        tamanho++;
+    }
+
+    long chegadaPrimeiro() {
+        return chegadas[inicio];
+    }
+
+    ConsumerRecord<K, V> remover() {
+        ConsumerRecord<K, V> registro = registros[inicio];
+        registros[inicio] = null;
+        inicio = (inicio + 1) & (registros.length - 1);
+        tamanho--;
+        return registro;
+    }
+
+    // Tira da fila os registros das partições, mantendo a ordem dos outros
+    void removerParticoes(Collection<TopicPartition> particoes) {
+        int mantidos = 0;
+        int mascara = registros.length - 1;
+        for (int i = 0; i < tamanho; i++) {
+            int origem = (inicio + i) & mascara;
+            ConsumerRecord<K, V> registro = registros[origem];
+            if (!particoes.contains(new TopicPartition(registro.topic(), registro.partition()))) {
+                int destino = (inicio + mantidos) & mascara;
+                registros[destino] = registro;
+                chegadas[destino] = chegadas[origem];
+                mantidos++;
+            }
+        }
+        for (int i = mantidos; i < tamanho; i++) {
+            registros[(inicio + i) & mascara] = null;
+        }
+        tamanho = mantidos;
+    }
+
+    // A capacidade é sempre uma potência de 2, para a posição ser calculada com uma máscara
+    private void crescer() {
+        int capacidade = registros.length;
+        ConsumerRecord<K, V>[] novos = Arrays.copyOf(registros, capacidade * 2);
+        long[] novasChegadas = Arrays.copyOf(chegadas, capacidade * 2);
+        // O trecho que dava a volta no fim do array passa para depois dele
+        System.arraycopy(registros, 0, novos, capacidade, inicio);
+        System.arraycopy(chegadas, 0, novasChegadas, capacidade, inicio);
+        Arrays.fill(novos, 0, inicio, null);
+        registros = novos;
+        chegadas = novasChegadas;
+    }
+}
@@ -0,0 +1,75 @@
+package com.flaviodavim.initialkafka.agendamento;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+
+/* Como o AgendadorTopicos trata os registros de um tópico
+ *      -> prioridade: os tópicos de prioridade maior são processados antes, enquanto tiverem registros
+ *      -> peso: entre tópicos da mesma prioridade, cada volta do laço é dividida na proporção dos pesos
+ *      -> taxaMaxima: registros por segundo (0 = sem limite), com rajadas de até rajada registros
+ */
+public final class PoliticaTopico {
+
+    private final String topico;
+    private final int prioridade;
+    private final int peso;
+    private final long taxaMaxima;
+    private final long rajada;
+
+    public PoliticaTopico(String topico, int prioridade, int peso) {
+        this(topico, prioridade, peso, 0, 0);
+    }
+
+    // Com rajada 0, a rajada é de um décimo de segundo da taxa
+    public PoliticaTopico(String topico, int prioridade, int peso, long taxaMaxima, long rajada) {
+        if (peso <= 0 || taxaMaxima < 0 || rajada < 0) {
+            throw new IllegalArgumentException("Política inválida para " + topico + ": peso " + peso
+                    + ", taxa " + taxaMaxima + ", rajada " + rajada);
+        }
+        this.topico = topico;
+        this.prioridade = prioridade;
+        this.peso = peso;
+        this.taxaMaxima = taxaMaxima;
+        this.rajada = taxaMaxima == 0 ? 0 : (rajada > 0 ? rajada : Math.max(1, taxaMaxima / 10));
+    }
+
+    // Pelas chaves agendamento.<topico>.prioridade, .peso, .taxa e .rajada (ver kafka.properties)
+    public static PoliticaTopico configurada(ConfiguracaoKafka configuracao, String topico) {
+        String prefixo = "agendamento." + topico + ".";
+        return new PoliticaTopico(topico,
+                configuracao.getInt(prefixo + "prioridade", 0),
+                configuracao.getInt(prefixo + "peso", 1),
+                configuracao.getLong(prefixo + "taxa", 0L),
+                configuracao.getLong(prefixo + "rajada", 0L));
+    }
+
+    public String getTopico() {
+        return topico;
+    }
+
+    public int getPrioridade() {
+        return prioridade;
+    }
+
+    public int getPeso() {
+        return peso;
+    }
+
+    public long getTaxaMaxima() {
+        return taxaMaxima;
+    }
+
+    public long getRajada() {
+        return rajada;
+    }
+
+    // Um balde novo para cada tópico, ou null quando não há limite
+    BaldeTokens criarBalde() {
+        return taxaMaxima == 0 ? null : new BaldeTokens(taxaMaxima, rajada);
+    }
+
+    @Override
+    public String toString() {
+        return topico + " (prioridade " + prioridade + ", peso " + peso
+                + (taxaMaxima == 0 ? "" : ", até " + taxaMaxima + " registros/s") + ")";
+    }
+}
@@ -0,0 +1,323 @@
+package com.flaviodavim.initialkafka.agregacao;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Junta várias mensagens pequenas em um único registro Kafka antes do send()
+ *
+ * Cada registro tem um custo fixo no Produtor, na rede e no disco do broker (cabeçalho, offset, timestamp, índice).
+ * Com mensagens de poucas dezenas de bytes esse custo é maior que a própria mensagem.
+ * O agregador mantém um quadro por destino (tópico, partição e chave) e envia o quadro quando:
+ *      -> o quadro passa de tamanhoMaximo bytes
+ *      -> a primeira mensagem do quadro está esperando há mais de tempoMaximoMs
+ *      -> descarregar(), flush() ou close() são chamados
+ * Mensagens com a mesma chave continuam indo para a mesma partição e na mesma ordem.
+ * Chaves em array (ex: byte[] com o ByteArraySerializer) são comparadas pelo conteúdo, não pela identidade do array.
+ *
+ * A compressão continua sendo feita pelo Produtor (compression.type), sobre o lote inteiro.
+ * Um quadro cheio de mensagens parecidas comprime bem, e por isso o tamanhoMaximo padrão fica abaixo do batch.size:
+ * assim mais de um quadro cabe no mesmo lote e o lz4 aproveita a repetição entre eles.
+ *
+ * Todas as mensagens de um quadro recebem o offset do registro, então o commit no Consumidor vale para o quadro todo.
+ * É thread-safe: os métodos que mexem nos quadros são sincronizados.
+ */
+public class AgregadorProdutor<K> implements Closeable {
+
+    public static final int TAMANHO_MAXIMO_PADRAO = 8 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(AgregadorProdutor.class);
+
+    private final Producer<K, ByteBuffer> produtor;
+    private final int tamanhoMaximo;
+    private final long tempoMaximoNanos;
+    private final Callback callbackQuadro;
+
+    private final Map<Destino<K>, Quadro<K>> quadros = new HashMap<Destino<K>, Quadro<K>>();
+    // Chave de consulta reaproveitada, para não criar um Destino a cada mensagem
+    private final Destino<K> consulta = new Destino<K>(null, null, null);
+    private final ScheduledExecutorService temporizador;
+
+    private final AtomicLong mensagens = new AtomicLong();
+    private final AtomicLong registros = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+
+    public AgregadorProdutor(Producer<K, ByteBuffer> produtor, int tamanhoMaximo, long tempoMaximoMs) {
+        this(produtor, tamanhoMaximo, tempoMaximoMs, null);
+    }
+
+    // O callback, se informado, é chamado uma vez por quadro enviado
+    public AgregadorProdutor(Producer<K, ByteBuffer> produtor, int tamanhoMaximo, long tempoMaximoMs,
+                             Callback callbackQuadro) {
+        if (tamanhoMaximo <= 0) {
+            throw new IllegalArgumentException("tamanhoMaximo deve ser maior que zero: " + tamanhoMaximo);
+        }
+        this.produtor = produtor;
+        this.tamanhoMaximo = tamanhoMaximo;
+        this.tempoMaximoNanos = TimeUnit.MILLISECONDS.toNanos(tempoMaximoMs);
+        this.callbackQuadro = callbackQuadro;
+
+        // Sem tempo máximo, os quadros só saem por tamanho ou quando descarregados
+        if (tempoMaximoMs > 0) {
+            temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "agregador-produtor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long periodo = Math.max(1, tempoMaximoMs / 2);
+            temporizador.scheduleWithFixedDelay(this::descarregarAntigos, periodo, periodo, TimeUnit.MILLISECONDS);
+        } else {
+            temporizador = null;
+        }
+    }
+
+    public void enviar(String topico, K chave, ByteBuffer mensagem) {
+        enviar(topico, null, chave, mensagem);
+    }
+
+    /* Copia a mensagem para o quadro do destino
+     * A mensagem pode ser reaproveitada pelo chamador assim que o método retorna (ex: o buffer do EscritorRegistro)
+     */
+    public synchronized void enviar(String topico, Integer particao, K chave, ByteBuffer mensagem) {
+        consulta.definir(topico, particao, chave);
+        Quadro<K> quadro = quadros.get(consulta);
+        if (quadro == null) {
+            // O array da chave é copiado, porque o chamador pode reaproveitá-lo e ele fica guardado no mapa
+            Destino<K> destino = new Destino<K>(topico, particao, copiarChave(chave));
+            quadro = new Quadro<K>(destino, Math.min(tamanhoMaximo, 1024));
+            quadros.put(destino, quadro);
+        }
+
+        int comprimento = mensagem.remaining();
+        int necessario = FormatoAgregado.tamanhoVarint(comprimento) + comprimento;
+        if (quadro.mensagens > 0 && quadro.tamanho + necessario > tamanhoMaximo) {
+            enviarQuadro(quadro);
+        }
+        quadro.adicionar(mensagem, comprimento, necessario);
+        mensagens.incrementAndGet();
+
+        if (quadro.tamanho >= tamanhoMaximo) {
+            enviarQuadro(quadro);
+        }
+    }
+
+    /* Envia todos os quadros pendentes ao Produtor, sem esperar a confirmação do broker
+     * Sem tempo máximo não há temporizador para remover os destinos parados, então eles saem do mapa aqui;
+     * senão o mapa cresceria com cada chave diferente que já passou pelo agregador
+     */
+    public synchronized void descarregar() {
+        Iterator<Quadro<K>> iterador = quadros.values().iterator();
+        while (iterador.hasNext()) {
+            Quadro<K> quadro = iterador.next();
+            if (quadro.mensagens > 0) {
+                enviarQuadro(quadro);
+            }
+            if (temporizador == null) {
+                iterador.remove();
+            }
+        }
+    }
+
+    // Envia os quadros pendentes e espera o Produtor enviar tudo ao broker
+    public void flush() {
+        descarregar();
+        produtor.flush();
+    }
+
+    public long getMensagens() {
+        return mensagens.get();
+    }
+
+    public long getRegistros() {
+        return registros.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFalhas() {
+        return falhas.get();
+    }
+
+    @Override
+    public void close() {
+        if (temporizador != null) {
+            temporizador.shutdown();
+        }
+        flush();
+        produtor.close();
+    }
+
+    // Executado pelo temporizador; também remove destinos que ficaram sem mensagens por um tempo
+    private synchronized void descarregarAntigos() {
+        try {
+            long agora = System.nanoTime();
+            Iterator<Quadro<K>> iterador = quadros.values().iterator();
+            while (iterador.hasNext()) {
+                Quadro<K> quadro = iterador.next();
+                if (quadro.mensagens > 0) {
+                    if (agora - quadro.inicioNanos >= tempoMaximoNanos) {
+                        enviarQuadro(quadro);
+                    }
+                } else if (agora - quadro.inicioNanos >= 100 * tempoMaximoNanos) {
+                    iterador.remove();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Uma exceção aqui cancelaria o agendamento
+            logger.error("Erro ao enviar quadros por tempo", e);
+        }
+    }
+
+    /* O quadro é copiado para um array do tamanho exato, que passa a pertencer ao registro
+     * Assim o quadro pode ser reaproveitado logo em seguida, mesmo com produtores que guardam o registro (ex: MockProducer),
+     * e o SerializadorByteBuffer entrega o array sem copiar de novo
+     */
+    private void enviarQuadro(Quadro<K> quadro) {
+        Destino<K> destino = quadro.destino;
+        ByteBuffer valor = ByteBuffer.wrap(Arrays.copyOf(quadro.dados, quadro.tamanho));
+        int quantidade = quadro.mensagens;
+        quadro.limpar();
+
+        RecordHeaders cabecalhos = new RecordHeaders();
+        cabecalhos.add(FormatoAgregado.CABECALHO, FormatoAgregado.VALOR_CABECALHO);
+        ProducerRecord<K, ByteBuffer> registro = new ProducerRecord<K, ByteBuffer>(
+                destino.topico, destino.particao, null, destino.chave, valor, cabecalhos);
+
+        registros.incrementAndGet();
+        bytes.addAndGet(valor.remaining());
+        try {
+            produtor.send(registro, new CallbackQuadro(quantidade));
+        } catch (RuntimeException e) {
+            falhas.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K copiarChave(K chave) {
+        return chave instanceof byte[] ? (K) ((byte[]) chave).clone() : chave;
+    }
+
+    private class CallbackQuadro implements Callback {
+
+        private final int quantidade;
+
+        CallbackQuadro(int quantidade) {
+            this.quantidade = quantidade;
+        }
+
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            if (e != null) {
+                falhas.incrementAndGet();
+                logger.error("Erro ao enviar quadro com " + quantidade + " mensagens", e);
+            }
+            if (callbackQuadro != null) {
+                callbackQuadro.onCompletion(recordMetadata, e);
+            }
+        }
+    }
+
+    private static final class Destino<K> {
+
+        private String topico;
+        private Integer particao;
+        private K chave;
+
+        Destino(String topico, Integer particao, K chave) {
+            definir(topico, particao, chave);
+        }
+
+        void definir(String topico, Integer particao, K chave) {
+            this.topico = topico;
+            this.particao = particao;
+            this.chave = chave;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Destino)) {
+                return false;
+            }
+            Destino<?> outro = (Destino<?>) o;
+            return topico.equals(outro.topico)
+                    && Objects.equals(particao, outro.particao)
+                    && Objects.deepEquals(chave, outro.chave);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = topico.hashCode();
+            hash = 31 * hash + (particao == null ? 0 : particao);
+            hash = 31 * hash + hashChave(chave);
+            return hash;
+        }
+
+        // O hashCode de um array é o da identidade dele; o de uma chave em array é calculado pelo conteúdo
+        private static int hashChave(Object chave) {
+            if (chave == null) {
+                return 0;
+            } else if (chave instanceof byte[]) {
+                return Arrays.hashCode((byte[]) chave);
+            } else if (chave.getClass().isArray()) {
+                return Arrays.deepHashCode(new Object[] {chave});
+            }
+            return chave.hashCode();
+        }
+    }
+
+    private static final class Quadro<K> {
+
+        final Destino<K> destino;
+        byte[] dados;
+        int tamanho;
+        int mensagens;
+        long inicioNanos = System.nanoTime();
+
+        Quadro(Destino<K> destino, int capacidadeInicial) {
+            this.destino = destino;
+            this.dados = new byte[capacidadeInicial];
+        }
+
+        void adicionar(ByteBuffer mensagem, int comprimento, int necessario) {
+            if (tamanho + necessario > dados.length) {
+                dados = Arrays.copyOf(dados, Math.max(dados.length * 2, tamanho + necessario));
+            }
+            if (mensagens == 0) {
+                inicioNanos = System.nanoTime();
+            }
+            tamanho = FormatoAgregado.escreverVarint(dados, tamanho, comprimento);
+            // A posição do buffer do chamador não é alterada
+            if (mensagem.hasArray()) {
+                System.arraycopy(mensagem.array(), mensagem.arrayOffset() + mensagem.position(), dados, tamanho, comprimento);
+            } else {
+                mensagem.duplicate().get(dados, tamanho, comprimento);
+            }
+            tamanho += comprimento;
+            mensagens++;
+        }
+
+        void limpar() {
+            tamanho = 0;
+            mensagens = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.flaviodavim.initialkafka.agregacao;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/* Lado Consumidor do AgregadorProdutor
+ *
+ * Envolve o processador da aplicação: registros agregados são abertos e cada mensagem é entregue
+ * como um ConsumerRecord próprio, com o tópico, a partição, o offset, o timestamp e a chave do registro original.
+ * Registros comuns passam direto, então o mesmo processador serve para tópicos com e sem agregação.
+ * As mensagens são fatias do valor do registro, sem cópia dos bytes.
+ *
+ * Se o processador falhar no meio do quadro, a exceção sobe e o quadro inteiro é tratado como um registro com erro.
+ */
+public class DesagregadorRegistros<K> implements ProcessadorRegistro<K, ByteBuffer> {
+
+    // As mensagens não têm cabeçalhos próprios; o cabeçalho "agregado" fica só no registro original
+    private static final RecordHeaders SEM_CABECALHOS = new RecordHeaders();
+
+    static {
+        SEM_CABECALHOS.setReadOnly();
+    }
+
+    private final ProcessadorRegistro<K, ByteBuffer> processador;
+
+    public DesagregadorRegistros(ProcessadorRegistro<K, ByteBuffer> processador) {
+        this.processador = processador;
+    }
+
+    @Override
+    public void processar(ConsumerRecord<K, ByteBuffer> registro) throws Exception {
+        ByteBuffer valor = registro.value();
+        if (valor == null || !FormatoAgregado.agregado(registro.headers())) {
+            processador.processar(registro);
+            return;
+        }
+
+        ByteBuffer quadro = valor.duplicate();
+        int fim = quadro.limit();
+        while (quadro.hasRemaining()) {
+            int comprimento = FormatoAgregado.lerVarint(quadro);
+            int inicio = quadro.position();
+            if (comprimento < 0 || comprimento > fim - inicio) {
+                throw new IllegalArgumentException("Registro agregado truncado no offset " + registro.offset());
+            }
+            ((Buffer) quadro).limit(inicio + comprimento);
+            ByteBuffer mensagem = quadro.slice();
+            ((Buffer) quadro).limit(fim);
+            ((Buffer) quadro).position(inicio + comprimento);
+
+            processador.processar(new ConsumerRecord<K, ByteBuffer>(registro.topic(), registro.partition(),
+                    registro.offset(), registro.timestamp(), registro.timestampType(), null,
+                    registro.serializedKeySize(), comprimento, registro.key(), mensagem, SEM_CABECALHOS));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.flaviodavim.initialkafka.agregacao;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+
+/* Formato do registro Kafka que carrega várias mensagens pequenas
+ *
+ * O valor do registro é uma sequência de mensagens, cada uma com o comprimento em varint seguido dos bytes:
+ *      [comprimento][mensagem][comprimento][mensagem]...
+ * O registro é marcado pelo cabeçalho "agregado", cujo valor é a versão do formato.
+ * Registros sem esse cabeçalho são mensagens comuns, então produtores com e sem agregação podem dividir o tópico.
+ */
+public final class FormatoAgregado {
+
+    public static final String CABECALHO = "agregado";
+    public static final byte VERSAO = 1;
+
+    static final byte[] VALOR_CABECALHO = new byte[] {VERSAO};
+
+    private FormatoAgregado() {}
+
+    public static boolean agregado(Headers cabecalhos) {
+        Header cabecalho = cabecalhos.lastHeader(CABECALHO);
+        if (cabecalho == null) {
+            return false;
+        }
+        byte[] valor = cabecalho.value();
+        if (valor == null || valor.length != 1 || valor[0] != VERSAO) {
+            throw new IllegalArgumentException("Versão de registro agregado desconhecida");
+        }
+        return true;
+    }
+
+    static int tamanhoVarint(int valor) {
+        int tamanho = 1;
+        while ((valor & ~0x7F) != 0) {
+            valor >>>= 7;
+            tamanho++;
+        }
+        return tamanho;
+    }
+
+    // Escreve o varint em destino a partir de posicao e devolve a posição seguinte
+    static int escreverVarint(byte[] destino, int posicao, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            destino[posicao++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        destino[posicao++] = (byte) valor;
+        return posicao;
+    }
+
+    // Lê o varint na posição atual do buffer, avançando a posição
+    static int lerVarint(ByteBuffer buffer) {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 32; deslocamento += 7) {
+            byte b = buffer.get();
+            valor |= (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint inválido no registro agregado");
+    }
+}
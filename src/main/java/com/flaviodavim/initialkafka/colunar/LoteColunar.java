@@ -0,0 +1,290 @@
+package com.flaviodavim.initialkafka.colunar;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/* Os registros de um poll em colunas, em vez de um ConsumerRecord por registro
+ *
+ * Cada campo é um array de primitivos com uma posição por registro, na ordem do poll:
+ *      -> partição, offset e timestamp em int[] e long[];
+ *      -> o tópico como um índice em getNomesTopicos(), já que um poll quase sempre tem poucos tópicos;
+ *      -> as chaves e os valores copiados um atrás do outro num byte[] só, com o início e o tamanho de cada um
+ *         (tamanho -1 quando o registro não tem chave ou valor).
+ *
+ * Um processador percorre as colunas com um for de 0 a tamanho() sem seguir ponteiros para outros objetos,
+ * e lê números direto dos bytes com lerLong() e lerInt(). Os arrays são maiores que o lote: só as primeiras
+ * tamanho() posições valem.
+ *
+ * O lote vem do PoolLotes e volta para ele no close(), com os arrays para o próximo poll.
+ * Depois do close() nada do lote pode ser usado. Não é thread-safe: um lote é usado por uma thread de cada vez.
+ */
+public final class LoteColunar implements AutoCloseable {
+
+    private static final int REGISTROS_INICIAL = 512;
+    private static final int BYTES_CHAVES_INICIAL = 8 * 1024;
+    private static final int BYTES_VALORES_INICIAL = 64 * 1024;
+
+    private final PoolLotes pool;
+    // Só a thread que tem o lote mexe nele; o close() de novo depois de devolvido não faz nada
+    boolean emUso;
+
+    private int tamanho;
+    private String[] nomesTopicos = new String[4];
+    private int numeroTopicos;
+
+    private int[] topicos;
+    private int[] particoes;
+    private long[] offsets;
+    private long[] timestamps;
+
+    private byte[] chaves;
+    private int[] inicioChaves;
+    private int[] tamanhoChaves;
+    private int bytesChaves;
+
+    private byte[] valores;
+    private int[] inicioValores;
+    private int[] tamanhoValores;
+    private int bytesValores;
+
+    LoteColunar(PoolLotes pool) {
+        this.pool = pool;
+        alocar();
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    public String[] getNomesTopicos() {
+        return nomesTopicos;
+    }
+
+    public int getNumeroTopicos() {
+        return numeroTopicos;
+    }
+
+    public int[] getTopicos() {
+        return topicos;
+    }
+
+    public int[] getParticoes() {
+        return particoes;
+    }
+
+    public long[] getOffsets() {
+        return offsets;
+    }
+
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    public byte[] getChaves() {
+        return chaves;
+    }
+
+    public int[] getInicioChaves() {
+        return inicioChaves;
+    }
+
+    public int[] getTamanhoChaves() {
+        return tamanhoChaves;
+    }
+
+    public byte[] getValores() {
+        return valores;
+    }
+
+    public int[] getInicioValores() {
+        return inicioValores;
+    }
+
+    public int[] getTamanhoValores() {
+        return tamanhoValores;
+    }
+
+    // Acesso a um registro só, para quem não precisa do laço sobre as colunas
+
+    public String topico(int i) {
+        return nomesTopicos[topicos[i]];
+    }
+
+    public int particao(int i) {
+        return particoes[i];
+    }
+
+    public long offset(int i) {
+        return offsets[i];
+    }
+
+    public long timestamp(int i) {
+        return timestamps[i];
+    }
+
+    public boolean temChave(int i) {
+        return tamanhoChaves[i] >= 0;
+    }
+
+    public boolean temValor(int i) {
+        return tamanhoValores[i] >= 0;
+    }
+
+    // Visão da chave sobre o array do lote, sem copiar; null se o registro não tem chave
+    public ByteBuffer chave(int i) {
+        return temChave(i) ? ByteBuffer.wrap(chaves, inicioChaves[i], tamanhoChaves[i]).slice() : null;
+    }
+
+    public ByteBuffer valor(int i) {
+        return temValor(i) ? ByteBuffer.wrap(valores, inicioValores[i], tamanhoValores[i]).slice() : null;
+    }
+
+    // Números gravados em big-endian, a ordem do ByteBuffer e dos serializadores do Kafka
+    public static long lerLong(byte[] bytes, int posicao) {
+        return ((long) lerInt(bytes, posicao) << 32) | (lerInt(bytes, posicao + 4) & 0xFFFFFFFFL);
+    }
+
+    public static int lerInt(byte[] bytes, int posicao) {
+        return (bytes[posicao] << 24) | ((bytes[posicao + 1] & 0xFF) << 16)
+                | ((bytes[posicao + 2] & 0xFF) << 8) | (bytes[posicao + 3] & 0xFF);
+    }
+
+    // Bytes ocupados pelos arrays, usado pelo PoolLotes para não guardar lotes que cresceram demais
+    long getCapacidadeBytes() {
+        return chaves.length + valores.length + offsets.length * (4L + 4 + 8 + 8 + 4 + 4 + 4 + 4);
+    }
+
+    /* Copia o poll para as colunas, partição por partição como o ConsumerRecords entrega
+     * A chave e o valor precisam ser byte[] ou ByteBuffer (ByteArrayDeserializer ou DesserializadorByteBuffer)
+     */
+    void preencher(ConsumerRecords<?, ?> registros) {
+        tamanho = 0;
+        numeroTopicos = 0;
+        bytesChaves = 0;
+        bytesValores = 0;
+        if (registros.count() > offsets.length) {
+            crescerRegistros(registros.count());
+        }
+        for (TopicPartition particao : registros.partitions()) {
+            int topico = indiceTopico(particao.topic());
+            for (ConsumerRecord<?, ?> registro : registros.records(particao)) {
+                topicos[tamanho] = topico;
+                particoes[tamanho] = particao.partition();
+                offsets[tamanho] = registro.offset();
+                timestamps[tamanho] = registro.timestamp();
+                copiarChave(registro.key());
+                copiarValor(registro.value());
+                tamanho++;
+            }
+        }
+    }
+
+    // Volta ao tamanho inicial, para um poll grande não prender memória no pool
+    void encolher() {
+        alocar();
+    }
+
+    @Override
+    public void close() {
+        if (emUso) {
+            emUso = false;
+            pool.devolver(this);
+        }
+    }
+
+    private int indiceTopico(String topico) {
+        for (int i = 0; i < numeroTopicos; i++) {
+            if (nomesTopicos[i].equals(topico)) {
+                return i;
+            }
+        }
+        if (numeroTopicos == nomesTopicos.length) {
+            nomesTopicos = Arrays.copyOf(nomesTopicos, numeroTopicos * 2);
+        }
+        nomesTopicos[numeroTopicos] = topico;
+        return numeroTopicos++;
+    }
+
+    private void copiarChave(Object chave) {
+        int comprimento = comprimento(chave);
+        inicioChaves[tamanho] = bytesChaves;
+        tamanhoChaves[tamanho] = comprimento;
+        if (comprimento > 0) {
+            if (bytesChaves + comprimento > chaves.length) {
+                chaves = Arrays.copyOf(chaves, Math.max(chaves.length * 2, bytesChaves + comprimento));
+            }
+            copiar(chave, chaves, bytesChaves, comprimento);
+            bytesChaves += comprimento;
+        }
+    }
+
+    private void copiarValor(Object valor) {
+        int comprimento = comprimento(valor);
+        inicioValores[tamanho] = bytesValores;
+        tamanhoValores[tamanho] = comprimento;
+        if (comprimento > 0) {
+            if (bytesValores + comprimento > valores.length) {
+                valores = Arrays.copyOf(valores, Math.max(valores.length * 2, bytesValores + comprimento));
+            }
+            copiar(valor, valores, bytesValores, comprimento);
+            bytesValores += comprimento;
+        }
+    }
+
+    private static int comprimento(Object dado) {
+        if (dado == null) {
+            return -1;
+        } else if (dado instanceof byte[]) {
+            return ((byte[]) dado).length;
+        } else if (dado instanceof ByteBuffer) {
+            return ((ByteBuffer) dado).remaining();
+        }
+        throw new IllegalArgumentException("O lote colunar só aceita chaves e valores em byte[] ou ByteBuffer, não "
+                + dado.getClass().getName());
+    }
+
+    private static void copiar(Object dado, byte[] destino, int posicao, int comprimento) {
+        if (dado instanceof byte[]) {
+            System.arraycopy(dado, 0, destino, posicao, comprimento);
+            return;
+        }
+        ByteBuffer buffer = (ByteBuffer) dado;
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position(), destino, posicao, comprimento);
+        } else {
+            // Um buffer direto não tem array: a cópia é pela duplicata, para não mexer na posição do original
+            buffer.duplicate().get(destino, posicao, comprimento);
+        }
+    }
+
+    private void crescerRegistros(int registros) {
+        int capacidade = Math.max(offsets.length * 2, registros);
+        topicos = Arrays.copyOf(topicos, capacidade);
+        particoes = Arrays.copyOf(particoes, capacidade);
+        offsets = Arrays.copyOf(offsets, capacidade);
+        timestamps = Arrays.copyOf(timestamps, capacidade);
+        inicioChaves = Arrays.copyOf(inicioChaves, capacidade);
+        tamanhoChaves = Arrays.copyOf(tamanhoChaves, capacidade);
+        inicioValores = Arrays.copyOf(inicioValores, capacidade);
+        tamanhoValores = Arrays.copyOf(tamanhoValores, capacidade);
+    }
+
+    private void alocar() {
+        int registros = REGISTROS_INICIAL;
+        topicos = new int[registros];
+        particoes = new int[registros];
+        offsets = new long[registros];
+        timestamps = new long[registros];
+        chaves = new byte[BYTES_CHAVES_INICIAL];
+        inicioChaves = new int[registros];
+        tamanhoChaves = new int[registros];
+        valores = new byte[BYTES_VALORES_INICIAL];
+        inicioValores = new int[registros];
+        tamanhoValores = new int[registros];
+        tamanho = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.flaviodavim.initialkafka.colunar;
+
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+
+import java.util.ArrayDeque;
+
+/* Guarda os LoteColunar devolvidos para os próximos polls
+ *
+ * Os arrays de um lote crescem até o maior poll que ele recebeu e ficam assim, então depois dos primeiros polls
+ * a conversão não aloca nada. Um lote que passou de maxBytesLote volta ao tamanho inicial antes de ser guardado,
+ * para um poll grande de vez em quando não prender essa memória no pool, e só maxLivres lotes ficam guardados.
+ *
+ * Com o processamento na thread do poll um lote só é suficiente; com um pipeline, cada lote em processamento
+ * é um a mais. Os métodos são sincronizados porque o lote pode ser devolvido por outra thread.
+ */
+public class PoolLotes {
+
+    private final int maxLivres;
+    private final long maxBytesLote;
+    private final ArrayDeque<LoteColunar> livres = new ArrayDeque<LoteColunar>();
+    private long criados;
+    private long encolhidos;
+
+    public PoolLotes() {
+        this(4, 64L * 1024 * 1024);
+    }
+
+    public PoolLotes(int maxLivres, long maxBytesLote) {
+        this.maxLivres = maxLivres;
+        this.maxBytesLote = maxBytesLote;
+    }
+
+    // O lote precisa ser devolvido com close(), de preferência num try-with-resources
+    public LoteColunar converter(ConsumerRecords<?, ?> registros) {
+        LoteColunar lote = adquirir();
+        try {
+            lote.preencher(registros);
+        } catch (RuntimeException e) {
+            lote.close();
+            throw e;
+        }
+        return lote;
+    }
+
+    public synchronized long getCriados() {
+        return criados;
+    }
+
+    public synchronized long getEncolhidos() {
+        return encolhidos;
+    }
+
+    public synchronized int getLivres() {
+        return livres.size();
+    }
+
+    private synchronized LoteColunar adquirir() {
+        LoteColunar lote = livres.pollFirst();
+        if (lote == null) {
+            lote = new LoteColunar(this);
+            criados++;
+        }
+        lote.emUso = true;
+        return lote;
+    }
+
+    synchronized void devolver(LoteColunar lote) {
+        if (livres.size() >= maxLivres) {
+            return;
+        }
+        if (lote.getCapacidadeBytes() > maxBytesLote) {
+            lote.encolher();
+            encolhidos++;
+        }
+        // O último devolvido é o primeiro reusado, porque os arrays dele ainda estão no cache
+        livres.addFirst(lote);
+    }
+}
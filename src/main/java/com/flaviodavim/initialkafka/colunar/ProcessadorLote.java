@@ -0,0 +1,9 @@
+package com.flaviodavim.initialkafka.colunar;
+
+/* Processa todos os registros de um poll de uma vez, pelas colunas do LoteColunar
+ * O lote só vale durante a chamada: quem precisar de algum dado depois tem que copiá-lo
+ */
+public interface ProcessadorLote {
+
+    void processar(LoteColunar lote) throws Exception;
+}
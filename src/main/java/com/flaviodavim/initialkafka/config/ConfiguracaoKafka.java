@@ -0,0 +1,249 @@
+package com.flaviodavim.initialkafka.config;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/* Configuração centralizada dos Produtores e Consumidores
+ *
+ * As propriedades são lidas de várias fontes, e cada fonte sobrescreve as anteriores:
+ *      1. o arquivo kafka.properties do classpath
+ *      2. o arquivo indicado pela chave config (-Dkafka.config=/caminho ou KAFKA_CONFIG=/caminho)
+ *      3. as variáveis de ambiente KAFKA_*: KAFKA_LINGER_MS vira linger.ms
+ *      4. as propriedades de sistema kafka.*: -Dkafka.linger.ms=5 vira linger.ms
+ * Embaixo de todas elas ficam os padrões desta classe e o Perfil escolhido pela chave perfil.
+ *
+ * Chaves com prefixo producer. ou consumer. valem só para aquele cliente e ganham da mesma chave sem prefixo.
+ * Chaves sem prefixo só são repassadas ao cliente que as conhece (ProducerConfig e ConsumerConfig),
+ * e as demais ficam para a aplicação, lidas por get, getInt e getLong (ex: consumidor.threads).
+ */
+public class ConfiguracaoKafka {
+
+    public static final String ARQUIVO_PADRAO = "kafka.properties";
+    public static final String CHAVE_ARQUIVO = "config";
+    public static final String CHAVE_PERFIL = "perfil";
+
+    private static final String PREFIXO_AMBIENTE = "KAFKA_";
+    private static final String PREFIXO_SISTEMA = "kafka.";
+    private static final String PREFIXO_PRODUTOR = "producer.";
+    private static final String PREFIXO_CONSUMIDOR = "consumer.";
+
+    private final Logger logger = LoggerFactory.getLogger(ConfiguracaoKafka.class);
+
+    private final Properties fontes;
+    private final Perfil perfil;
+
+    private ConfiguracaoKafka(Properties fontes) {
+        this.fontes = fontes;
+        this.perfil = Perfil.deNome(fontes.getProperty(CHAVE_PERFIL));
+    }
+
+    // Lê todas as fontes na ordem descrita acima
+    public static ConfiguracaoKafka carregar() {
+        Properties fontes = new Properties();
+        carregarDoClasspath(fontes);
+
+        Properties ambiente = doAmbiente(System.getenv());
+        Properties sistema = doSistema(System.getProperties());
+
+        // O arquivo externo pode ser indicado por qualquer uma das fontes seguintes
+        String arquivo = sistema.getProperty(CHAVE_ARQUIVO,
+                ambiente.getProperty(CHAVE_ARQUIVO, fontes.getProperty(CHAVE_ARQUIVO)));
+        if (arquivo != null) {
+            carregarArquivo(fontes, arquivo);
+        }
+        fontes.putAll(ambiente);
+        fontes.putAll(sistema);
+        return new ConfiguracaoKafka(fontes);
+    }
+
+    // Usa apenas as propriedades informadas, sem ler arquivos nem o ambiente
+    public static ConfiguracaoKafka de(Properties propriedades) {
+        Properties fontes = new Properties();
+        fontes.putAll(propriedades);
+        return new ConfiguracaoKafka(fontes);
+    }
+
+    public Perfil getPerfil() {
+        return perfil;
+    }
+
+    public String get(String chave, String padrao) {
+        return fontes.getProperty(chave, padrao);
+    }
+
+    public int getInt(String chave, int padrao) {
+        String valor = fontes.getProperty(chave);
+        if (valor == null) {
+            return padrao;
+        }
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor inválido para " + chave + ": " + valor, e);
+        }
+    }
+
+    public long getLong(String chave, long padrao) {
+        String valor = fontes.getProperty(chave);
+        if (valor == null) {
+            return padrao;
+        }
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor inválido para " + chave + ": " + valor, e);
+        }
+    }
+
+    public boolean getBoolean(String chave, boolean padrao) {
+        String valor = fontes.getProperty(chave);
+        return valor == null ? padrao : Boolean.parseBoolean(valor.trim());
+    }
+
+    /* Propriedades efetivas do Produtor, sem os serializadores
+     * Os ajustes são exigências do código (ex: idempotência) e ficam por cima de tudo que foi configurado
+     */
+    public Properties propriedadesProdutor(Properties ajustes) {
+        Properties propriedades = new Properties();
+        propriedades.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "127.0.0.1:9092");
+        perfil.configurarProdutor(propriedades);
+        copiar(propriedades, ProducerConfig.configNames(), PREFIXO_PRODUTOR);
+        if (ajustes != null) {
+            propriedades.putAll(ajustes);
+        }
+        return propriedades;
+    }
+
+    /* Propriedades efetivas do Consumidor, sem os desserializadores
+     * O idGrupo é o padrão de cada aplicação e pode ser trocado pela chave group.id
+     * Sem idGrupo, e sem group.id configurado, o Consumidor só pode ser usado com assign()
+     */
+    public Properties propriedadesConsumidor(String idGrupo, Properties ajustes) {
+        Properties propriedades = new Properties();
+        propriedades.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "127.0.0.1:9092");
+        propriedades.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        perfil.configurarConsumidor(propriedades);
+        if (idGrupo != null) {
+            propriedades.setProperty(ConsumerConfig.GROUP_ID_CONFIG, idGrupo);
+        }
+        copiar(propriedades, ConsumerConfig.configNames(), PREFIXO_CONSUMIDOR);
+        if (ajustes != null) {
+            propriedades.putAll(ajustes);
+        }
+        return propriedades;
+    }
+
+    public <K, V> KafkaProducer<K, V> criarProdutor(Class<? extends Serializer<K>> serializadorChave,
+                                                    Class<? extends Serializer<V>> serializadorValor) {
+        return criarProdutor(serializadorChave, serializadorValor, null);
+    }
+
+    // Os serializadores definem os tipos do Produtor, então não podem ser trocados pela configuração
+    public <K, V> KafkaProducer<K, V> criarProdutor(Class<? extends Serializer<K>> serializadorChave,
+                                                    Class<? extends Serializer<V>> serializadorValor,
+                                                    Properties ajustes) {
+        Properties propriedades = propriedadesProdutor(ajustes);
+        propriedades.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, serializadorChave.getName());
+        propriedades.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, serializadorValor.getName());
+        logger.info("Configuração do Produtor (perfil " + perfil + "): " + descrever(propriedades));
+        return new KafkaProducer<K, V>(propriedades);
+    }
+
+    public <K, V> KafkaConsumer<K, V> criarConsumidor(String idGrupo,
+                                                      Class<? extends Deserializer<K>> desserializadorChave,
+                                                      Class<? extends Deserializer<V>> desserializadorValor) {
+        return criarConsumidor(idGrupo, desserializadorChave, desserializadorValor, null);
+    }
+
+    public <K, V> KafkaConsumer<K, V> criarConsumidor(String idGrupo,
+                                                      Class<? extends Deserializer<K>> desserializadorChave,
+                                                      Class<? extends Deserializer<V>> desserializadorValor,
+                                                      Properties ajustes) {
+        Properties propriedades = propriedadesConsumidor(idGrupo, ajustes);
+        propriedades.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, desserializadorChave.getName());
+        propriedades.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, desserializadorValor.getName());
+        logger.info("Configuração do Consumidor (perfil " + perfil + "): " + descrever(propriedades));
+        return new KafkaConsumer<K, V>(propriedades);
+    }
+
+    // Primeiro as chaves sem prefixo que o cliente conhece, depois as do prefixo do cliente, que têm prioridade
+    private void copiar(Properties destino, Set<String> conhecidas, String prefixo) {
+        for (String chave : fontes.stringPropertyNames()) {
+            if (conhecidas.contains(chave)) {
+                destino.setProperty(chave, fontes.getProperty(chave));
+            }
+        }
+        for (String chave : fontes.stringPropertyNames()) {
+            if (chave.startsWith(prefixo)) {
+                destino.setProperty(chave.substring(prefixo.length()), fontes.getProperty(chave));
+            }
+        }
+    }
+
+    // Ordena as chaves para o log e esconde senhas
+    static String descrever(Properties propriedades) {
+        Map<String, String> ordenadas = new TreeMap<String, String>();
+        for (String chave : propriedades.stringPropertyNames()) {
+            boolean secreta = chave.contains("password") || chave.contains("jaas.config");
+            ordenadas.put(chave, secreta ? "[oculto]" : propriedades.getProperty(chave));
+        }
+        return ordenadas.toString();
+    }
+
+    private static void carregarDoClasspath(Properties fontes) {
+        try (InputStream entrada = ConfiguracaoKafka.class.getClassLoader().getResourceAsStream(ARQUIVO_PADRAO)) {
+            if (entrada != null) {
+                fontes.load(entrada);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível ler " + ARQUIVO_PADRAO + " do classpath", e);
+        }
+    }
+
+    private static void carregarArquivo(Properties fontes, String arquivo) {
+        try (InputStream entrada = new FileInputStream(arquivo)) {
+            fontes.load(entrada);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível ler o arquivo de configuração " + arquivo, e);
+        }
+    }
+
+    // KAFKA_PRODUCER_LINGER_MS vira producer.linger.ms
+    static Properties doAmbiente(Map<String, String> ambiente) {
+        Properties propriedades = new Properties();
+        for (Map.Entry<String, String> variavel : ambiente.entrySet()) {
+            String nome = variavel.getKey();
+            if (nome.startsWith(PREFIXO_AMBIENTE) && nome.length() > PREFIXO_AMBIENTE.length()) {
+                String chave = nome.substring(PREFIXO_AMBIENTE.length()).toLowerCase().replace('_', '.');
+                propriedades.setProperty(chave, variavel.getValue());
+            }
+        }
+        return propriedades;
+    }
+
+    // -Dkafka.producer.linger.ms=5 vira producer.linger.ms
+    static Properties doSistema(Properties sistema) {
+        Properties propriedades = new Properties();
+        for (String nome : sistema.stringPropertyNames()) {
+            if (nome.startsWith(PREFIXO_SISTEMA) && nome.length() > PREFIXO_SISTEMA.length()) {
+                propriedades.setProperty(nome.substring(PREFIXO_SISTEMA.length()), sistema.getProperty(nome));
+            }
+        }
+        return propriedades;
+    }
+}
@@ -0,0 +1,98 @@
+package com.flaviodavim.initialkafka.config;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Properties;
+
+/* Perfis prontos de ajuste dos clientes
+ *
+ * O perfil é escolhido pela chave perfil (ex: -Dkafka.perfil=throughput ou KAFKA_PERFIL=low-latency)
+ * Os valores do perfil ficam abaixo das outras fontes, então qualquer chave configurada explicitamente tem prioridade.
+ */
+public enum Perfil {
+
+    // Usa os padrões do próprio Kafka
+    PADRAO("padrao") {
+        void configurarProdutor(Properties propriedades) {
+        }
+
+        void configurarConsumidor(Properties propriedades) {
+        }
+    },
+
+    /* Lotes grandes e comprimidos
+     * O linger.ms segura o lote por alguns milissegundos para ele encher, e o lz4 comprime bem com pouco custo de CPU.
+     * O zstd ainda não existe no kafka-clients 2.0, então usamos lz4.
+     * No Consumidor, o fetch.min.bytes faz o broker esperar até ter bastante dado para responder,
+     * e o max.poll.records entrega mais registros por poll.
+     */
+    THROUGHPUT("throughput") {
+        void configurarProdutor(Properties propriedades) {
+            propriedades.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(256 * 1024));
+            propriedades.setProperty(ProducerConfig.LINGER_MS_CONFIG, "20");
+            propriedades.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+            propriedades.setProperty(ProducerConfig.BUFFER_MEMORY_CONFIG, String.valueOf(64 * 1024 * 1024));
+            propriedades.setProperty(ProducerConfig.SEND_BUFFER_CONFIG, String.valueOf(1024 * 1024));
+        }
+
+        void configurarConsumidor(Properties propriedades) {
+            propriedades.setProperty(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, String.valueOf(1024 * 1024));
+            propriedades.setProperty(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, "100");
+            propriedades.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "2000");
+            propriedades.setProperty(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, String.valueOf(4 * 1024 * 1024));
+            propriedades.setProperty(ConsumerConfig.RECEIVE_BUFFER_CONFIG, String.valueOf(1024 * 1024));
+        }
+    },
+
+    /* Cada registro sai assim que é enviado
+     * Sem linger e sem compressão, e com acks=1 o Produtor espera apenas o líder.
+     * Quem precisa de acks=all (ex: envio idempotente) sobrescreve nos ajustes do código.
+     * No Consumidor o broker responde assim que tiver qualquer dado, esperando no máximo 10ms.
+     */
+    BAIXA_LATENCIA("low-latency") {
+        void configurarProdutor(Properties propriedades) {
+            propriedades.setProperty(ProducerConfig.LINGER_MS_CONFIG, "0");
+            propriedades.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, "16384");
+            propriedades.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "none");
+            propriedades.setProperty(ProducerConfig.ACKS_CONFIG, "1");
+        }
+
+        void configurarConsumidor(Properties propriedades) {
+            propriedades.setProperty(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, "1");
+            propriedades.setProperty(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, "10");
+            propriedades.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "100");
+        }
+    };
+
+    private final String nome;
+
+    Perfil(String nome) {
+        this.nome = nome;
+    }
+
+    abstract void configurarProdutor(Properties propriedades);
+
+    abstract void configurarConsumidor(Properties propriedades);
+
+    public String getNome() {
+        return nome;
+    }
+
+    public static Perfil deNome(String nome) {
+        if (nome == null || nome.trim().isEmpty()) {
+            return PADRAO;
+        }
+        for (Perfil perfil : values()) {
+            if (perfil.nome.equalsIgnoreCase(nome.trim()) || perfil.name().equalsIgnoreCase(nome.trim())) {
+                return perfil;
+            }
+        }
+        throw new IllegalArgumentException("Perfil desconhecido: " + nome + " (use padrao, throughput ou low-latency)");
+    }
+
+    @Override
+    public String toString() {
+        return nome;
+    }
+}
@@ -0,0 +1,342 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Laço de consumo com o poll ajustado por um ControladorPoll, processando os registros na própria thread do poll
+ *
+ * Os registros do poll vão para uma fila local, e cada volta do laço processa no máximo um lote do tamanho
+ * decidido pelo controlador. Enquanto a fila tem registros, o poll é feito sem espera: ele mantém o Consumidor
+ * no grupo e traz os registros que o KafkaConsumer já buscou em segundo plano (a pré-busca).
+ * Só quando a fila esvazia o poll espera, pelo tempo do controlador.
+ *
+ * A fila é limitada a dois lotes: acima disso todas as partições são pausadas e a pré-busca para,
+ * então a memória não cresce quando o processamento fica mais lento que a chegada dos registros.
+ * Elas são retomadas quando a fila cai para menos de um lote.
+ *
+ * O lag usado pelo controlador vem das métricas do próprio KafkaConsumer (records-lag de cada partição),
+ * sem ida ao broker; com o MockConsumer ele não é conhecido e o controlador decide só pelos polls.
+ *
+ * Os offsets commitados são os dos registros já processados, e não a posição do Consumidor, que inclui a fila;
+ * o Consumidor precisa ser criado com enable.auto.commit=false (ver configurar()).
+ * Num rebalanceamento, os registros das partições revogadas que estão na fila são descartados e o que foi processado
+ * é commitado, então o próximo dono começa logo depois do último registro processado.
+ */
+public class ConsumidorAdaptativo<K, V> implements Runnable {
+
+    private static final String GRUPO_METRICAS_BUSCA = "consumer-fetch-manager-metrics";
+    private static final String METRICA_LAG = "records-lag";
+
+    private final Logger logger = LoggerFactory.getLogger(ConsumidorAdaptativo.class);
+
+    private final Consumer<K, V> consumidor;
+    private final ProcessadorRegistro<K, V> processador;
+    private final ControladorPoll controlador;
+
+    private long intervaloCommitMs = 1000;
+    private long intervaloLagMs = 1000;
+    private MetricasConsumidor metricas;
+
+    // Só são acessados pela thread do poll, que também executa os callbacks do commit
+    private final ArrayDeque<ConsumerRecord<K, V>> fila = new ArrayDeque<ConsumerRecord<K, V>>();
+    private final Map<TopicPartition, Long> processadosAte = new HashMap<TopicPartition, Long>();
+    private TopicPartition ultimaParticao;
+    private boolean preBuscaPausada;
+    private long ultimoPoll;
+    private long ultimoCommit;
+    private long ultimaConsultaLag;
+    private long atraso = -1;
+
+    private final LongAdder processados = new LongAdder();
+    private volatile long polls;
+    private volatile long pollsVazios;
+    private volatile long rebalanceamentos;
+    private volatile long maiorIntervaloPollMs;
+
+    private volatile boolean encerrado;
+
+    public ConsumidorAdaptativo(Consumer<K, V> consumidor, ProcessadorRegistro<K, V> processador,
+                                ControladorPoll controlador) {
+        this.consumidor = consumidor;
+        this.processador = processador;
+        this.controlador = controlador;
+    }
+
+    // Desliga o commit automático, já que só os registros processados são commitados
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return propriedades;
+    }
+
+    /* Controlador para o Consumidor criado com essas propriedades
+     * O lote máximo é o max.poll.records e o orçamento de cada lote é metade do max.poll.interval.ms
+     */
+    public static ControladorPoll controlador(Properties propriedadesConsumidor) {
+        ControladorPoll controlador = new ControladorPoll(Long.parseLong(
+                propriedadesConsumidor.getProperty(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, "300000")));
+        controlador.setLimitesLote(1, Integer.parseInt(
+                propriedadesConsumidor.getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "500")));
+        return controlador;
+    }
+
+    public void setIntervaloCommitMs(long intervaloCommitMs) {
+        this.intervaloCommitMs = intervaloCommitMs;
+    }
+
+    public void setIntervaloLagMs(long intervaloLagMs) {
+        this.intervaloLagMs = intervaloLagMs;
+    }
+
+    // Opcional; registra o tamanho de cada poll e a latência desde a produção
+    public void setMetricas(MetricasConsumidor metricas) {
+        this.metricas = metricas;
+    }
+
+    public ControladorPoll getControlador() {
+        return controlador;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Descarta da fila os registros das partições revogadas e commita o que já foi processado delas
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                Iterator<ConsumerRecord<K, V>> iterador = fila.iterator();
+                while (iterador.hasNext()) {
+                    ConsumerRecord<K, V> registro = iterador.next();
+                    if (revogadas.contains(new TopicPartition(registro.topic(), registro.partition()))) {
+                        iterador.remove();
+                    }
+                }
+                // Uma partição que voltar para este Consumidor não pode continuar pausada
+                if (preBuscaPausada) {
+                    consumidor.resume(consumidor.assignment());
+                    preBuscaPausada = false;
+                }
+                commitar(true);
+                // Um commit assíncrono que falhou durante o commitSync pode ter devolvido offsets delas
+                processadosAte.keySet().removeAll(revogadas);
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                rebalanceamentos++;
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        ultimoPoll = System.nanoTime();
+        try {
+            while (!encerrado) {
+                poll();
+                processarLote();
+
+                long agora = System.currentTimeMillis();
+                if (agora - ultimoCommit >= intervaloCommitMs) {
+                    commitar(false);
+                    ultimoCommit = agora;
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (!encerrado) {
+                throw e;
+            }
+        } finally {
+            try {
+                commitar(true);
+            } catch (Exception e) {
+                logger.warn("Falha ao commitar os offsets no encerramento.", e);
+            } finally {
+                consumidor.close();
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    private void poll() {
+        boolean esperar = fila.isEmpty();
+        long antes = System.nanoTime();
+        maiorIntervaloPollMs = Math.max(maiorIntervaloPollMs, TimeUnit.NANOSECONDS.toMillis(antes - ultimoPoll));
+
+        ConsumerRecords<K, V> registros = consumidor.poll(esperar ? controlador.tempoPoll() : Duration.ZERO);
+        ultimoPoll = System.nanoTime();
+        polls++;
+        if (metricas != null) {
+            metricas.registrarLote(registros);
+        }
+        for (ConsumerRecord<K, V> registro : registros) {
+            fila.add(registro);
+        }
+        if (esperar) {
+            if (registros.isEmpty()) {
+                pollsVazios++;
+            }
+            controlador.aposPoll(registros.count(), atraso());
+        }
+        ajustarPreBusca();
+    }
+
+    private void ajustarPreBusca() {
+        int lote = controlador.tamanhoLote();
+        if (!preBuscaPausada && fila.size() >= 2 * lote) {
+            consumidor.pause(consumidor.assignment());
+            preBuscaPausada = true;
+        } else if (preBuscaPausada && fila.size() < lote) {
+            consumidor.resume(consumidor.assignment());
+            preBuscaPausada = false;
+        }
+    }
+
+    /* Processa até um lote da fila
+     * Para antes se o tempo desde o último poll passar do orçamento, mesmo que o lote não tenha terminado:
+     * um registro muito mais lento que a média não pode tirar o Consumidor do grupo
+     */
+    private void processarLote() {
+        int limite = controlador.tamanhoLote();
+        long inicio = System.nanoTime();
+        long prazo = ultimoPoll + controlador.getOrcamentoNanos();
+        int quantidade = 0;
+        while (quantidade < limite && !fila.isEmpty()) {
+            ConsumerRecord<K, V> registro = fila.poll();
+            try {
+                processador.processar(registro);
+            } catch (Exception e) {
+                logger.error("Erro ao processar o registro " + registro.topic() + "-" + registro.partition()
+                        + "@" + registro.offset(), e);
+            }
+            processadosAte.put(particao(registro), registro.offset() + 1);
+            quantidade++;
+            if (System.nanoTime() - prazo > 0) {
+                break;
+            }
+        }
+        if (quantidade > 0) {
+            controlador.aposLote(quantidade, System.nanoTime() - inicio);
+            processados.add(quantidade);
+        }
+    }
+
+    // Os registros chegam agrupados por partição, então quase sempre a partição é a mesma do registro anterior
+    private TopicPartition particao(ConsumerRecord<K, V> registro) {
+        TopicPartition particao = ultimaParticao;
+        if (particao == null || particao.partition() != registro.partition() || !particao.topic().equals(registro.topic())) {
+            particao = new TopicPartition(registro.topic(), registro.partition());
+            ultimaParticao = particao;
+        }
+        return particao;
+    }
+
+    private void commitar(boolean sincrono) {
+        if (processadosAte.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (Map.Entry<TopicPartition, Long> entrada : processadosAte.entrySet()) {
+            offsets.put(entrada.getKey(), new OffsetAndMetadata(entrada.getValue()));
+        }
+        processadosAte.clear();
+        if (sincrono) {
+            consumidor.commitSync(offsets);
+        } else {
+            consumidor.commitAsync(offsets, new OffsetCommitCallback() {
+                public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                    if (e != null) {
+                        /* Volta para o próximo commit, senão uma partição que parou de receber registros
+                         * nunca teria o offset commitado. Um offset mais novo da partição que já esteja esperando
+                         * tem preferência, e o de uma partição revogada é descartado: o novo dono cuida dela
+                         */
+                        logger.warn("Falha ao commitar os offsets " + offsets, e);
+                        Set<TopicPartition> atribuidas = consumidor.assignment();
+                        for (Map.Entry<TopicPartition, OffsetAndMetadata> entrada : offsets.entrySet()) {
+                            if (atribuidas.contains(entrada.getKey())) {
+                                processadosAte.putIfAbsent(entrada.getKey(), entrada.getValue().offset());
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /* Soma do lag das partições atribuídas, lida das métricas do Consumidor no máximo a cada intervaloLagMs
+     * O records-lag é atualizado pelo próprio KafkaConsumer a cada resposta de fetch; NaN quando ainda não é conhecido
+     */
+    private long atraso() {
+        long agora = System.currentTimeMillis();
+        if (agora - ultimaConsultaLag < intervaloLagMs) {
+            return atraso;
+        }
+        ultimaConsultaLag = agora;
+        long total = -1;
+        for (Map.Entry<MetricName, ? extends Metric> metrica : consumidor.metrics().entrySet()) {
+            MetricName nome = metrica.getKey();
+            if (METRICA_LAG.equals(nome.name()) && GRUPO_METRICAS_BUSCA.equals(nome.group())
+                    && nome.tags().containsKey("partition")) {
+                Object valor = metrica.getValue().metricValue();
+                if (valor instanceof Double && !((Double) valor).isNaN()) {
+                    total = Math.max(0, total) + ((Double) valor).longValue();
+                }
+            }
+        }
+        atraso = total;
+        return atraso;
+    }
+
+    public long getProcessados() {
+        return processados.sum();
+    }
+
+    public long getPolls() {
+        return polls;
+    }
+
+    // Polls que esperaram pelo tempo do controlador e voltaram sem registros
+    public long getPollsVazios() {
+        return pollsVazios;
+    }
+
+    public long getRebalanceamentos() {
+        return rebalanceamentos;
+    }
+
+    // O maior tempo entre dois polls; perto do max.poll.interval.ms, o Consumidor corre o risco de sair do grupo
+    public long getMaiorIntervaloPollMs() {
+        return maiorIntervaloPollMs;
+    }
+
+    // Soma do lag da última consulta, ou -1 se ainda não é conhecido
+    public long getAtraso() {
+        return atraso;
+    }
+}
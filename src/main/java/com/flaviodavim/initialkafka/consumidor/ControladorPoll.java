@@ -0,0 +1,126 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/* Decide o tempo de espera do próximo poll e quantos registros processar entre dois polls
+ *
+ * O tempo do poll só importa quando não há registros esperando, já que o poll volta assim que algum chega:
+ * com o tópico parado, ele dobra a cada poll vazio até tempoPollMaximo, e o laço deixa de girar à toa a cada 100 ms.
+ * Quando chegam registros, ou quando ainda há atraso (lag) no broker, ele volta ao mínimo.
+ *
+ * O tamanho do lote vem do custo médio de um registro (média móvel exponencial dos lotes anteriores):
+ * é o número de registros que cabe no orçamento, uma fração do max.poll.interval.ms.
+ * Se um lote passar do orçamento mesmo assim (um registro bem mais lento que a média), o tamanho cai pela metade.
+ * Como o próximo poll acontece sempre depois de um lote, o Consumidor não é tirado do grupo por demora no processamento,
+ * que é o que acontece com um max.poll.records fixo quando o processamento fica lento.
+ *
+ * Não é thread-safe; é usado só pela thread do poll. Os getters podem ser lidos de outras threads para relatórios.
+ */
+public class ControladorPoll {
+
+    // Peso do lote mais recente na média do custo por registro
+    private static final double PESO_LOTE = 0.2;
+
+    private final long orcamentoNanos;
+
+    private long tempoPollMinimoMs = 100;
+    private long tempoPollMaximoMs = 1000;
+    private int loteMinimo = 1;
+    private int loteMaximo = 500;
+
+    private volatile long tempoPollMs = tempoPollMinimoMs;
+    private volatile int tamanhoLote = loteMaximo;
+    private volatile double custoMedioNanos;
+    private volatile long estouros;
+
+    /* O intervaloMaximoPollMs é o max.poll.interval.ms do Consumidor
+     * O orçamento de um lote é fracaoOrcamento dele, e o resto fica de folga para o commit e o próprio poll
+     */
+    public ControladorPoll(long intervaloMaximoPollMs, double fracaoOrcamento) {
+        if (fracaoOrcamento <= 0 || fracaoOrcamento >= 1) {
+            throw new IllegalArgumentException("fracaoOrcamento deve estar entre 0 e 1: " + fracaoOrcamento);
+        }
+        this.orcamentoNanos = (long) (TimeUnit.MILLISECONDS.toNanos(intervaloMaximoPollMs) * fracaoOrcamento);
+    }
+
+    public ControladorPoll(long intervaloMaximoPollMs) {
+        this(intervaloMaximoPollMs, 0.5);
+    }
+
+    public void setTempoPoll(Duration minimo, Duration maximo) {
+        if (minimo.compareTo(maximo) > 0) {
+            throw new IllegalArgumentException("Tempo mínimo " + minimo + " maior que o máximo " + maximo);
+        }
+        tempoPollMinimoMs = minimo.toMillis();
+        tempoPollMaximoMs = maximo.toMillis();
+        tempoPollMs = tempoPollMinimoMs;
+    }
+
+    // O máximo normalmente é o max.poll.records, já que um poll não traz mais que isso
+    public void setLimitesLote(int minimo, int maximo) {
+        if (minimo <= 0 || maximo < minimo) {
+            throw new IllegalArgumentException("Limites de lote inválidos: " + minimo + " a " + maximo);
+        }
+        loteMinimo = minimo;
+        loteMaximo = maximo;
+        tamanhoLote = maximo;
+    }
+
+    public Duration tempoPoll() {
+        return Duration.ofMillis(tempoPollMs);
+    }
+
+    public int tamanhoLote() {
+        return tamanhoLote;
+    }
+
+    public long getOrcamentoNanos() {
+        return orcamentoNanos;
+    }
+
+    /* Chamado depois de cada poll que esperou pelo tempoPoll()
+     * O atraso é a soma do lag das partições atribuídas, ou -1 se ainda não é conhecido
+     */
+    public void aposPoll(int recebidos, long atraso) {
+        if (recebidos > 0 || atraso > 0) {
+            tempoPollMs = tempoPollMinimoMs;
+        } else {
+            tempoPollMs = Math.min(tempoPollMaximoMs, Math.max(1, tempoPollMs * 2));
+        }
+    }
+
+    // Chamado depois de cada lote processado, com o tempo total do lote
+    public void aposLote(int registros, long nanos) {
+        if (registros <= 0) {
+            return;
+        }
+        double custo = (double) nanos / registros;
+        custoMedioNanos = custoMedioNanos == 0 ? custo : custoMedioNanos + PESO_LOTE * (custo - custoMedioNanos);
+
+        long cabem = (long) (orcamentoNanos / Math.max(1, custoMedioNanos));
+        int tamanho = (int) Math.max(loteMinimo, Math.min(loteMaximo, cabem));
+        if (nanos > orcamentoNanos) {
+            estouros++;
+            tamanho = Math.max(loteMinimo, Math.min(tamanho, registros / 2));
+        }
+        tamanhoLote = tamanho;
+    }
+
+    public long getTempoPollMs() {
+        return tempoPollMs;
+    }
+
+    public int getTamanhoLote() {
+        return tamanhoLote;
+    }
+
+    public double getCustoMedioNanos() {
+        return custoMedioNanos;
+    }
+
+    // Quantos lotes passaram do orçamento
+    public long getEstouros() {
+        return estouros;
+    }
+}
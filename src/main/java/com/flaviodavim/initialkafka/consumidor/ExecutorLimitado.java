@@ -0,0 +1,65 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/* Limita quantas tarefas de um executor sem limite executam ao mesmo tempo
+ *
+ * Cada tarefa espera uma permissão dentro da própria thread, então execute() nunca bloqueia a thread do poll.
+ * É feito para threads virtuais: uma thread virtual esperando o semáforo não ocupa uma thread do sistema.
+ */
+class ExecutorLimitado extends AbstractExecutorService {
+
+    private final ExecutorService executor;
+    private final Semaphore permissoes;
+
+    ExecutorLimitado(ExecutorService executor, int concorrencia) {
+        if (concorrencia <= 0) {
+            throw new IllegalArgumentException("concorrencia deve ser maior que zero: " + concorrencia);
+        }
+        this.executor = executor;
+        this.permissoes = new Semaphore(concorrencia);
+    }
+
+    @Override
+    public void execute(final Runnable tarefa) {
+        executor.execute(new Runnable() {
+            public void run() {
+                permissoes.acquireUninterruptibly();
+                try {
+                    tarefa.run();
+                } finally {
+                    permissoes.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long tempo, TimeUnit unidade) throws InterruptedException {
+        return executor.awaitTermination(tempo, unidade);
+    }
+}
@@ -0,0 +1,55 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Executa as tarefas de uma faixa uma de cada vez, na ordem em que foram adicionadas
+ *
+ * Várias faixas compartilham o mesmo pool de threads, mas cada faixa só ocupa uma thread por vez.
+ * Assim a ordem dentro da faixa é mantida sem precisar de uma thread dedicada para cada uma.
+ */
+class FaixaSerial implements Runnable {
+
+    // Quantas tarefas uma faixa executa antes de devolver a thread para as outras faixas
+    private static final int TAREFAS_POR_RODADA = 256;
+
+    private final Executor executor;
+    private final Queue<Runnable> tarefas = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean agendada = new AtomicBoolean();
+
+    FaixaSerial(Executor executor) {
+        this.executor = executor;
+    }
+
+    void adicionar(Runnable tarefa) {
+        tarefas.add(tarefa);
+        agendar();
+    }
+
+    private void agendar() {
+        if (agendada.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < TAREFAS_POR_RODADA; i++) {
+                Runnable tarefa = tarefas.poll();
+                if (tarefa == null) {
+                    break;
+                }
+                tarefa.run();
+            }
+        } finally {
+            agendada.set(false);
+            // Uma tarefa pode ter chegado depois do último poll() e antes de liberar a faixa
+            if (!tarefas.isEmpty()) {
+                agendar();
+            }
+        }
+    }
+}
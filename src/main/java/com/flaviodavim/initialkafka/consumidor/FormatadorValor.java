@@ -0,0 +1,7 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+// Escreve o valor de um registro em um StringBuilder, usado pelo ProcessadorLog para valores que não são texto
+public interface FormatadorValor<V> {
+
+    void formatar(V valor, StringBuilder destino);
+}
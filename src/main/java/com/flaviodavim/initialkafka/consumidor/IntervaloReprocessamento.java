@@ -0,0 +1,68 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.time.Instant;
+
+/* Trecho do tópico que o Reprocessador deve ler de novo, o mesmo para todas as partições
+ *      -> porTempo: do primeiro registro com timestamp >= inicio até o primeiro com timestamp >= fim (exclusivo)
+ *      -> porOffset: de inicio até fim (exclusivo), limitado ao que ainda existe em cada partição
+ *
+ * Sem fim, o reprocessamento vai até o endOffset de cada partição no momento em que ele começa;
+ * registros que chegarem depois disso não entram.
+ */
+public final class IntervaloReprocessamento {
+
+    static final long SEM_FIM = Long.MAX_VALUE;
+
+    private final boolean porTempo;
+    private final long inicio;
+    private final long fim;
+
+    private IntervaloReprocessamento(boolean porTempo, long inicio, long fim) {
+        if (inicio < 0 || fim < inicio) {
+            throw new IllegalArgumentException("Intervalo inválido: " + inicio + " até " + fim);
+        }
+        this.porTempo = porTempo;
+        this.inicio = inicio;
+        this.fim = fim;
+    }
+
+    public static IntervaloReprocessamento porTempo(Instant inicio, Instant fim) {
+        return new IntervaloReprocessamento(true, inicio.toEpochMilli(), fim.toEpochMilli());
+    }
+
+    public static IntervaloReprocessamento desde(Instant inicio) {
+        return new IntervaloReprocessamento(true, inicio.toEpochMilli(), SEM_FIM);
+    }
+
+    public static IntervaloReprocessamento porOffset(long inicio, long fim) {
+        return new IntervaloReprocessamento(false, inicio, fim);
+    }
+
+    public static IntervaloReprocessamento desdeOffset(long inicio) {
+        return new IntervaloReprocessamento(false, inicio, SEM_FIM);
+    }
+
+    boolean isPorTempo() {
+        return porTempo;
+    }
+
+    long getInicio() {
+        return inicio;
+    }
+
+    long getFim() {
+        return fim;
+    }
+
+    boolean temFim() {
+        return fim != SEM_FIM;
+    }
+
+    @Override
+    public String toString() {
+        if (porTempo) {
+            return Instant.ofEpochMilli(inicio) + " até " + (temFim() ? Instant.ofEpochMilli(fim).toString() : "o fim");
+        }
+        return "offset " + inicio + " até " + (temFim() ? Long.toString(fim) : "o fim");
+    }
+}
@@ -0,0 +1,109 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Define em que tipo de thread o pipeline executa o ProcessadorRegistro
+ *      -> PLATAFORMA: um pool fixo de threads do sistema operacional, uma para cada tarefa em execução
+ *      -> VIRTUAL: uma thread virtual por tarefa (Java 21+), limitadas a concorrencia tarefas ao mesmo tempo
+ *
+ * Com processadores que esperam I/O (HTTP, banco de dados), o número de registros em processamento ao mesmo tempo
+ * é o que limita a vazão. Threads virtuais permitem uma concorrência de centenas ou milhares sem o custo
+ * de memória e de troca de contexto de uma thread do sistema para cada uma.
+ * O ProcessadorRegistro é o mesmo nos dois modos; a ordem e os commits continuam sendo feitos pelo PipelineConsumo.
+ *
+ * O projeto compila para Java 8, então as threads virtuais são criadas por reflexão.
+ * Em uma JVM sem threads virtuais, o modo VIRTUAL lança IllegalStateException em vez de usar threads de plataforma,
+ * para quem escolheu virtual não medir ou executar o outro modo sem perceber.
+ */
+public enum ModoExecucao {
+
+    PLATAFORMA("plataforma") {
+        @Override
+        public ExecutorService criarExecutor(int concorrencia, String nome) {
+            return Executors.newFixedThreadPool(concorrencia, fabricaPlataforma(nome));
+        }
+    },
+
+    VIRTUAL("virtual") {
+        @Override
+        public ExecutorService criarExecutor(int concorrencia, String nome) {
+            ThreadFactory fabrica = fabricaVirtual(nome);
+            if (fabrica == null) {
+                throw new IllegalStateException("Threads virtuais não estão disponíveis no Java "
+                        + System.getProperty("java.version") + "; o modo virtual precisa do Java 21 ou mais novo");
+            }
+            try {
+                // Executors.newThreadPerTaskExecutor(fabrica): threads virtuais são baratas e não devem ser reaproveitadas
+                ExecutorService porTarefa = (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, fabrica);
+                return new ExecutorLimitado(porTarefa, concorrencia);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Não foi possível criar o executor de threads virtuais", e);
+            }
+        }
+    };
+
+    private final String nome;
+
+    ModoExecucao(String nome) {
+        this.nome = nome;
+    }
+
+    // Executor próprio do pipeline, com no máximo concorrencia tarefas executando ao mesmo tempo
+    public abstract ExecutorService criarExecutor(int concorrencia, String nome);
+
+    public String getNome() {
+        return nome;
+    }
+
+    public static ModoExecucao deNome(String nome) {
+        for (ModoExecucao modo : values()) {
+            if (modo.nome.equalsIgnoreCase(nome.trim()) || modo.name().equalsIgnoreCase(nome.trim())) {
+                return modo;
+            }
+        }
+        throw new IllegalArgumentException("Modo de execução desconhecido: " + nome + " (use plataforma ou virtual)");
+    }
+
+    public static boolean threadsVirtuaisDisponiveis() {
+        return fabricaVirtual("teste") != null;
+    }
+
+    @Override
+    public String toString() {
+        return nome;
+    }
+
+    private static ThreadFactory fabricaPlataforma(final String nome) {
+        final AtomicInteger contador = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable tarefa) {
+                return new Thread(tarefa, nome + "-" + contador.getAndIncrement());
+            }
+        };
+    }
+
+    // Thread.ofVirtual().name(nome + "-", 0).factory(), ou null antes do Java 21
+    private static ThreadFactory fabricaVirtual(String nome) {
+        try {
+            Object construtor = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> classeConstrutor = Class.forName("java.lang.Thread$Builder");
+            Method nomear = classeConstrutor.getMethod("name", String.class, long.class);
+            construtor = nomear.invoke(construtor, nome + "-", 0L);
+            return (ThreadFactory) classeConstrutor.getMethod("factory").invoke(construtor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logger logger = LoggerFactory.getLogger(ModoExecucao.class);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Threads virtuais indisponíveis", e);
+            }
+            return null;
+        }
+    }
+}
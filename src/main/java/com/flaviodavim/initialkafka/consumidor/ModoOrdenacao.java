@@ -0,0 +1,10 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+/* Define qual ordem o pipeline garante no processamento
+ *      -> PARTICAO: todos os registros da partição são processados um de cada vez, na ordem dos offsets
+ *      -> CHAVE: registros com a mesma chave mantêm a ordem, mas chaves diferentes da mesma partição são processadas em paralelo
+ */
+public enum ModoOrdenacao {
+    PARTICAO,
+    CHAVE
+}
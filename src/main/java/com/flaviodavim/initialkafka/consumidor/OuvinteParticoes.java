@@ -0,0 +1,22 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+
+/* Avisa a aplicação quando as partições do PipelineConsumo mudam, para ela cuidar do estado de cada partição
+ *
+ * No Kafka 2.0 todo rebalanceamento revoga todas as partições e depois atribui a nova divisão.
+ * Com o StickyAssignor a maior parte delas volta para o mesmo Consumidor, então o pipeline separa:
+ *      -> aoRevogar: as partições estão saindo; o trabalho delas já terminou e os offsets foram commitados.
+ *         É a hora de gravar o estado que outro Consumidor vai precisar, mas ele pode continuar na memória.
+ *      -> aoAtribuir: a nova divisão. Só as novas precisam ser aquecidas (ex: ler um snapshot),
+ *         e só as perdidas podem ter o estado descartado; as que voltaram continuam como estavam.
+ * Os dois são chamados pela thread do poll, dentro do poll(), e atrasam o processamento de todas as partições.
+ */
+public interface OuvinteParticoes {
+
+    void aoRevogar(Collection<TopicPartition> revogadas);
+
+    void aoAtribuir(Collection<TopicPartition> novas, Collection<TopicPartition> perdidas);
+}
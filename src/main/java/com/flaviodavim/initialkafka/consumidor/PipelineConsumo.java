@@ -0,0 +1,580 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.StickyAssignor;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/* Pipeline que separa a consulta dos dados do processamento
+ *
+ * A thread que executa o run() só faz o poll e entrega os registros para as faixas de cada partição.
+ * As faixas são executadas por um pool de threads de trabalho, uma partição por vez em cada faixa,
+ * então a ordem dentro da partição é mantida e um processamento lento não atrasa o próximo poll.
+ *
+ * Cada partição aceita no máximo capacidadePorParticao registros pendentes.
+ * Quando ela enche, os registros que não couberam ficam guardados na thread do poll e a partição é pausada,
+ * então o excedente nunca passa de um poll (max.poll.records).
+ * Ela é retomada quando o excedente foi entregue e metade dos pendentes foi concluída.
+ *
+ * No modo ModoOrdenacao.CHAVE cada partição é dividida em várias faixas pelo hash da chave.
+ * Registros da mesma chave continuam em ordem, e os de chaves diferentes são processados em paralelo.
+ * Como eles podem terminar fora de ordem, o commit da partição só avança sobre registros já concluídos.
+ *
+ * As threads de trabalho podem ser de plataforma ou virtuais (ModoExecucao); o ProcessadorRegistro é o mesmo nos dois.
+ * Um registro cujo processamento falha é dado como concluído, a não ser que a falha seja uma RegistroNaoConcluidoException.
+ * Aí a partição para de ser despachada: os registros dela que ainda não começaram são descartados e, quando os que já
+ * começaram terminam, o que foi concluído é commitado, a posição volta para o primeiro registro não concluído (seek)
+ * e a partição fica pausada por intervaloFalhaMs antes de ser lida de novo a partir dele.
+ *
+ * Os offsets são commitados manualmente e só até o maior offset contíguo já processado,
+ * então o Consumidor precisa ser criado com enable.auto.commit=false (ver configurar()).
+ * Num rebalanceamento, o pipeline espera os registros das partições revogadas que já estão em processamento
+ * e descarta os que ainda estão na fila, antes de commitar. Assim nenhum registro processado é lido de novo
+ * pelo próximo dono da partição, e a pausa dura no máximo um registro por faixa (ver ouvinteRebalanceamento()).
+ * Recebe a interface Consumer, então pode ser testado com o MockConsumer do Kafka.
+ */
+public class PipelineConsumo<K, V> implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(PipelineConsumo.class);
+
+    private final Consumer<K, V> consumidor;
+    private final ProcessadorRegistro<K, V> processador;
+    private final ExecutorService executor;
+    private final boolean executorProprio;
+    private final int capacidadePorParticao;
+
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private long intervaloCommitMs = 1000;
+    private long tempoMaximoEncerramentoMs = 30000;
+    private long tempoMaximoDrenagemMs = 10000;
+    private long intervaloFalhaMs = 1000;
+    private ModoOrdenacao modoOrdenacao = ModoOrdenacao.PARTICAO;
+    private int faixasPorParticao = Runtime.getRuntime().availableProcessors();
+    private MetricasConsumidor metricas;
+    private OuvinteParticoes ouvinteParticoes;
+
+    // Só é acessado pela thread do poll
+    private final Map<TopicPartition, EstadoParticao> particoes = new HashMap<TopicPartition, EstadoParticao>();
+    private long ultimoCommit;
+    // Partições que voltaram para um registro não concluído e quando elas podem ser lidas de novo
+    private final Map<TopicPartition, Long> aguardandoNovaTentativa = new HashMap<TopicPartition, Long>();
+    // Partições revogadas no rebalanceamento em andamento e quando ele começou
+    private Set<TopicPartition> revogadas = Collections.emptySet();
+    private long inicioRebalanceamento;
+
+    private volatile long rebalanceamentos;
+    private volatile long ultimaPausaRebalanceamentoMs;
+    private volatile long naoConcluidos;
+
+    private volatile boolean encerrado;
+
+    public PipelineConsumo(Consumer<K, V> consumidor,
+                           ProcessadorRegistro<K, V> processador,
+                           int numeroWorkers,
+                           int capacidadePorParticao) {
+        this(consumidor, processador, Executors.newFixedThreadPool(numeroWorkers), true, capacidadePorParticao);
+    }
+
+    public PipelineConsumo(Consumer<K, V> consumidor,
+                           ProcessadorRegistro<K, V> processador,
+                           ExecutorService executor,
+                           int capacidadePorParticao) {
+        this(consumidor, processador, executor, false, capacidadePorParticao);
+    }
+
+    /* As tarefas são executadas em threads de plataforma ou virtuais, com no máximo concorrencia ao mesmo tempo
+     * Para aproveitar uma concorrência alta, use o modo CHAVE com faixasPorParticao próximo dela
+     */
+    public PipelineConsumo(Consumer<K, V> consumidor,
+                           ProcessadorRegistro<K, V> processador,
+                           ModoExecucao modoExecucao,
+                           int concorrencia,
+                           int capacidadePorParticao) {
+        this(consumidor, processador, modoExecucao.criarExecutor(concorrencia, "pipeline-" + modoExecucao),
+                true, capacidadePorParticao);
+    }
+
+    private PipelineConsumo(Consumer<K, V> consumidor,
+                            ProcessadorRegistro<K, V> processador,
+                            ExecutorService executor,
+                            boolean executorProprio,
+                            int capacidadePorParticao) {
+        if (capacidadePorParticao <= 0) {
+            throw new IllegalArgumentException("capacidadePorParticao deve ser maior que zero: " + capacidadePorParticao);
+        }
+        this.consumidor = consumidor;
+        this.processador = processador;
+        this.executor = executor;
+        this.executorProprio = executorProprio;
+        this.capacidadePorParticao = capacidadePorParticao;
+    }
+
+    // Desliga o commit automático, já que o pipeline commita apenas o que foi processado
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return propriedades;
+    }
+
+    /* Usa o StickyAssignor, que num rebalanceamento deixa cada Consumidor com o máximo possível das partições que já tinha
+     * O Kafka 2.0 ainda não tem o rebalanceamento cooperativo (incremental), então todas as partições são revogadas
+     * e atribuídas de novo; com o StickyAssignor quase todas voltam para o mesmo dono e o estado delas continua aquecido.
+     * Todos os Consumidores do grupo precisam usar a mesma estratégia.
+     */
+    public static Properties configurarAtribuicaoEstavel(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, StickyAssignor.class.getName());
+        return propriedades;
+    }
+
+    public void setTempoPoll(Duration tempoPoll) {
+        this.tempoPoll = tempoPoll;
+    }
+
+    public void setIntervaloCommitMs(long intervaloCommitMs) {
+        this.intervaloCommitMs = intervaloCommitMs;
+    }
+
+    public void setTempoMaximoEncerramentoMs(long tempoMaximoEncerramentoMs) {
+        this.tempoMaximoEncerramentoMs = tempoMaximoEncerramentoMs;
+    }
+
+    // Quanto o rebalanceamento espera os registros em processamento das partições revogadas; depois disso eles serão lidos de novo
+    public void setTempoMaximoDrenagemMs(long tempoMaximoDrenagemMs) {
+        this.tempoMaximoDrenagemMs = tempoMaximoDrenagemMs;
+    }
+
+    // Quanto tempo a partição fica pausada depois de voltar para um registro não concluído
+    public void setIntervaloFalhaMs(long intervaloFalhaMs) {
+        this.intervaloFalhaMs = intervaloFalhaMs;
+    }
+
+    public void setModoOrdenacao(ModoOrdenacao modoOrdenacao) {
+        this.modoOrdenacao = modoOrdenacao;
+    }
+
+    // Só é usado no modo CHAVE; é o máximo de registros de uma mesma partição processados ao mesmo tempo
+    public void setFaixasPorParticao(int faixasPorParticao) {
+        if (faixasPorParticao <= 0) {
+            throw new IllegalArgumentException("faixasPorParticao deve ser maior que zero: " + faixasPorParticao);
+        }
+        this.faixasPorParticao = faixasPorParticao;
+    }
+
+    // Opcional; registra o tamanho de cada poll, a latência desde a produção e o lag das partições
+    public void setMetricas(MetricasConsumidor metricas) {
+        this.metricas = metricas;
+    }
+
+    // Opcional; avisa a aplicação das partições revogadas, novas e perdidas em cada rebalanceamento
+    public void setOuvinteParticoes(OuvinteParticoes ouvinteParticoes) {
+        this.ouvinteParticoes = ouvinteParticoes;
+    }
+
+    public long getRebalanceamentos() {
+        return rebalanceamentos;
+    }
+
+    // Quantas vezes uma partição voltou para um registro não concluído (RegistroNaoConcluidoException)
+    public long getNaoConcluidos() {
+        return naoConcluidos;
+    }
+
+    // Do começo da revogação até o fim da atribuição: o tempo em que nenhuma partição foi processada
+    public long getUltimaPausaRebalanceamentoMs() {
+        return ultimaPausaRebalanceamentoMs;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Antes de perder as partições:
+     *      -> descarta o excedente e as filas das faixas delas, que serão lidos de novo por quem ficar com elas;
+     *      -> espera as threads de trabalho terminarem os registros que já começaram (até tempoMaximoDrenagemMs);
+     *      -> commita o que foi concluído e avisa o OuvinteParticoes.
+     * Na atribuição, compara com as revogadas para separar as partições novas das que foram perdidas de vez.
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                inicioRebalanceamento = System.nanoTime();
+                List<EstadoParticao> estados = new ArrayList<EstadoParticao>();
+                List<TopicPartition> pausadas = new ArrayList<TopicPartition>();
+                for (TopicPartition particao : revogadas) {
+                    if (aguardandoNovaTentativa.remove(particao) != null) {
+                        pausadas.add(particao);
+                    }
+                    EstadoParticao estado = particoes.remove(particao);
+                    if (estado != null) {
+                        estado.revogada = true;
+                        estado.excedente.clear();
+                        estados.add(estado);
+                        if (estado.pausada && !pausadas.contains(particao)) {
+                            pausadas.add(particao);
+                        }
+                    }
+                }
+                // O estado da partição é esquecido aqui, então ela não pode continuar pausada se voltar para este Consumidor
+                if (!pausadas.isEmpty()) {
+                    consumidor.resume(pausadas);
+                }
+                if (!aguardar(estados, tempoMaximoDrenagemMs)) {
+                    logger.warn("Rebalanceamento com registros ainda em processamento, eles serão lidos de novo.");
+                }
+
+                Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+                for (EstadoParticao estado : estados) {
+                    if (estado.rastreador.avancar() >= 0) {
+                        offsets.put(estado.particao, new OffsetAndMetadata(estado.rastreador.getProximoCommit()));
+                    }
+                }
+                if (!offsets.isEmpty()) {
+                    consumidor.commitSync(offsets);
+                }
+                if (ouvinteParticoes != null) {
+                    ouvinteParticoes.aoRevogar(revogadas);
+                }
+                PipelineConsumo.this.revogadas = new HashSet<TopicPartition>(revogadas);
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                // O estado de cada partição no pipeline é criado quando chega o primeiro registro dela
+                Set<TopicPartition> novas = new HashSet<TopicPartition>(atribuidas);
+                novas.removeAll(revogadas);
+                Set<TopicPartition> perdidas = new HashSet<TopicPartition>(revogadas);
+                perdidas.removeAll(atribuidas);
+                if (ouvinteParticoes != null) {
+                    ouvinteParticoes.aoAtribuir(novas, perdidas);
+                }
+
+                if (inicioRebalanceamento != 0) {
+                    ultimaPausaRebalanceamentoMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicioRebalanceamento);
+                }
+                rebalanceamentos++;
+                logger.info("Rebalanceamento: " + atribuidas.size() + " partições atribuídas (" + novas.size()
+                        + " novas), " + perdidas.size() + " perdidas, processamento parado por "
+                        + ultimaPausaRebalanceamentoMs + " ms.");
+                revogadas = Collections.emptySet();
+                inicioRebalanceamento = 0;
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!encerrado) {
+                ConsumerRecords<K, V> registros = consumidor.poll(tempoPoll);
+                if (metricas != null) {
+                    metricas.registrarLote(registros);
+                    metricas.atualizarLag(consumidor);
+                }
+                despachar(registros);
+                retomarParticoes();
+                voltarNaoConcluidas();
+
+                long agora = System.currentTimeMillis();
+                if (agora - ultimoCommit >= intervaloCommitMs) {
+                    commitar(false);
+                    ultimoCommit = agora;
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (!encerrado) {
+                throw e;
+            }
+        } finally {
+            try {
+                if (!aguardar(particoes.values(), tempoMaximoEncerramentoMs)) {
+                    logger.warn("Encerrando com registros ainda em processamento, eles serão lidos de novo.");
+                }
+                commitar(true);
+            } finally {
+                consumidor.close();
+                if (executorProprio) {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    private void despachar(ConsumerRecords<K, V> registros) {
+        for (TopicPartition particao : registros.partitions()) {
+            EstadoParticao estado = estado(particao);
+            for (ConsumerRecord<K, V> registro : registros.records(particao)) {
+                estado.excedente.add(registro);
+            }
+            entregar(estado);
+            if (!estado.excedente.isEmpty() && !estado.pausada) {
+                // A partição deixa de ser consultada até a fila dela ter espaço de novo
+                consumidor.pause(Collections.singleton(particao));
+                estado.pausada = true;
+            }
+        }
+    }
+
+    // Passa para a faixa da partição os registros que couberem no rastreador
+    private void entregar(EstadoParticao estado) {
+        estado.rastreador.avancar();
+        while (!estado.excedente.isEmpty() && !estado.rastreador.cheio()) {
+            ConsumerRecord<K, V> registro = estado.excedente.poll();
+            long sequencia = estado.rastreador.registrar(registro.offset());
+            estado.faixa(registro).adicionar(new Tarefa(registro, sequencia, estado));
+        }
+    }
+
+    private void retomarParticoes() {
+        for (EstadoParticao estado : particoes.values()) {
+            if (estado.pausada) {
+                entregar(estado);
+                if (estado.excedente.isEmpty() && estado.rastreador.pendentes() <= capacidadePorParticao / 2) {
+                    consumidor.resume(Collections.singleton(estado.particao));
+                    estado.pausada = false;
+                }
+            }
+        }
+    }
+
+    /* Volta as partições com um registro não concluído para ele, depois que as threads de trabalho pararam nelas
+     * Tudo antes do primeiro registro pendente foi concluído e é commitado; o estado da partição é esquecido,
+     * como numa revogação, e ela é criada de novo quando os registros voltarem depois de intervaloFalhaMs
+     */
+    private void voltarNaoConcluidas() {
+        long agora = System.currentTimeMillis();
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+        Iterator<EstadoParticao> iterador = particoes.values().iterator();
+        while (iterador.hasNext()) {
+            EstadoParticao estado = iterador.next();
+            if (!estado.naoConcluido || estado.rastreador.emAndamento()) {
+                continue;
+            }
+            long proximo = estado.rastreador.avancar();
+            if (proximo >= 0 && proximo != estado.ultimoCommitado) {
+                offsets.put(estado.particao, new OffsetAndMetadata(proximo));
+            }
+            long offsetPendente = estado.rastreador.primeiroPendente();
+            iterador.remove();
+            estado.excedente.clear();
+            consumidor.seek(estado.particao, offsetPendente);
+            consumidor.pause(Collections.singleton(estado.particao));
+            aguardandoNovaTentativa.put(estado.particao, agora + intervaloFalhaMs);
+            naoConcluidos++;
+            logger.warn("Partição " + estado.particao + " voltou para o offset " + offsetPendente
+                    + ", não concluído; ela será lida de novo em " + intervaloFalhaMs + " ms.");
+        }
+        enviarCommit(offsets, false);
+
+        if (aguardandoNovaTentativa.isEmpty()) {
+            return;
+        }
+        List<TopicPartition> vencidas = new ArrayList<TopicPartition>();
+        Iterator<Map.Entry<TopicPartition, Long>> entradas = aguardandoNovaTentativa.entrySet().iterator();
+        while (entradas.hasNext()) {
+            Map.Entry<TopicPartition, Long> entrada = entradas.next();
+            if (entrada.getValue() <= agora) {
+                vencidas.add(entrada.getKey());
+                entradas.remove();
+            }
+        }
+        if (!vencidas.isEmpty()) {
+            consumidor.resume(vencidas);
+        }
+    }
+
+    private void commitar(boolean sincrono) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (EstadoParticao estado : particoes.values()) {
+            long proximo = estado.rastreador.avancar();
+            if (proximo >= 0 && (sincrono || proximo != estado.ultimoCommitado)) {
+                offsets.put(estado.particao, new OffsetAndMetadata(proximo));
+                estado.ultimoCommitado = proximo;
+            }
+        }
+        enviarCommit(offsets, sincrono);
+    }
+
+    private void enviarCommit(Map<TopicPartition, OffsetAndMetadata> offsets, boolean sincrono) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        if (sincrono) {
+            consumidor.commitSync(offsets);
+        } else {
+            consumidor.commitAsync(offsets, new OffsetCommitCallback() {
+                public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                    if (e != null) {
+                        logger.warn("Falha ao commitar os offsets " + offsets, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /* Espera as threads de trabalho terminarem ou descartarem tudo que já foi despachado
+     * No encerramento os registros da fila são processados; no rebalanceamento eles são descartados pelas faixas,
+     * então só é preciso esperar os que já começaram. Um registro não concluído conta como terminado
+     * Devolve false se o tempo acabou antes; o que não terminou não é commitado
+     * A espera é curta (1 ms) porque no rebalanceamento ela atrasa todas as partições do Consumidor
+     */
+    private boolean aguardar(Collection<EstadoParticao> estados, long tempoMaximoMs) {
+        long limite = System.currentTimeMillis() + tempoMaximoMs;
+        while (true) {
+            boolean vazio = true;
+            for (EstadoParticao estado : estados) {
+                estado.rastreador.avancar();
+                vazio &= !estado.rastreador.emAndamento();
+            }
+            if (vazio) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= limite) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private EstadoParticao estado(TopicPartition particao) {
+        EstadoParticao estado = particoes.get(particao);
+        if (estado == null) {
+            estado = new EstadoParticao(particao);
+            particoes.put(particao, estado);
+        }
+        return estado;
+    }
+
+    private class EstadoParticao {
+
+        final TopicPartition particao;
+        final RastreadorOffsets rastreador = new RastreadorOffsets(capacidadePorParticao);
+        final FaixaSerial[] faixas;
+        final ArrayDeque<ConsumerRecord<K, V>> excedente = new ArrayDeque<ConsumerRecord<K, V>>();
+        boolean pausada;
+        long ultimoCommitado = -1;
+        // Lido pelas threads de trabalho, que deixam de processar os registros de uma partição revogada
+        volatile boolean revogada;
+        // Um registro não foi concluído: os seguintes são descartados até a partição voltar para ele
+        volatile boolean naoConcluido;
+
+        EstadoParticao(TopicPartition particao) {
+            this.particao = particao;
+            this.faixas = new FaixaSerial[modoOrdenacao == ModoOrdenacao.CHAVE ? faixasPorParticao : 1];
+            for (int i = 0; i < faixas.length; i++) {
+                faixas[i] = new FaixaSerial(executor);
+            }
+        }
+
+        FaixaSerial faixa(ConsumerRecord<K, V> registro) {
+            if (faixas.length == 1) {
+                return faixas[0];
+            }
+            // Registros sem chave não têm ordem a manter, então são distribuídos pelo offset
+            Object chave = registro.key();
+            int hash = chave != null ? hashChave(chave) : (int) registro.offset();
+            hash ^= hash >>> 16;
+            return faixas[(hash & 0x7fffffff) % faixas.length];
+        }
+    }
+
+    /* O hashCode de um array é o da identidade do objeto: com o ByteArrayDeserializer duas chaves iguais
+     * viriam em arrays diferentes e cairiam em faixas diferentes. Para arrays o hash é calculado pelo conteúdo
+     */
+    private static int hashChave(Object chave) {
+        if (!chave.getClass().isArray()) {
+            return chave.hashCode();
+        } else if (chave instanceof byte[]) {
+            return Arrays.hashCode((byte[]) chave);
+        } else if (chave instanceof char[]) {
+            return Arrays.hashCode((char[]) chave);
+        } else if (chave instanceof short[]) {
+            return Arrays.hashCode((short[]) chave);
+        } else if (chave instanceof int[]) {
+            return Arrays.hashCode((int[]) chave);
+        } else if (chave instanceof long[]) {
+            return Arrays.hashCode((long[]) chave);
+        } else if (chave instanceof float[]) {
+            return Arrays.hashCode((float[]) chave);
+        } else if (chave instanceof double[]) {
+            return Arrays.hashCode((double[]) chave);
+        } else if (chave instanceof boolean[]) {
+            return Arrays.hashCode((boolean[]) chave);
+        }
+        return Arrays.deepHashCode((Object[]) chave);
+    }
+
+    private class Tarefa implements Runnable {
+
+        private final ConsumerRecord<K, V> registro;
+        private final long sequencia;
+        private final EstadoParticao estado;
+
+        Tarefa(ConsumerRecord<K, V> registro, long sequencia, EstadoParticao estado) {
+            this.registro = registro;
+            this.sequencia = sequencia;
+            this.estado = estado;
+        }
+
+        @Override
+        public void run() {
+            RastreadorOffsets rastreador = estado.rastreador;
+            if (estado.revogada || estado.naoConcluido) {
+                rastreador.descartar(sequencia);
+                return;
+            }
+            boolean concluido = true;
+            try {
+                processador.processar(registro);
+            } catch (RegistroNaoConcluidoException e) {
+                // A thread do poll volta a partição para este registro quando as outras faixas pararem
+                concluido = false;
+                estado.naoConcluido = true;
+                logger.error("Registro " + registro.topic() + "-" + registro.partition() + "@" + registro.offset()
+                        + " não concluído, a partição vai voltar para ele", e);
+            } catch (Exception e) {
+                // O registro é dado como concluído para não travar o commit da partição
+                logger.error("Erro ao processar o registro " + registro.topic() + "-" + registro.partition()
+                        + "@" + registro.offset(), e);
+            } finally {
+                if (concluido) {
+                    rastreador.concluir(sequencia);
+                } else {
+                    rastreador.descartar(sequencia);
+                }
+            }
+        }
+    }
+}
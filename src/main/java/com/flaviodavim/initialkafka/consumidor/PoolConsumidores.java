@@ -0,0 +1,126 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import com.flaviodavim.initialkafka.ConsumerDemoComThreads.ConsumerRunnable;
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import com.flaviodavim.initialkafka.metricas.RelatorioMetricas;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/* Pool de consumidores de um mesmo grupo
+ *
+ * Cada thread tem o seu próprio ConsumerRunnable, já que o KafkaConsumer não pode ser usado por mais de uma thread.
+ * Como todos estão no mesmo grupo, o ConsumerCoordinator divide as partições do tópico entre eles.
+ * Threads acima do número de partições ficam sem partição e não consomem nada.
+ * O latch tem o tamanho do pool, então aguardar() só retorna quando todos os consumidores foram fechados.
+ * Cada consumidor tem o seu MetricasConsumidor, publicado no JMX com o nome da thread.
+ */
+public class PoolConsumidores {
+
+    private final Logger logger = LoggerFactory.getLogger(PoolConsumidores.class);
+
+    private final List<ConsumerRunnable> consumidores = new ArrayList<ConsumerRunnable>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final List<MetricasConsumidor> metricas = new ArrayList<MetricasConsumidor>();
+    private final List<ObjectName> registrosJmx = new ArrayList<ObjectName>();
+    private final CountDownLatch latch;
+    private RelatorioMetricas relatorio;
+
+    public PoolConsumidores(String topico, String idGrupo, ConfiguracaoKafka configuracao, int numeroThreads) {
+        if (numeroThreads <= 0) {
+            throw new IllegalArgumentException("numeroThreads deve ser maior que zero: " + numeroThreads);
+        }
+        this.latch = new CountDownLatch(numeroThreads);
+        for (int i = 0; i < numeroThreads; i++) {
+            String nome = "consumidor-" + i;
+            ConsumerRunnable consumidor = new ConsumerRunnable(topico, idGrupo, configuracao, latch);
+            MetricasConsumidor metricasConsumidor = new MetricasConsumidor(nome);
+            consumidor.setMetricas(metricasConsumidor);
+            consumidores.add(consumidor);
+            metricas.add(metricasConsumidor);
+            threads.add(new Thread(consumidor, nome));
+        }
+    }
+
+    /* Define quantas threads o pool vai ter
+     * Um valor configurado maior que zero tem prioridade
+     * Caso contrário, consultamos o número de partições do tópico, que é o máximo de consumidores úteis no grupo
+     */
+    public static int definirNumeroThreads(String topico, ConfiguracaoKafka configuracao, int configurado) {
+        if (configurado > 0) {
+            return configurado;
+        }
+
+        // Consumidor usado apenas para ler os metadados do tópico, por isso não precisa de grupo
+        KafkaConsumer<byte[], byte[]> consumidor =
+                configuracao.criarConsumidor(null, ByteArrayDeserializer.class, ByteArrayDeserializer.class);
+        try {
+            List<PartitionInfo> particoes = consumidor.partitionsFor(topico);
+            return particoes == null || particoes.isEmpty() ? 1 : particoes.size();
+        } finally {
+            consumidor.close();
+        }
+    }
+
+    // Inicia as threads e, se o período for maior que zero, um relatório periódico das métricas de cada consumidor
+    public void iniciar(long periodoRelatorioSegundos) {
+        for (MetricasConsumidor metricasConsumidor : metricas) {
+            registrosJmx.add(RegistroJmx.registrar(metricasConsumidor, "MetricasConsumidor", metricasConsumidor.getNome()));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        if (periodoRelatorioSegundos > 0) {
+            relatorio = new RelatorioMetricas(periodoRelatorioSegundos * 1000);
+            for (MetricasConsumidor metricasConsumidor : metricas) {
+                relatorio.adicionar(metricasConsumidor);
+            }
+            relatorio.iniciar();
+        }
+    }
+
+    // Interrompe o poll de todos os consumidores pelo wakeup()
+    public void encerrar() {
+        if (relatorio != null) {
+            relatorio.close();
+        }
+        for (ObjectName objeto : registrosJmx) {
+            RegistroJmx.remover(objeto);
+        }
+        for (ConsumerRunnable consumidor : consumidores) {
+            consumidor.shutDown();
+        }
+    }
+
+    public void aguardar() throws InterruptedException {
+        latch.await();
+    }
+
+    public void relatarVazao() {
+        double total = 0;
+        for (int i = 0; i < consumidores.size(); i++) {
+            ConsumerRunnable consumidor = consumidores.get(i);
+            total += consumidor.getVazao();
+            logger.info(threads.get(i).getName() + ": " + consumidor.getRegistrosProcessados() + " registros, "
+                    + String.format("%.1f", consumidor.getVazao()) + " registros/s");
+        }
+        logger.info("Total: " + String.format("%.1f", total) + " registros/s");
+    }
+
+    public List<MetricasConsumidor> getMetricas() {
+        return metricas;
+    }
+
+    public int getNumeroThreads() {
+        return consumidores.size();
+    }
+}
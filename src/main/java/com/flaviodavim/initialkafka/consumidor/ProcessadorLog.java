@@ -0,0 +1,86 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Processador padrão: escreve o registro no log, como os Consumidores de exemplo faziam
+ *
+ * Não aloca nada por registro enquanto o nível INFO estiver desligado ou o registro não for amostrado:
+ *      -> o nível do log é conferido antes de montar a mensagem
+ *      -> só 1 a cada amostragem registros é escrito
+ *      -> a mensagem é montada em um StringBuilder reaproveitado por thread, sem concatenação com +
+ * Quando o registro é escrito, a única alocação é a String final entregue ao logger.
+ * Valores binários podem ser escritos por um FormatadorValor, que lê apenas os campos que aparecem no log.
+ */
+public class ProcessadorLog<K, V> implements ProcessadorRegistro<K, V> {
+
+    private final Logger logger;
+    private final int amostragem;
+    private final FormatadorValor<V> formatador;
+    private final AtomicLong contador = new AtomicLong();
+
+    private final ThreadLocal<StringBuilder> mensagem = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    public ProcessadorLog() {
+        this(LoggerFactory.getLogger(ProcessadorLog.class), 1);
+    }
+
+    public ProcessadorLog(Logger logger, int amostragem) {
+        this(logger, amostragem, null);
+    }
+
+    public ProcessadorLog(Logger logger, int amostragem, FormatadorValor<V> formatador) {
+        if (amostragem <= 0) {
+            throw new IllegalArgumentException("amostragem deve ser maior que zero: " + amostragem);
+        }
+        this.logger = logger;
+        this.amostragem = amostragem;
+        this.formatador = formatador;
+    }
+
+    // A amostragem vem da chave consumidor.log.amostragem, e por padrão todos os registros são escritos
+    public static <K, V> ProcessadorLog<K, V> configurado(ConfiguracaoKafka configuracao, Logger logger) {
+        return configurado(configuracao, logger, null);
+    }
+
+    public static <K, V> ProcessadorLog<K, V> configurado(ConfiguracaoKafka configuracao, Logger logger,
+                                                          FormatadorValor<V> formatador) {
+        return new ProcessadorLog<K, V>(logger, configuracao.getInt("consumidor.log.amostragem", 1), formatador);
+    }
+
+    @Override
+    public void processar(ConsumerRecord<K, V> registro) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        if (amostragem > 1 && contador.getAndIncrement() % amostragem != 0) {
+            return;
+        }
+
+        StringBuilder sb = mensagem.get();
+        sb.setLength(0);
+        sb.append("Key: ").append(registro.key()).append(", Value: ");
+        if (formatador != null) {
+            formatador.formatar(registro.value(), sb);
+        } else {
+            sb.append(registro.value());
+        }
+        sb.append("\nPartition: ").append(registro.partition())
+          .append(", Offset: ").append(registro.offset());
+        logger.info(sb.toString());
+
+        // Evita que uma mensagem muito grande mantenha um buffer enorme preso à thread
+        if (sb.capacity() > 64 * 1024) {
+            mensagem.remove();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/* Processa um registro consumido
+ * É executado pelas threads de trabalho do pipeline, fora da thread que faz o poll
+ */
+public interface ProcessadorRegistro<K, V> {
+
+    void processar(ConsumerRecord<K, V> registro) throws Exception;
+}
@@ -0,0 +1,99 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Acompanha os offsets de uma partição que foram despachados e os que já foram concluídos
+ *
+ * Os registros podem terminar fora de ordem, então o offset que pode ser commitado é o maior offset
+ * contíguo concluído: um registro só libera o commit depois que todos os anteriores também terminaram.
+ *
+ * Os offsets ficam em um buffer circular do tamanho da capacidade, sem alocação por registro.
+ * Apenas a thread do poll chama registrar() e avancar(); as threads de trabalho só chamam concluir() e descartar().
+ */
+public class RastreadorOffsets {
+
+    private final int capacidade;
+    private final long[] offsets;
+    // 0: pendente, 1: concluído, 2: descartado sem processar
+    private final AtomicIntegerArray concluidos;
+
+    // Só são alterados pela thread do poll
+    private long inicio;
+    private long fim;
+    private long proximoCommit = -1;
+
+    public RastreadorOffsets(int capacidade) {
+        if (capacidade <= 0) {
+            throw new IllegalArgumentException("capacidade deve ser maior que zero: " + capacidade);
+        }
+        this.capacidade = capacidade;
+        this.offsets = new long[capacidade];
+        this.concluidos = new AtomicIntegerArray(capacidade);
+    }
+
+    public boolean cheio() {
+        return fim - inicio == capacidade;
+    }
+
+    public int pendentes() {
+        return (int) (fim - inicio);
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    // Registra o próximo offset despachado e devolve a sequência que deve ser informada em concluir()
+    public long registrar(long offset) {
+        if (cheio()) {
+            throw new IllegalStateException("Rastreador cheio: " + capacidade + " registros pendentes");
+        }
+        int posicao = (int) (fim % capacidade);
+        offsets[posicao] = offset;
+        concluidos.set(posicao, 0);
+        return fim++;
+    }
+
+    public void concluir(long sequencia) {
+        concluidos.set((int) (sequencia % capacidade), 1);
+    }
+
+    // O registro não foi processado: o commit nunca passa dele, então ele será lido de novo
+    public void descartar(long sequencia) {
+        concluidos.set((int) (sequencia % capacidade), 2);
+    }
+
+    // Se algum registro despachado ainda não foi concluído nem descartado
+    public boolean emAndamento() {
+        for (long sequencia = inicio; sequencia < fim; sequencia++) {
+            if (concluidos.get((int) (sequencia % capacidade)) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Libera as posições concluídas em sequência
+     * Devolve o offset que deve ser commitado (o próximo a ser lido) ou -1 se nada foi concluído ainda
+     */
+    public long avancar() {
+        while (inicio < fim) {
+            int posicao = (int) (inicio % capacidade);
+            if (concluidos.get(posicao) != 1) {
+                break;
+            }
+            proximoCommit = offsets[posicao] + 1;
+            inicio++;
+        }
+        return proximoCommit;
+    }
+
+    // O offset do primeiro registro despachado que ainda não liberou o commit, ou -1 se não há nenhum
+    public long primeiroPendente() {
+        return inicio < fim ? offsets[(int) (inicio % capacidade)] : -1;
+    }
+
+    public long getProximoCommit() {
+        return proximoCommit;
+    }
+}
@@ -0,0 +1,17 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+/* Lançada por um ProcessadorRegistro quando o registro não foi tratado e também não pode ser deixado para trás
+ *
+ * Qualquer outra exceção do processador é registrada no log e o registro é dado como concluído, então o commit passa dele.
+ * Com esta, o commit da partição para antes do registro e ele é lido de novo: o ConsumidorRetentativa e o
+ * PipelineConsumo voltam a posição da partição para ele (seek) e tentam de novo depois de um intervalo.
+ * Ex: o ProcessadorComRetentativa não conseguiu enviar o registro que falhou para o tópico de retentativa nem para a DLQ.
+ */
+public class RegistroNaoConcluidoException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public RegistroNaoConcluidoException(String mensagem, Throwable causa) {
+        super(mensagem, causa);
+    }
+}
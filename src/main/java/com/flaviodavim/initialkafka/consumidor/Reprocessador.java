@@ -0,0 +1,335 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Lê de novo um trecho de um tópico inteiro, em todas as partições ao mesmo tempo
+ *
+ * É o mesmo caminho do ConsumerDemoAssingSeek (assign + seek), só que para todas as partições de uma vez:
+ *      1. os pontos de início e fim de cada partição são resolvidos antes de começar,
+ *         pelo offsetsForTimes (intervalo por tempo) ou pelos offsets do intervalo, limitados ao que existe
+ *      2. todas as partições são atribuídas com um único assign e posicionadas com seek
+ *      3. cada poll é entregue ao destino por uma FaixaSerial por partição, em um pool de threads,
+ *         então a ordem dentro da partição é mantida e as partições são processadas em paralelo
+ *      4. a partição que chega ao seu fim é pausada e deixa de ser buscada; o executar() volta
+ *         quando todas chegaram ao fim e o destino terminou tudo o que recebeu
+ *
+ * Cada partição aceita no máximo capacidadePorParticao registros pendentes no destino;
+ * acima disso ela é pausada até metade deles ser concluída, então a memória usada fica limitada
+ * mesmo que o destino seja mais lento do que a leitura.
+ *
+ * O Reprocessador não usa grupo nem commita offsets: o Consumidor pode ser criado sem group.id
+ * e o reprocessamento não mexe nos offsets dos Consumidores do tópico.
+ * Um intervalo por tempo usa o timestamp dos registros; registros fora de ordem de timestamp
+ * dentro da partição são lidos pela posição, não pelo timestamp.
+ */
+public class Reprocessador<K, V> implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(Reprocessador.class);
+
+    private final Consumer<K, V> consumidor;
+    private final ProcessadorRegistro<K, V> destino;
+    private final ExecutorService executor;
+    private final boolean executorProprio;
+    private final int capacidadePorParticao;
+
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private long intervaloRelatorioMs = 10000;
+
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+
+    private volatile boolean cancelado;
+
+    public Reprocessador(Consumer<K, V> consumidor,
+                         ProcessadorRegistro<K, V> destino,
+                         int numeroWorkers,
+                         int capacidadePorParticao) {
+        this(consumidor, destino, Executors.newFixedThreadPool(numeroWorkers), true, capacidadePorParticao);
+    }
+
+    public Reprocessador(Consumer<K, V> consumidor,
+                         ProcessadorRegistro<K, V> destino,
+                         ExecutorService executor,
+                         int capacidadePorParticao) {
+        this(consumidor, destino, executor, false, capacidadePorParticao);
+    }
+
+    private Reprocessador(Consumer<K, V> consumidor,
+                          ProcessadorRegistro<K, V> destino,
+                          ExecutorService executor,
+                          boolean executorProprio,
+                          int capacidadePorParticao) {
+        if (capacidadePorParticao <= 0) {
+            throw new IllegalArgumentException("capacidadePorParticao deve ser maior que zero: " + capacidadePorParticao);
+        }
+        this.consumidor = consumidor;
+        this.destino = destino;
+        this.executor = executor;
+        this.executorProprio = executorProprio;
+        this.capacidadePorParticao = capacidadePorParticao;
+    }
+
+    public void setTempoPoll(Duration tempoPoll) {
+        this.tempoPoll = tempoPoll;
+    }
+
+    // Período do log de progresso com a vazão do reprocessamento
+    public void setIntervaloRelatorioMs(long intervaloRelatorioMs) {
+        this.intervaloRelatorioMs = intervaloRelatorioMs;
+    }
+
+    /* Reprocessa o intervalo em todas as partições do tópico e devolve os totais
+     * Deve ser chamado pela thread dona do Consumidor; cancelar() pode ser chamado de qualquer thread.
+     */
+    public ResultadoReprocessamento executar(String topico, IntervaloReprocessamento intervalo) {
+        long inicio = System.nanoTime();
+        registros.reset();
+        bytes.reset();
+        falhas.reset();
+
+        List<EstadoParticao> particoes = resolver(topico, intervalo);
+        long esperados = 0;
+        List<TopicPartition> atribuidas = new ArrayList<TopicPartition>(particoes.size());
+        for (EstadoParticao estado : particoes) {
+            atribuidas.add(estado.particao);
+            esperados += estado.fim - estado.inicio;
+        }
+        logger.info("Reprocessando " + topico + " de " + intervalo + ": " + particoes.size()
+                + " partições com registros, até " + esperados + " registros");
+
+        boolean completo = false;
+        try {
+            consumidor.assign(atribuidas);
+            Map<TopicPartition, EstadoParticao> ativas = new HashMap<TopicPartition, EstadoParticao>();
+            for (EstadoParticao estado : particoes) {
+                consumidor.seek(estado.particao, estado.inicio);
+                ativas.put(estado.particao, estado);
+            }
+            ler(topico, ativas, particoes.size(), esperados, inicio);
+            completo = ativas.isEmpty();
+        } catch (WakeupException e) {
+            // Lançada pelo cancelar(); só é um erro se ninguém pediu o cancelamento
+            if (!cancelado) {
+                throw e;
+            }
+        } finally {
+            aguardarPendentes(particoes);
+            consumidor.assign(Collections.<TopicPartition>emptyList());
+        }
+
+        ResultadoReprocessamento resultado = new ResultadoReprocessamento(particoes.size(), registros.sum(),
+                bytes.sum(), falhas.sum(), System.nanoTime() - inicio, completo);
+        logger.info("Reprocessamento de " + topico + " concluído: " + resultado);
+        return resultado;
+    }
+
+    // Interrompe o executar(); o que já foi entregue ao destino ainda é concluído
+    public void cancelar() {
+        cancelado = true;
+        consumidor.wakeup();
+    }
+
+    @Override
+    public void close() {
+        consumidor.close();
+        if (executorProprio) {
+            executor.shutdown();
+        }
+    }
+
+    private void ler(String topico, Map<TopicPartition, EstadoParticao> ativas, int totalParticoes,
+                     long esperados, long inicio) {
+        long proximoRelatorio = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervaloRelatorioMs);
+        while (!ativas.isEmpty() && !cancelado) {
+            ConsumerRecords<K, V> lote = consumidor.poll(tempoPoll);
+            for (TopicPartition particao : lote.partitions()) {
+                EstadoParticao estado = ativas.get(particao);
+                if (estado != null) {
+                    despachar(estado, lote.records(particao));
+                }
+            }
+
+            Iterator<EstadoParticao> iterador = ativas.values().iterator();
+            while (iterador.hasNext()) {
+                EstadoParticao estado = iterador.next();
+                // A posição é local; ela passa do último registro mesmo com buracos de compactação ou transações
+                if (consumidor.position(estado.particao) >= estado.fim) {
+                    if (!estado.pausada) {
+                        consumidor.pause(Collections.singleton(estado.particao));
+                    }
+                    iterador.remove();
+                } else if (!estado.pausada && estado.pendentes.get() >= capacidadePorParticao) {
+                    consumidor.pause(Collections.singleton(estado.particao));
+                    estado.pausada = true;
+                } else if (estado.pausada && estado.pendentes.get() <= capacidadePorParticao / 2) {
+                    consumidor.resume(Collections.singleton(estado.particao));
+                    estado.pausada = false;
+                }
+            }
+
+            long agora = System.nanoTime();
+            if (agora >= proximoRelatorio) {
+                relatarProgresso(topico, totalParticoes - ativas.size(), totalParticoes, esperados, agora - inicio);
+                proximoRelatorio = agora + TimeUnit.MILLISECONDS.toNanos(intervaloRelatorioMs);
+            }
+        }
+    }
+
+    private void despachar(EstadoParticao estado, List<ConsumerRecord<K, V>> lote) {
+        for (int i = 0; i < lote.size(); i++) {
+            ConsumerRecord<K, V> registro = lote.get(i);
+            if (registro.offset() >= estado.fim) {
+                break;
+            }
+            estado.pendentes.incrementAndGet();
+            estado.faixa.adicionar(new Tarefa(registro, estado));
+        }
+    }
+
+    /* Resolve o início e o fim de cada partição
+     * O fim sem limite é o endOffset de agora, então o reprocessamento sempre termina.
+     * Partições sem nenhum registro no intervalo ficam de fora.
+     */
+    private List<EstadoParticao> resolver(String topico, IntervaloReprocessamento intervalo) {
+        List<PartitionInfo> informacoes = consumidor.partitionsFor(topico);
+        if (informacoes == null || informacoes.isEmpty()) {
+            throw new IllegalArgumentException("Tópico sem partições: " + topico);
+        }
+        List<TopicPartition> todas = new ArrayList<TopicPartition>(informacoes.size());
+        for (PartitionInfo informacao : informacoes) {
+            todas.add(new TopicPartition(topico, informacao.partition()));
+        }
+
+        Map<TopicPartition, Long> primeiros = consumidor.beginningOffsets(todas);
+        Map<TopicPartition, Long> finais = consumidor.endOffsets(todas);
+        Map<TopicPartition, Long> inicios;
+        Map<TopicPartition, Long> fins;
+        if (intervalo.isPorTempo()) {
+            inicios = offsetsNoTempo(todas, intervalo.getInicio(), finais);
+            fins = intervalo.temFim() ? offsetsNoTempo(todas, intervalo.getFim(), finais) : finais;
+        } else {
+            inicios = new HashMap<TopicPartition, Long>();
+            fins = new HashMap<TopicPartition, Long>();
+            for (TopicPartition particao : todas) {
+                inicios.put(particao, Math.max(intervalo.getInicio(), primeiros.get(particao)));
+                fins.put(particao, Math.min(intervalo.getFim(), finais.get(particao)));
+            }
+        }
+
+        List<EstadoParticao> particoes = new ArrayList<EstadoParticao>();
+        for (TopicPartition particao : todas) {
+            long inicioParticao = Math.max(inicios.get(particao), primeiros.get(particao));
+            long fimParticao = fins.get(particao);
+            if (inicioParticao < fimParticao) {
+                particoes.add(new EstadoParticao(particao, inicioParticao, fimParticao));
+            }
+        }
+        return particoes;
+    }
+
+    // Primeiro offset com timestamp >= instante; sem nenhum, é o fim da partição
+    private Map<TopicPartition, Long> offsetsNoTempo(List<TopicPartition> particoes, long instante,
+                                                     Map<TopicPartition, Long> finais) {
+        Map<TopicPartition, Long> consulta = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : particoes) {
+            consulta.put(particao, instante);
+        }
+        Map<TopicPartition, OffsetAndTimestamp> encontrados = consumidor.offsetsForTimes(consulta);
+        Map<TopicPartition, Long> offsets = new HashMap<TopicPartition, Long>();
+        for (TopicPartition particao : particoes) {
+            OffsetAndTimestamp encontrado = encontrados.get(particao);
+            offsets.put(particao, encontrado != null ? encontrado.offset() : finais.get(particao));
+        }
+        return offsets;
+    }
+
+    private void relatarProgresso(String topico, int concluidas, int totalParticoes, long esperados, long decorridoNanos) {
+        long lidos = registros.sum();
+        double segundos = decorridoNanos / 1e9;
+        logger.info(String.format(Locale.ROOT,
+                "Reprocessamento de %s: %d de ~%d registros (%.0f%%), %.0f registros/s, %.1f MB/s, %d de %d partições concluídas",
+                topico, lidos, esperados, esperados == 0 ? 100.0 : lidos * 100.0 / esperados,
+                lidos / segundos, bytes.sum() / 1e6 / segundos, concluidas, totalParticoes));
+    }
+
+    // Espera o destino concluir o que já foi entregue, inclusive depois de um cancelamento
+    private void aguardarPendentes(List<EstadoParticao> particoes) {
+        for (EstadoParticao estado : particoes) {
+            while (estado.pendentes.get() > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrompido com registros ainda no destino.");
+                    return;
+                }
+            }
+        }
+    }
+
+    private final class EstadoParticao {
+
+        final TopicPartition particao;
+        final long inicio;
+        final long fim;
+        final FaixaSerial faixa = new FaixaSerial(executor);
+        final AtomicInteger pendentes = new AtomicInteger();
+        boolean pausada;
+
+        EstadoParticao(TopicPartition particao, long inicio, long fim) {
+            this.particao = particao;
+            this.inicio = inicio;
+            this.fim = fim;
+        }
+    }
+
+    private final class Tarefa implements Runnable {
+
+        private final ConsumerRecord<K, V> registro;
+        private final EstadoParticao estado;
+
+        Tarefa(ConsumerRecord<K, V> registro, EstadoParticao estado) {
+            this.registro = registro;
+            this.estado = estado;
+        }
+
+        @Override
+        public void run() {
+            try {
+                destino.processar(registro);
+            } catch (Exception e) {
+                falhas.increment();
+                logger.error("Erro ao reprocessar o registro " + registro.topic() + "-" + registro.partition()
+                        + "@" + registro.offset(), e);
+            } finally {
+                registros.increment();
+                bytes.add(Math.max(0, registro.serializedKeySize()) + Math.max(0, registro.serializedValueSize()));
+                estado.pendentes.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Totais de uma execução do Reprocessador
+public final class ResultadoReprocessamento {
+
+    private final int particoes;
+    private final long registros;
+    private final long bytes;
+    private final long falhas;
+    private final long duracaoNanos;
+    private final boolean completo;
+
+    ResultadoReprocessamento(int particoes, long registros, long bytes, long falhas, long duracaoNanos,
+                             boolean completo) {
+        this.particoes = particoes;
+        this.registros = registros;
+        this.bytes = bytes;
+        this.falhas = falhas;
+        this.duracaoNanos = duracaoNanos;
+        this.completo = completo;
+    }
+
+    public int getParticoes() {
+        return particoes;
+    }
+
+    public long getRegistros() {
+        return registros;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    // Registros em que o destino lançou uma exceção; eles contam em getRegistros
+    public long getFalhas() {
+        return falhas;
+    }
+
+    public long getDuracaoMs() {
+        return TimeUnit.NANOSECONDS.toMillis(duracaoNanos);
+    }
+
+    // false se o reprocessamento foi cancelado antes de todas as partições chegarem ao fim
+    public boolean isCompleto() {
+        return completo;
+    }
+
+    public double getRegistrosPorSegundo() {
+        return duracaoNanos == 0 ? 0 : registros * 1e9 / duracaoNanos;
+    }
+
+    public double getBytesPorSegundo() {
+        return duracaoNanos == 0 ? 0 : bytes * 1e9 / duracaoNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d registros (%.1f MB) de %d partições em %.1f s: %.0f registros/s, %.1f MB/s, %d falhas%s",
+                registros, bytes / 1e6, particoes, duracaoNanos / 1e9, getRegistrosPorSegundo(),
+                getBytesPorSegundo() / 1e6, falhas, completo ? "" : " (cancelado)");
+    }
+}
@@ -0,0 +1,109 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+
+/* Conjunto de ids já processados, com memória fixa, para descartar registros entregues de novo
+ *
+ * Dois níveis:
+ *      -> RecentesExatos: os últimos capacidadeExata ids, sem erro. Quase toda reentrega acontece aqui,
+ *         porque o mesmo registro volta pouco depois da primeira entrega;
+ *      -> FiltroBloom: todos os ids da janela atual e da anterior, com poucos bytes por id.
+ *         Um id que não está nos recentes mas está no filtro é um suspeito: ou é uma reentrega antiga,
+ *         ou é um falso positivo do filtro. Com descartarSuspeitos, ele é tratado como repetido
+ *         (alguns registros novos podem ser perdidos, na taxa de falso positivo); sem, ele é processado.
+ *
+ * A janela é de tempo: a cada janelaMs o filtro mais antigo é limpo e passa a receber os novos ids,
+ * então um id é lembrado por pelo menos uma janela e no máximo duas. A memória não depende de quantos ids passaram.
+ *
+ * O conjunto só existe na memória deste processo: ele não é gravado nem compartilhado com as outras instâncias do grupo.
+ * Pega as reentregas que voltam para esta mesma JVM (a partição que sai e volta para este Consumidor num rebalanceamento,
+ * um seek para trás, o mesmo dado reenviado pelo Produtor), mas não as de uma partição que passou para outra
+ * instância, nem as que vêm depois de um reinício, quando o conjunto começa vazio.
+ *
+ * Os métodos são sincronizados, porque o ProcessadorDeduplicado pode ser chamado por várias threads de trabalho;
+ * registros da mesma partição passam pela mesma thread, então a disputa é pequena.
+ */
+public class ConjuntoVistos {
+
+    public enum Verificacao { NOVO, REPETIDO, SUSPEITO }
+
+    private final long janelaMs;
+    private final RecentesExatos recentes;
+    private FiltroBloom atual;
+    private FiltroBloom anterior;
+    private long inicioJanela;
+    private boolean descartarSuspeitos = true;
+
+    /* esperadosPorJanela: quantos ids distintos chegam em uma janela; acima disso a taxa de falso positivo sobe
+     * taxaFalsoPositivo: a de cada filtro quando ele tem esperadosPorJanela ids
+     */
+    public ConjuntoVistos(long janelaMs, long esperadosPorJanela, double taxaFalsoPositivo, int capacidadeExata) {
+        this.janelaMs = janelaMs;
+        this.recentes = new RecentesExatos(capacidadeExata);
+        this.atual = new FiltroBloom(esperadosPorJanela, taxaFalsoPositivo);
+        this.anterior = new FiltroBloom(esperadosPorJanela, taxaFalsoPositivo);
+        this.inicioJanela = System.currentTimeMillis();
+    }
+
+    // Dimensões pelas chaves deduplicacao.* (ver kafka.properties)
+    public static ConjuntoVistos configurado(ConfiguracaoKafka configuracao) {
+        ConjuntoVistos vistos = new ConjuntoVistos(
+                configuracao.getLong("deduplicacao.janela.segundos", 600L) * 1000,
+                configuracao.getLong("deduplicacao.esperados", 1000000L),
+                Double.parseDouble(configuracao.get("deduplicacao.falso.positivo", "0.001")),
+                configuracao.getInt("deduplicacao.capacidade.exata", 100000));
+        vistos.setDescartarSuspeitos(configuracao.getBoolean("deduplicacao.descartar.suspeitos", true));
+        return vistos;
+    }
+
+    public synchronized void setDescartarSuspeitos(boolean descartarSuspeitos) {
+        this.descartarSuspeitos = descartarSuspeitos;
+    }
+
+    public synchronized boolean isDescartarSuspeitos() {
+        return descartarSuspeitos;
+    }
+
+    public synchronized Verificacao verificar(long id) {
+        girarJanela();
+        if (recentes.contem(id)) {
+            return Verificacao.REPETIDO;
+        }
+        if (atual.talvezContenha(id) || anterior.talvezContenha(id)) {
+            return Verificacao.SUSPEITO;
+        }
+        return Verificacao.NOVO;
+    }
+
+    // Chamado depois que o registro foi processado, para um id que verificar() não encontrou nos recentes
+    public synchronized void adicionar(long id) {
+        girarJanela();
+        recentes.adicionar(id);
+        atual.adicionar(id);
+    }
+
+    // Chance de um id nunca visto ser respondido como suspeito: a de estar em qualquer um dos dois filtros
+    public synchronized double taxaFalsoPositivoEstimada() {
+        return 1 - (1 - atual.taxaFalsoPositivoEstimada()) * (1 - anterior.taxaFalsoPositivoEstimada());
+    }
+
+    public synchronized long getBytes() {
+        return recentes.getBytes() + atual.getBytes() + anterior.getBytes();
+    }
+
+    private void girarJanela() {
+        long agora = System.currentTimeMillis();
+        if (agora - inicioJanela < janelaMs) {
+            return;
+        }
+        FiltroBloom maisAntigo = anterior;
+        anterior = atual;
+        maisAntigo.limpar();
+        atual = maisAntigo;
+        // Se passou mais de uma janela sem registros, os dois filtros já estão vencidos
+        if (agora - inicioJanela >= 2 * janelaMs) {
+            anterior.limpar();
+        }
+        inicioJanela = agora;
+    }
+}
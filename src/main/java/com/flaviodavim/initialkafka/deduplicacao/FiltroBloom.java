@@ -0,0 +1,120 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Filtro de Bloom fora do heap, dividido em blocos de 64 bytes (uma linha de cache)
+ *
+ * Cada id escolhe um bloco e liga numeroHashes bits dentro dele, então uma consulta lê uma única linha de cache
+ * em vez de numeroHashes posições espalhadas pelo filtro. O custo é uma taxa de falso positivo um pouco maior
+ * que a de um filtro comum do mesmo tamanho; por isso o tamanho é calculado com 20% de folga.
+ *
+ * Os bits ficam em um ByteBuffer direto: o tamanho é fixo, não passa pelo coletor de lixo e não cresce com os ids.
+ * O id já deve ser um hash bem distribuído (ver Hash64). Não é thread-safe.
+ */
+public class FiltroBloom {
+
+    private static final int BITS_BLOCO = 512;
+    private static final int PALAVRAS_BLOCO = BITS_BLOCO / 64;
+    private static final int BITS_POR_HASH = 64 / 9;
+
+    private final ByteBuffer bits;
+    private final long numeroBlocos;
+    private final int numeroHashes;
+    private long adicionados;
+
+    /* Dimensionado para esperados ids com a taxa de falso positivo informada:
+     * m = -n ln(p) / ln(2)^2 bits e k = m / n ln(2) hashes
+     */
+    public FiltroBloom(long esperados, double taxaFalsoPositivo) {
+        if (esperados <= 0 || taxaFalsoPositivo <= 0 || taxaFalsoPositivo >= 1) {
+            throw new IllegalArgumentException("Dimensões inválidas: " + esperados + " ids, taxa " + taxaFalsoPositivo);
+        }
+        double bitsPorId = -Math.log(taxaFalsoPositivo) / (Math.log(2) * Math.log(2));
+        long totalBits = (long) Math.ceil(esperados * bitsPorId * 1.2);
+        this.numeroBlocos = Math.max(1, (totalBits + BITS_BLOCO - 1) / BITS_BLOCO);
+        if (numeroBlocos * PALAVRAS_BLOCO * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Filtro maior que 2 GB: " + esperados + " ids, taxa " + taxaFalsoPositivo);
+        }
+        this.numeroHashes = (int) Math.max(1, Math.min(16, Math.round(bitsPorId * Math.log(2))));
+        this.bits = ByteBuffer.allocateDirect((int) (numeroBlocos * PALAVRAS_BLOCO * 8)).order(ByteOrder.nativeOrder());
+    }
+
+    public void adicionar(long id) {
+        int base = bloco(id);
+        long semente = Hash64.misturar(id);
+        long h = semente;
+        for (int i = 0; i < numeroHashes; i++) {
+            if (i > 0 && i % BITS_POR_HASH == 0) {
+                h = Hash64.misturar(semente + i);
+            }
+            int bit = (int) h & (BITS_BLOCO - 1);
+            h >>>= 9;
+            int posicao = base + (bit >>> 6) * 8;
+            bits.putLong(posicao, bits.getLong(posicao) | (1L << bit));
+        }
+        adicionados++;
+    }
+
+    /* Cada bit do bloco usa 9 bits do hash do id, então um hash de 64 bits dá 7 posições; se precisar de mais,
+     * um novo hash é tirado do primeiro. Posições tiradas de um só valor (a + i * b) se repetem entre ids demais
+     * num bloco de 512 bits e a taxa de falso positivo sobe
+     */
+    public boolean talvezContenha(long id) {
+        int base = bloco(id);
+        long semente = Hash64.misturar(id);
+        long h = semente;
+        for (int i = 0; i < numeroHashes; i++) {
+            if (i > 0 && i % BITS_POR_HASH == 0) {
+                h = Hash64.misturar(semente + i);
+            }
+            int bit = (int) h & (BITS_BLOCO - 1);
+            h >>>= 9;
+            if ((bits.getLong(base + (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void limpar() {
+        for (int i = 0; i < bits.capacity(); i += 8) {
+            bits.putLong(i, 0L);
+        }
+        adicionados = 0;
+    }
+
+    /* Taxa de falso positivo esperada com a ocupação atual: a média, entre os blocos, de (bits ligados / 512) ^ numeroHashes
+     * Um id novo cai em um bloco qualquer, e os blocos não enchem por igual, então a média é feita bloco a bloco.
+     * Percorre o filtro inteiro; é para relatórios, não para cada registro
+     */
+    public double taxaFalsoPositivoEstimada() {
+        double soma = 0;
+        for (long bloco = 0; bloco < numeroBlocos; bloco++) {
+            int base = (int) (bloco * PALAVRAS_BLOCO * 8);
+            int ligados = 0;
+            for (int palavra = 0; palavra < PALAVRAS_BLOCO; palavra++) {
+                ligados += Long.bitCount(bits.getLong(base + palavra * 8));
+            }
+            soma += Math.pow((double) ligados / BITS_BLOCO, numeroHashes);
+        }
+        return soma / numeroBlocos;
+    }
+
+    public long getAdicionados() {
+        return adicionados;
+    }
+
+    public int getNumeroHashes() {
+        return numeroHashes;
+    }
+
+    public long getBytes() {
+        return bits.capacity();
+    }
+
+    // Posição em bytes do bloco do id; os 32 bits altos escolhem o bloco sem divisão (multiplicação e deslocamento)
+    private int bloco(long id) {
+        return (int) (((id >>> 32) * numeroBlocos) >>> 32) * PALAVRAS_BLOCO * 8;
+    }
+}
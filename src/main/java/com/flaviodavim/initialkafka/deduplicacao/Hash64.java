@@ -0,0 +1,62 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Hash de 64 bits usado para identificar os registros
+ *
+ * A mistura é a do SplitMix64: bits de entrada próximos (offsets seguidos, chaves 0..9) viram valores espalhados,
+ * o que o FiltroBloom e a tabela do RecentesExatos precisam. Não é um hash criptográfico.
+ */
+public final class Hash64 {
+
+    private static final long SEMENTE = 0x9E3779B97F4A7C15L;
+
+    private Hash64() {}
+
+    public static long misturar(long valor) {
+        long z = valor + SEMENTE;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long combinar(long hash, long valor) {
+        return misturar(hash * 31 + valor);
+    }
+
+    /* O hashCode de um byte[] é o da identidade do objeto: a mesma chave entregue de novo vem em outro array
+     * e teria outro hash. Chaves byte[] e ByteBuffer são lidas pelo conteúdo; as outras usam o hashCode
+     */
+    public static long deChave(Object chave) {
+        if (chave == null) {
+            // O mesmo de deBytes(null), diferente de uma chave vazia
+            return misturar(-1);
+        } else if (chave instanceof byte[]) {
+            return deBytes(ByteBuffer.wrap((byte[]) chave));
+        } else if (chave instanceof ByteBuffer) {
+            return deBytes((ByteBuffer) chave);
+        }
+        return misturar(chave.hashCode());
+    }
+
+    // Bytes entre position e limit, sem mudar o buffer; 8 bytes por vez e o resto byte a byte
+    public static long deBytes(ByteBuffer dados) {
+        if (dados == null) {
+            return misturar(-1);
+        }
+        int inicio = dados.position();
+        int fim = dados.limit();
+        long hash = misturar(fim - inicio);
+        int i = inicio;
+        if (dados.order() == ByteOrder.BIG_ENDIAN) {
+            for (; i + 8 <= fim; i += 8) {
+                hash = combinar(hash, dados.getLong(i));
+            }
+        }
+        for (; i < fim; i++) {
+            hash = combinar(hash, dados.get(i));
+        }
+        return hash;
+    }
+}
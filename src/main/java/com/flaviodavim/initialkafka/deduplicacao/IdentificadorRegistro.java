@@ -0,0 +1,38 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.nio.ByteBuffer;
+
+/* Como um registro é identificado para a deduplicação, em 64 bits
+ *
+ * O Kafka 2.0 não entrega ao Consumidor o id do Produtor nem a sequência do lote, então há duas opções:
+ *      -> posicao(): tópico, partição e offset; pega só o mesmo registro lido de novo por este processo
+ *         (ver ConjuntoVistos), como a partição que volta para este Consumidor num rebalanceamento;
+ *      -> conteudo(): chave e valor; pega também o mesmo dado enviado duas vezes pelo Produtor
+ *         (uma retentativa sem idempotência, ou a aplicação reenviando), que fica em outro offset.
+ *         Dois registros legítimos com a mesma chave e o mesmo valor também são tratados como repetidos,
+ *         então só deve ser usado quando isso não acontece nos dados do tópico.
+ */
+public interface IdentificadorRegistro<K, V> {
+
+    long identificar(ConsumerRecord<K, V> registro);
+
+    static <K, V> IdentificadorRegistro<K, V> posicao() {
+        return new IdentificadorRegistro<K, V>() {
+            public long identificar(ConsumerRecord<K, V> registro) {
+                long particao = Hash64.combinar(registro.topic().hashCode(), registro.partition());
+                return Hash64.combinar(particao, registro.offset());
+            }
+        };
+    }
+
+    // O valor é lido byte a byte, e a chave também quando é byte[] ou ByteBuffer; as outras usam o hashCode
+    static <K> IdentificadorRegistro<K, ByteBuffer> conteudo() {
+        return new IdentificadorRegistro<K, ByteBuffer>() {
+            public long identificar(ConsumerRecord<K, ByteBuffer> registro) {
+                return Hash64.combinar(Hash64.deChave(registro.key()), Hash64.deBytes(registro.value()));
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.metricas.MetricasDeduplicacao;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/* Envolve um ProcessadorRegistro e pula os registros que já foram processados
+ *
+ * O id do registro (IdentificadorRegistro) é procurado no ConjuntoVistos antes do processamento
+ * e só é adicionado depois que o processador termina sem erro: um registro que falhou continua podendo ser
+ * processado na próxima entrega. Assim a entrega continua sendo pelo menos uma vez, mas o efeito do
+ * processamento acontece uma vez só, enquanto o id estiver na memória do conjunto.
+ *
+ * Um mesmo ConjuntoVistos pode ser usado por vários Consumidores do mesmo grupo na mesma JVM, para pegar também
+ * as reentregas de uma partição que mudou de um para outro. Entre processos diferentes o conjunto não é compartilhado.
+ */
+public class ProcessadorDeduplicado<K, V> implements ProcessadorRegistro<K, V> {
+
+    private final ProcessadorRegistro<K, V> processador;
+    private final IdentificadorRegistro<K, V> identificador;
+    private final ConjuntoVistos vistos;
+    private MetricasDeduplicacao metricas;
+
+    public ProcessadorDeduplicado(ProcessadorRegistro<K, V> processador,
+                                  IdentificadorRegistro<K, V> identificador,
+                                  ConjuntoVistos vistos) {
+        this.processador = processador;
+        this.identificador = identificador;
+        this.vistos = vistos;
+    }
+
+    // Opcional; conta os registros novos, repetidos e suspeitos
+    public void setMetricas(MetricasDeduplicacao metricas) {
+        this.metricas = metricas;
+    }
+
+    @Override
+    public void processar(ConsumerRecord<K, V> registro) throws Exception {
+        long id = identificador.identificar(registro);
+        ConjuntoVistos.Verificacao verificacao = vistos.verificar(id);
+        if (metricas != null) {
+            metricas.registrar(verificacao == ConjuntoVistos.Verificacao.REPETIDO,
+                    verificacao == ConjuntoVistos.Verificacao.SUSPEITO);
+        }
+        if (verificacao == ConjuntoVistos.Verificacao.REPETIDO
+                || (verificacao == ConjuntoVistos.Verificacao.SUSPEITO && vistos.isDescartarSuspeitos())) {
+            return;
+        }
+        processador.processar(registro);
+        vistos.adicionar(id);
+    }
+}
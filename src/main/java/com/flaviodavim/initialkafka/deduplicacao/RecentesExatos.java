@@ -0,0 +1,113 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Os últimos capacidade ids vistos, sem falso positivo, fora do heap
+ *
+ * Os ids ficam em um buffer circular na ordem em que chegaram; quando ele enche, o mais antigo sai.
+ * Como cada id só é adicionado uma vez (os repetidos são encontrados antes), a ordem de chegada
+ * é a mesma do último uso e a saída do mais antigo equivale a um LRU.
+ *
+ * A busca usa uma tabela de endereçamento aberto com sondagem linear, com o dobro da capacidade.
+ * A remoção desloca para trás os ids seguintes do mesmo agrupamento, então a tabela não acumula marcas de removido.
+ * O zero marca uma posição vazia; o id zero é guardado à parte.
+ * Ocupa cerca de 24 bytes por id, em ByteBuffers diretos de tamanho fixo. Não é thread-safe.
+ */
+public class RecentesExatos {
+
+    private final int capacidade;
+    private final ByteBuffer ordem;
+    private final ByteBuffer tabela;
+    private final int mascara;
+
+    private int proximo;
+    private int tamanho;
+    private boolean contemZero;
+
+    public RecentesExatos(int capacidade) {
+        if (capacidade <= 0 || capacidade > (1 << 27)) {
+            throw new IllegalArgumentException("capacidade deve estar entre 1 e 2^27: " + capacidade);
+        }
+        this.capacidade = capacidade;
+        int posicoes = Integer.highestOneBit(capacidade * 2 - 1) << 1;
+        this.mascara = posicoes - 1;
+        this.ordem = ByteBuffer.allocateDirect(capacidade * 8).order(ByteOrder.nativeOrder());
+        this.tabela = ByteBuffer.allocateDirect(posicoes * 8).order(ByteOrder.nativeOrder());
+    }
+
+    public boolean contem(long id) {
+        if (id == 0) {
+            return contemZero;
+        }
+        for (int i = inicio(id); ; i = (i + 1) & mascara) {
+            long atual = tabela.getLong(i * 8);
+            if (atual == id) {
+                return true;
+            }
+            if (atual == 0) {
+                return false;
+            }
+        }
+    }
+
+    // Adiciona um id que não está no conjunto (ver contem()), tirando o mais antigo se estiver cheio
+    public void adicionar(long id) {
+        if (tamanho == capacidade) {
+            remover(ordem.getLong(proximo * 8));
+        } else {
+            tamanho++;
+        }
+        ordem.putLong(proximo * 8, id);
+        proximo = proximo + 1 == capacidade ? 0 : proximo + 1;
+
+        if (id == 0) {
+            contemZero = true;
+            return;
+        }
+        int i = inicio(id);
+        while (tabela.getLong(i * 8) != 0) {
+            i = (i + 1) & mascara;
+        }
+        tabela.putLong(i * 8, id);
+    }
+
+    public int getTamanho() {
+        return tamanho;
+    }
+
+    public long getBytes() {
+        return ordem.capacity() + tabela.capacity();
+    }
+
+    private void remover(long id) {
+        if (id == 0) {
+            contemZero = false;
+            return;
+        }
+        int i = inicio(id);
+        while (tabela.getLong(i * 8) != id) {
+            i = (i + 1) & mascara;
+        }
+        // Puxa para a posição livre cada id seguinte que não pode ficar depois dela
+        int j = i;
+        while (true) {
+            j = (j + 1) & mascara;
+            long seguinte = tabela.getLong(j * 8);
+            if (seguinte == 0) {
+                break;
+            }
+            int origem = inicio(seguinte);
+            boolean podeFicar = i <= j ? (i < origem && origem <= j) : (i < origem || origem <= j);
+            if (!podeFicar) {
+                tabela.putLong(i * 8, seguinte);
+                i = j;
+            }
+        }
+        tabela.putLong(i * 8, 0L);
+    }
+
+    private int inicio(long id) {
+        return (int) Hash64.misturar(id) & mascara;
+    }
+}
@@ -0,0 +1,223 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import com.flaviodavim.initialkafka.metricas.MetricasGravacao;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/* Laço de consumo que grava cada poll em arquivo pelo GravadorSegmentos e commita só o que já está no disco
+ *
+ * Cada poll vai inteiro para o gravador, na própria thread do poll. O fsync não é feito por lote:
+ * ele acontece quando os bytes ainda não gravados passam de bytesFsync ou quando o mais antigo deles
+ * já espera intervaloFsyncMs, e grava todos os lotes acumulados de uma vez (group commit).
+ * Só depois dele os offsets são commitados, então o commit nunca passa de um registro que ainda não está no disco.
+ *
+ * O intervaloFsyncMs limita o tempo de um registro até o commit; o bytesFsync limita o que é lido de novo
+ * depois de uma queda. Com intervalos menores, há mais fsyncs e menos registros dividindo o custo de cada um.
+ *
+ * Num rebalanceamento, tudo que foi escrito passa pelo fsync e é commitado antes das partições irem embora.
+ * Uma falha de escrita encerra o laço com UncheckedIOException, sem commitar o que não foi gravado.
+ * Isso vale também para a falha dentro do ouvinteRebalanceamento(): uma exceção lançada ali é engolida pelo Consumidor,
+ * então ela é guardada e lançada pelo run() assim que o poll volta.
+ */
+public class ConsumidorGravacao implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(ConsumidorGravacao.class);
+
+    private final Consumer<ByteBuffer, ByteBuffer> consumidor;
+    private final GravadorSegmentos gravador;
+
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private long intervaloFsyncMs = 100;
+    private long bytesFsync = 8 * 1024 * 1024;
+    private MetricasGravacao metricas;
+
+    // Só são acessados pela thread do poll, que também executa os callbacks do commit
+    // Quando o mais antigo dos bytes escritos sem fsync foi escrito; 0 quando não há nenhum
+    private long inicioPendente;
+    // Offsets já duráveis que ainda não foram commitados, ou cujo commit falhou
+    private final Map<TopicPartition, OffsetAndMetadata> aCommitar = new HashMap<TopicPartition, OffsetAndMetadata>();
+    // Falha de escrita no ouvinte de rebalanceamento, que é executado dentro do poll
+    private IOException falhaRebalanceamento;
+
+    private volatile long fsyncs;
+    private volatile boolean encerrado;
+
+    public ConsumidorGravacao(Consumer<ByteBuffer, ByteBuffer> consumidor, GravadorSegmentos gravador) {
+        this.consumidor = consumidor;
+        this.gravador = gravador;
+    }
+
+    // Desliga o commit automático, já que só os registros gravados no disco são commitados
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return propriedades;
+    }
+
+    // O poll espera no máximo intervaloFsyncMs, para o fsync não atrasar quando os registros param de chegar
+    public void setIntervaloFsync(long intervaloFsyncMs, long bytesFsync) {
+        if (intervaloFsyncMs < 0 || bytesFsync <= 0) {
+            throw new IllegalArgumentException("Limites de fsync inválidos: " + intervaloFsyncMs + " ms, "
+                    + bytesFsync + " bytes");
+        }
+        this.intervaloFsyncMs = intervaloFsyncMs;
+        this.bytesFsync = bytesFsync;
+        this.tempoPoll = Duration.ofMillis(Math.max(1, Math.min(100, intervaloFsyncMs)));
+    }
+
+    // Opcional; registra os bytes escritos, a duração dos fsyncs e o tempo de cada registro até ficar durável
+    public void setMetricas(MetricasGravacao metricas) {
+        this.metricas = metricas;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Antes de perder as partições, grava tudo no disco e commita; depois da atribuição, fecha os logs das que saíram
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                // Depois de uma falha nada mais é gravado nem commitado
+                if (falhaRebalanceamento != null) {
+                    return;
+                }
+                try {
+                    tornarDuravel(true);
+                } catch (UncheckedIOException e) {
+                    falhaRebalanceamento = e.getCause();
+                }
+                // Um commit assíncrono que falhou durante o commitSync pode ter devolvido offsets delas
+                aCommitar.keySet().removeAll(revogadas);
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                if (falhaRebalanceamento != null) {
+                    return;
+                }
+                try {
+                    gravador.manterSomente(atribuidas);
+                } catch (IOException e) {
+                    falhaRebalanceamento = e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        boolean falhaEscrita = false;
+        try {
+            while (!encerrado) {
+                ConsumerRecords<ByteBuffer, ByteBuffer> registros = consumidor.poll(tempoPoll);
+                if (falhaRebalanceamento != null) {
+                    throw falhaRebalanceamento;
+                }
+                if (!registros.isEmpty()) {
+                    long bytes = gravador.anexar(registros);
+                    if (bytes > 0 && inicioPendente == 0) {
+                        inicioPendente = System.nanoTime();
+                    }
+                    if (metricas != null) {
+                        metricas.registrarEscrita(registros.count(), bytes);
+                    }
+                }
+                if (inicioPendente != 0 && (gravador.getBytesNaoDuraveis() >= bytesFsync
+                        || System.nanoTime() - inicioPendente >= intervaloFsyncMs * 1000000)) {
+                    tornarDuravel(false);
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (falhaRebalanceamento != null) {
+                falhaEscrita = true;
+                throw new UncheckedIOException(falhaRebalanceamento);
+            }
+            if (!encerrado) {
+                throw e;
+            }
+        } catch (IOException e) {
+            // O que estava no buffer pode não ter chegado ao arquivo, então nada mais é commitado
+            falhaEscrita = true;
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                if (!falhaEscrita) {
+                    tornarDuravel(true);
+                }
+            } catch (Exception e) {
+                logger.warn("Falha ao gravar ou commitar no encerramento.", e);
+            } finally {
+                consumidor.close();
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    public long getFsyncs() {
+        return fsyncs;
+    }
+
+    // fsync de tudo que foi escrito e commit dos offsets que ficaram duráveis
+    private void tornarDuravel(boolean sincrono) {
+        long inicio = System.nanoTime();
+        try {
+            aCommitar.putAll(gravador.forcar());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long fim = System.nanoTime();
+        if (inicioPendente != 0) {
+            fsyncs++;
+            if (metricas != null) {
+                metricas.registrarFsync(fim - inicio, fim - inicioPendente);
+            }
+            inicioPendente = 0;
+        }
+        if (aCommitar.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>(aCommitar);
+        aCommitar.clear();
+        if (sincrono) {
+            consumidor.commitSync(offsets);
+        } else {
+            consumidor.commitAsync(offsets, new OffsetCommitCallback() {
+                public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                    if (e != null) {
+                        /* Volta para o próximo commit, a menos que um offset mais novo da partição já esteja esperando
+                         * ou que a partição tenha sido revogada: o novo dono já pode ter commitado um offset depois dele
+                         */
+                        logger.warn("Falha ao commitar os offsets " + offsets, e);
+                        Set<TopicPartition> atribuidas = consumidor.assignment();
+                        for (Map.Entry<TopicPartition, OffsetAndMetadata> entrada : offsets.entrySet()) {
+                            if (atribuidas.contains(entrada.getKey())) {
+                                aCommitar.putIfAbsent(entrada.getKey(), entrada.getValue());
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/* Grava os registros consumidos em arquivos locais, com um log de segmentos por partição (ver LogParticao)
+ *
+ * anexar() recebe o lote inteiro de um poll: os registros de cada partição são montados em um único buffer direto
+ * e escritos com uma chamada ao FileChannel a cada vez que ele enche, em vez de uma escrita por registro.
+ * Eles só ficam no disco em forcar(), que faz um fsync por partição com dados novos para todos os lotes
+ * anexados desde a chamada anterior (group commit): o custo do fsync é dividido entre todos os registros deles.
+ *
+ * forcar() devolve os offsets que podem ser commitados, o próximo offset depois do último registro já no disco.
+ * Commitando só eles, um registro nunca é dado como consumido antes de estar gravado; numa queda,
+ * os registros depois do commit são lidos de novo e os que já estavam no log são ignorados pelo offset.
+ *
+ * Os dados são a chave e o valor como vieram do broker, então o Consumidor usa o DesserializadorByteBuffer nos dois.
+ * Não é thread-safe: é usado pela thread do poll, como no ConsumidorGravacao.
+ */
+public class GravadorSegmentos implements Closeable {
+
+    public static final int TAMANHO_SEGMENTO_PADRAO = 128 * 1024 * 1024;
+    public static final long IDADE_MAXIMA_PADRAO_MS = 60 * 60 * 1000;
+    public static final int INTERVALO_INDICE_PADRAO = 4096;
+    public static final int TAMANHO_BUFFER_PADRAO = 1024 * 1024;
+
+    private final File diretorio;
+    private final int tamanhoSegmento;
+    private final long idadeMaximaMs;
+    private final int intervaloIndice;
+    private final ByteBuffer buffer;
+    private final Map<TopicPartition, LogParticao> logs = new HashMap<TopicPartition, LogParticao>();
+
+    public GravadorSegmentos(File diretorio) throws IOException {
+        this(diretorio, TAMANHO_SEGMENTO_PADRAO, IDADE_MAXIMA_PADRAO_MS, INTERVALO_INDICE_PADRAO, TAMANHO_BUFFER_PADRAO);
+    }
+
+    /* tamanhoSegmento e idadeMaximaMs: o que vier primeiro fecha o segmento e começa outro
+     * intervaloIndice: bytes do log entre duas entradas do índice; é o máximo percorrido para localizar um offset
+     * tamanhoBuffer: bytes montados antes de cada escrita; registros maiores que ele são escritos em partes
+     */
+    public GravadorSegmentos(File diretorio, int tamanhoSegmento, long idadeMaximaMs, int intervaloIndice,
+                             int tamanhoBuffer) throws IOException {
+        if (tamanhoSegmento < 1024) {
+            throw new IllegalArgumentException("tamanhoSegmento deve ter pelo menos 1024 bytes: " + tamanhoSegmento);
+        }
+        if (idadeMaximaMs <= 0 || intervaloIndice <= 0 || tamanhoBuffer < 1024) {
+            throw new IllegalArgumentException("Limites inválidos: idade " + idadeMaximaMs + " ms, índice a cada "
+                    + intervaloIndice + " bytes, buffer de " + tamanhoBuffer + " bytes");
+        }
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("Não foi possível criar o diretório de gravação " + diretorio);
+        }
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.idadeMaximaMs = idadeMaximaMs;
+        this.intervaloIndice = intervaloIndice;
+        this.buffer = ByteBuffer.allocateDirect(tamanhoBuffer);
+    }
+
+    // Diretório e limites pelas chaves gravacao.* (ver kafka.properties)
+    public static GravadorSegmentos configurado(ConfiguracaoKafka configuracao) throws IOException {
+        return new GravadorSegmentos(
+                new File(configuracao.get("gravacao.diretorio",
+                        new File(System.getProperty("java.io.tmpdir"), "initial-kafka-gravacao").getPath())),
+                configuracao.getInt("gravacao.segmento.bytes", TAMANHO_SEGMENTO_PADRAO),
+                configuracao.getLong("gravacao.segmento.segundos", IDADE_MAXIMA_PADRAO_MS / 1000) * 1000,
+                configuracao.getInt("gravacao.indice.intervalo.bytes", INTERVALO_INDICE_PADRAO),
+                configuracao.getInt("gravacao.buffer.bytes", TAMANHO_BUFFER_PADRAO));
+    }
+
+    // Escreve os registros do poll no fim dos logs das partições; devolve os bytes escritos
+    public long anexar(ConsumerRecords<ByteBuffer, ByteBuffer> registros) throws IOException {
+        long bytes = 0;
+        for (TopicPartition particao : registros.partitions()) {
+            bytes += log(particao).anexar(registros.records(particao), buffer);
+        }
+        return bytes;
+    }
+
+    /* fsync de todas as partições com registros escritos desde a última chamada
+     * Devolve, para cada partição cujo último registro no disco mudou, o offset a commitar
+     */
+    public Map<TopicPartition, OffsetAndMetadata> forcar() throws IOException {
+        Map<TopicPartition, OffsetAndMetadata> duraveis = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (LogParticao log : logs.values()) {
+            if (log.forcar()) {
+                duraveis.put(log.getParticao(), new OffsetAndMetadata(log.getUltimoDuravel() + 1));
+            }
+        }
+        return duraveis;
+    }
+
+    // Bytes escritos em todas as partições que ainda não passaram por um fsync
+    public long getBytesNaoDuraveis() {
+        long bytes = 0;
+        for (LogParticao log : logs.values()) {
+            bytes += log.getBytesNaoDuraveis();
+        }
+        return bytes;
+    }
+
+    // Último offset gravado no disco da partição, ou -1 se ela não tem nada gravado
+    public long getUltimoDuravel(TopicPartition particao) throws IOException {
+        return log(particao).getUltimoDuravel();
+    }
+
+    public int getNumeroSegmentos(TopicPartition particao) throws IOException {
+        return log(particao).getNumeroSegmentos();
+    }
+
+    // Primeiro registro gravado da partição com offset maior ou igual ao pedido, ou null se não há nenhum
+    public PosicaoGravada localizar(TopicPartition particao, long offset) throws IOException {
+        return log(particao).localizar(offset);
+    }
+
+    /* Fecha os logs das partições que não estão na coleção, depois de gravá-los no disco
+     * Chamado quando as partições mudam de dono, para não manter arquivos abertos de partições que foram embora
+     */
+    public void manterSomente(Collection<TopicPartition> particoes) throws IOException {
+        Iterator<Map.Entry<TopicPartition, LogParticao>> iterador = logs.entrySet().iterator();
+        while (iterador.hasNext()) {
+            Map.Entry<TopicPartition, LogParticao> entrada = iterador.next();
+            if (!particoes.contains(entrada.getKey())) {
+                entrada.getValue().fechar();
+                iterador.remove();
+            }
+        }
+    }
+
+    public File getDiretorio() {
+        return diretorio;
+    }
+
+    // Grava no disco o que falta; os offsets disso não são devolvidos, então devem ter sido commitados antes
+    @Override
+    public void close() throws IOException {
+        IOException erro = null;
+        for (LogParticao log : logs.values()) {
+            try {
+                log.fechar();
+            } catch (IOException e) {
+                erro = e;
+            }
+        }
+        logs.clear();
+        if (erro != null) {
+            throw erro;
+        }
+    }
+
+    private LogParticao log(TopicPartition particao) throws IOException {
+        LogParticao log = logs.get(particao);
+        if (log == null) {
+            log = new LogParticao(particao, new File(diretorio, particao.topic() + "-" + particao.partition()),
+                    tamanhoSegmento, idadeMaximaMs, intervaloIndice);
+            logs.put(particao, log);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,370 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/* Os segmentos de uma partição, em um diretório próprio (topico-particao)
+ *
+ * Cada registro é gravado como:
+ *      [int tamanho do corpo][int crc32 do corpo][long offset][long timestamp][int chave][chave][int valor][valor]
+ * Chave ou valor null têm tamanho -1. Os offsets só crescem: um registro com offset até o último gravado já está
+ * no log (uma reentrega depois de um rebalanceamento ou de uma queda antes do commit) e é ignorado.
+ *
+ * Um segmento novo começa quando o registro não cabe em tamanhoSegmento ou quando o atual passou de idadeMaximaMs.
+ * O segmento que fecha é gravado no disco antes do próximo começar, então depois de uma queda só o último
+ * pode ter um registro pela metade: ao abrir, ele é percorrido conferindo o crc, cortado no último registro válido
+ * e o índice dele é refeito.
+ *
+ * Só o segmento ativo fica aberto; os anteriores são abertos de novo só para localizar um offset neles.
+ * Não é thread-safe; é usado pela thread do GravadorSegmentos.
+ */
+final class LogParticao {
+
+    static final int CABECALHO = 8;
+    // offset, timestamp e os tamanhos da chave e do valor
+    static final int CORPO_FIXO = 8 + 8 + 4 + 4;
+
+    private final Logger logger = LoggerFactory.getLogger(LogParticao.class);
+
+    private final TopicPartition particao;
+    private final File diretorio;
+    private final int tamanhoSegmento;
+    private final long idadeMaximaMs;
+    private final int intervaloIndice;
+    private final TreeSet<Long> offsetsBase = new TreeSet<Long>();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer cabecalho = ByteBuffer.allocateDirect(CABECALHO + 8);
+
+    private SegmentoGravacao ativo;
+    private long ultimoGravado = -1;
+    private long ultimoDuravel = -1;
+    private long ultimoInformado = -1;
+    private long bytesNaoDuraveis;
+    // Offset do último registro montado no buffer, que passa a ser o último do segmento quando o buffer é escrito
+    private long ultimoNoBuffer = -1;
+
+    LogParticao(TopicPartition particao, File diretorio, int tamanhoSegmento, long idadeMaximaMs, int intervaloIndice)
+            throws IOException {
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("Não foi possível criar o diretório da partição " + diretorio);
+        }
+        this.particao = particao;
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.idadeMaximaMs = idadeMaximaMs;
+        this.intervaloIndice = intervaloIndice;
+        recuperar();
+    }
+
+    /* Monta os registros no buffer e escreve no segmento ativo sempre que ele enche, e no fim da lista
+     * Devolve os bytes escritos. Os registros ainda não estão no disco: isso só acontece em forcar()
+     */
+    long anexar(List<ConsumerRecord<ByteBuffer, ByteBuffer>> registros, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).clear();
+        long escritos = 0;
+        if (ativo != null && ativo.getTamanho() > 0 && System.currentTimeMillis() - ativo.getCriadoEm() >= idadeMaximaMs) {
+            rolar();
+        }
+        for (int i = 0; i < registros.size(); i++) {
+            ConsumerRecord<ByteBuffer, ByteBuffer> registro = registros.get(i);
+            if (registro.offset() <= ultimoGravado) {
+                continue;
+            }
+            ByteBuffer chave = registro.key();
+            ByteBuffer valor = registro.value();
+            int corpo = CORPO_FIXO + (chave == null ? 0 : chave.remaining()) + (valor == null ? 0 : valor.remaining());
+            int total = CABECALHO + corpo;
+
+            if (ativo == null) {
+                ativo = abrirSegmento(registro.offset());
+            } else if (ativo.getTamanho() + buffer.position() > 0
+                    && ativo.getTamanho() + buffer.position() + total > tamanhoSegmento) {
+                escritos += escreverBuffer(buffer);
+                rolar();
+                ativo = abrirSegmento(registro.offset());
+            }
+            if (total > buffer.remaining()) {
+                escritos += escreverBuffer(buffer);
+            }
+
+            ativo.indexar(registro.offset(), ativo.getTamanho() + buffer.position(), intervaloIndice);
+            if (total > buffer.capacity()) {
+                // Maior que o buffer inteiro: vai direto para o arquivo, em partes
+                escritos += escreverGrande(registro, corpo);
+            } else {
+                montar(buffer, registro, corpo);
+                ultimoNoBuffer = registro.offset();
+            }
+            ultimoGravado = registro.offset();
+        }
+        escritos += escreverBuffer(buffer);
+        return escritos;
+    }
+
+    /* Grava no disco o que foi escrito desde o último forcar()
+     * Devolve true se o último offset durável mudou desde a chamada anterior, inclusive por um segmento que fechou
+     */
+    boolean forcar() throws IOException {
+        if (ultimoGravado != ultimoDuravel) {
+            ativo.forcar(false);
+            ultimoDuravel = ultimoGravado;
+            bytesNaoDuraveis = 0;
+        }
+        if (ultimoDuravel == ultimoInformado) {
+            return false;
+        }
+        ultimoInformado = ultimoDuravel;
+        return true;
+    }
+
+    /* Primeiro registro com offset maior ou igual ao pedido: o índice do segmento dá um ponto de partida
+     * e o log é percorrido dali; null se não há nenhum
+     */
+    PosicaoGravada localizar(long offset) throws IOException {
+        Long base = offsetsBase.floor(offset);
+        if (base == null) {
+            base = offsetsBase.isEmpty() ? null : offsetsBase.first();
+        }
+        while (base != null) {
+            SegmentoGravacao segmento = ativo != null && ativo.getOffsetBase() == base
+                    ? ativo : SegmentoGravacao.abrir(diretorio, base);
+            try {
+                FileChannel log = segmento.getLog();
+                long posicao = segmento.posicaoAnterior(offset);
+                long tamanho = segmento.getTamanho();
+                while (posicao + CABECALHO + CORPO_FIXO <= tamanho && lerCabecalho(log, posicao)) {
+                    long encontrado = cabecalho.getLong(CABECALHO);
+                    if (encontrado >= offset) {
+                        return new PosicaoGravada(particao, segmento.getArquivoLog(), posicao, encontrado);
+                    }
+                    posicao += CABECALHO + cabecalho.getInt(0);
+                }
+            } finally {
+                if (segmento != ativo) {
+                    segmento.fechar();
+                }
+            }
+            base = offsetsBase.higher(base);
+        }
+        return null;
+    }
+
+    long getUltimoGravado() {
+        return ultimoGravado;
+    }
+
+    long getUltimoDuravel() {
+        return ultimoDuravel;
+    }
+
+    long getBytesNaoDuraveis() {
+        return bytesNaoDuraveis;
+    }
+
+    int getNumeroSegmentos() {
+        return offsetsBase.size();
+    }
+
+    TopicPartition getParticao() {
+        return particao;
+    }
+
+    // Grava no disco o que falta e fecha o segmento ativo; o log pode ser aberto de novo depois
+    void fechar() throws IOException {
+        if (ativo != null) {
+            ativo.forcar(true);
+            ativo.fechar();
+            ativo = null;
+        }
+        ultimoDuravel = ultimoGravado;
+        bytesNaoDuraveis = 0;
+    }
+
+    private void montar(ByteBuffer buffer, ConsumerRecord<ByteBuffer, ByteBuffer> registro, int corpo) {
+        int inicio = buffer.position();
+        buffer.putInt(corpo);
+        buffer.putInt(0);
+        buffer.putLong(registro.offset());
+        buffer.putLong(registro.timestamp());
+        copiar(registro.key(), buffer);
+        copiar(registro.value(), buffer);
+
+        // O crc é calculado sobre o corpo já montado, no próprio buffer direto
+        int fim = buffer.position();
+        ((Buffer) buffer).position(inicio + CABECALHO);
+        ((Buffer) buffer).limit(fim);
+        crc.reset();
+        crc.update(buffer);
+        ((Buffer) buffer).limit(buffer.capacity());
+        buffer.putInt(inicio + 4, (int) crc.getValue());
+    }
+
+    private long escreverBuffer(ByteBuffer buffer) throws IOException {
+        int bytes = buffer.position();
+        if (bytes == 0) {
+            return 0;
+        }
+        ((Buffer) buffer).flip();
+        ativo.escrever(buffer, ultimoNoBuffer);
+        ((Buffer) buffer).clear();
+        bytesNaoDuraveis += bytes;
+        return bytes;
+    }
+
+    // Caminho raro, para registros maiores que o buffer; aloca as visões da chave e do valor
+    private long escreverGrande(ConsumerRecord<ByteBuffer, ByteBuffer> registro, int corpo) throws IOException {
+        ByteBuffer chave = registro.key() == null ? null : registro.key().duplicate();
+        ByteBuffer valor = registro.value() == null ? null : registro.value().duplicate();
+        ByteBuffer inicio = ByteBuffer.allocate(CABECALHO + 8 + 8 + 4);
+        ByteBuffer tamanhoValor = ByteBuffer.allocate(4);
+        inicio.putInt(corpo).putInt(0).putLong(registro.offset()).putLong(registro.timestamp())
+                .putInt(chave == null ? -1 : chave.remaining());
+        tamanhoValor.putInt(0, valor == null ? -1 : valor.remaining());
+
+        crc.reset();
+        crc.update(inicio.array(), CABECALHO, inicio.capacity() - CABECALHO);
+        if (chave != null) {
+            crc.update(chave.duplicate());
+        }
+        crc.update(tamanhoValor.array(), 0, 4);
+        if (valor != null) {
+            crc.update(valor.duplicate());
+        }
+        inicio.putInt(4, (int) crc.getValue());
+
+        ((Buffer) inicio).flip();
+        ativo.escrever(inicio, registro.offset());
+        if (chave != null) {
+            ativo.escrever(chave, registro.offset());
+        }
+        ativo.escrever(tamanhoValor, registro.offset());
+        if (valor != null) {
+            ativo.escrever(valor, registro.offset());
+        }
+        bytesNaoDuraveis += CABECALHO + corpo;
+        return CABECALHO + corpo;
+    }
+
+    // Fecha o segmento ativo já gravado no disco, com o índice, para que só o último precise ser recuperado
+    private void rolar() throws IOException {
+        ativo.forcar(true);
+        ativo.fechar();
+        ultimoDuravel = ultimoGravado;
+        bytesNaoDuraveis = 0;
+        ativo = null;
+    }
+
+    private SegmentoGravacao abrirSegmento(long offsetBase) throws IOException {
+        SegmentoGravacao segmento = SegmentoGravacao.abrir(diretorio, offsetBase);
+        offsetsBase.add(offsetBase);
+        return segmento;
+    }
+
+    private void recuperar() throws IOException {
+        String[] nomes = diretorio.list();
+        if (nomes != null) {
+            for (String nome : nomes) {
+                long offset = SegmentoGravacao.offsetDoArquivo(nome);
+                if (offset >= 0) {
+                    offsetsBase.add(offset);
+                }
+            }
+        }
+        if (offsetsBase.isEmpty()) {
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        ativo = SegmentoGravacao.abrir(diretorio, offsetsBase.last());
+        FileChannel log = ativo.getLog();
+        long tamanhoArquivo = log.size();
+        long posicao = 0;
+        long ultimo = ativo.getOffsetBase() - 1;
+        ByteBuffer corpo = ByteBuffer.allocateDirect(64 * 1024);
+        while (posicao + CABECALHO + CORPO_FIXO <= tamanhoArquivo && lerCabecalho(log, posicao)) {
+            int tamanhoCorpo = cabecalho.getInt(0);
+            if (tamanhoCorpo < CORPO_FIXO || posicao + CABECALHO + tamanhoCorpo > tamanhoArquivo) {
+                break;
+            }
+            if (corpo.capacity() < tamanhoCorpo) {
+                corpo = ByteBuffer.allocateDirect(tamanhoCorpo);
+            }
+            ((Buffer) corpo).clear();
+            ((Buffer) corpo).limit(tamanhoCorpo);
+            if (!lerCompleto(log, corpo, posicao + CABECALHO)) {
+                break;
+            }
+            ((Buffer) corpo).flip();
+            crc.reset();
+            crc.update(corpo);
+            if ((int) crc.getValue() != cabecalho.getInt(4)) {
+                break;
+            }
+            ultimo = cabecalho.getLong(CABECALHO);
+            posicao += CABECALHO + tamanhoCorpo;
+        }
+
+        // O índice pode ter entradas de registros que não chegaram ao disco; ele é refeito só com os válidos
+        long fimValido = posicao;
+        ativo.truncar(fimValido, ultimo);
+        posicao = 0;
+        while (posicao < fimValido && lerCabecalho(log, posicao)) {
+            ativo.indexar(cabecalho.getLong(CABECALHO), posicao, intervaloIndice);
+            posicao += CABECALHO + cabecalho.getInt(0);
+        }
+        ativo.descarregar();
+
+        /* O que já estava no disco não é informado como durável: o offset commitado do grupo pode estar à frente dele,
+         * se a partição passou por outro Consumidor, e não deve voltar
+         */
+        ultimoGravado = ultimo;
+        ultimoDuravel = ultimo;
+        ultimoInformado = ultimo;
+        if (fimValido < tamanhoArquivo) {
+            logger.warn(String.format("%s: %d bytes depois do último registro válido foram descartados do segmento %s",
+                    particao, tamanhoArquivo - fimValido, ativo.getArquivoLog().getName()));
+        }
+        logger.info(String.format("%s recuperada em %d ms: %d segmentos, último offset %d",
+                particao, (System.nanoTime() - inicio) / 1000000, offsetsBase.size(), ultimo));
+    }
+
+    // Lê o cabeçalho e o offset do registro na posição; false se o arquivo acaba antes
+    private boolean lerCabecalho(FileChannel log, long posicao) throws IOException {
+        ((Buffer) cabecalho).clear();
+        return lerCompleto(log, cabecalho, posicao);
+    }
+
+    // Preenche o buffer até o limite a partir da posição do arquivo; false se o arquivo acaba antes
+    private static boolean lerCompleto(FileChannel log, ByteBuffer destino, long posicao) throws IOException {
+        long inicio = posicao - destino.position();
+        while (destino.hasRemaining()) {
+            if (log.read(destino, inicio + destino.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Grava [int tamanho][bytes] sem mudar a posição da origem; null é gravado com tamanho -1
+    private static void copiar(ByteBuffer origem, ByteBuffer destino) {
+        if (origem == null) {
+            destino.putInt(-1);
+            return;
+        }
+        destino.putInt(origem.remaining());
+        int posicao = origem.position();
+        destino.put(origem);
+        ((Buffer) origem).position(posicao);
+    }
+}
@@ -0,0 +1,43 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.File;
+
+// Onde um registro está gravado: o arquivo do segmento e a posição do cabeçalho do registro nele
+public final class PosicaoGravada {
+
+    private final TopicPartition particao;
+    private final File arquivo;
+    private final long posicao;
+    private final long offset;
+
+    PosicaoGravada(TopicPartition particao, File arquivo, long posicao, long offset) {
+        this.particao = particao;
+        this.arquivo = arquivo;
+        this.posicao = posicao;
+        this.offset = offset;
+    }
+
+    public TopicPartition getParticao() {
+        return particao;
+    }
+
+    public File getArquivo() {
+        return arquivo;
+    }
+
+    public long getPosicao() {
+        return posicao;
+    }
+
+    // O offset do registro encontrado, que pode ser maior que o procurado se ele não está no log
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return particao + "@" + offset + " em " + arquivo.getName() + ":" + posicao;
+    }
+}
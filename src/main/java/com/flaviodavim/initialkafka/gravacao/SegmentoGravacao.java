@@ -0,0 +1,198 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* Um segmento do LogParticao: o arquivo de registros (.log) e o índice esparso dele (.index)
+ *
+ * O nome dos dois é o offset do primeiro registro do segmento, como nos segmentos do próprio broker.
+ * O índice tem uma entrada a cada intervaloIndice bytes do log: [int offset - offsetBase][int posição no log].
+ * Para achar um offset, a busca binária no índice dá a posição de um registro anterior a ele,
+ * e o log é percorrido dali até o offset, no máximo intervaloIndice bytes.
+ *
+ * A escrita é sempre no fim dos arquivos, pelo FileChannel, a partir de buffers diretos (sem cópia para o heap).
+ * É usado só pela thread do LogParticao.
+ */
+final class SegmentoGravacao {
+
+    static final String EXTENSAO_LOG = ".log";
+    static final String EXTENSAO_INDICE = ".index";
+    static final int ENTRADA_INDICE = 8;
+
+    private final long offsetBase;
+    private final File arquivoLog;
+    private final File arquivoIndice;
+    private final FileChannel log;
+    private final FileChannel indice;
+    private final long criadoEm;
+
+    // Entradas do índice ainda não escritas no arquivo; vão junto com o log em descarregar()
+    private final ByteBuffer indicePendente = ByteBuffer.allocateDirect(ENTRADA_INDICE * 512);
+    private final ByteBuffer leitura = ByteBuffer.allocateDirect(ENTRADA_INDICE);
+
+    private long tamanho;
+    private long ultimoOffset = -1;
+    private long posicaoUltimaEntrada = -1;
+
+    private SegmentoGravacao(long offsetBase, File arquivoLog, File arquivoIndice, FileChannel log, FileChannel indice) {
+        this.offsetBase = offsetBase;
+        this.arquivoLog = arquivoLog;
+        this.arquivoIndice = arquivoIndice;
+        this.log = log;
+        this.indice = indice;
+        this.criadoEm = System.currentTimeMillis();
+    }
+
+    static SegmentoGravacao abrir(File diretorio, long offsetBase) throws IOException {
+        File arquivoLog = new File(diretorio, nomeArquivo(offsetBase, EXTENSAO_LOG));
+        File arquivoIndice = new File(diretorio, nomeArquivo(offsetBase, EXTENSAO_INDICE));
+        FileChannel log = new RandomAccessFile(arquivoLog, "rw").getChannel();
+        try {
+            FileChannel indice = new RandomAccessFile(arquivoIndice, "rw").getChannel();
+            SegmentoGravacao segmento = new SegmentoGravacao(offsetBase, arquivoLog, arquivoIndice, log, indice);
+            segmento.tamanho = log.size();
+            return segmento;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    static String nomeArquivo(long offsetBase, String extensao) {
+        return String.format("%020d", offsetBase) + extensao;
+    }
+
+    // Devolve o offset base de um arquivo de log, ou -1 se o nome não for de um segmento
+    static long offsetDoArquivo(String nome) {
+        if (!nome.endsWith(EXTENSAO_LOG) || nome.length() != 20 + EXTENSAO_LOG.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(nome.substring(0, 20));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    long getOffsetBase() {
+        return offsetBase;
+    }
+
+    long getTamanho() {
+        return tamanho;
+    }
+
+    long getUltimoOffset() {
+        return ultimoOffset;
+    }
+
+    long getCriadoEm() {
+        return criadoEm;
+    }
+
+    File getArquivoLog() {
+        return arquivoLog;
+    }
+
+    FileChannel getLog() {
+        return log;
+    }
+
+    // Escreve no fim do log os bytes do buffer (entre a posição e o limite); ultimoOffset é o do último registro neles
+    void escrever(ByteBuffer dados, long ultimoOffset) throws IOException {
+        while (dados.hasRemaining()) {
+            tamanho += log.write(dados, tamanho);
+        }
+        this.ultimoOffset = ultimoOffset;
+    }
+
+    // Se o registro começa intervaloIndice bytes ou mais depois da última entrada, ele ganha uma entrada no índice
+    void indexar(long offset, long posicao, int intervaloIndice) throws IOException {
+        if (posicaoUltimaEntrada < 0 || posicao - posicaoUltimaEntrada >= intervaloIndice) {
+            if (!indicePendente.hasRemaining()) {
+                descarregar();
+            }
+            indicePendente.putInt((int) (offset - offsetBase));
+            indicePendente.putInt((int) posicao);
+            posicaoUltimaEntrada = posicao;
+        }
+    }
+
+    // Escreve no arquivo as entradas do índice acumuladas
+    void descarregar() throws IOException {
+        if (indicePendente.position() == 0) {
+            return;
+        }
+        ((Buffer) indicePendente).flip();
+        long fim = indice.size();
+        while (indicePendente.hasRemaining()) {
+            fim += indice.write(indicePendente, fim);
+        }
+        ((Buffer) indicePendente).clear();
+    }
+
+    /* Grava o log no disco (fsync), sem os metadados do arquivo que não afetam a leitura
+     * O índice vai junto só quando comIndice; o do último segmento é refeito a partir do log ao abrir
+     */
+    void forcar(boolean comIndice) throws IOException {
+        descarregar();
+        log.force(false);
+        if (comIndice) {
+            indice.force(false);
+        }
+    }
+
+    /* Posição no log de um registro com offset menor ou igual ao pedido, pela busca binária no índice
+     * É o ponto de partida para percorrer o log até o offset; 0 se o índice não tem nada antes dele
+     */
+    long posicaoAnterior(long offset) throws IOException {
+        descarregar();
+        long relativo = offset - offsetBase;
+        long inicio = 0;
+        long fim = indice.size() / ENTRADA_INDICE - 1;
+        long posicao = 0;
+        while (inicio <= fim) {
+            long meio = (inicio + fim) >>> 1;
+            ((Buffer) leitura).clear();
+            while (leitura.hasRemaining()) {
+                if (indice.read(leitura, meio * ENTRADA_INDICE + leitura.position()) < 0) {
+                    throw new IOException("Índice truncado: " + arquivoIndice);
+                }
+            }
+            if (leitura.getInt(0) <= relativo) {
+                posicao = leitura.getInt(4) & 0xFFFFFFFFL;
+                inicio = meio + 1;
+            } else {
+                fim = meio - 1;
+            }
+        }
+        return posicao;
+    }
+
+    /* Depois de uma queda, o log termina no último registro válido encontrado pelo LogParticao
+     * O que passou disso é cortado e o índice é refeito a partir do log (ver LogParticao.recuperar())
+     */
+    void truncar(long fimValido, long ultimoOffset) throws IOException {
+        if (log.size() > fimValido) {
+            log.truncate(fimValido);
+        }
+        tamanho = fimValido;
+        this.ultimoOffset = ultimoOffset;
+        indice.truncate(0);
+        ((Buffer) indicePendente).clear();
+        posicaoUltimaEntrada = -1;
+    }
+
+    void fechar() throws IOException {
+        try {
+            descarregar();
+        } finally {
+            log.close();
+            indice.close();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.flaviodavim.initialkafka.janelas;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Etapa de agregação por janelas de tempo: conta e soma os registros de cada chave em cada janela
+ *
+ * É um ProcessadorRegistro, então entra no PipelineConsumo (ou em qualquer loop de poll) no lugar do ProcessadorLog.
+ * Cada partição tem o seu ArmazemJanelas e o seu relógio: o maior timestamp já visto nela, menos a carência.
+ * Quando o relógio passa do fim de uma janela, ela é entregue ao ReceptorJanela e removida do armazém.
+ * Registros que chegam depois da janela deles fechar são descartados e contados em atrasados.
+ *
+ * O estado de cada partição é gravado em diretorio/<tópico>-<partição>.janelas a cada intervaloSnapshotMs,
+ * junto com o próximo offset que ainda não entrou nele. Ao receber a partição de novo, o estado é lido do arquivo
+ * e o Consumidor volta para aquele offset (ouvinteRebalanceamento), então só o que veio depois é lido outra vez.
+ * Registros anteriores ao offset gravado são ignorados, mesmo sem o seek.
+ *
+ * O snapshot é feito entre dois offsets, nunca no meio das mensagens de um registro agregado,
+ * e supõe que cada partição processa um registro por vez, em ordem: use o ModoOrdenacao.PARTICAO no pipeline.
+ */
+public class AgregacaoJanelas<K, V> implements ProcessadorRegistro<K, V> {
+
+    private static final int MAGICO = 0x4a414e31;
+    private static final int CAPACIDADE_INICIAL = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(AgregacaoJanelas.class);
+
+    private final DefinicaoJanela definicao;
+    private final ExtratorAgregacao<K, V> extrator;
+    private final ReceptorJanela receptor;
+    private final File diretorio;
+
+    private long carenciaMs;
+    private long intervaloSnapshotMs = 60000;
+
+    // Estados por tópico, em arrays indexados pela partição; os arrays são copiados a cada mudança, nunca alterados
+    private final Map<String, EstadoParticao[]> estados = new ConcurrentHashMap<String, EstadoParticao[]>();
+
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder atrasados = new LongAdder();
+    private final LongAdder ignorados = new LongAdder();
+    private final LongAdder janelasFechadas = new LongAdder();
+
+    // Sem diretório, o estado só fica na memória e um reinício recomeça as janelas abertas do zero
+    public AgregacaoJanelas(DefinicaoJanela definicao, ExtratorAgregacao<K, V> extrator, ReceptorJanela receptor,
+                            File diretorio) {
+        this.definicao = definicao;
+        this.extrator = extrator;
+        this.receptor = receptor;
+        this.diretorio = diretorio;
+        if (diretorio != null && !diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IllegalArgumentException("Não foi possível criar o diretório " + diretorio);
+        }
+    }
+
+    // Quanto tempo uma janela espera por registros atrasados depois do seu fim
+    public void setCarenciaMs(long carenciaMs) {
+        this.carenciaMs = carenciaMs;
+    }
+
+    public void setIntervaloSnapshotMs(long intervaloSnapshotMs) {
+        this.intervaloSnapshotMs = intervaloSnapshotMs;
+    }
+
+    @Override
+    public void processar(ConsumerRecord<K, V> registro) {
+        EstadoParticao estado = estado(registro.topic(), registro.partition());
+        synchronized (estado) {
+            long offset = registro.offset();
+            if (offset < estado.offsetRestaurado) {
+                ignorados.increment();
+                return;
+            }
+            // Um offset novo quer dizer que o registro anterior terminou, inclusive todas as mensagens de um agregado
+            if (offset != estado.ultimoOffset && diretorio != null
+                    && System.currentTimeMillis() - estado.ultimoSnapshot >= intervaloSnapshotMs) {
+                gravar(estado);
+            }
+            estado.ultimoOffset = offset;
+            registros.increment();
+
+            long timestamp = registro.timestamp();
+            if (timestamp < 0) {
+                // Sem timestamp não há janela; acontece só com mensagens no formato anterior ao Kafka 0.10
+                atrasados.increment();
+                return;
+            }
+            if (timestamp > estado.maiorTimestamp) {
+                estado.maiorTimestamp = timestamp;
+            }
+            long relogio = estado.maiorTimestamp - carenciaMs;
+            long tamanho = definicao.getTamanhoMs();
+            long avanco = definicao.getAvancoMs();
+            long chave = extrator.chave(registro);
+            long valor = extrator.valor(registro);
+
+            for (long inicio = definicao.ultimoInicio(timestamp); inicio > timestamp - tamanho; inicio -= avanco) {
+                if (inicio + tamanho <= relogio) {
+                    // Com janelas sobrepostas, só algumas das janelas do registro podem já estar fechadas
+                    atrasados.increment();
+                    continue;
+                }
+                estado.armazem.somar(chave, inicio, valor);
+            }
+            if (relogio >= estado.armazem.getMenorFim()) {
+                janelasFechadas.add(estado.armazem.removerFechadas(relogio, receptor));
+            }
+        }
+    }
+
+    // Grava o estado de todas as partições; deve ser chamado no encerramento, depois que o pipeline parou
+    public void gravarEstado() {
+        if (diretorio == null) {
+            return;
+        }
+        for (EstadoParticao[] porParticao : estados.values()) {
+            for (EstadoParticao estado : porParticao) {
+                if (estado != null) {
+                    synchronized (estado) {
+                        gravar(estado);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Ouvinte para o subscribe(), em volta do ouvinte do pipeline (ou null)
+     *      -> revogadas: depois do seguinte commitar, grava o estado das partições e tira elas da memória
+     *      -> atribuídas: lê o estado gravado e leva o Consumidor para o offset seguinte a ele
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento(final Consumer<?, ?> consumidor,
+                                                            final ConsumerRebalanceListener seguinte) {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                if (seguinte != null) {
+                    seguinte.onPartitionsRevoked(revogadas);
+                }
+                for (TopicPartition particao : revogadas) {
+                    EstadoParticao estado = remover(particao.topic(), particao.partition());
+                    if (estado != null && diretorio != null) {
+                        synchronized (estado) {
+                            gravar(estado);
+                        }
+                    }
+                }
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                if (seguinte != null) {
+                    seguinte.onPartitionsAssigned(atribuidas);
+                }
+                for (TopicPartition particao : atribuidas) {
+                    EstadoParticao estado = estado(particao.topic(), particao.partition());
+                    if (estado.offsetRestaurado >= 0) {
+                        consumidor.seek(particao, estado.offsetRestaurado);
+                    }
+                }
+            }
+        };
+    }
+
+    public long getRegistros() {
+        return registros.sum();
+    }
+
+    public long getAtrasados() {
+        return atrasados.sum();
+    }
+
+    // Registros que já estavam no estado gravado e foram lidos de novo
+    public long getIgnorados() {
+        return ignorados.sum();
+    }
+
+    public long getJanelasFechadas() {
+        return janelasFechadas.sum();
+    }
+
+    public long getJanelasAbertas() {
+        long abertas = 0;
+        for (EstadoParticao[] porParticao : estados.values()) {
+            for (EstadoParticao estado : porParticao) {
+                if (estado != null) {
+                    synchronized (estado) {
+                        abertas += estado.armazem.tamanho();
+                    }
+                }
+            }
+        }
+        return abertas;
+    }
+
+    private EstadoParticao estado(String topico, int particao) {
+        EstadoParticao[] porParticao = estados.get(topico);
+        if (porParticao != null && particao < porParticao.length && porParticao[particao] != null) {
+            return porParticao[particao];
+        }
+        return criarEstado(topico, particao);
+    }
+
+    private synchronized EstadoParticao criarEstado(String topico, int particao) {
+        EstadoParticao[] porParticao = estados.get(topico);
+        if (porParticao != null && particao < porParticao.length && porParticao[particao] != null) {
+            return porParticao[particao];
+        }
+        EstadoParticao estado = new EstadoParticao(topico, particao, definicao.getTamanhoMs());
+        restaurar(estado);
+        EstadoParticao[] novo = porParticao == null ? new EstadoParticao[particao + 1]
+                : Arrays.copyOf(porParticao, Math.max(porParticao.length, particao + 1));
+        novo[particao] = estado;
+        estados.put(topico, novo);
+        return estado;
+    }
+
+    private synchronized EstadoParticao remover(String topico, int particao) {
+        EstadoParticao[] porParticao = estados.get(topico);
+        if (porParticao == null || particao >= porParticao.length || porParticao[particao] == null) {
+            return null;
+        }
+        EstadoParticao[] novo = porParticao.clone();
+        novo[particao] = null;
+        estados.put(topico, novo);
+        return porParticao[particao];
+    }
+
+    private File arquivo(EstadoParticao estado) {
+        return new File(diretorio, estado.topico + "-" + estado.particao + ".janelas");
+    }
+
+    /* Grava em um arquivo temporário e troca pelo definitivo, então um arquivo lido nunca está pela metade
+     * Uma falha só é escrita no log: o processamento continua e o próximo snapshot tenta de novo.
+     */
+    private void gravar(EstadoParticao estado) {
+        estado.ultimoSnapshot = System.currentTimeMillis();
+        long proximoOffset = estado.ultimoOffset >= 0 ? estado.ultimoOffset + 1 : estado.offsetRestaurado;
+        if (proximoOffset < 0) {
+            return;
+        }
+        File arquivo = arquivo(estado);
+        File temporario = new File(diretorio, arquivo.getName() + ".tmp");
+        try {
+            try (DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+                saida.writeInt(MAGICO);
+                saida.writeLong(definicao.getTamanhoMs());
+                saida.writeLong(definicao.getAvancoMs());
+                saida.writeLong(proximoOffset);
+                saida.writeLong(estado.maiorTimestamp);
+                estado.armazem.gravar(saida);
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Não foi possível gravar o estado das janelas em " + arquivo, e);
+        }
+    }
+
+    // Um arquivo com outra definição de janela ou corrompido é ignorado, e a partição é lida pelo offset commitado
+    private void restaurar(EstadoParticao estado) {
+        if (diretorio == null) {
+            return;
+        }
+        File arquivo = arquivo(estado);
+        if (!arquivo.isFile()) {
+            return;
+        }
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            if (entrada.readInt() != MAGICO) {
+                throw new IOException("Arquivo de estado inválido");
+            }
+            long tamanho = entrada.readLong();
+            long avanco = entrada.readLong();
+            if (tamanho != definicao.getTamanhoMs() || avanco != definicao.getAvancoMs()) {
+                logger.warn("O estado em " + arquivo + " é de outra janela (" + tamanho + "/" + avanco + " ms) e foi ignorado");
+                return;
+            }
+            long proximoOffset = entrada.readLong();
+            long maiorTimestamp = entrada.readLong();
+            ArmazemJanelas armazem = new ArmazemJanelas(CAPACIDADE_INICIAL, definicao.getTamanhoMs());
+            armazem.ler(entrada);
+
+            estado.armazem = armazem;
+            estado.offsetRestaurado = proximoOffset;
+            estado.maiorTimestamp = maiorTimestamp;
+            logger.info("Estado de " + estado.topico + "-" + estado.particao + " restaurado: " + armazem.tamanho()
+                    + " janelas abertas, continuando do offset " + proximoOffset);
+        } catch (IOException e) {
+            logger.warn("Não foi possível ler o estado das janelas em " + arquivo + ", ele foi ignorado", e);
+        }
+    }
+
+    private static final class EstadoParticao {
+
+        final String topico;
+        final int particao;
+        ArmazemJanelas armazem;
+        long offsetRestaurado = -1;
+        long ultimoOffset = -1;
+        long maiorTimestamp = Long.MIN_VALUE;
+        long ultimoSnapshot = System.currentTimeMillis();
+
+        EstadoParticao(String topico, int particao, long tamanhoJanelaMs) {
+            this.topico = topico;
+            this.particao = particao;
+            this.armazem = new ArmazemJanelas(CAPACIDADE_INICIAL, tamanhoJanelaMs);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.flaviodavim.initialkafka.janelas;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Contagem e soma por (chave, início da janela), em um único array de long
+ *
+ * Um HashMap<String, Long> guarda para cada janela um nó, a chave e um Long, e cada soma cria um Long novo.
+ * Aqui cada janela ocupa quatro longs seguidos do array (chave, início, contagem e soma):
+ * não há objetos por entrada, a soma não aloca nada e uma entrada inteira cabe em uma linha de cache.
+ *
+ * É uma tabela de endereçamento aberto com sondagem linear; uma contagem zero marca a posição vazia,
+ * já que toda janela guardada tem pelo menos um registro. A tabela dobra de tamanho acima de 60% de ocupação,
+ * e a remoção puxa para trás as entradas seguintes da sequência, então não sobram marcas de removido.
+ *
+ * Não é thread-safe: a AgregacaoJanelas usa um armazém por partição, sempre com a trava da partição.
+ */
+public final class ArmazemJanelas {
+
+    private static final double OCUPACAO_MAXIMA = 0.6;
+
+    // Posição de cada campo dentro da entrada
+    private static final int CHAVE = 0;
+    private static final int INICIO = 1;
+    private static final int CONTAGEM = 2;
+    private static final int SOMA = 3;
+    private static final int CAMPOS = 4;
+
+    private final long tamanhoJanelaMs;
+
+    private long[] tabela;
+    private int mascara;
+    private int tamanho;
+    private int limiteRedimensionar;
+    // Menor e maior fim entre as janelas guardadas, para saber sem percorrer a tabela se alguma (ou todas) podem fechar
+    private long menorFim = Long.MAX_VALUE;
+    private long maiorFim = Long.MIN_VALUE;
+
+    public ArmazemJanelas(int capacidadeInicial, long tamanhoJanelaMs) {
+        this.tamanhoJanelaMs = tamanhoJanelaMs;
+        alocar(Math.max(16, Integer.highestOneBit(Math.max(1, capacidadeInicial) - 1) << 1));
+    }
+
+    public void somar(long chave, long inicio, long valor) {
+        long[] tabela = this.tabela;
+        int posicao = espalhar(chave, inicio) & mascara;
+        int base;
+        while (tabela[(base = posicao * CAMPOS) + CONTAGEM] != 0) {
+            if (tabela[base + CHAVE] == chave && tabela[base + INICIO] == inicio) {
+                tabela[base + CONTAGEM]++;
+                tabela[base + SOMA] += valor;
+                return;
+            }
+            posicao = (posicao + 1) & mascara;
+        }
+        inserir(posicao, chave, inicio, 1, valor);
+    }
+
+    // 0 se a janela não existe
+    public long getContagem(long chave, long inicio) {
+        int posicao = procurar(chave, inicio);
+        return posicao < 0 ? 0 : tabela[posicao * CAMPOS + CONTAGEM];
+    }
+
+    public long getSoma(long chave, long inicio) {
+        int posicao = procurar(chave, inicio);
+        return posicao < 0 ? 0 : tabela[posicao * CAMPOS + SOMA];
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    public long getMenorFim() {
+        return menorFim;
+    }
+
+    /* Entrega e remove as janelas com fim <= limite, devolvendo quantas foram fechadas
+     * Se todas fecham (o caso comum com janelas fixas), a tabela é só zerada.
+     * Senão a varredura começa logo depois de uma posição vazia; como nenhuma sequência de sondagem atravessa
+     * uma posição vazia, a remoção só puxa para trás entradas que ainda não foram visitadas.
+     */
+    public int removerFechadas(long limite, ReceptorJanela receptor) {
+        if (limite < menorFim) {
+            return 0;
+        }
+        if (limite >= maiorFim) {
+            int fechadas = tamanho;
+            if (receptor != null) {
+                percorrer(receptor);
+            }
+            Arrays.fill(tabela, 0L);
+            tamanho = 0;
+            menorFim = Long.MAX_VALUE;
+            maiorFim = Long.MIN_VALUE;
+            return fechadas;
+        }
+
+        int vazia = 0;
+        while (tabela[vazia * CAMPOS + CONTAGEM] != 0) {
+            vazia++;
+        }
+        int fechadas = 0;
+        long novoMenorFim = Long.MAX_VALUE;
+        for (int i = 1; i <= mascara + 1; i++) {
+            int posicao = (vazia + i) & mascara;
+            int base = posicao * CAMPOS;
+            while (tabela[base + CONTAGEM] != 0) {
+                long fim = tabela[base + INICIO] + tamanhoJanelaMs;
+                if (fim > limite) {
+                    novoMenorFim = Math.min(novoMenorFim, fim);
+                    break;
+                }
+                if (receptor != null) {
+                    receptor.janelaFechada(tabela[base + CHAVE], tabela[base + INICIO], fim,
+                            tabela[base + CONTAGEM], tabela[base + SOMA]);
+                }
+                remover(posicao);
+                fechadas++;
+            }
+        }
+        menorFim = novoMenorFim;
+        return fechadas;
+    }
+
+    // Entrega todas as janelas sem removê-las
+    public void percorrer(ReceptorJanela receptor) {
+        for (int base = 0; base < tabela.length; base += CAMPOS) {
+            if (tabela[base + CONTAGEM] != 0) {
+                receptor.janelaFechada(tabela[base + CHAVE], tabela[base + INICIO],
+                        tabela[base + INICIO] + tamanhoJanelaMs, tabela[base + CONTAGEM], tabela[base + SOMA]);
+            }
+        }
+    }
+
+    public void gravar(DataOutput saida) throws IOException {
+        saida.writeInt(tamanho);
+        for (int base = 0; base < tabela.length; base += CAMPOS) {
+            if (tabela[base + CONTAGEM] != 0) {
+                saida.writeLong(tabela[base + CHAVE]);
+                saida.writeLong(tabela[base + INICIO]);
+                saida.writeLong(tabela[base + CONTAGEM]);
+                saida.writeLong(tabela[base + SOMA]);
+            }
+        }
+    }
+
+    // Acrescenta as janelas gravadas por gravar(); uma janela que já existe tem a contagem e a soma somadas
+    public void ler(DataInput entrada) throws IOException {
+        int quantidade = entrada.readInt();
+        if (quantidade < 0) {
+            throw new IOException("Quantidade de janelas inválida: " + quantidade);
+        }
+        for (int i = 0; i < quantidade; i++) {
+            long chave = entrada.readLong();
+            long inicio = entrada.readLong();
+            long contagem = entrada.readLong();
+            long soma = entrada.readLong();
+            if (contagem <= 0) {
+                throw new IOException("Contagem inválida na janela " + chave + "@" + inicio + ": " + contagem);
+            }
+            int posicao = procurar(chave, inicio);
+            if (posicao >= 0) {
+                tabela[posicao * CAMPOS + CONTAGEM] += contagem;
+                tabela[posicao * CAMPOS + SOMA] += soma;
+            } else {
+                inserir(posicaoLivre(chave, inicio), chave, inicio, contagem, soma);
+            }
+        }
+    }
+
+    private int procurar(long chave, long inicio) {
+        int posicao = espalhar(chave, inicio) & mascara;
+        int base;
+        while (tabela[(base = posicao * CAMPOS) + CONTAGEM] != 0) {
+            if (tabela[base + CHAVE] == chave && tabela[base + INICIO] == inicio) {
+                return posicao;
+            }
+            posicao = (posicao + 1) & mascara;
+        }
+        return -1;
+    }
+
+    private int posicaoLivre(long chave, long inicio) {
+        int posicao = espalhar(chave, inicio) & mascara;
+        while (tabela[posicao * CAMPOS + CONTAGEM] != 0) {
+            posicao = (posicao + 1) & mascara;
+        }
+        return posicao;
+    }
+
+    private void inserir(int posicao, long chave, long inicio, long contagem, long soma) {
+        int base = posicao * CAMPOS;
+        tabela[base + CHAVE] = chave;
+        tabela[base + INICIO] = inicio;
+        tabela[base + CONTAGEM] = contagem;
+        tabela[base + SOMA] = soma;
+        long fim = inicio + tamanhoJanelaMs;
+        menorFim = Math.min(menorFim, fim);
+        maiorFim = Math.max(maiorFim, fim);
+        if (++tamanho > limiteRedimensionar) {
+            redimensionar();
+        }
+    }
+
+    // Remoção com deslocamento para trás: as entradas seguintes que podem ocupar a posição livre são puxadas para ela
+    private void remover(int posicao) {
+        int livre = posicao;
+        int atual = posicao;
+        while (true) {
+            atual = (atual + 1) & mascara;
+            int base = atual * CAMPOS;
+            if (tabela[base + CONTAGEM] == 0) {
+                break;
+            }
+            int ideal = espalhar(tabela[base + CHAVE], tabela[base + INICIO]) & mascara;
+            // A entrada só pode ir para a posição livre se a posição ideal dela não estiver entre livre (exclusive) e atual
+            boolean entreLivreEAtual = livre <= atual ? (ideal > livre && ideal <= atual) : (ideal > livre || ideal <= atual);
+            if (!entreLivreEAtual) {
+                System.arraycopy(tabela, base, tabela, livre * CAMPOS, CAMPOS);
+                livre = atual;
+            }
+        }
+        tabela[livre * CAMPOS + CONTAGEM] = 0;
+        tamanho--;
+    }
+
+    private void redimensionar() {
+        long[] antiga = tabela;
+        alocar((mascara + 1) * 2);
+        for (int base = 0; base < antiga.length; base += CAMPOS) {
+            if (antiga[base + CONTAGEM] != 0) {
+                int destino = posicaoLivre(antiga[base + CHAVE], antiga[base + INICIO]) * CAMPOS;
+                System.arraycopy(antiga, base, tabela, destino, CAMPOS);
+            }
+        }
+    }
+
+    private void alocar(int capacidade) {
+        tabela = new long[capacidade * CAMPOS];
+        mascara = capacidade - 1;
+        limiteRedimensionar = (int) (capacidade * OCUPACAO_MAXIMA);
+    }
+
+    // Mistura a chave e o início com o finalizador do MurmurHash3, para chaves sequenciais não formarem sequências longas
+    private static int espalhar(long chave, long inicio) {
+        long h = misturar(chave) ^ inicio;
+        return (int) misturar(h);
+    }
+
+    private static long misturar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,54 @@
+package com.flaviodavim.initialkafka.janelas;
+
+import java.time.Duration;
+
+/* Janelas de tempo da agregação, pelo timestamp dos registros
+ *      -> fixa: janelas de tamanho fixo, uma depois da outra; cada registro cai em exatamente uma janela
+ *      -> comSalto: janelas de tamanho fixo que começam a cada avanço; com avanço menor que o tamanho elas se sobrepõem
+ *         e cada registro cai em tamanho/avanço janelas (ex: 5 minutos a cada 1 minuto = 5 janelas)
+ * As janelas começam em múltiplos do avanço desde a época (1970-01-01T00:00Z) e não incluem o fim.
+ */
+public final class DefinicaoJanela {
+
+    private final long tamanhoMs;
+    private final long avancoMs;
+
+    private DefinicaoJanela(long tamanhoMs, long avancoMs) {
+        if (tamanhoMs <= 0 || avancoMs <= 0) {
+            throw new IllegalArgumentException("O tamanho e o avanço da janela devem ser maiores que zero");
+        }
+        if (avancoMs > tamanhoMs) {
+            throw new IllegalArgumentException("O avanço (" + avancoMs + " ms) não pode ser maior que o tamanho da janela ("
+                    + tamanhoMs + " ms)");
+        }
+        this.tamanhoMs = tamanhoMs;
+        this.avancoMs = avancoMs;
+    }
+
+    public static DefinicaoJanela fixa(Duration tamanho) {
+        return new DefinicaoJanela(tamanho.toMillis(), tamanho.toMillis());
+    }
+
+    public static DefinicaoJanela comSalto(Duration tamanho, Duration avanco) {
+        return new DefinicaoJanela(tamanho.toMillis(), avanco.toMillis());
+    }
+
+    public long getTamanhoMs() {
+        return tamanhoMs;
+    }
+
+    public long getAvancoMs() {
+        return avancoMs;
+    }
+
+    // Início da última janela que contém o timestamp; as outras começam a cada avanço para trás, enquanto fim > timestamp
+    long ultimoInicio(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, avancoMs);
+    }
+
+    @Override
+    public String toString() {
+        return tamanhoMs == avancoMs ? "fixa de " + tamanhoMs + " ms"
+                : tamanhoMs + " ms com avanço de " + avancoMs + " ms";
+    }
+}
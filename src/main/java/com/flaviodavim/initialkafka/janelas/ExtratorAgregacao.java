@@ -0,0 +1,13 @@
+package com.flaviodavim.initialkafka.janelas;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/* Tira de cada registro a chave da agregação e o valor somado, como long
+ * Chaves que não são numéricas podem ser convertidas por um hash de 64 bits; colisões juntam as duas chaves.
+ */
+public interface ExtratorAgregacao<K, V> {
+
+    long chave(ConsumerRecord<K, V> registro);
+
+    long valor(ConsumerRecord<K, V> registro);
+}
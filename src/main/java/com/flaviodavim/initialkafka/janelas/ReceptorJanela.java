@@ -0,0 +1,10 @@
+package com.flaviodavim.initialkafka.janelas;
+
+/* Recebe o resultado de cada janela quando ela fecha
+ * É chamado pela thread que processou o registro que fechou a janela, então não deve bloquear por muito tempo.
+ * Depois de um reinício, janelas já entregues podem ser entregues de novo (pelo menos uma vez).
+ */
+public interface ReceptorJanela {
+
+    void janelaFechada(long chave, long inicio, long fim, long contagem, long soma);
+}
@@ -0,0 +1,12 @@
+package com.flaviodavim.initialkafka.metricas;
+
+/* Conjunto de métricas que aparece no RelatorioMetricas
+ * relatarIntervalo é chamado sempre pela mesma thread, então a fonte pode guardar o estado do relatório anterior
+ * sem sincronização, e escreve no StringBuilder só o que mudou desde então.
+ */
+public interface FonteMetricas {
+
+    String getNome();
+
+    void relatarIntervalo(StringBuilder sb, double segundos);
+}
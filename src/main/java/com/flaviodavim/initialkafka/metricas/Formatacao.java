@@ -0,0 +1,25 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.Locale;
+
+// Formatação usada pelos relatórios; só é chamada pela thread do relatório e pelo JMX, nunca no caminho dos registros
+final class Formatacao {
+
+    private Formatacao() {}
+
+    static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    static void latencia(StringBuilder sb, String rotulo, Instantaneo intervalo) {
+        sb.append(rotulo).append(String.format(Locale.ROOT, " p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                ms(intervalo.percentil(50)), ms(intervalo.percentil(99)),
+                ms(intervalo.percentil(99.9)), ms(intervalo.getMaximo())));
+    }
+
+    static void taxa(StringBuilder sb, long registros, long bytes, double segundos) {
+        double porSegundo = segundos > 0 ? 1 / segundos : 0;
+        sb.append(String.format(Locale.ROOT, "%.0f registros/s, %.2f MB/s",
+                registros * porSegundo, bytes * porSegundo / (1024 * 1024)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Histograma de valores long no estilo do HdrHistogram, sem travas
+ *
+ * Os valores até 127 têm um balde cada. Acima disso, cada potência de 2 é dividida em 64 baldes iguais,
+ * então o erro de qualquer valor fica abaixo de 1/64 (~1,6%) e o histograma inteiro cabe em 3712 contadores.
+ * Registrar é só um incremento atômico no balde do valor: várias threads podem registrar ao mesmo tempo
+ * sem disputar uma trava, e a leitura é feita por um Instantaneo copiado dos contadores.
+ *
+ * A unidade é de quem registra; as latências deste pacote são registradas em nanossegundos.
+ */
+public class Histograma {
+
+    static final int BITS_SUB_BALDE = 7;
+    static final int BALDES_DIRETOS = 1 << BITS_SUB_BALDE;
+    static final int SUB_BALDES = BALDES_DIRETOS / 2;
+    static final int NUMERO_BALDES = BALDES_DIRETOS + (63 - BITS_SUB_BALDE) * SUB_BALDES;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(NUMERO_BALDES);
+    private final LongAdder soma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    // Valores negativos (ex: relógios fora de sincronia) são registrados como zero
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        baldes.incrementAndGet(indice(valor));
+        soma.add(valor);
+        long atual = maximo.get();
+        while (valor > atual && !maximo.compareAndSet(atual, valor)) {
+            atual = maximo.get();
+        }
+    }
+
+    public Instantaneo instantaneo() {
+        long[] copia = new long[NUMERO_BALDES];
+        long contagem = 0;
+        for (int i = 0; i < NUMERO_BALDES; i++) {
+            copia[i] = baldes.get(i);
+            contagem += copia[i];
+        }
+        return new Instantaneo(copia, contagem, soma.sum(), maximo.get());
+    }
+
+    // Os registros feitos durante a limpeza podem ser perdidos ou ficar pela metade; serve para reiniciar a medição
+    public void zerar() {
+        for (int i = 0; i < NUMERO_BALDES; i++) {
+            baldes.set(i, 0);
+        }
+        soma.reset();
+        maximo.set(0);
+    }
+
+    static int indice(long valor) {
+        if (valor < BALDES_DIRETOS) {
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor) - (BITS_SUB_BALDE - 1);
+        int sub = (int) (valor >>> expoente) - SUB_BALDES;
+        return BALDES_DIRETOS + (expoente - 1) * SUB_BALDES + sub;
+    }
+
+    // Meio do intervalo coberto pelo balde
+    static long valorDoBalde(int indice) {
+        if (indice < BALDES_DIRETOS) {
+            return indice;
+        }
+        int expoente = (indice - BALDES_DIRETOS) / SUB_BALDES + 1;
+        long sub = (indice - BALDES_DIRETOS) % SUB_BALDES + SUB_BALDES;
+        return (sub << expoente) + ((1L << expoente) >>> 1);
+    }
+}
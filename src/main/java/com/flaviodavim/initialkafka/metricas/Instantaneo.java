@@ -0,0 +1,67 @@
+package com.flaviodavim.initialkafka.metricas;
+
+/* Cópia dos contadores de um Histograma em um momento
+ * Dois instantâneos podem ser subtraídos para obter só o que foi registrado entre eles (ex: o intervalo de um relatório).
+ * O máximo do intervalo é aproximado pelo maior balde com registros.
+ */
+public class Instantaneo {
+
+    private final long[] baldes;
+    private final long contagem;
+    private final long soma;
+    private final long maximo;
+
+    Instantaneo(long[] baldes, long contagem, long soma, long maximo) {
+        this.baldes = baldes;
+        this.contagem = contagem;
+        this.soma = soma;
+        this.maximo = maximo;
+    }
+
+    public long getContagem() {
+        return contagem;
+    }
+
+    public long getMaximo() {
+        return maximo;
+    }
+
+    public double getMedia() {
+        return contagem == 0 ? 0 : (double) soma / contagem;
+    }
+
+    // Valor abaixo do qual ficam percentil% dos registros (ex: 99.9)
+    public long percentil(double percentil) {
+        if (contagem == 0) {
+            return 0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(percentil / 100.0 * contagem));
+        long acumulado = 0;
+        for (int i = 0; i < baldes.length; i++) {
+            acumulado += baldes[i];
+            if (acumulado >= alvo) {
+                return Math.min(Histograma.valorDoBalde(i), maximo);
+            }
+        }
+        return maximo;
+    }
+
+    // Se o histograma foi zerado entre os dois instantâneos, o intervalo é tudo o que foi registrado depois disso
+    public Instantaneo menos(Instantaneo anterior) {
+        if (contagem < anterior.contagem) {
+            return this;
+        }
+        long[] diferenca = new long[baldes.length];
+        long contagemIntervalo = 0;
+        int maiorBalde = -1;
+        for (int i = 0; i < baldes.length; i++) {
+            diferenca[i] = Math.max(0, baldes[i] - anterior.baldes[i]);
+            if (diferenca[i] > 0) {
+                contagemIntervalo += diferenca[i];
+                maiorBalde = i;
+            }
+        }
+        long maximoIntervalo = maiorBalde < 0 ? 0 : Math.min(Histograma.valorDoBalde(maiorBalde), maximo);
+        return new Instantaneo(diferenca, contagemIntervalo, Math.max(0, soma - anterior.soma), maximoIntervalo);
+    }
+}
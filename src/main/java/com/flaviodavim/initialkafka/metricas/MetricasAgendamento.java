@@ -0,0 +1,126 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Métricas do AgendadorTopicos, separadas por tópico
+ *      -> registros processados
+ *      -> espera na fila: do poll que trouxe o registro até o início do processamento, em um Histograma;
+ *         é o que a prioridade e o peso de cada tópico mudam
+ *      -> vezes em que o tópico foi pausado, por fila cheia ou por falta de tokens
+ * O registro é feito pela thread do poll, por meio do objeto de cada tópico, e a leitura pela do relatório e pelo JMX.
+ */
+public class MetricasAgendamento implements MetricasAgendamentoMBean, FonteMetricas {
+
+    private final String nome;
+    private final ConcurrentMap<String, Topico> topicos = new ConcurrentHashMap<String, Topico>();
+
+    public MetricasAgendamento(String nome) {
+        this.nome = nome;
+    }
+
+    // Métricas de um tópico, criadas no primeiro uso
+    public Topico topico(String topico) {
+        Topico metricas = topicos.get(topico);
+        if (metricas == null) {
+            Topico nova = new Topico();
+            metricas = topicos.putIfAbsent(topico, nova);
+            if (metricas == null) {
+                metricas = nova;
+            }
+        }
+        return metricas;
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        double porSegundo = segundos > 0 ? 1 / segundos : 0;
+        sb.append(nome).append(':');
+        for (Map.Entry<String, Topico> entrada : new TreeMap<String, Topico>(topicos).entrySet()) {
+            Topico topico = entrada.getValue();
+            Instantaneo espera = topico.espera.instantaneo();
+            long registrosAtual = topico.registros.sum();
+            long pausasAtual = topico.pausas.sum();
+
+            sb.append(' ').append(entrada.getKey()).append(String.format(Locale.ROOT, " %.0f registros/s, pausas=%d, ",
+                    (registrosAtual - topico.registrosAnterior) * porSegundo, pausasAtual - topico.pausasAnterior));
+            Formatacao.latencia(sb, "poll->processamento", espera.menos(topico.esperaAnterior));
+            sb.append(';');
+
+            topico.esperaAnterior = espera;
+            topico.registrosAnterior = registrosAtual;
+            topico.pausasAnterior = pausasAtual;
+        }
+    }
+
+    @Override
+    public long getRegistros() {
+        long total = 0;
+        for (Topico topico : topicos.values()) {
+            total += topico.registros.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getPausas() {
+        long total = 0;
+        for (Topico topico : topicos.values()) {
+            total += topico.pausas.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public String getEsperaP99PorTopico() {
+        Map<String, String> porTopico = new TreeMap<String, String>();
+        for (Map.Entry<String, Topico> entrada : topicos.entrySet()) {
+            porTopico.put(entrada.getKey(), String.format(Locale.ROOT, "%.2fms",
+                    Formatacao.ms(entrada.getValue().espera.instantaneo().percentil(99))));
+        }
+        return porTopico.toString();
+    }
+
+    @Override
+    public void zerarHistogramas() {
+        for (Topico topico : topicos.values()) {
+            topico.espera.zerar();
+        }
+    }
+
+    public static final class Topico {
+
+        private final Histograma espera = new Histograma();
+        private final LongAdder registros = new LongAdder();
+        private final LongAdder pausas = new LongAdder();
+
+        // Estado do último relatório, usado só pela thread do relatório
+        private Instantaneo esperaAnterior = espera.instantaneo();
+        private long registrosAnterior;
+        private long pausasAnterior;
+
+        private Topico() {}
+
+        public void registrarProcessamento(long esperaNanos) {
+            registros.increment();
+            espera.registrar(esperaNanos);
+        }
+
+        public void registrarPausa() {
+            pausas.increment();
+        }
+
+        public Histograma getEspera() {
+            return espera;
+        }
+    }
+}
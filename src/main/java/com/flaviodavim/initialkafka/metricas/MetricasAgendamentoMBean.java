@@ -0,0 +1,13 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasAgendamento no JMX; contadores e percentis desde o início ou desde o último zerarHistogramas()
+public interface MetricasAgendamentoMBean {
+
+    long getRegistros();
+
+    long getPausas();
+
+    String getEsperaP99PorTopico();
+
+    void zerarHistogramas();
+}
@@ -0,0 +1,256 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Métricas do lado do Consumidor
+ *      -> latência da produção até o consumo, pelo timestamp do registro, em um Histograma
+ *      -> tamanho de cada lote do poll, em outro Histograma
+ *      -> registros e bytes consumidos
+ *      -> lag de cada partição: o endOffset do broker menos o próximo offset a ser consumido
+ *
+ * registrarLote e atualizarLag são chamados pela thread do poll, depois de cada poll.
+ * O endOffsets é uma ida ao broker, então o lag é consultado no máximo uma vez a cada intervaloLagMs.
+ * Um mesmo MetricasConsumidor deve ser usado por um único Consumidor; para vários, crie um por Consumidor.
+ *
+ * A latência depende dos relógios do Produtor e do Consumidor estarem sincronizados; diferenças negativas contam como zero.
+ */
+public class MetricasConsumidor implements MetricasConsumidorMBean, FonteMetricas {
+
+    private final Logger logger = LoggerFactory.getLogger(MetricasConsumidor.class);
+
+    private final String nome;
+    private final long intervaloLagNanos;
+
+    private final Histograma producaoAteConsumo = new Histograma();
+    private final Histograma tamanhoLote = new Histograma();
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    // Escrito pela thread do poll e lido pelo relatório e pelo JMX
+    private final Map<TopicPartition, EstadoLag> lag = new ConcurrentHashMap<TopicPartition, EstadoLag>();
+    private long ultimaConsultaLag;
+
+    // Estado do último relatório, usado só pela thread do relatório
+    private Instantaneo latenciaAnterior = producaoAteConsumo.instantaneo();
+    private Instantaneo loteAnterior = tamanhoLote.instantaneo();
+    private long registrosAnterior;
+    private long bytesAnterior;
+
+    public MetricasConsumidor(String nome) {
+        this(nome, 5000);
+    }
+
+    public MetricasConsumidor(String nome, long intervaloLagMs) {
+        this.nome = nome;
+        this.intervaloLagNanos = TimeUnit.MILLISECONDS.toNanos(intervaloLagMs);
+        this.ultimaConsultaLag = System.nanoTime() - intervaloLagNanos;
+    }
+
+    public void registrarLote(ConsumerRecords<?, ?> lote) {
+        int quantidade = lote.count();
+        tamanhoLote.registrar(quantidade);
+        if (quantidade == 0) {
+            return;
+        }
+
+        long agora = System.currentTimeMillis();
+        long bytesLote = 0;
+        for (TopicPartition particao : lote.partitions()) {
+            List<? extends ConsumerRecord<?, ?>> registrosParticao = lote.records(particao);
+            for (int i = 0; i < registrosParticao.size(); i++) {
+                ConsumerRecord<?, ?> registro = registrosParticao.get(i);
+                if (registro.timestamp() >= 0) {
+                    producaoAteConsumo.registrar(TimeUnit.MILLISECONDS.toNanos(agora - registro.timestamp()));
+                }
+                bytesLote += Math.max(0, registro.serializedKeySize()) + Math.max(0, registro.serializedValueSize());
+            }
+            long proximoOffset = registrosParticao.get(registrosParticao.size() - 1).offset() + 1;
+            estado(particao).proximoOffset = proximoOffset;
+        }
+        registros.add(quantidade);
+        bytes.add(bytesLote);
+    }
+
+    /* Consulta os endOffsets das partições atribuídas, se o intervalo já passou
+     * Partições que ainda não tiveram registros usam a posição atual do Consumidor.
+     * Um timeout na consulta não interrompe o consumo: o lag fica com o último valor conhecido.
+     */
+    public void atualizarLag(Consumer<?, ?> consumidor) {
+        long agora = System.nanoTime();
+        if (agora - ultimaConsultaLag < intervaloLagNanos) {
+            return;
+        }
+        ultimaConsultaLag = agora;
+
+        Set<TopicPartition> atribuidas = consumidor.assignment();
+        lag.keySet().retainAll(atribuidas);
+        if (atribuidas.isEmpty()) {
+            return;
+        }
+        try {
+            Map<TopicPartition, Long> finais = consumidor.endOffsets(atribuidas);
+            for (Map.Entry<TopicPartition, Long> fim : finais.entrySet()) {
+                EstadoLag estado = estado(fim.getKey());
+                if (estado.proximoOffset < 0) {
+                    estado.proximoOffset = consumidor.position(fim.getKey());
+                }
+                estado.fim = fim.getValue();
+            }
+        } catch (TimeoutException e) {
+            logger.warn("Timeout ao consultar o lag de " + nome, e);
+        }
+    }
+
+    public Histograma getProducaoAteConsumo() {
+        return producaoAteConsumo;
+    }
+
+    public Histograma getTamanhoLote() {
+        return tamanhoLote;
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        Instantaneo latencia = producaoAteConsumo.instantaneo();
+        Instantaneo lote = tamanhoLote.instantaneo();
+        long registrosAtual = registros.sum();
+        long bytesAtual = bytes.sum();
+        Instantaneo loteIntervalo = lote.menos(loteAnterior);
+
+        sb.append(nome).append(": ");
+        Formatacao.taxa(sb, registrosAtual - registrosAnterior, bytesAtual - bytesAnterior, segundos);
+        sb.append(", polls=").append(loteIntervalo.getContagem())
+          .append(" lote médio=").append(Math.round(loteIntervalo.getMedia()))
+          .append(" p99=").append(loteIntervalo.percentil(99)).append(", ");
+        Formatacao.latencia(sb, "produção->consumo", latencia.menos(latenciaAnterior));
+        sb.append(", lag total=").append(getLagTotal()).append(" máx=").append(getLagMaximo());
+
+        latenciaAnterior = latencia;
+        loteAnterior = lote;
+        registrosAnterior = registrosAtual;
+        bytesAnterior = bytesAtual;
+    }
+
+    @Override
+    public long getRegistros() {
+        return registros.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getPolls() {
+        return tamanhoLote.instantaneo().getContagem();
+    }
+
+    @Override
+    public double getLoteMedio() {
+        return tamanhoLote.instantaneo().getMedia();
+    }
+
+    @Override
+    public long getLoteMaximo() {
+        return tamanhoLote.instantaneo().getMaximo();
+    }
+
+    @Override
+    public double getLatenciaConsumoP50Ms() {
+        return Formatacao.ms(producaoAteConsumo.instantaneo().percentil(50));
+    }
+
+    @Override
+    public double getLatenciaConsumoP99Ms() {
+        return Formatacao.ms(producaoAteConsumo.instantaneo().percentil(99));
+    }
+
+    @Override
+    public double getLatenciaConsumoP999Ms() {
+        return Formatacao.ms(producaoAteConsumo.instantaneo().percentil(99.9));
+    }
+
+    @Override
+    public double getLatenciaConsumoMaximaMs() {
+        return Formatacao.ms(producaoAteConsumo.instantaneo().getMaximo());
+    }
+
+    @Override
+    public long getLagTotal() {
+        long total = 0;
+        for (EstadoLag estado : lag.values()) {
+            total += Math.max(0, estado.lag());
+        }
+        return total;
+    }
+
+    @Override
+    public long getLagMaximo() {
+        long maximo = 0;
+        for (EstadoLag estado : lag.values()) {
+            maximo = Math.max(maximo, estado.lag());
+        }
+        return maximo;
+    }
+
+    @Override
+    public String getLagPorParticao() {
+        Map<String, Long> ordenado = new TreeMap<String, Long>();
+        for (Map.Entry<TopicPartition, EstadoLag> entrada : lag.entrySet()) {
+            long lagParticao = entrada.getValue().lag();
+            if (lagParticao >= 0) {
+                ordenado.put(entrada.getKey().toString(), lagParticao);
+            }
+        }
+        return ordenado.toString();
+    }
+
+    @Override
+    public void zerarHistogramas() {
+        producaoAteConsumo.zerar();
+        tamanhoLote.zerar();
+    }
+
+    private EstadoLag estado(TopicPartition particao) {
+        EstadoLag estado = lag.get(particao);
+        if (estado == null) {
+            estado = new EstadoLag();
+            lag.put(particao, estado);
+        }
+        return estado;
+    }
+
+    /* O lag é calculado na leitura com o último endOffset consultado,
+     * então ele diminui a cada poll mesmo entre duas consultas ao broker
+     */
+    private static final class EstadoLag {
+        volatile long proximoOffset = -1;
+        volatile long fim = -1;
+
+        long lag() {
+            long proximo = proximoOffset;
+            long ultimoFim = fim;
+            return proximo < 0 || ultimoFim < 0 ? -1 : Math.max(0, ultimoFim - proximo);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasConsumidor no JMX; contadores e percentis desde o início ou desde o último zerarHistogramas()
+public interface MetricasConsumidorMBean {
+
+    long getRegistros();
+
+    long getBytes();
+
+    long getPolls();
+
+    double getLoteMedio();
+
+    long getLoteMaximo();
+
+    double getLatenciaConsumoP50Ms();
+
+    double getLatenciaConsumoP99Ms();
+
+    double getLatenciaConsumoP999Ms();
+
+    double getLatenciaConsumoMaximaMs();
+
+    long getLagTotal();
+
+    long getLagMaximo();
+
+    String getLagPorParticao();
+
+    void zerarHistogramas();
+}
@@ -0,0 +1,91 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/* Métricas do ProcessadorDeduplicado
+ *      -> verificados: todos os registros que passaram pela deduplicação
+ *      -> repetidos: encontrados entre os ids recentes, com certeza já processados
+ *      -> suspeitos: encontrados só no filtro de Bloom; são reentregas antigas ou falsos positivos
+ *      -> taxa de falso positivo estimada: a chance de um id nunca visto cair no filtro, pela ocupação dele
+ *      -> taxa de suspeitos: suspeitos / (verificados - repetidos); é o limite de cima da taxa de falso positivo
+ *         medida, já que as reentregas antigas também entram nela
+ *
+ * registrar é chamado pelas threads que processam os registros e usa apenas contadores atômicos.
+ */
+public class MetricasDeduplicacao implements MetricasDeduplicacaoMBean, FonteMetricas {
+
+    private final String nome;
+    private final DoubleSupplier taxaFalsoPositivo;
+    private final LongAdder verificados = new LongAdder();
+    private final LongAdder repetidos = new LongAdder();
+    private final LongAdder suspeitos = new LongAdder();
+
+    // Estado do último relatório, usado só pela thread do relatório
+    private long verificadosAnterior;
+    private long repetidosAnterior;
+    private long suspeitosAnterior;
+
+    // A taxa estimada vem de quem conhece o filtro, normalmente ConjuntoVistos::taxaFalsoPositivoEstimada
+    public MetricasDeduplicacao(String nome, DoubleSupplier taxaFalsoPositivo) {
+        this.nome = nome;
+        this.taxaFalsoPositivo = taxaFalsoPositivo;
+    }
+
+    public void registrar(boolean repetido, boolean suspeito) {
+        verificados.increment();
+        if (repetido) {
+            repetidos.increment();
+        } else if (suspeito) {
+            suspeitos.increment();
+        }
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        long verificadosAtual = verificados.sum();
+        long repetidosAtual = repetidos.sum();
+        long suspeitosAtual = suspeitos.sum();
+
+        sb.append(nome).append(": verificados=").append(verificadosAtual - verificadosAnterior)
+          .append(", repetidos=").append(repetidosAtual - repetidosAnterior)
+          .append(", suspeitos=").append(suspeitosAtual - suspeitosAnterior)
+          .append(String.format(Locale.ROOT, ", falso positivo estimado=%.4f%%", taxaFalsoPositivo.getAsDouble() * 100));
+
+        verificadosAnterior = verificadosAtual;
+        repetidosAnterior = repetidosAtual;
+        suspeitosAnterior = suspeitosAtual;
+    }
+
+    @Override
+    public long getVerificados() {
+        return verificados.sum();
+    }
+
+    @Override
+    public long getRepetidos() {
+        return repetidos.sum();
+    }
+
+    @Override
+    public long getSuspeitos() {
+        return suspeitos.sum();
+    }
+
+    @Override
+    public double getTaxaFalsoPositivoEstimada() {
+        return taxaFalsoPositivo.getAsDouble();
+    }
+
+    @Override
+    public double getTaxaSuspeitos() {
+        long naoRepetidos = verificados.sum() - repetidos.sum();
+        return naoRepetidos == 0 ? 0 : (double) suspeitos.sum() / naoRepetidos;
+    }
+}
@@ -0,0 +1,15 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasDeduplicacao no JMX; contadores desde o início
+public interface MetricasDeduplicacaoMBean {
+
+    long getVerificados();
+
+    long getRepetidos();
+
+    long getSuspeitos();
+
+    double getTaxaFalsoPositivoEstimada();
+
+    double getTaxaSuspeitos();
+}
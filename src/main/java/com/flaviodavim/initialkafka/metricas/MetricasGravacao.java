@@ -0,0 +1,103 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Métricas da gravação em arquivo (ConsumidorGravacao)
+ *      -> registros e bytes escritos nos segmentos
+ *      -> duração de cada fsync, em um Histograma
+ *      -> tempo até durável: da escrita do registro mais antigo ainda não gravado até o fim do fsync;
+ *         é o quanto um registro espera pelo commit do offset
+ * O registro é feito pela thread do poll e a leitura pela do relatório e pelo JMX.
+ */
+public class MetricasGravacao implements MetricasGravacaoMBean, FonteMetricas {
+
+    private final String nome;
+    private final Histograma fsync = new Histograma();
+    private final Histograma ateDuravel = new Histograma();
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+
+    // Estado do último relatório, usado só pela thread do relatório
+    private Instantaneo fsyncAnterior = fsync.instantaneo();
+    private Instantaneo ateDuravelAnterior = ateDuravel.instantaneo();
+    private long registrosAnterior;
+    private long bytesAnterior;
+
+    public MetricasGravacao(String nome) {
+        this.nome = nome;
+    }
+
+    public void registrarEscrita(int registros, long bytes) {
+        this.registros.add(registros);
+        this.bytes.add(bytes);
+    }
+
+    public void registrarFsync(long duracaoNanos, long ateDuravelNanos) {
+        fsyncs.increment();
+        fsync.registrar(duracaoNanos);
+        ateDuravel.registrar(ateDuravelNanos);
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        Instantaneo fsyncAtual = fsync.instantaneo();
+        Instantaneo ateDuravelAtual = ateDuravel.instantaneo();
+        long registrosAtual = registros.sum();
+        long bytesAtual = bytes.sum();
+
+        Instantaneo intervaloFsync = fsyncAtual.menos(fsyncAnterior);
+        sb.append(nome).append(": ");
+        Formatacao.taxa(sb, registrosAtual - registrosAnterior, bytesAtual - bytesAnterior, segundos);
+        sb.append(", fsyncs=").append(intervaloFsync.getContagem()).append(", ");
+        Formatacao.latencia(sb, "fsync", intervaloFsync);
+        sb.append(", ");
+        Formatacao.latencia(sb, "escrita->durável", ateDuravelAtual.menos(ateDuravelAnterior));
+
+        fsyncAnterior = fsyncAtual;
+        ateDuravelAnterior = ateDuravelAtual;
+        registrosAnterior = registrosAtual;
+        bytesAnterior = bytesAtual;
+    }
+
+    @Override
+    public long getRegistros() {
+        return registros.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getFsyncs() {
+        return fsyncs.sum();
+    }
+
+    @Override
+    public double getFsyncP99Ms() {
+        return Formatacao.ms(fsync.instantaneo().percentil(99));
+    }
+
+    @Override
+    public double getAteDuravelP50Ms() {
+        return Formatacao.ms(ateDuravel.instantaneo().percentil(50));
+    }
+
+    @Override
+    public double getAteDuravelP99Ms() {
+        return Formatacao.ms(ateDuravel.instantaneo().percentil(99));
+    }
+
+    @Override
+    public void zerarHistogramas() {
+        fsync.zerar();
+        ateDuravel.zerar();
+    }
+}
@@ -0,0 +1,19 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasGravacao no JMX; contadores e percentis desde o início ou desde o último zerarHistogramas()
+public interface MetricasGravacaoMBean {
+
+    long getRegistros();
+
+    long getBytes();
+
+    long getFsyncs();
+
+    double getFsyncP99Ms();
+
+    double getAteDuravelP50Ms();
+
+    double getAteDuravelP99Ms();
+
+    void zerarHistogramas();
+}
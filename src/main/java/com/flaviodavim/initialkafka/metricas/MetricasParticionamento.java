@@ -0,0 +1,192 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Métricas do particionador do Produtor
+ *      -> registros por partição de cada tópico e o desbalanceamento: a partição mais cheia dividida pela média
+ *         (1.0 é uma distribuição perfeita; 2.0 quer dizer que uma partição recebeu o dobro da média)
+ *      -> registros de chaves quentes, registros espalhados entre partições e registros sem chave
+ *      -> quantas chaves quentes já foram detectadas
+ *
+ * registrar é chamado no send(), pelas threads da aplicação, e usa apenas contadores atômicos.
+ */
+public class MetricasParticionamento implements MetricasParticionamentoMBean, FonteMetricas {
+
+    private final String nome;
+    private final Map<String, ContagemTopico> topicos = new ConcurrentHashMap<String, ContagemTopico>();
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder registrosChavesQuentes = new LongAdder();
+    private final LongAdder registrosEspalhados = new LongAdder();
+    private final LongAdder registrosSemChave = new LongAdder();
+    private final LongAdder chavesQuentes = new LongAdder();
+
+    // Estado do último relatório, usado só pela thread do relatório
+    private long registrosAnterior;
+    private long quentesAnterior;
+    private long espalhadosAnterior;
+    private long semChaveAnterior;
+
+    public MetricasParticionamento(String nome) {
+        this.nome = nome;
+    }
+
+    public void registrar(String topico, int particao, int numeroParticoes, boolean chaveQuente, boolean espalhado,
+                          boolean semChave) {
+        contagem(topico, numeroParticoes).registrar(particao);
+        registros.increment();
+        if (chaveQuente) {
+            registrosChavesQuentes.increment();
+        }
+        if (espalhado) {
+            registrosEspalhados.increment();
+        }
+        if (semChave) {
+            registrosSemChave.increment();
+        }
+    }
+
+    public void registrarChaveQuente() {
+        chavesQuentes.increment();
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        long registrosAtual = registros.sum();
+        long quentesAtual = registrosChavesQuentes.sum();
+        long espalhadosAtual = registrosEspalhados.sum();
+        long semChaveAtual = registrosSemChave.sum();
+
+        sb.append(nome).append(": registros=").append(registrosAtual - registrosAnterior)
+          .append(", chaves quentes=").append(quentesAtual - quentesAnterior)
+          .append(" (").append(chavesQuentes.sum()).append(" detectadas)")
+          .append(", espalhados=").append(espalhadosAtual - espalhadosAnterior)
+          .append(", sem chave=").append(semChaveAtual - semChaveAnterior);
+        for (Map.Entry<String, ContagemTopico> topico : new TreeMap<String, ContagemTopico>(topicos).entrySet()) {
+            sb.append(", ").append(topico.getKey()).append(' ');
+            topico.getValue().relatarIntervalo(sb);
+        }
+
+        registrosAnterior = registrosAtual;
+        quentesAnterior = quentesAtual;
+        espalhadosAnterior = espalhadosAtual;
+        semChaveAnterior = semChaveAtual;
+    }
+
+    @Override
+    public long getRegistros() {
+        return registros.sum();
+    }
+
+    @Override
+    public long getRegistrosChavesQuentes() {
+        return registrosChavesQuentes.sum();
+    }
+
+    @Override
+    public long getRegistrosEspalhados() {
+        return registrosEspalhados.sum();
+    }
+
+    @Override
+    public long getRegistrosSemChave() {
+        return registrosSemChave.sum();
+    }
+
+    @Override
+    public long getChavesQuentesDetectadas() {
+        return chavesQuentes.sum();
+    }
+
+    @Override
+    public double getDesbalanceamentoMaximo() {
+        double maximo = 0;
+        for (ContagemTopico contagem : topicos.values()) {
+            maximo = Math.max(maximo, desbalanceamento(contagem.atual()));
+        }
+        return maximo;
+    }
+
+    @Override
+    public String getRegistrosPorParticao() {
+        Map<String, String> ordenado = new TreeMap<String, String>();
+        for (Map.Entry<String, ContagemTopico> topico : topicos.entrySet()) {
+            ordenado.put(topico.getKey(), Arrays.toString(topico.getValue().atual()));
+        }
+        return ordenado.toString();
+    }
+
+    private ContagemTopico contagem(String topico, int numeroParticoes) {
+        ContagemTopico contagem = topicos.get(topico);
+        if (contagem == null || contagem.tamanho() < numeroParticoes) {
+            // Primeiro registro do tópico, ou o tópico ganhou partições: a contagem recomeça com o novo tamanho
+            contagem = new ContagemTopico(numeroParticoes);
+            topicos.put(topico, contagem);
+        }
+        return contagem;
+    }
+
+    // Maior contagem dividida pela média; 0 sem registros
+    static double desbalanceamento(long[] contagens) {
+        long total = 0;
+        long maximo = 0;
+        for (long contagem : contagens) {
+            total += contagem;
+            maximo = Math.max(maximo, contagem);
+        }
+        return total == 0 ? 0 : (double) maximo * contagens.length / total;
+    }
+
+    private static final class ContagemTopico {
+
+        private final AtomicLongArray porParticao;
+        // Só a thread do relatório usa
+        private long[] anterior;
+
+        ContagemTopico(int numeroParticoes) {
+            this.porParticao = new AtomicLongArray(numeroParticoes);
+            this.anterior = new long[numeroParticoes];
+        }
+
+        int tamanho() {
+            return porParticao.length();
+        }
+
+        void registrar(int particao) {
+            porParticao.incrementAndGet(particao);
+        }
+
+        long[] atual() {
+            long[] contagens = new long[porParticao.length()];
+            for (int i = 0; i < contagens.length; i++) {
+                contagens[i] = porParticao.get(i);
+            }
+            return contagens;
+        }
+
+        void relatarIntervalo(StringBuilder sb) {
+            long[] atual = atual();
+            long[] intervalo = new long[atual.length];
+            int maisCheia = 0;
+            for (int i = 0; i < atual.length; i++) {
+                intervalo[i] = atual[i] - anterior[i];
+                if (intervalo[i] > intervalo[maisCheia]) {
+                    maisCheia = i;
+                }
+            }
+            sb.append(String.format(Locale.ROOT, "desbalanceamento=%.2f (partição %d)",
+                    desbalanceamento(intervalo), maisCheia));
+            anterior = atual;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasParticionamento no JMX; contadores desde o início
+public interface MetricasParticionamentoMBean {
+
+    long getRegistros();
+
+    long getRegistrosChavesQuentes();
+
+    long getRegistrosEspalhados();
+
+    long getRegistrosSemChave();
+
+    long getChavesQuentesDetectadas();
+
+    double getDesbalanceamentoMaximo();
+
+    String getRegistrosPorParticao();
+}
@@ -0,0 +1,134 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Métricas do lado do Produtor
+ *      -> latência do send() até a confirmação do broker (onCompletion), em um Histograma
+ *      -> registros e bytes confirmados, e envios com erro
+ * O registro é feito na thread de I/O do Produtor, que executa os callbacks, usando apenas contadores atômicos.
+ */
+public class MetricasProdutor implements MetricasProdutorMBean, FonteMetricas {
+
+    private final String nome;
+    private final Histograma envioAteConfirmacao = new Histograma();
+    private final LongAdder registros = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder erros = new LongAdder();
+
+    // Estado do último relatório, usado só pela thread do relatório
+    private Instantaneo latenciaAnterior = envioAteConfirmacao.instantaneo();
+    private long registrosAnterior;
+    private long bytesAnterior;
+    private long errosAnterior;
+
+    public MetricasProdutor(String nome) {
+        this.nome = nome;
+    }
+
+    /* Envolve o callback de um envio, medindo a partir deste momento
+     * Deve ser chamado logo antes do send()
+     */
+    public Callback medir(Callback callback) {
+        return new CallbackMedido(System.nanoTime(), callback);
+    }
+
+    public void registrarConclusao(long inicioNanos, RecordMetadata metadata, Exception e) {
+        envioAteConfirmacao.registrar(System.nanoTime() - inicioNanos);
+        if (e != null) {
+            erros.increment();
+            return;
+        }
+        registros.increment();
+        if (metadata != null) {
+            bytes.add(Math.max(0, metadata.serializedKeySize()) + Math.max(0, metadata.serializedValueSize()));
+        }
+    }
+
+    public Histograma getEnvioAteConfirmacao() {
+        return envioAteConfirmacao;
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public void relatarIntervalo(StringBuilder sb, double segundos) {
+        Instantaneo latencia = envioAteConfirmacao.instantaneo();
+        long registrosAtual = registros.sum();
+        long bytesAtual = bytes.sum();
+        long errosAtual = erros.sum();
+
+        sb.append(nome).append(": ");
+        Formatacao.taxa(sb, registrosAtual - registrosAnterior, bytesAtual - bytesAnterior, segundos);
+        sb.append(", erros=").append(errosAtual - errosAnterior).append(", ");
+        Formatacao.latencia(sb, "envio->confirmação", latencia.menos(latenciaAnterior));
+
+        latenciaAnterior = latencia;
+        registrosAnterior = registrosAtual;
+        bytesAnterior = bytesAtual;
+        errosAnterior = errosAtual;
+    }
+
+    @Override
+    public long getRegistros() {
+        return registros.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getErros() {
+        return erros.sum();
+    }
+
+    @Override
+    public double getLatenciaEnvioP50Ms() {
+        return Formatacao.ms(envioAteConfirmacao.instantaneo().percentil(50));
+    }
+
+    @Override
+    public double getLatenciaEnvioP99Ms() {
+        return Formatacao.ms(envioAteConfirmacao.instantaneo().percentil(99));
+    }
+
+    @Override
+    public double getLatenciaEnvioP999Ms() {
+        return Formatacao.ms(envioAteConfirmacao.instantaneo().percentil(99.9));
+    }
+
+    @Override
+    public double getLatenciaEnvioMaximaMs() {
+        return Formatacao.ms(envioAteConfirmacao.instantaneo().getMaximo());
+    }
+
+    @Override
+    public void zerarHistogramas() {
+        envioAteConfirmacao.zerar();
+    }
+
+    private class CallbackMedido implements Callback {
+
+        private final long inicioNanos;
+        private final Callback callback;
+
+        CallbackMedido(long inicioNanos, Callback callback) {
+            this.inicioNanos = inicioNanos;
+            this.callback = callback;
+        }
+
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            registrarConclusao(inicioNanos, recordMetadata, e);
+            if (callback != null) {
+                callback.onCompletion(recordMetadata, e);
+            }
+        }
+    }
+}
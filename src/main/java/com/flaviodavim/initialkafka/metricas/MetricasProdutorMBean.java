@@ -0,0 +1,21 @@
+package com.flaviodavim.initialkafka.metricas;
+
+// Atributos do MetricasProdutor no JMX; contadores e percentis desde o início ou desde o último zerarHistogramas()
+public interface MetricasProdutorMBean {
+
+    long getRegistros();
+
+    long getBytes();
+
+    long getErros();
+
+    double getLatenciaEnvioP50Ms();
+
+    double getLatenciaEnvioP99Ms();
+
+    double getLatenciaEnvioP999Ms();
+
+    double getLatenciaEnvioMaximaMs();
+
+    void zerarHistogramas();
+}
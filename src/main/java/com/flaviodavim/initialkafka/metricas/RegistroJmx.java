@@ -0,0 +1,80 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/* Publica as métricas no MBeanServer da JVM
+ * Aparecem no jconsole/VisualVM em com.flaviodavim.initialkafka, com o tipo e o nome de cada fonte.
+ * Falhas no JMX são apenas escritas no log: as métricas continuam funcionando pelo RelatorioMetricas.
+ */
+public final class RegistroJmx {
+
+    public static final String DOMINIO = "com.flaviodavim.initialkafka";
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistroJmx.class);
+
+    private RegistroJmx() {}
+
+    public static ObjectName registrar(Object mbean, String tipo, String nome) {
+        try {
+            ObjectName objeto = nomeObjeto(tipo, nome);
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            try {
+                servidor.registerMBean(mbean, objeto);
+            } catch (InstanceAlreadyExistsException e) {
+                // Uma instância antiga com o mesmo nome é substituída
+                servidor.unregisterMBean(objeto);
+                servidor.registerMBean(mbean, objeto);
+            }
+            return objeto;
+        } catch (JMException e) {
+            logger.warn("Não foi possível registrar " + tipo + " " + nome + " no JMX", e);
+            return null;
+        }
+    }
+
+    /* Registra sem substituir ninguém: se o nome já está em uso, tenta nome-2, nome-3 e assim por diante
+     * Para fontes que podem existir ao mesmo tempo com o mesmo nome, cada uma removida depois pelo ObjectName devolvido
+     */
+    public static ObjectName registrarUnico(Object mbean, String tipo, String nome) {
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (int i = 1; ; i++) {
+                ObjectName objeto = nomeObjeto(tipo, i == 1 ? nome : nome + "-" + i);
+                try {
+                    servidor.registerMBean(mbean, objeto);
+                    return objeto;
+                } catch (InstanceAlreadyExistsException e) {
+                    // O registerMBean é atômico, então duas threads nunca ficam com o mesmo nome
+                }
+            }
+        } catch (JMException e) {
+            logger.warn("Não foi possível registrar " + tipo + " " + nome + " no JMX", e);
+            return null;
+        }
+    }
+
+    public static void remover(ObjectName objeto) {
+        if (objeto == null) {
+            return;
+        }
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            if (servidor.isRegistered(objeto)) {
+                servidor.unregisterMBean(objeto);
+            }
+        } catch (JMException e) {
+            logger.warn("Não foi possível remover " + objeto + " do JMX", e);
+        }
+    }
+
+    static ObjectName nomeObjeto(String tipo, String nome) throws JMException {
+        return new ObjectName(DOMINIO + ":type=" + tipo + ",name=" + nome.replaceAll("[,=:*?\"\\s]", "_"));
+    }
+}
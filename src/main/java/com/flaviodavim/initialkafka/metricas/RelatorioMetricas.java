@@ -0,0 +1,90 @@
+package com.flaviodavim.initialkafka.metricas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/* Escreve no log, a cada período, uma linha por fonte com o que aconteceu no intervalo
+ *
+ * Roda em uma única thread daemon, que é a única a chamar relatarIntervalo.
+ * O custo fica todo nessa thread: copiar os histogramas e formatar a linha.
+ * As threads que registram as métricas não percebem o relatório.
+ * Ao fechar, um último relatório cobre o intervalo final.
+ */
+public class RelatorioMetricas implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(RelatorioMetricas.class);
+
+    private final List<FonteMetricas> fontes = new CopyOnWriteArrayList<FonteMetricas>();
+    private final long periodoMs;
+    private ScheduledExecutorService agendador;
+    private long ultimoRelatorio;
+
+    public RelatorioMetricas(long periodoMs) {
+        if (periodoMs <= 0) {
+            throw new IllegalArgumentException("periodoMs deve ser maior que zero: " + periodoMs);
+        }
+        this.periodoMs = periodoMs;
+    }
+
+    public RelatorioMetricas adicionar(FonteMetricas fonte) {
+        fontes.add(fonte);
+        return this;
+    }
+
+    public void remover(FonteMetricas fonte) {
+        fontes.remove(fonte);
+    }
+
+    public synchronized void iniciar() {
+        if (agendador != null) {
+            return;
+        }
+        ultimoRelatorio = System.nanoTime();
+        agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "relatorio-metricas");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador.scheduleAtFixedRate(this::relatar, periodoMs, periodoMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (agendador == null) {
+            return;
+        }
+        agendador.shutdown();
+        try {
+            agendador.awaitTermination(periodoMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        relatar();
+        agendador = null;
+    }
+
+    private void relatar() {
+        long agora = System.nanoTime();
+        double segundos = (agora - ultimoRelatorio) / 1e9;
+        ultimoRelatorio = agora;
+
+        StringBuilder sb = new StringBuilder(256);
+        for (FonteMetricas fonte : fontes) {
+            sb.setLength(0);
+            try {
+                fonte.relatarIntervalo(sb, segundos);
+                logger.info(sb.toString());
+            } catch (RuntimeException e) {
+                // Uma exceção aqui cancelaria o agendamento
+                logger.error("Erro no relatório de " + fonte.getNome(), e);
+            }
+        }
+    }
+}
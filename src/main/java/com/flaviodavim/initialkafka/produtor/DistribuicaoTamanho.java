@@ -0,0 +1,87 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import java.util.SplittableRandom;
+
+/* Distribuição do tamanho dos valores gerados pelo GeradorCarga, em bytes
+ *      -> fixa: todos os valores com o mesmo tamanho
+ *      -> uniforme: qualquer tamanho entre o mínimo e o máximo, com a mesma chance
+ *      -> exponencial: a maioria perto do mínimo e alguns bem maiores, com a média informada, cortados no máximo;
+ *         é o formato comum de eventos reais (muitas mensagens pequenas e uma cauda de grandes)
+ */
+public final class DistribuicaoTamanho {
+
+    private enum Tipo { FIXA, UNIFORME, EXPONENCIAL }
+
+    private final Tipo tipo;
+    private final int minimo;
+    private final int maximo;
+    private final double media;
+
+    private DistribuicaoTamanho(Tipo tipo, int minimo, int maximo, double media) {
+        if (minimo < 0 || maximo < minimo) {
+            throw new IllegalArgumentException("Tamanhos inválidos: mínimo " + minimo + ", máximo " + maximo);
+        }
+        this.tipo = tipo;
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.media = media;
+    }
+
+    public static DistribuicaoTamanho fixa(int tamanho) {
+        return new DistribuicaoTamanho(Tipo.FIXA, tamanho, tamanho, tamanho);
+    }
+
+    public static DistribuicaoTamanho uniforme(int minimo, int maximo) {
+        return new DistribuicaoTamanho(Tipo.UNIFORME, minimo, maximo, (minimo + maximo) / 2.0);
+    }
+
+    public static DistribuicaoTamanho exponencial(int minimo, int media, int maximo) {
+        if (media <= minimo) {
+            throw new IllegalArgumentException("A média (" + media + ") deve ser maior que o mínimo (" + minimo + ")");
+        }
+        return new DistribuicaoTamanho(Tipo.EXPONENCIAL, minimo, maximo, media);
+    }
+
+    // Nome como na configuração: fixa, uniforme ou exponencial; a média só é usada pela exponencial
+    public static DistribuicaoTamanho deNome(String nome, int minimo, int media, int maximo) {
+        switch (nome.trim().toLowerCase()) {
+            case "fixa":
+                return fixa(media);
+            case "uniforme":
+                return uniforme(minimo, maximo);
+            case "exponencial":
+                return exponencial(minimo, media, maximo);
+            default:
+                throw new IllegalArgumentException("Distribuição de tamanho desconhecida: " + nome
+                        + " (use fixa, uniforme ou exponencial)");
+        }
+    }
+
+    public int sortear(SplittableRandom aleatorio) {
+        switch (tipo) {
+            case UNIFORME:
+                return minimo + aleatorio.nextInt(maximo - minimo + 1);
+            case EXPONENCIAL:
+                double excedente = -Math.log(1 - aleatorio.nextDouble()) * (media - minimo);
+                return (int) Math.min(maximo, minimo + excedente);
+            default:
+                return minimo;
+        }
+    }
+
+    public int getMaximo() {
+        return maximo;
+    }
+
+    @Override
+    public String toString() {
+        switch (tipo) {
+            case UNIFORME:
+                return "uniforme de " + minimo + " a " + maximo + " bytes";
+            case EXPONENCIAL:
+                return "exponencial de " + minimo + " a " + maximo + " bytes, média " + (int) media;
+            default:
+                return "fixa de " + minimo + " bytes";
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/* Gera registros para testes de carga, pelo ProdutorAssincrono
+ *
+ * Configurável pelos setters:
+ *      -> numeroChaves: chaves sorteadas entre 0 e numeroChaves - 1; zero envia os registros sem chave
+ *      -> tamanhos: a DistribuicaoTamanho dos valores
+ *      -> registrosPorSegundo: a taxa alvo; zero envia o mais rápido que o Produtor aceitar
+ *      -> totalRegistros: quantos registros enviar antes de terminar o run()
+ * ou pelas chaves carga.* da configuração, com configurado().
+ *
+ * Com taxa alvo, cada registro tem um momento programado (início + i / taxa) e o gerador espera até ele.
+ * Os primeiros 8 bytes do valor são esse momento, em System.nanoTime(), e não o momento real do envio:
+ * se o Produtor atrasar (janela cheia, broker lento), o atraso aparece na latência medida pelo Consumidor
+ * em vez de sumir porque o gerador também atrasou. Como é um nanoTime, a latência só pode ser calculada
+ * na mesma JVM (ver lerMomentoProgramado()); entre máquinas, use o timestamp do registro.
+ */
+public class GeradorCarga implements Runnable {
+
+    // O valor precisa ter espaço para o momento programado
+    public static final int TAMANHO_MINIMO = 8;
+
+    private final ProdutorAssincrono<Long, ByteBuffer> produtor;
+    private final String topico;
+
+    private int numeroChaves = 1000;
+    private DistribuicaoTamanho tamanhos = DistribuicaoTamanho.fixa(100);
+    private double registrosPorSegundo;
+    private long totalRegistros = Long.MAX_VALUE;
+    private long semente = System.nanoTime();
+
+    private final LongAdder enviados = new LongAdder();
+    private final LongAdder bytesEnviados = new LongAdder();
+    private volatile boolean encerrado;
+
+    public GeradorCarga(ProdutorAssincrono<Long, ByteBuffer> produtor, String topico) {
+        this.produtor = produtor;
+        this.topico = topico;
+    }
+
+    // Tópico, chaves, tamanhos, taxa e total pelas chaves carga.* (ver kafka.properties)
+    public static GeradorCarga configurado(ConfiguracaoKafka configuracao, ProdutorAssincrono<Long, ByteBuffer> produtor) {
+        GeradorCarga gerador = new GeradorCarga(produtor, configuracao.get("carga.topico", "carga_topic"));
+        gerador.setNumeroChaves(configuracao.getInt("carga.chaves", 1000));
+        gerador.setTamanhos(DistribuicaoTamanho.deNome(configuracao.get("carga.tamanho.distribuicao", "fixa"),
+                configuracao.getInt("carga.tamanho.minimo", TAMANHO_MINIMO),
+                configuracao.getInt("carga.tamanho.medio", 100),
+                configuracao.getInt("carga.tamanho.maximo", 1000)));
+        gerador.setRegistrosPorSegundo(configuracao.getInt("carga.taxa", 1000));
+        gerador.setTotalRegistros(configuracao.getLong("carga.registros", 100000L));
+        return gerador;
+    }
+
+    public String getTopico() {
+        return topico;
+    }
+
+    public void setNumeroChaves(int numeroChaves) {
+        this.numeroChaves = numeroChaves;
+    }
+
+    public void setTamanhos(DistribuicaoTamanho tamanhos) {
+        this.tamanhos = tamanhos;
+    }
+
+    public void setRegistrosPorSegundo(double registrosPorSegundo) {
+        this.registrosPorSegundo = registrosPorSegundo;
+    }
+
+    public void setTotalRegistros(long totalRegistros) {
+        this.totalRegistros = totalRegistros;
+    }
+
+    // Com a mesma semente, a sequência de chaves e tamanhos se repete entre execuções
+    public void setSemente(long semente) {
+        this.semente = semente;
+    }
+
+    @Override
+    public void run() {
+        SplittableRandom aleatorio = new SplittableRandom(semente);
+        // Os bytes depois do momento programado são sempre os mesmos; só o tamanho muda
+        byte[] preenchimento = new byte[Math.max(TAMANHO_MINIMO, tamanhos.getMaximo())];
+        // O SplittableRandom só tem nextBytes() a partir do Java 17
+        new Random(semente).nextBytes(preenchimento);
+        long intervaloNanos = registrosPorSegundo > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / registrosPorSegundo) : 0;
+        long inicio = System.nanoTime();
+
+        try {
+            for (long i = 0; i < totalRegistros && !encerrado; i++) {
+                long programado = System.nanoTime();
+                if (intervaloNanos > 0) {
+                    programado = inicio + i * intervaloNanos;
+                    long espera;
+                    while ((espera = programado - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(espera);
+                    }
+                }
+
+                int tamanho = Math.max(TAMANHO_MINIMO, tamanhos.sortear(aleatorio));
+                // Um array por registro: o Produtor guarda o valor até serializá-lo, e o lote guarda os bytes até o envio
+                byte[] valor = new byte[tamanho];
+                System.arraycopy(preenchimento, 0, valor, 0, tamanho);
+                ByteBuffer.wrap(valor).putLong(0, programado);
+                Long chave = numeroChaves > 0 ? (long) aleatorio.nextInt(numeroChaves) : null;
+
+                produtor.enviar(new ProducerRecord<Long, ByteBuffer>(topico, chave, ByteBuffer.wrap(valor)));
+                enviados.increment();
+                bytesEnviados.add(tamanho);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Pode ser chamado de outra thread
+    public void encerrar() {
+        encerrado = true;
+    }
+
+    // Momento programado do envio, em System.nanoTime(), de um valor gerado por este gerador
+    public static long lerMomentoProgramado(ByteBuffer valor) {
+        return valor.getLong(valor.position());
+    }
+
+    public long getEnviados() {
+        return enviados.sum();
+    }
+
+    public long getBytesEnviados() {
+        return bytesEnviados.sum();
+    }
+}
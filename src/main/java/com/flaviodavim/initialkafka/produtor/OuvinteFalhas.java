@@ -0,0 +1,11 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+/* Recebe os registros que não puderam ser enviados
+ * É chamado na thread de I/O do Produtor, então não deve bloquear
+ */
+public interface OuvinteFalhas<K, V> {
+
+    void aoFalhar(ProducerRecord<K, V> registro, Exception e);
+}
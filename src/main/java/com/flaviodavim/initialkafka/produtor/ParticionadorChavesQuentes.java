@@ -0,0 +1,247 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.metricas.MetricasParticionamento;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Particionador que percebe chaves quentes
+ *
+ * Registros com chave vão para a mesma partição do DefaultPartitioner (murmur2 da chave), mantendo a ordem por chave.
+ * A frequência de cada chave é estimada por um count-min sketch (SketchContagem), sem guardar as chaves:
+ * uma chave é quente quando aparece em mais de particionador.quente.fracao dos registros recentes
+ * (e pelo menos particionador.quente.minimo vezes). Cada chave quente nova é escrita no log e contada nas métricas.
+ *
+ * Uma chave quente sobrecarrega uma partição e o Consumidor dela. Para aliviar, chaves podem ser espalhadas
+ * em rodízio por particionador.espalhar.particoes partições a partir da partição original:
+ *      -> particionador.espalhar.chaves: lista de chaves escolhidas (comparadas pelo toString da chave)
+ *      -> particionador.espalhar.quentes=true: também as chaves detectadas como quentes
+ * Uma chave espalhada perde a ordem entre os seus registros, então só vale para chaves em que a ordem não importa.
+ *
+ * Registros sem chave ficam grudados (sticky) em uma partição até juntarem batch.size bytes, e só então trocam.
+ * No Kafka 2.0 o DefaultPartitioner faz rodízio registro a registro, o que espalha os registros por vários lotes
+ * pequenos; grudando, o Produtor enche um lote por vez. Com particionador.sticky=false o rodízio volta.
+ *
+ * O Produtor cria o particionador pela classe (partitioner.class); as opções acima vêm das propriedades do Produtor,
+ * então no kafka.properties elas levam o prefixo producer. (ex: producer.particionador.espalhar.chaves=7).
+ * O partition() é chamado no send(), por qualquer thread da aplicação, e não aloca nada no caminho normal.
+ */
+public class ParticionadorChavesQuentes implements Partitioner {
+
+    public static final String CONFIG_METRICAS = "particionador.metricas";
+    public static final String CONFIG_QUENTE_FRACAO = "particionador.quente.fracao";
+    public static final String CONFIG_QUENTE_MINIMO = "particionador.quente.minimo";
+    public static final String CONFIG_JANELA = "particionador.janela";
+    public static final String CONFIG_SKETCH_LARGURA = "particionador.sketch.largura";
+    public static final String CONFIG_ESPALHAR_CHAVES = "particionador.espalhar.chaves";
+    public static final String CONFIG_ESPALHAR_QUENTES = "particionador.espalhar.quentes";
+    public static final String CONFIG_ESPALHAR_PARTICOES = "particionador.espalhar.particoes";
+    public static final String CONFIG_STICKY = "particionador.sticky";
+
+    // Chaves quentes lembradas para não serem anunciadas de novo; depois disso as novas só entram nas contagens
+    private static final int CAPACIDADE_QUENTES = 128;
+    // Cabeçalho aproximado de um registro dentro do lote, para registros vazios também trocarem de partição
+    private static final int SOBRECARGA_REGISTRO = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(ParticionadorChavesQuentes.class);
+
+    private SketchContagem sketch;
+    private double fracaoQuente;
+    private int minimoQuente;
+    private Set<String> chavesEspalhadas;
+    private boolean espalharQuentes;
+    private int particoesEspalhar;
+    private boolean sticky;
+    private int bytesLote;
+    private MetricasParticionamento metricas;
+
+    private final AtomicIntegerArray quentesConhecidas = new AtomicIntegerArray(CAPACIDADE_QUENTES);
+    private final AtomicInteger rodizioEspalhados = new AtomicInteger();
+    private final Map<String, EstadoSemChave> semChave = new ConcurrentHashMap<String, EstadoSemChave>();
+
+    /* Usa este particionador no Produtor
+     * As métricas são passadas como objeto nas propriedades e podem ser null
+     */
+    public static Properties configurar(Properties propriedades, MetricasParticionamento metricas) {
+        propriedades.setProperty(ProducerConfig.PARTITIONER_CLASS_CONFIG, ParticionadorChavesQuentes.class.getName());
+        if (metricas != null) {
+            propriedades.put(CONFIG_METRICAS, metricas);
+        }
+        return propriedades;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        fracaoQuente = Double.parseDouble(ler(configs, CONFIG_QUENTE_FRACAO, "0.01"));
+        minimoQuente = Integer.parseInt(ler(configs, CONFIG_QUENTE_MINIMO, "1000"));
+        sketch = new SketchContagem(Integer.parseInt(ler(configs, CONFIG_SKETCH_LARGURA, "2048")),
+                Long.parseLong(ler(configs, CONFIG_JANELA, "100000")));
+        espalharQuentes = Boolean.parseBoolean(ler(configs, CONFIG_ESPALHAR_QUENTES, "false"));
+        particoesEspalhar = Integer.parseInt(ler(configs, CONFIG_ESPALHAR_PARTICOES, "4"));
+        if (particoesEspalhar <= 0) {
+            throw new IllegalArgumentException(CONFIG_ESPALHAR_PARTICOES + " deve ser maior que zero: " + particoesEspalhar);
+        }
+        sticky = Boolean.parseBoolean(ler(configs, CONFIG_STICKY, "true"));
+        bytesLote = Math.max(1, Integer.parseInt(ler(configs, ProducerConfig.BATCH_SIZE_CONFIG, "16384")));
+
+        Set<String> chaves = new HashSet<String>();
+        for (String chave : ler(configs, CONFIG_ESPALHAR_CHAVES, "").split(",")) {
+            if (!chave.trim().isEmpty()) {
+                chaves.add(chave.trim());
+            }
+        }
+        chavesEspalhadas = Collections.unmodifiableSet(chaves);
+
+        Object objetoMetricas = configs.get(CONFIG_METRICAS);
+        if (objetoMetricas instanceof MetricasParticionamento) {
+            metricas = (MetricasParticionamento) objetoMetricas;
+        }
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        List<PartitionInfo> particoes = cluster.partitionsForTopic(topic);
+        int numeroParticoes = particoes.size();
+        if (keyBytes == null) {
+            int particao = sticky ? particaoGrudada(topic, valueBytes, cluster, numeroParticoes)
+                    : particaoRodizio(topic, cluster, numeroParticoes);
+            if (metricas != null) {
+                metricas.registrar(topic, particao, numeroParticoes, false, false, true);
+            }
+            return particao;
+        }
+
+        int hash = Utils.murmur2(keyBytes);
+        int particao = Utils.toPositive(hash) % numeroParticoes;
+
+        // O tópico entra no hash do sketch para a mesma chave em tópicos diferentes ser contada separadamente
+        int hashSketch = hash ^ (topic.hashCode() * 0x9E3779B9);
+        int estimativa = sketch.incrementar(hashSketch);
+        boolean quente = estimativa >= minimoQuente && estimativa >= fracaoQuente * sketch.getRegistrosJanela();
+        if (quente) {
+            anunciarQuente(hashSketch, topic, key, estimativa);
+        }
+
+        boolean espalhar = numeroParticoes > 1 && ((quente && espalharQuentes)
+                // Para chaves que não são String o toString aloca, mas só quando há chaves escolhidas
+                || (!chavesEspalhadas.isEmpty() && chavesEspalhadas.contains(String.valueOf(key))));
+        if (espalhar) {
+            int largura = Math.min(particoesEspalhar, numeroParticoes);
+            particao = (particao + Utils.toPositive(rodizioEspalhados.getAndIncrement()) % largura) % numeroParticoes;
+        }
+        if (metricas != null) {
+            metricas.registrar(topic, particao, numeroParticoes, quente, espalhar, false);
+        }
+        return particao;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /* Mantém a partição atual do tópico até ela juntar bytesLote bytes
+     * Corridas entre threads só fazem uma partição receber um pouco mais ou menos que um lote.
+     */
+    private int particaoGrudada(String topico, byte[] valor, Cluster cluster, int numeroParticoes) {
+        EstadoSemChave estado = semChave.get(topico);
+        if (estado == null) {
+            semChave.putIfAbsent(topico, new EstadoSemChave());
+            estado = semChave.get(topico);
+        }
+        int tamanho = (valor == null ? 0 : valor.length) + SOBRECARGA_REGISTRO;
+        int particao = estado.particao;
+        if (particao >= 0 && particao < numeroParticoes && estado.bytes.addAndGet(tamanho) <= bytesLote) {
+            return particao;
+        }
+        synchronized (estado) {
+            if (estado.particao == particao) {
+                estado.particao = novaParticao(topico, cluster, numeroParticoes, particao);
+                estado.bytes.set(tamanho);
+            }
+            return estado.particao;
+        }
+    }
+
+    // Sorteia uma partição disponível diferente da atual (qualquer partição, se nenhuma estiver disponível)
+    private static int novaParticao(String topico, Cluster cluster, int numeroParticoes, int atual) {
+        List<PartitionInfo> disponiveis = cluster.availablePartitionsForTopic(topico);
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        if (disponiveis.isEmpty()) {
+            return aleatorio.nextInt(numeroParticoes);
+        }
+        if (disponiveis.size() == 1) {
+            return disponiveis.get(0).partition();
+        }
+        int nova;
+        do {
+            nova = disponiveis.get(aleatorio.nextInt(disponiveis.size())).partition();
+        } while (nova == atual);
+        return nova;
+    }
+
+    // O mesmo rodízio do DefaultPartitioner do Kafka 2.0
+    private int particaoRodizio(String topico, Cluster cluster, int numeroParticoes) {
+        EstadoSemChave estado = semChave.get(topico);
+        if (estado == null) {
+            semChave.putIfAbsent(topico, new EstadoSemChave());
+            estado = semChave.get(topico);
+        }
+        int proximo = Utils.toPositive(estado.rodizio.getAndIncrement());
+        List<PartitionInfo> disponiveis = cluster.availablePartitionsForTopic(topico);
+        if (disponiveis.isEmpty()) {
+            return proximo % numeroParticoes;
+        }
+        return disponiveis.get(proximo % disponiveis.size()).partition();
+    }
+
+    // Anuncia cada chave quente uma única vez, guardando o hash dela em uma tabela de endereçamento aberto
+    private void anunciarQuente(int hash, String topico, Object chave, int estimativa) {
+        int valor = hash == 0 ? 1 : hash;
+        for (int i = 0; i < CAPACIDADE_QUENTES; i++) {
+            int indice = (valor + i) & (CAPACIDADE_QUENTES - 1);
+            int atual = quentesConhecidas.get(indice);
+            if (atual == valor) {
+                return;
+            }
+            if (atual == 0) {
+                if (quentesConhecidas.compareAndSet(indice, 0, valor)) {
+                    logger.info("Chave quente no tópico " + topico + ": " + chave + " (~" + estimativa + " dos últimos "
+                            + sketch.getRegistrosJanela() + " registros)");
+                    if (metricas != null) {
+                        metricas.registrarChaveQuente();
+                    }
+                    return;
+                }
+                if (quentesConhecidas.get(indice) == valor) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String ler(Map<String, ?> configs, String chave, String padrao) {
+        Object valor = configs.get(chave);
+        return valor == null ? padrao : valor.toString().trim();
+    }
+
+    private static final class EstadoSemChave {
+        volatile int particao = -1;
+        final AtomicInteger bytes = new AtomicInteger();
+        final AtomicInteger rodizio = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+    }
+}
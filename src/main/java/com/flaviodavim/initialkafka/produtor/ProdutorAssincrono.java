@@ -0,0 +1,181 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Motor de envio assíncrono com uma janela limitada de registros em voo
+ *
+ * Em vez de bloquear cada send() com get(), o que gera uma ida e volta ao broker por mensagem,
+ * o produtor mantém até maxEmVoo envios pendentes ao mesmo tempo.
+ * Cada envio ocupa uma permissão do semáforo, que é devolvida quando o Callback é executado.
+ * O chamador só é bloqueado quando a janela está cheia, o que serve de contrapressão.
+ *
+ * Recebe a interface Producer e não a KafkaProducer, então pode ser usado com o MockProducer do Kafka.
+ */
+public class ProdutorAssincrono<K, V> implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(ProdutorAssincrono.class);
+
+    private final Producer<K, V> produtor;
+    private final int maxEmVoo;
+    private final Semaphore janela;
+    private final OuvinteFalhas<K, V> ouvinteFalhas;
+
+    private volatile MetricasProdutor metricas;
+
+    private final AtomicLong enviados = new AtomicLong();
+    private final AtomicLong confirmados = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+
+    public ProdutorAssincrono(Producer<K, V> produtor, int maxEmVoo) {
+        this(produtor, maxEmVoo, null);
+    }
+
+    public ProdutorAssincrono(Producer<K, V> produtor, int maxEmVoo, OuvinteFalhas<K, V> ouvinteFalhas) {
+        if (maxEmVoo <= 0) {
+            throw new IllegalArgumentException("maxEmVoo deve ser maior que zero: " + maxEmVoo);
+        }
+        this.produtor = produtor;
+        this.maxEmVoo = maxEmVoo;
+        this.janela = new Semaphore(maxEmVoo);
+        this.ouvinteFalhas = ouvinteFalhas != null ? ouvinteFalhas : new OuvinteFalhas<K, V>() {
+            public void aoFalhar(ProducerRecord<K, V> registro, Exception e) {
+                logger.error("Erro durante a produção", e);
+            }
+        };
+    }
+
+    /* Configura o Produtor para manter a ordem dos registros por partição mesmo com vários envios em voo
+     * Sem idempotência, uma nova tentativa pode ultrapassar um lote enviado depois dela
+     * Com enable.idempotence o broker descarta duplicados e mantém a ordem com até 5 requisições em voo por conexão
+     */
+    public static Properties configurarOrdenacao(Properties propriedades) {
+        propriedades.setProperty(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        propriedades.setProperty(ProducerConfig.ACKS_CONFIG, "all");
+        propriedades.setProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5");
+        return propriedades;
+    }
+
+    // Opcional; mede o tempo de cada envio até a confirmação, além dos registros e bytes confirmados
+    public void setMetricas(MetricasProdutor metricas) {
+        this.metricas = metricas;
+    }
+
+    public Future<RecordMetadata> enviar(ProducerRecord<K, V> registro) throws InterruptedException {
+        return enviar(registro, null);
+    }
+
+    /* Envia o registro sem esperar a confirmação do broker
+     * Bloqueia apenas enquanto a janela estiver cheia
+     * O callback, se informado, é executado antes da permissão ser devolvida
+     */
+    public Future<RecordMetadata> enviar(ProducerRecord<K, V> registro, Callback callback) throws InterruptedException {
+        janela.acquire();
+        enviados.incrementAndGet();
+        try {
+            return produtor.send(registro, new CallbackJanela(registro, callback, metricas, System.nanoTime()));
+        } catch (RuntimeException e) {
+            // Erros de serialização ou de configuração são lançados direto pelo send(), sem passar pelo Callback
+            janela.release();
+            registrarFalha(registro, e);
+            throw e;
+        }
+    }
+
+    /* Aguarda todos os envios em voo serem confirmados ou falharem
+     * O flush força o envio dos lotes que ainda estão esperando o linger.ms
+     */
+    public void aguardarConclusao() throws InterruptedException {
+        produtor.flush();
+        janela.acquire(maxEmVoo);
+        janela.release(maxEmVoo);
+    }
+
+    public boolean aguardarConclusao(long tempo, TimeUnit unidade) throws InterruptedException {
+        produtor.flush();
+        if (!janela.tryAcquire(maxEmVoo, tempo, unidade)) {
+            return false;
+        }
+        janela.release(maxEmVoo);
+        return true;
+    }
+
+    public int getEmVoo() {
+        return maxEmVoo - janela.availablePermits();
+    }
+
+    public long getEnviados() {
+        return enviados.get();
+    }
+
+    public long getConfirmados() {
+        return confirmados.get();
+    }
+
+    public long getFalhas() {
+        return falhas.get();
+    }
+
+    @Override
+    public void close() {
+        produtor.close();
+    }
+
+    private void registrarFalha(ProducerRecord<K, V> registro, Exception e) {
+        falhas.incrementAndGet();
+        try {
+            ouvinteFalhas.aoFalhar(registro, e);
+        } catch (RuntimeException erroOuvinte) {
+            logger.error("Erro no ouvinte de falhas", erroOuvinte);
+        }
+    }
+
+    /* Recebe a conclusão de cada envio
+     * O Kafka executa os callbacks de uma mesma partição na ordem em que os registros foram enviados
+     */
+    private class CallbackJanela implements Callback {
+
+        private final ProducerRecord<K, V> registro;
+        private final Callback callback;
+        private final MetricasProdutor metricas;
+        private final long inicioNanos;
+
+        CallbackJanela(ProducerRecord<K, V> registro, Callback callback, MetricasProdutor metricas, long inicioNanos) {
+            this.registro = registro;
+            this.callback = callback;
+            this.metricas = metricas;
+            this.inicioNanos = inicioNanos;
+        }
+
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            try {
+                if (metricas != null) {
+                    metricas.registrarConclusao(inicioNanos, recordMetadata, e);
+                }
+                if (e == null) {
+                    confirmados.incrementAndGet();
+                } else {
+                    registrarFalha(registro, e);
+                }
+                if (callback != null) {
+                    callback.onCompletion(recordMetadata, e);
+                }
+            } finally {
+                janela.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Uma referência ao Produtor de um perfil do RegistroProdutores, entregue por adquirir()
+ *
+ * Os envios vão direto para o Produtor compartilhado, sem nenhuma trava do registro, e cada um é medido
+ * nas métricas deste chamador. O close() devolve a referência: o Produtor só é fechado pela última delas.
+ * Cada thread deve ter a sua, mas uma mesma referência também pode ser usada por várias threads.
+ */
+public class ProdutorCompartilhado<K, V> implements Closeable {
+
+    private final RegistroProdutores<K, V> registro;
+    private final Producer<K, V> produtor;
+    private final String perfil;
+    private final String chamador;
+    private final MetricasProdutor metricas;
+    private final ObjectName objetoJmx;
+    private final AtomicBoolean fechado = new AtomicBoolean();
+
+    ProdutorCompartilhado(RegistroProdutores<K, V> registro, Producer<K, V> produtor, String perfil, String chamador,
+                          MetricasProdutor metricas, ObjectName objetoJmx) {
+        this.registro = registro;
+        this.produtor = produtor;
+        this.perfil = perfil;
+        this.chamador = chamador;
+        this.metricas = metricas;
+        this.objetoJmx = objetoJmx;
+    }
+
+    public Future<RecordMetadata> enviar(ProducerRecord<K, V> registro) {
+        return enviar(registro, null);
+    }
+
+    public Future<RecordMetadata> enviar(ProducerRecord<K, V> registro, Callback callback) {
+        if (fechado.get()) {
+            throw new IllegalStateException("O Produtor de " + chamador + " já foi devolvido ao registro");
+        }
+        return produtor.send(registro, metricas.medir(callback));
+    }
+
+    // Espera os envios de todos que usam o Produtor do perfil, e não só os deste chamador
+    public void flush() {
+        produtor.flush();
+    }
+
+    public String getPerfil() {
+        return perfil;
+    }
+
+    public String getChamador() {
+        return chamador;
+    }
+
+    public MetricasProdutor getMetricas() {
+        return metricas;
+    }
+
+    // Pode ser chamado mais de uma vez; só a primeira devolve a referência
+    @Override
+    public void close() {
+        if (fechado.compareAndSet(false, true)) {
+            RegistroJmx.remover(objetoJmx);
+            registro.liberar(perfil, produtor);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.config.ConfiguracaoKafka;
+import com.flaviodavim.initialkafka.metricas.MetricasProdutor;
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/* Um Produtor compartilhado por perfil, entregue a quantas threads precisarem dele
+ *
+ * O KafkaProducer é thread-safe e foi feito para ser compartilhado: todas as threads escrevem no mesmo acumulador,
+ * e uma única thread de I/O envia os lotes de todas elas. Com um Produtor por thread, cada um tem o próprio buffer,
+ * a própria thread de I/O e as próprias conexões, e os registros de uma partição se espalham em lotes menores.
+ *
+ * Cada perfil é um nome com os ajustes do Produtor (ex: "eventos" com linger.ms=20), definidos por definirPerfil().
+ * O perfil PERFIL_PADRAO não tem ajustes além da ConfiguracaoKafka.
+ * adquirir() devolve um ProdutorCompartilhado, que conta como uma referência ao Produtor do perfil:
+ * o Produtor é criado na primeira referência e fechado quando a última é devolvida, depois de enviar o que ficou no
+ * acumulador. Quem usa o Produtor deve ficar com o ProdutorCompartilhado enquanto durar, e não adquirir um por envio.
+ *
+ * Cada ProdutorCompartilhado tem as próprias MetricasProdutor, com o nome do perfil e do chamador, publicadas no JMX
+ * (com um sufixo -2, -3... quando o mesmo chamador tem mais de uma referência aberta ao mesmo perfil).
+ * Os tipos da chave e do valor são do registro todo; serializadores diferentes pedem registros diferentes.
+ * Produtores transacionais não podem ser compartilhados, já que a transação é uma só para todas as threads.
+ */
+public class RegistroProdutores<K, V> implements Closeable {
+
+    public static final String PERFIL_PADRAO = "padrao";
+    public static final long TEMPO_FECHAMENTO_PADRAO_MS = 30000;
+
+    // Cria o Produtor de um perfil; permite usar o MockProducer no lugar do KafkaProducer
+    public interface Fabrica<K, V> {
+        Producer<K, V> criar(String perfil, Properties ajustes);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(RegistroProdutores.class);
+
+    private final Fabrica<K, V> fabrica;
+    private final long tempoFechamentoMs;
+
+    // Acessados só com o monitor do registro; os envios não passam por ele
+    private final Map<String, Properties> perfis = new HashMap<String, Properties>();
+    private final Map<String, Entrada<K, V>> abertos = new HashMap<String, Entrada<K, V>>();
+    private boolean fechado;
+
+    public RegistroProdutores(final ConfiguracaoKafka configuracao,
+                              final Class<? extends Serializer<K>> serializadorChave,
+                              final Class<? extends Serializer<V>> serializadorValor) {
+        this(new Fabrica<K, V>() {
+            public Producer<K, V> criar(String perfil, Properties ajustes) {
+                return configuracao.criarProdutor(serializadorChave, serializadorValor, ajustes);
+            }
+        }, TEMPO_FECHAMENTO_PADRAO_MS);
+    }
+
+    // tempoFechamentoMs: quanto o fechamento de um Produtor espera os envios pendentes antes de descartá-los
+    public RegistroProdutores(Fabrica<K, V> fabrica, long tempoFechamentoMs) {
+        if (tempoFechamentoMs < 0) {
+            throw new IllegalArgumentException("tempoFechamentoMs não pode ser negativo: " + tempoFechamentoMs);
+        }
+        this.fabrica = fabrica;
+        this.tempoFechamentoMs = tempoFechamentoMs;
+        perfis.put(PERFIL_PADRAO, new Properties());
+    }
+
+    /* Define os ajustes de um perfil, que ficam por cima da ConfiguracaoKafka
+     * Só pode ser chamado enquanto o perfil não tem um Produtor aberto
+     */
+    public synchronized void definirPerfil(String nome, Properties ajustes) {
+        if (ajustes.getProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG) != null) {
+            throw new IllegalArgumentException("O perfil " + nome + " não pode ser transacional: "
+                    + "a transação seria compartilhada por todas as threads");
+        }
+        if (abertos.containsKey(nome)) {
+            throw new IllegalStateException("O perfil " + nome + " já tem um Produtor aberto");
+        }
+        Properties copia = new Properties();
+        copia.putAll(ajustes);
+        perfis.put(nome, copia);
+    }
+
+    public ProdutorCompartilhado<K, V> adquirir(String chamador) {
+        return adquirir(PERFIL_PADRAO, chamador);
+    }
+
+    /* Devolve o Produtor do perfil para o chamador, criando-o se for a primeira referência
+     * O chamador identifica as métricas (ex: o nome da thread) e deve chamar close() quando não for mais enviar
+     */
+    public ProdutorCompartilhado<K, V> adquirir(String perfil, String chamador) {
+        Entrada<K, V> entrada;
+        synchronized (this) {
+            if (fechado) {
+                throw new IllegalStateException("O registro de Produtores já foi fechado");
+            }
+            Properties ajustes = perfis.get(perfil);
+            if (ajustes == null) {
+                throw new IllegalArgumentException("Perfil de Produtor desconhecido: " + perfil);
+            }
+            entrada = abertos.get(perfil);
+            if (entrada == null) {
+                entrada = new Entrada<K, V>(fabrica.criar(perfil, ajustes));
+                abertos.put(perfil, entrada);
+                logger.info("Produtor do perfil " + perfil + " criado.");
+            }
+            entrada.referencias++;
+        }
+        MetricasProdutor metricas = new MetricasProdutor(perfil + "-" + chamador);
+        // Dois chamadores com o mesmo nome não podem substituir as métricas um do outro no JMX
+        ObjectName objetoJmx = RegistroJmx.registrarUnico(metricas, "MetricasProdutor", metricas.getNome());
+        return new ProdutorCompartilhado<K, V>(this, entrada.produtor, perfil, chamador, metricas, objetoJmx);
+    }
+
+    // Referências abertas ao Produtor do perfil; 0 se ele não está aberto
+    public synchronized int getReferencias(String perfil) {
+        Entrada<K, V> entrada = abertos.get(perfil);
+        return entrada == null ? 0 : entrada.referencias;
+    }
+
+    public synchronized Set<String> getPerfisAbertos() {
+        return new TreeSet<String>(abertos.keySet());
+    }
+
+    /* Fecha o registro ao encerrar a aplicação, com o gancho de desligamento
+     * Útil quando a aplicação não tem um gancho próprio; quem tem (ver ProducerDemoCompartilhado)
+     * deve parar as threads que enviam antes de chamar close(), para elas não enviarem a um Produtor fechado
+     */
+    public Thread registrarGanchoDesligamento() {
+        Thread gancho = new Thread(() -> {
+            logger.info("Pego pelo gancho de desligamento.");
+            close();
+        });
+        Runtime.getRuntime().addShutdownHook(gancho);
+        return gancho;
+    }
+
+    /* Fecha todos os Produtores abertos, mesmo com referências, depois de enviar o que ficou nos acumuladores
+     * Os ProdutorCompartilhado ainda abertos passam a falhar no envio, e o close() deles só remove as métricas
+     */
+    @Override
+    public void close() {
+        Map<String, Entrada<K, V>> aFechar;
+        synchronized (this) {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            aFechar = new HashMap<String, Entrada<K, V>>(abertos);
+            abertos.clear();
+        }
+        for (Map.Entry<String, Entrada<K, V>> entrada : aFechar.entrySet()) {
+            fecharProdutor(entrada.getKey(), entrada.getValue().produtor);
+        }
+    }
+
+    // Chamado pelo close() do ProdutorCompartilhado; o Produtor é fechado fora do monitor, sem segurar os outros perfis
+    void liberar(String perfil, Producer<K, V> produtor) {
+        synchronized (this) {
+            Entrada<K, V> entrada = abertos.get(perfil);
+            if (entrada == null || entrada.produtor != produtor) {
+                // O registro já fechou esse Produtor
+                return;
+            }
+            if (--entrada.referencias > 0) {
+                return;
+            }
+            abertos.remove(perfil);
+        }
+        fecharProdutor(perfil, produtor);
+    }
+
+    /* O close() do Produtor já envia os lotes que estão no acumulador, inclusive os que esperam o linger.ms,
+     * e espera as confirmações por até tempoFechamentoMs; o que não for confirmado nesse tempo falha nos callbacks
+     */
+    private void fecharProdutor(String perfil, Producer<K, V> produtor) {
+        try {
+            produtor.close(tempoFechamentoMs, TimeUnit.MILLISECONDS);
+            logger.info("Produtor do perfil " + perfil + " fechado.");
+        } catch (RuntimeException e) {
+            logger.warn("Falha ao fechar o Produtor do perfil " + perfil, e);
+        }
+    }
+
+    private static final class Entrada<K, V> {
+
+        final Producer<K, V> produtor;
+        int referencias;
+
+        Entrada(Producer<K, V> produtor) {
+            this.produtor = produtor;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Count-min sketch: estima quantas vezes cada chave apareceu com memória fixa, sem guardar as chaves
+ *
+ * São profundidade linhas de largura contadores; cada chave soma 1 em um contador de cada linha
+ * e a estimativa é o menor deles. Colisões só aumentam a estimativa, nunca diminuem.
+ * Os índices das linhas saem de dois hashes (h1 + i * h2), então a chave só precisa ser hasheada uma vez.
+ *
+ * A cada janela registros todos os contadores são divididos por dois, para a contagem acompanhar o tráfego recente.
+ * As threads do send() atualizam os contadores sem trava: um incremento perdido em uma corrida
+ * só deixa a estimativa um pouco menor, o que não muda a detecção de uma chave quente.
+ */
+final class SketchContagem {
+
+    private static final int PROFUNDIDADE = 4;
+
+    private final int[] contadores;
+    private final int mascara;
+    private final int larguraLinha;
+    private final long janela;
+    private final AtomicLong registrosJanela = new AtomicLong();
+
+    SketchContagem(int largura, long janela) {
+        if (largura <= 0 || Integer.bitCount(largura) != 1) {
+            throw new IllegalArgumentException("A largura do sketch deve ser uma potência de 2: " + largura);
+        }
+        if (janela <= 1) {
+            throw new IllegalArgumentException("A janela do sketch deve ser maior que 1: " + janela);
+        }
+        this.contadores = new int[PROFUNDIDADE * largura];
+        this.mascara = largura - 1;
+        this.larguraLinha = largura;
+        this.janela = janela;
+    }
+
+    // Soma 1 na chave com o hash informado e devolve a nova estimativa
+    int incrementar(int hash) {
+        int h2 = segundoHash(hash);
+        int estimativa = Integer.MAX_VALUE;
+        for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+            int indice = linha * larguraLinha + ((hash + linha * h2) & mascara);
+            int valor = contadores[indice] + 1;
+            contadores[indice] = valor;
+            estimativa = Math.min(estimativa, valor);
+        }
+
+        long registros = registrosJanela.incrementAndGet();
+        if (registros >= janela && registrosJanela.compareAndSet(registros, registros / 2)) {
+            envelhecer();
+        }
+        return estimativa;
+    }
+
+    int estimar(int hash) {
+        int h2 = segundoHash(hash);
+        int estimativa = Integer.MAX_VALUE;
+        for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+            estimativa = Math.min(estimativa, contadores[linha * larguraLinha + ((hash + linha * h2) & mascara)]);
+        }
+        return estimativa;
+    }
+
+    // Registros contados na janela atual, já considerando o envelhecimento
+    long getRegistrosJanela() {
+        return registrosJanela.get();
+    }
+
+    private void envelhecer() {
+        for (int i = 0; i < contadores.length; i++) {
+            contadores[i] >>>= 1;
+        }
+    }
+
+    // Ímpar, para (h1 + i * h2) percorrer índices diferentes em cada linha
+    private static int segundoHash(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) | 1;
+    }
+}
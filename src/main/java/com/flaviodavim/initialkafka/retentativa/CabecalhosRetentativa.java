@@ -0,0 +1,63 @@
+package com.flaviodavim.initialkafka.retentativa;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Cabeçalhos que acompanham um registro pelos tópicos de retentativa
+ *      -> retentativa.nivel: o nível para onde o registro foi enviado (int); a DLQ é o nível depois do último
+ *      -> retentativa.vencimento: quando ele pode ser processado de novo (long, ms desde a época)
+ *      -> retentativa.origem: tópico-partição@offset onde ele falhou pela primeira vez
+ *      -> retentativa.erro: a classe e a mensagem da última exceção
+ * Os outros cabeçalhos do registro são mantidos.
+ */
+final class CabecalhosRetentativa {
+
+    static final String NIVEL = "retentativa.nivel";
+    static final String VENCIMENTO = "retentativa.vencimento";
+    static final String ORIGEM = "retentativa.origem";
+    static final String ERRO = "retentativa.erro";
+
+    private static final int TAMANHO_MAXIMO_ERRO = 512;
+
+    private CabecalhosRetentativa() {}
+
+    // -1 se o registro ainda não passou por nenhum nível
+    static int nivel(ConsumerRecord<?, ?> registro) {
+        Header cabecalho = registro.headers().lastHeader(NIVEL);
+        return cabecalho == null || cabecalho.value().length != 4 ? -1 : ByteBuffer.wrap(cabecalho.value()).getInt();
+    }
+
+    // 0 se o registro pode ser processado já
+    static long vencimento(ConsumerRecord<?, ?> registro) {
+        Header cabecalho = registro.headers().lastHeader(VENCIMENTO);
+        return cabecalho == null || cabecalho.value().length != 8 ? 0 : ByteBuffer.wrap(cabecalho.value()).getLong();
+    }
+
+    static RecordHeaders montar(ConsumerRecord<?, ?> registro, int nivel, long vencimento, Exception erro) {
+        RecordHeaders cabecalhos = new RecordHeaders();
+        for (Header cabecalho : registro.headers()) {
+            String chave = cabecalho.key();
+            if (!chave.equals(NIVEL) && !chave.equals(VENCIMENTO) && !chave.equals(ERRO)) {
+                cabecalhos.add(cabecalho);
+            }
+        }
+        if (registro.headers().lastHeader(ORIGEM) == null) {
+            cabecalhos.add(ORIGEM, (registro.topic() + "-" + registro.partition() + "@" + registro.offset())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        cabecalhos.add(NIVEL, ByteBuffer.allocate(4).putInt(0, nivel).array());
+        if (vencimento > 0) {
+            cabecalhos.add(VENCIMENTO, ByteBuffer.allocate(8).putLong(0, vencimento).array());
+        }
+        String texto = erro.getClass().getName() + ": " + erro.getMessage();
+        if (texto.length() > TAMANHO_MAXIMO_ERRO) {
+            texto = texto.substring(0, TAMANHO_MAXIMO_ERRO);
+        }
+        cabecalhos.add(ERRO, texto.getBytes(StandardCharsets.UTF_8));
+        return cabecalhos;
+    }
+}
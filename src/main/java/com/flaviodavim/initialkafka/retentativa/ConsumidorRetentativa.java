@@ -0,0 +1,215 @@
+package com.flaviodavim.initialkafka.retentativa;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.consumidor.RegistroNaoConcluidoException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Consome os tópicos de retentativa, processando cada registro só depois do vencimento dele
+ *
+ * Em um nível todos os registros têm o mesmo atraso, então dentro de uma partição eles vencem na ordem em que chegaram.
+ * Quando o poll traz um registro que ainda não venceu, o Consumidor volta a posição da partição para ele (seek)
+ * e pausa a partição até o vencimento. As outras partições continuam, e o poll segue sendo chamado,
+ * então o Consumidor não sai do grupo por max.poll.interval.ms, o que aconteceria com um sleep.
+ * O tempo do poll é encurtado para acordar no próximo vencimento.
+ *
+ * Os registros são processados na thread do poll, já que só os que falharam chegam aqui.
+ * O processador normalmente é um ProcessadorComRetentativa, que manda uma nova falha para o nível seguinte.
+ * Se nem esse envio funcionar (RegistroNaoConcluidoException), a partição volta para o registro e fica pausada
+ * por intervaloFalhaMs, do mesmo jeito que um registro que ainda não venceu, e ele é processado de novo depois.
+ * Como a posição de cada partição é sempre o próximo registro não processado, o commit usa as posições do Consumidor;
+ * ele precisa ser criado com enable.auto.commit=false (ver configurar()).
+ */
+public class ConsumidorRetentativa<K, V> implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(ConsumidorRetentativa.class);
+
+    private final Consumer<K, V> consumidor;
+    private final ProcessadorRegistro<K, V> processador;
+
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private long intervaloFalhaMs = 1000;
+
+    // Partições pausadas e o vencimento do registro que elas esperam; só é acessado pela thread do poll
+    private final Map<TopicPartition, Long> aguardando = new HashMap<TopicPartition, Long>();
+
+    private final LongAdder processados = new LongAdder();
+    private final LongAdder adiamentos = new LongAdder();
+
+    private volatile boolean encerrado;
+
+    public ConsumidorRetentativa(Consumer<K, V> consumidor, ProcessadorRegistro<K, V> processador) {
+        this.consumidor = consumidor;
+        this.processador = processador;
+    }
+
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return propriedades;
+    }
+
+    // O maior tempo de um poll; ele é menor quando um vencimento está próximo
+    public void setTempoPoll(Duration tempoPoll) {
+        this.tempoPoll = tempoPoll;
+    }
+
+    // Quanto tempo a partição fica pausada depois de um registro não concluído, antes de tentar de novo
+    public void setIntervaloFalhaMs(long intervaloFalhaMs) {
+        this.intervaloFalhaMs = intervaloFalhaMs;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Commita as posições antes de perder as partições e esquece as que estavam esperando
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                List<TopicPartition> pausadas = new ArrayList<TopicPartition>();
+                for (TopicPartition particao : revogadas) {
+                    if (aguardando.remove(particao) != null) {
+                        pausadas.add(particao);
+                    }
+                }
+                if (!pausadas.isEmpty()) {
+                    consumidor.resume(pausadas);
+                }
+                if (!revogadas.isEmpty()) {
+                    consumidor.commitSync();
+                }
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                // Uma partição atribuída começa do último commit; se o registro não venceu, ela é pausada no primeiro poll
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!encerrado) {
+                retomarVencidas();
+                ConsumerRecords<K, V> registros = consumidor.poll(tempoEspera());
+                for (TopicPartition particao : registros.partitions()) {
+                    processarParticao(particao, registros.records(particao));
+                }
+                if (!registros.isEmpty()) {
+                    consumidor.commitAsync(new OffsetCommitCallback() {
+                        public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception e) {
+                            if (e != null) {
+                                logger.warn("Falha ao commitar os offsets " + offsets, e);
+                            }
+                        }
+                    });
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (!encerrado) {
+                throw e;
+            }
+        } finally {
+            try {
+                consumidor.commitSync();
+            } catch (Exception e) {
+                logger.warn("Falha ao commitar os offsets no encerramento.", e);
+            } finally {
+                consumidor.close();
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    private void processarParticao(TopicPartition particao, List<ConsumerRecord<K, V>> registros) {
+        for (ConsumerRecord<K, V> registro : registros) {
+            long vencimento = CabecalhosRetentativa.vencimento(registro);
+            if (vencimento > System.currentTimeMillis()) {
+                // Os registros seguintes vencem depois deste; serão trazidos de novo quando a partição for retomada
+                adiar(particao, registro, vencimento);
+                return;
+            }
+            try {
+                processador.processar(registro);
+            } catch (RegistroNaoConcluidoException e) {
+                // A posição volta para o registro, então o commit não passa dele
+                logger.error("Registro " + registro.topic() + "-" + registro.partition() + "@" + registro.offset()
+                        + " não concluído, tentando de novo em " + intervaloFalhaMs + " ms", e);
+                adiar(particao, registro, System.currentTimeMillis() + intervaloFalhaMs);
+                return;
+            } catch (Exception e) {
+                logger.error("Erro ao processar o registro " + registro.topic() + "-" + registro.partition()
+                        + "@" + registro.offset(), e);
+            }
+            processados.increment();
+        }
+    }
+
+    private void adiar(TopicPartition particao, ConsumerRecord<K, V> registro, long ate) {
+        consumidor.seek(particao, registro.offset());
+        consumidor.pause(Collections.singleton(particao));
+        aguardando.put(particao, ate);
+        adiamentos.increment();
+    }
+
+    private void retomarVencidas() {
+        if (aguardando.isEmpty()) {
+            return;
+        }
+        long agora = System.currentTimeMillis();
+        List<TopicPartition> vencidas = new ArrayList<TopicPartition>();
+        Iterator<Map.Entry<TopicPartition, Long>> iterador = aguardando.entrySet().iterator();
+        while (iterador.hasNext()) {
+            Map.Entry<TopicPartition, Long> entrada = iterador.next();
+            if (entrada.getValue() <= agora) {
+                vencidas.add(entrada.getKey());
+                iterador.remove();
+            }
+        }
+        if (!vencidas.isEmpty()) {
+            consumidor.resume(vencidas);
+        }
+    }
+
+    private Duration tempoEspera() {
+        long esperaMs = tempoPoll.toMillis();
+        long agora = System.currentTimeMillis();
+        for (long vencimento : aguardando.values()) {
+            esperaMs = Math.min(esperaMs, vencimento - agora);
+        }
+        return Duration.ofMillis(Math.max(1, esperaMs));
+    }
+
+    public long getProcessados() {
+        return processados.sum();
+    }
+
+    // Quantas vezes uma partição foi pausada à espera de um vencimento ou de uma nova tentativa
+    public long getAdiamentos() {
+        return adiamentos.sum();
+    }
+}
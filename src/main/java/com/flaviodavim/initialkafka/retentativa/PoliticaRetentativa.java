@@ -0,0 +1,101 @@
+package com.flaviodavim.initialkafka.retentativa;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/* Níveis de retentativa de um tópico: cada nível é um tópico com um atraso, e o último destino é a DLQ
+ *
+ * Um registro que falha no tópico de origem vai para o primeiro nível, e só é processado de novo depois do atraso dele.
+ * Se falhar de novo vai para o nível seguinte e, depois do último, para a DLQ (dead-letter queue),
+ * onde fica para ser analisado e reprocessado manualmente.
+ * Atrasos crescentes (ex: 5 segundos e depois 1 minuto) dão tempo para uma falha passageira se resolver
+ * sem que o tópico de origem pare de ser consumido.
+ */
+public final class PoliticaRetentativa {
+
+    private final String[] topicos;
+    private final long[] atrasosMs;
+    private final String topicoDlq;
+
+    private PoliticaRetentativa(String[] topicos, long[] atrasosMs, String topicoDlq) {
+        if (topicos.length != atrasosMs.length) {
+            throw new IllegalArgumentException("Cada nível precisa de um tópico e de um atraso");
+        }
+        for (long atrasoMs : atrasosMs) {
+            if (atrasoMs < 0) {
+                throw new IllegalArgumentException("O atraso de um nível não pode ser negativo: " + atrasoMs + " ms");
+            }
+        }
+        this.topicos = topicos;
+        this.atrasosMs = atrasosMs;
+        this.topicoDlq = topicoDlq;
+    }
+
+    /* Tópicos com o nome da origem e o atraso, como first_topic.retry-5s e first_topic.retry-1m, e a DLQ first_topic.dlq
+     * Sem atrasos, os registros que falham vão direto para a DLQ
+     */
+    public static PoliticaRetentativa padrao(String topicoOrigem, Duration... atrasos) {
+        String[] topicos = new String[atrasos.length];
+        long[] atrasosMs = new long[atrasos.length];
+        for (int i = 0; i < atrasos.length; i++) {
+            atrasosMs[i] = atrasos[i].toMillis();
+            topicos[i] = topicoOrigem + ".retry-" + nomeAtraso(atrasosMs[i]);
+        }
+        return new PoliticaRetentativa(topicos, atrasosMs, topicoOrigem + ".dlq");
+    }
+
+    public static PoliticaRetentativa personalizada(String[] topicos, Duration[] atrasos, String topicoDlq) {
+        long[] atrasosMs = new long[atrasos.length];
+        for (int i = 0; i < atrasos.length; i++) {
+            atrasosMs[i] = atrasos[i].toMillis();
+        }
+        return new PoliticaRetentativa(topicos.clone(), atrasosMs, topicoDlq);
+    }
+
+    public int getNiveis() {
+        return topicos.length;
+    }
+
+    public String getTopico(int nivel) {
+        return topicos[nivel];
+    }
+
+    public long getAtrasoMs(int nivel) {
+        return atrasosMs[nivel];
+    }
+
+    public String getTopicoDlq() {
+        return topicoDlq;
+    }
+
+    // Os tópicos que o ConsumidorRetentativa deve assinar
+    public List<String> getTopicosNiveis() {
+        return Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(topicos)));
+    }
+
+    // 5s, 1m, 2h: a maior unidade que divide o atraso
+    private static String nomeAtraso(long atrasoMs) {
+        if (atrasoMs % 3600000 == 0 && atrasoMs > 0) {
+            return atrasoMs / 3600000 + "h";
+        }
+        if (atrasoMs % 60000 == 0 && atrasoMs > 0) {
+            return atrasoMs / 60000 + "m";
+        }
+        if (atrasoMs % 1000 == 0) {
+            return atrasoMs / 1000 + "s";
+        }
+        return atrasoMs + "ms";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < topicos.length; i++) {
+            texto.append(topicos[i]).append(" (").append(atrasosMs[i]).append(" ms) -> ");
+        }
+        return texto.append(topicoDlq).toString();
+    }
+}
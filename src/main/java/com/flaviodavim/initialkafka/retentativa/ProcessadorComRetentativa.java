@@ -0,0 +1,128 @@
+package com.flaviodavim.initialkafka.retentativa;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import com.flaviodavim.initialkafka.consumidor.RegistroNaoConcluidoException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Envolve um ProcessadorRegistro e, quando ele falha, envia o registro para o próximo nível da PoliticaRetentativa
+ *
+ * Tentar de novo no mesmo lugar (com um sleep entre as tentativas) prende a thread e, com ela, a partição inteira:
+ * um registro com problema atrasa todos os que vêm depois dele. Aqui o registro sai do caminho na hora,
+ * e é o ConsumidorRetentativa que o processa de novo quando o atraso do nível vencer.
+ *
+ * O envio espera a confirmação do broker (send().get()), na thread de trabalho que processou o registro.
+ * Assim o offset do registro só é commitado depois que ele está guardado no tópico de retentativa.
+ * Um envio que falha é repetido até tentativasEnvio vezes, com o intervalo dobrando a cada tentativa.
+ * Se nenhuma funcionar, o registro não está em lugar nenhum: o processador lança uma RegistroNaoConcluidoException,
+ * e quem chamou não pode commitar o offset dele (o PipelineConsumo e o ConsumidorRetentativa tratam essa exceção).
+ *
+ * O mesmo processador serve para o tópico de origem e para os níveis: o cabeçalho retentativa.nivel diz onde o registro está.
+ * O Producer precisa usar os serializadores equivalentes aos desserializadores do Consumidor.
+ */
+public class ProcessadorComRetentativa<K, V> implements ProcessadorRegistro<K, V> {
+
+    private final Logger logger = LoggerFactory.getLogger(ProcessadorComRetentativa.class);
+
+    private final ProcessadorRegistro<K, V> processador;
+    private final Producer<K, V> produtor;
+    private final PoliticaRetentativa politica;
+
+    private int tentativasEnvio = 3;
+    private long intervaloEnvioMs = 100;
+
+    private final LongAdder retentativas = new LongAdder();
+    private final LongAdder enviadosDlq = new LongAdder();
+
+    public ProcessadorComRetentativa(ProcessadorRegistro<K, V> processador,
+                                     Producer<K, V> produtor,
+                                     PoliticaRetentativa politica) {
+        this.processador = processador;
+        this.produtor = produtor;
+        this.politica = politica;
+    }
+
+    public void setTentativasEnvio(int tentativasEnvio) {
+        if (tentativasEnvio <= 0) {
+            throw new IllegalArgumentException("tentativasEnvio deve ser maior que zero: " + tentativasEnvio);
+        }
+        this.tentativasEnvio = tentativasEnvio;
+    }
+
+    // Intervalo antes da segunda tentativa de envio; ele dobra a cada nova tentativa
+    public void setIntervaloEnvioMs(long intervaloEnvioMs) {
+        this.intervaloEnvioMs = intervaloEnvioMs;
+    }
+
+    @Override
+    public void processar(ConsumerRecord<K, V> registro) throws Exception {
+        try {
+            processador.processar(registro);
+        } catch (Exception e) {
+            encaminhar(registro, e);
+        }
+    }
+
+    private void encaminhar(ConsumerRecord<K, V> registro, Exception erro) throws Exception {
+        int nivel = CabecalhosRetentativa.nivel(registro) + 1;
+        boolean dlq = nivel >= politica.getNiveis();
+        String destino = dlq ? politica.getTopicoDlq() : politica.getTopico(nivel);
+        long vencimento = dlq ? 0 : System.currentTimeMillis() + politica.getAtrasoMs(nivel);
+
+        // O timestamp original é mantido, para a agregação por tempo e a latência continuarem valendo para o registro
+        Long timestamp = registro.timestamp() >= 0 ? registro.timestamp() : null;
+        enviar(registro, new ProducerRecord<K, V>(destino, null, timestamp, registro.key(), registro.value(),
+                CabecalhosRetentativa.montar(registro, nivel, vencimento, erro)), erro);
+
+        if (dlq) {
+            enviadosDlq.increment();
+            logger.warn("Registro " + registro.topic() + "-" + registro.partition() + "@" + registro.offset()
+                    + " enviado para a DLQ " + destino + " depois de " + nivel + " retentativas", erro);
+        } else {
+            retentativas.increment();
+            logger.debug("Registro " + registro.topic() + "-" + registro.partition() + "@" + registro.offset()
+                    + " enviado para " + destino + ": " + erro);
+        }
+    }
+
+    private void enviar(ConsumerRecord<K, V> registro, ProducerRecord<K, V> encaminhado, Exception erro)
+            throws Exception {
+        long intervaloMs = intervaloEnvioMs;
+        for (int tentativa = 1; ; tentativa++) {
+            try {
+                produtor.send(encaminhado).get();
+                return;
+            } catch (ExecutionException | RuntimeException e) {
+                Throwable causa = e instanceof ExecutionException ? e.getCause() : e;
+                if (tentativa >= tentativasEnvio) {
+                    RegistroNaoConcluidoException naoConcluido = new RegistroNaoConcluidoException("Registro "
+                            + registro.topic() + "-" + registro.partition() + "@" + registro.offset()
+                            + " não foi enviado para " + encaminhado.topic() + " depois de " + tentativa
+                            + " tentativas", causa);
+                    naoConcluido.addSuppressed(erro);
+                    throw naoConcluido;
+                }
+                logger.warn("Falha ao enviar o registro " + registro.topic() + "-" + registro.partition() + "@"
+                        + registro.offset() + " para " + encaminhado.topic() + ", tentando de novo em "
+                        + intervaloMs + " ms: " + causa);
+                TimeUnit.MILLISECONDS.sleep(intervaloMs);
+                intervaloMs *= 2;
+            }
+        }
+    }
+
+    public long getRetentativas() {
+        return retentativas.sum();
+    }
+
+    public long getEnviadosDlq() {
+        return enviadosDlq.sum();
+    }
+}
@@ -0,0 +1,23 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+// Embrulha o array recebido do Kafka em um ByteBuffer, sem copiar e sem converter para String
+public class DesserializadorByteBuffer implements Deserializer<ByteBuffer> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public ByteBuffer deserialize(String topic, byte[] dados) {
+        return dados == null ? null : ByteBuffer.wrap(dados);
+    }
+
+    @Override
+    public void close() {
+    }
+}
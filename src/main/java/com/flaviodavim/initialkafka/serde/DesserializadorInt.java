@@ -0,0 +1,21 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+
+public class DesserializadorInt implements Deserializer<Integer> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public Integer deserialize(String topic, byte[] dados) {
+        return dados == null ? null : SerializadorInt.lerInt(dados);
+    }
+
+    @Override
+    public void close() {
+    }
+}
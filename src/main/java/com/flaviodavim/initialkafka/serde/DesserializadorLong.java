@@ -0,0 +1,21 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+
+public class DesserializadorLong implements Deserializer<Long> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public Long deserialize(String topic, byte[] dados) {
+        return dados == null ? null : SerializadorLong.lerLong(dados);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,195 @@
+package com.flaviodavim.initialkafka.serde;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Monta registros no formato binário compacto lido pelo LeitorRegistro
+ *
+ * Formato:
+ *      [versão: 1 byte][número de campos: 1 byte][posição de cada campo: 2 bytes por campo][campos]
+ * Cada campo começa com um byte de tipo:
+ *      -> LONG: 8 bytes big-endian
+ *      -> INT: 4 bytes big-endian
+ *      -> BYTES: comprimento em varint seguido dos bytes (os textos são gravados em UTF-8)
+ * A tabela de posições permite ler qualquer campo direto, sem decodificar os anteriores.
+ * Por isso o início de cada campo precisa estar nos primeiros 64 KB do registro.
+ *
+ * O escritor reaproveita o mesmo buffer para todos os registros, então o ByteBuffer devolvido por finalizar()
+ * só é válido até o próximo iniciar(). Isso é seguro com o KafkaProducer, que serializa o registro dentro do send().
+ * Não é thread-safe: use um escritor por thread.
+ */
+public class EscritorRegistro {
+
+    static final byte VERSAO = 1;
+    static final byte TIPO_LONG = 1;
+    static final byte TIPO_INT = 2;
+    static final byte TIPO_BYTES = 3;
+
+    private static final int POSICAO_MAXIMA = 0xFFFF;
+
+    /* A partir desse tamanho, textos do tipo String são convertidos pelo getBytes(), que a JVM otimiza com
+     * instruções vetoriais; o byte[] temporário custa menos que codificar caractere por caractere
+     */
+    private static final int LIMITE_CODIFICACAO_MANUAL = 128;
+
+    private ByteBuffer buffer;
+    private int numeroCampos;
+    private int campoAtual;
+
+    public EscritorRegistro(int capacidadeInicial) {
+        this.buffer = ByteBuffer.allocate(Math.max(capacidadeInicial, 16));
+    }
+
+    public EscritorRegistro iniciar(int numeroCampos) {
+        if (numeroCampos <= 0 || numeroCampos > 255) {
+            throw new IllegalArgumentException("O registro deve ter entre 1 e 255 campos: " + numeroCampos);
+        }
+        this.numeroCampos = numeroCampos;
+        this.campoAtual = 0;
+        ((Buffer) buffer).clear();
+        int cabecalho = 2 + 2 * numeroCampos;
+        garantirEspaco(cabecalho);
+        buffer.put(VERSAO);
+        buffer.put((byte) numeroCampos);
+        ((Buffer) buffer).position(cabecalho);
+        return this;
+    }
+
+    public EscritorRegistro escreverLong(long valor) {
+        abrirCampo(TIPO_LONG, 8);
+        buffer.putLong(valor);
+        return this;
+    }
+
+    public EscritorRegistro escreverInt(int valor) {
+        abrirCampo(TIPO_INT, 4);
+        buffer.putInt(valor);
+        return this;
+    }
+
+    public EscritorRegistro escreverBytes(byte[] bytes, int inicio, int comprimento) {
+        abrirCampo(TIPO_BYTES, 5 + comprimento);
+        escreverVarint(comprimento);
+        buffer.put(bytes, inicio, comprimento);
+        return this;
+    }
+
+    // Codifica o texto em UTF-8 direto no buffer, sem criar o byte[] intermediário do getBytes() para textos curtos
+    public EscritorRegistro escreverTexto(CharSequence texto) {
+        int quantidade = texto.length();
+        if (quantidade > LIMITE_CODIFICACAO_MANUAL && texto instanceof String) {
+            byte[] bytes = ((String) texto).getBytes(StandardCharsets.UTF_8);
+            return escreverBytes(bytes, 0, bytes.length);
+        }
+        abrirCampo(TIPO_BYTES, 5 + 3 * quantidade);
+
+        // Caminho rápido para texto ASCII, o caso mais comum: um byte por caractere, escrito direto no array
+        int inicio = buffer.position();
+        escreverVarint(quantidade);
+        byte[] array = buffer.array();
+        int posicao = buffer.arrayOffset() + buffer.position();
+        int i = 0;
+        while (i < quantidade) {
+            char c = texto.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            array[posicao + i] = (byte) c;
+            i++;
+        }
+        if (i == quantidade) {
+            ((Buffer) buffer).position(buffer.position() + quantidade);
+            return this;
+        }
+
+        // Há caracteres fora do ASCII: o comprimento em bytes é diferente, então o campo é reescrito
+        ((Buffer) buffer).position(inicio);
+        escreverVarint(tamanhoUtf8(texto));
+        for (i = 0; i < quantidade; i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < quantidade
+                    && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int codigo = Character.toCodePoint(c, texto.charAt(++i));
+                buffer.put((byte) (0xF0 | (codigo >> 18)));
+                buffer.put((byte) (0x80 | ((codigo >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codigo >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codigo & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    // Devolve o registro pronto, da posição 0 até o último byte escrito
+    public ByteBuffer finalizar() {
+        if (campoAtual != numeroCampos) {
+            throw new IllegalStateException("Foram escritos " + campoAtual + " de " + numeroCampos + " campos");
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private void abrirCampo(byte tipo, int tamanhoMaximo) {
+        if (campoAtual >= numeroCampos) {
+            throw new IllegalStateException("O registro já tem os " + numeroCampos + " campos");
+        }
+        int posicao = buffer.position();
+        if (posicao > POSICAO_MAXIMA) {
+            throw new IllegalStateException("O campo " + campoAtual + " começa depois dos primeiros 64 KB do registro");
+        }
+        garantirEspaco(1 + tamanhoMaximo);
+        buffer.putShort(2 + 2 * campoAtual, (short) posicao);
+        buffer.put(tipo);
+        campoAtual++;
+    }
+
+    private void escreverVarint(int valor) {
+        while ((valor & ~0x7F) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    private void garantirEspaco(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer maior = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        ((Buffer) buffer).flip();
+        maior.put(buffer);
+        buffer = maior;
+    }
+
+    static int tamanhoUtf8(CharSequence texto) {
+        int tamanho = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                tamanho += 1;
+            } else if (c < 0x800) {
+                tamanho += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+                    && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                tamanho += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                tamanho += 1;
+            } else {
+                tamanho += 3;
+            }
+        }
+        return tamanho;
+    }
+}
@@ -0,0 +1,131 @@
+package com.flaviodavim.initialkafka.serde;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/* Lê os campos de um registro gravado pelo EscritorRegistro direto do ByteBuffer
+ *
+ * Nada é decodificado antes de ser pedido: cada leitura vai até a posição do campo pela tabela do cabeçalho.
+ * Os textos podem ser comparados ou anexados a um StringBuilder sem criar uma String.
+ * O leitor pode ser reaproveitado para vários registros chamando ler() de novo; não é thread-safe.
+ */
+public class LeitorRegistro {
+
+    private ByteBuffer buffer;
+    private int inicio;
+    private int numeroCampos;
+
+    public LeitorRegistro ler(ByteBuffer buffer) {
+        int posicao = buffer.position();
+        if (buffer.remaining() < 2 || buffer.get(posicao) != EscritorRegistro.VERSAO) {
+            throw new IllegalArgumentException("O buffer não contém um registro binário conhecido");
+        }
+        this.buffer = buffer;
+        this.inicio = posicao;
+        this.numeroCampos = buffer.get(posicao + 1) & 0xFF;
+        return this;
+    }
+
+    public int getNumeroCampos() {
+        return numeroCampos;
+    }
+
+    public long lerLong(int campo) {
+        return buffer.getLong(posicaoDados(campo, EscritorRegistro.TIPO_LONG));
+    }
+
+    public int lerInt(int campo) {
+        return buffer.getInt(posicaoDados(campo, EscritorRegistro.TIPO_INT));
+    }
+
+    // Número de bytes de um campo BYTES ou texto
+    public int tamanhoBytes(int campo) {
+        return lerVarint(posicaoDados(campo, EscritorRegistro.TIPO_BYTES));
+    }
+
+    // Visão do campo sobre o mesmo buffer, sem copiar os bytes
+    public ByteBuffer fatia(int campo) {
+        int posicao = posicaoDados(campo, EscritorRegistro.TIPO_BYTES);
+        int comprimento = lerVarint(posicao);
+        ByteBuffer fatia = buffer.duplicate();
+        ((Buffer) fatia).limit(posicao + tamanhoVarint(comprimento) + comprimento);
+        ((Buffer) fatia).position(posicao + tamanhoVarint(comprimento));
+        return fatia.slice();
+    }
+
+    // Compara os bytes do campo com os bytes esperados (ex: um texto já convertido para UTF-8)
+    public boolean bytesIguais(int campo, byte[] esperado) {
+        int posicao = posicaoDados(campo, EscritorRegistro.TIPO_BYTES);
+        int comprimento = lerVarint(posicao);
+        if (comprimento != esperado.length) {
+            return false;
+        }
+        posicao += tamanhoVarint(comprimento);
+        for (int i = 0; i < comprimento; i++) {
+            if (buffer.get(posicao + i) != esperado[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Decodifica o UTF-8 do campo direto no StringBuilder, sem criar uma String
+    public StringBuilder anexarTexto(int campo, StringBuilder destino) {
+        int posicao = posicaoDados(campo, EscritorRegistro.TIPO_BYTES);
+        int comprimento = lerVarint(posicao);
+        posicao += tamanhoVarint(comprimento);
+        int fim = posicao + comprimento;
+        while (posicao < fim) {
+            int b = buffer.get(posicao++) & 0xFF;
+            if (b < 0x80) {
+                destino.append((char) b);
+            } else if (b < 0xE0) {
+                destino.append((char) (((b & 0x1F) << 6) | (buffer.get(posicao++) & 0x3F)));
+            } else if (b < 0xF0) {
+                int c = ((b & 0x0F) << 12) | ((buffer.get(posicao++) & 0x3F) << 6);
+                destino.append((char) (c | (buffer.get(posicao++) & 0x3F)));
+            } else {
+                int codigo = ((b & 0x07) << 18) | ((buffer.get(posicao++) & 0x3F) << 12)
+                        | ((buffer.get(posicao++) & 0x3F) << 6) | (buffer.get(posicao++) & 0x3F);
+                destino.append(Character.highSurrogate(codigo)).append(Character.lowSurrogate(codigo));
+            }
+        }
+        return destino;
+    }
+
+    public String lerTexto(int campo) {
+        return anexarTexto(campo, new StringBuilder(tamanhoBytes(campo))).toString();
+    }
+
+    private int posicaoDados(int campo, byte tipo) {
+        if (campo < 0 || campo >= numeroCampos) {
+            throw new IndexOutOfBoundsException("Campo " + campo + " não existe, o registro tem " + numeroCampos);
+        }
+        int posicao = inicio + (buffer.getShort(inicio + 2 + 2 * campo) & 0xFFFF);
+        if (buffer.get(posicao) != tipo) {
+            throw new IllegalStateException("O campo " + campo + " é do tipo " + buffer.get(posicao) + ", não " + tipo);
+        }
+        return posicao + 1;
+    }
+
+    private int lerVarint(int posicao) {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 32; deslocamento += 7) {
+            byte b = buffer.get(posicao++);
+            valor |= (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IllegalStateException("Varint inválido na posição " + posicao);
+    }
+
+    private static int tamanhoVarint(int valor) {
+        int tamanho = 1;
+        while ((valor & ~0x7F) != 0) {
+            valor >>>= 7;
+            tamanho++;
+        }
+        return tamanho;
+    }
+}
@@ -0,0 +1,46 @@
+package com.flaviodavim.initialkafka.serde;
+
+import java.nio.ByteBuffer;
+
+/* Formato das mensagens trocadas pelos Produtores e Consumidores de exemplo
+ *      -> campo 0: o índice da mensagem no loop do Produtor (int)
+ *      -> campo 1: o texto da mensagem (UTF-8)
+ */
+public final class MensagemDemo {
+
+    public static final int CAMPO_INDICE = 0;
+    public static final int CAMPO_TEXTO = 1;
+    public static final int NUMERO_CAMPOS = 2;
+
+    private static final ThreadLocal<LeitorRegistro> LEITOR = new ThreadLocal<LeitorRegistro>() {
+        @Override
+        protected LeitorRegistro initialValue() {
+            return new LeitorRegistro();
+        }
+    };
+
+    private MensagemDemo() {}
+
+    public static ByteBuffer escrever(EscritorRegistro escritor, int indice, CharSequence texto) {
+        return escritor.iniciar(NUMERO_CAMPOS)
+                .escreverInt(indice)
+                .escreverTexto(texto)
+                .finalizar();
+    }
+
+    // Lê só o índice, sem tocar no texto
+    public static int lerIndice(ByteBuffer valor) {
+        return LEITOR.get().ler(valor).lerInt(CAMPO_INDICE);
+    }
+
+    // Escreve "texto (índice)" no StringBuilder lendo apenas os campos necessários, sem criar Strings
+    public static void formatar(ByteBuffer valor, StringBuilder destino) {
+        if (valor == null) {
+            destino.append("null");
+            return;
+        }
+        LeitorRegistro leitor = LEITOR.get().ler(valor);
+        leitor.anexarTexto(CAMPO_TEXTO, destino)
+                .append(" (").append(leitor.lerInt(CAMPO_INDICE)).append(')');
+    }
+}
@@ -0,0 +1,34 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/* Serializa os bytes entre a posição e o limite do ByteBuffer, sem alterar a posição dele
+ * Quando o ByteBuffer ocupa exatamente o array que o sustenta, o próprio array é devolvido, sem cópia
+ */
+public class SerializadorByteBuffer implements Serializer<ByteBuffer> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, ByteBuffer dados) {
+        if (dados == null) {
+            return null;
+        }
+        if (dados.hasArray() && dados.arrayOffset() + dados.position() == 0
+                && dados.remaining() == dados.array().length) {
+            return dados.array();
+        }
+        byte[] bytes = new byte[dados.remaining()];
+        dados.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+    }
+}
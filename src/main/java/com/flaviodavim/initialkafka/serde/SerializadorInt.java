@@ -0,0 +1,33 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+// Serializa chaves int em 4 bytes big-endian, o mesmo formato do IntegerSerializer do Kafka
+public class SerializadorInt implements Serializer<Integer> {
+
+    public static byte[] paraBytes(int valor) {
+        return new byte[] {(byte) (valor >>> 24), (byte) (valor >>> 16), (byte) (valor >>> 8), (byte) valor};
+    }
+
+    public static int lerInt(byte[] bytes) {
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("Uma chave int precisa de 4 bytes, recebeu " + bytes.length);
+        }
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, Integer dados) {
+        return dados == null ? null : paraBytes(dados);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,42 @@
+package com.flaviodavim.initialkafka.serde;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+/* Serializa chaves long em 8 bytes big-endian, o mesmo formato do LongSerializer do Kafka
+ * paraBytes() e lerLong() permitem trabalhar com o valor primitivo sem passar pelo Long
+ */
+public class SerializadorLong implements Serializer<Long> {
+
+    public static byte[] paraBytes(long valor) {
+        return new byte[] {
+                (byte) (valor >>> 56), (byte) (valor >>> 48), (byte) (valor >>> 40), (byte) (valor >>> 32),
+                (byte) (valor >>> 24), (byte) (valor >>> 16), (byte) (valor >>> 8), (byte) valor
+        };
+    }
+
+    public static long lerLong(byte[] bytes) {
+        if (bytes.length != 8) {
+            throw new IllegalArgumentException("Uma chave long precisa de 8 bytes, recebeu " + bytes.length);
+        }
+        long valor = 0;
+        for (int i = 0; i < 8; i++) {
+            valor = (valor << 8) | (bytes[i] & 0xff);
+        }
+        return valor;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, Long dados) {
+        return dados == null ? null : paraBytes(dados);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,409 @@
+package com.flaviodavim.initialkafka.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/* Log local só de acréscimo, em segmentos de arquivo mapeados na memória
+ *
+ * Cada registro guarda o tópico, a partição e os bytes da chave e do valor já serializados:
+ *      [int tamanho][int crc32][short tamanho do tópico][tópico][int partição][int chave][chave][int valor][valor]
+ * O tamanho é escrito por último, então um registro só aparece para o leitor depois de completo.
+ * Um tamanho -1 marca o fim de um segmento que não tinha espaço para o próximo registro.
+ *
+ * As posições são longs contínuos: o segmento de uma posição é posicao / tamanhoSegmento.
+ * A posição confirmada (tudo antes dela já foi entregue) fica no arquivo confirmado.ckpt, também mapeado.
+ * Segmentos inteiros antes dela são apagados, e o espaço em disco fica limitado a maxSegmentos.
+ *
+ * Ao abrir, o log é percorrido da posição confirmada em diante, conferindo o crc de cada registro,
+ * para achar o fim dos dados válidos depois de uma queda; o que estiver depois disso é descartado.
+ *
+ * anexar() não aloca nada por registro: os bytes são copiados direto para o arquivo mapeado.
+ * Pode ser chamado por várias threads; ler() e confirmar() são de uma única thread leitora.
+ */
+public class LogSpool implements Closeable {
+
+    public static final int TAMANHO_SEGMENTO_PADRAO = 64 * 1024 * 1024;
+    public static final int MAX_SEGMENTOS_PADRAO = 16;
+
+    static final String ARQUIVO_CONFIRMADO = "confirmado.ckpt";
+    private static final int CABECALHO = 8;
+    private static final int FIM_SEGMENTO = -1;
+
+    private final Logger logger = LoggerFactory.getLogger(LogSpool.class);
+
+    private final File diretorio;
+    private final int tamanhoSegmento;
+    private final int maxSegmentos;
+    private final Map<Long, SegmentoSpool> segmentos = new ConcurrentHashMap<Long, SegmentoSpool>();
+
+    private final FileChannel canalConfirmado;
+    private final MappedByteBuffer arquivoConfirmado;
+
+    // Só são usados com a trava do LogSpool
+    private SegmentoSpool segmentoEscrita;
+    private final CRC32 crc = new CRC32();
+    private final Map<String, byte[]> topicosCodificados = new HashMap<String, byte[]>();
+
+    // Só são usados pela thread leitora
+    private final List<byte[]> bytesTopicosLidos = new ArrayList<byte[]>();
+    private final List<String> topicosLidos = new ArrayList<String>();
+    private long menorSegmento;
+    private SegmentoSpool segmentoLido;
+
+    private volatile long posicaoEscrita;
+    private volatile long confirmado;
+
+    public LogSpool(File diretorio) throws IOException {
+        this(diretorio, TAMANHO_SEGMENTO_PADRAO, MAX_SEGMENTOS_PADRAO);
+    }
+
+    public LogSpool(File diretorio, int tamanhoSegmento, int maxSegmentos) throws IOException {
+        if (tamanhoSegmento < 1024) {
+            throw new IllegalArgumentException("tamanhoSegmento deve ter pelo menos 1024 bytes: " + tamanhoSegmento);
+        }
+        if (maxSegmentos <= 1) {
+            throw new IllegalArgumentException("maxSegmentos deve ser maior que um: " + maxSegmentos);
+        }
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("Não foi possível criar o diretório do spool " + diretorio);
+        }
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.maxSegmentos = maxSegmentos;
+
+        RandomAccessFile acesso = new RandomAccessFile(new File(diretorio, ARQUIVO_CONFIRMADO), "rw");
+        this.canalConfirmado = acesso.getChannel();
+        this.arquivoConfirmado = canalConfirmado.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        this.confirmado = arquivoConfirmado.getLong(0);
+        recuperar();
+    }
+
+    /* Acrescenta um registro ao fim do log
+     * Chave e valor são lidos entre a posição e o limite, sem alterar a posição deles; null é guardado como null.
+     * Devolve false se o log já está com maxSegmentos e o registro não cabe no último.
+     */
+    public synchronized boolean anexar(String topico, Integer particao, ByteBuffer chave, ByteBuffer valor)
+            throws IOException {
+        byte[] bytesTopico = codificar(topico);
+        int tamanhoChave = chave == null ? -1 : chave.remaining();
+        int tamanhoValor = valor == null ? -1 : valor.remaining();
+        int corpo = 2 + bytesTopico.length + 4 + 4 + Math.max(0, tamanhoChave) + 4 + Math.max(0, tamanhoValor);
+        int total = CABECALHO + corpo;
+        if (total > tamanhoSegmento) {
+            throw new IllegalArgumentException("Registro de " + total + " bytes não cabe em um segmento de "
+                    + tamanhoSegmento + " bytes");
+        }
+
+        long posicao = posicaoEscrita;
+        int deslocamento = (int) (posicao % tamanhoSegmento);
+        // O registro anterior pode ter terminado exatamente no fim do segmento
+        boolean segmentoCompleto = posicao / tamanhoSegmento != segmentoEscrita.getIndice();
+        if (segmentoCompleto || deslocamento + total > tamanhoSegmento) {
+            if (segmentos.size() >= maxSegmentos) {
+                return false;
+            }
+            if (!segmentoCompleto && deslocamento + 4 <= tamanhoSegmento) {
+                segmentoEscrita.getMapeado().putInt(deslocamento, FIM_SEGMENTO);
+            }
+            segmentoEscrita = abrirSegmento(segmentoEscrita.getIndice() + 1);
+            posicao = segmentoEscrita.getIndice() * tamanhoSegmento;
+            deslocamento = 0;
+        }
+
+        ByteBuffer visao = segmentoEscrita.getEscrita();
+        janela(visao, deslocamento + CABECALHO, corpo);
+        visao.putShort((short) bytesTopico.length);
+        visao.put(bytesTopico);
+        visao.putInt(particao == null ? -1 : particao);
+        visao.putInt(tamanhoChave);
+        copiar(chave, visao);
+        visao.putInt(tamanhoValor);
+        copiar(valor, visao);
+
+        janela(visao, deslocamento + CABECALHO, corpo);
+        crc.reset();
+        crc.update(visao);
+        MappedByteBuffer mapeado = segmentoEscrita.getMapeado();
+        mapeado.putInt(deslocamento + 4, (int) crc.getValue());
+        mapeado.putInt(deslocamento, corpo);
+        posicaoEscrita = posicao + total;
+        return true;
+    }
+
+    /* Lê o registro na posição e devolve a posição do próximo, ou -1 se não há registro nela ainda
+     * A posição inicial é getConfirmado(); as seguintes são as devolvidas por ler()
+     */
+    public long ler(long posicao, RegistroSpool registro) {
+        long fim = posicaoEscrita;
+        while (posicao < fim) {
+            SegmentoSpool segmento = segmentoLido;
+            if (segmento == null || segmento.getIndice() != posicao / tamanhoSegmento) {
+                segmento = segmentos.get(posicao / tamanhoSegmento);
+                segmentoLido = segmento;
+            }
+            int deslocamento = (int) (posicao % tamanhoSegmento);
+            if (deslocamento + CABECALHO > tamanhoSegmento
+                    || segmento.getMapeado().getInt(deslocamento) == FIM_SEGMENTO) {
+                posicao = (posicao / tamanhoSegmento + 1) * tamanhoSegmento;
+                continue;
+            }
+            int corpo = segmento.getMapeado().getInt(deslocamento);
+            ByteBuffer visao = segmento.getLeitura();
+            janela(visao, deslocamento + CABECALHO, corpo);
+            registro.topico = decodificar(visao, visao.getShort());
+            registro.particao = visao.getInt();
+            int tamanhoChave = visao.getInt();
+            registro.temChave = tamanhoChave >= 0;
+            registro.chave = fatia(segmento.getChave(), visao, tamanhoChave);
+            int tamanhoValor = visao.getInt();
+            registro.temValor = tamanhoValor >= 0;
+            registro.valor = fatia(segmento.getValor(), visao, tamanhoValor);
+            return posicao + CABECALHO + corpo;
+        }
+        return -1;
+    }
+
+    // Marca tudo antes da posição como entregue e apaga os segmentos que ficaram inteiros para trás
+    public void confirmar(long posicao) throws IOException {
+        if (posicao <= confirmado) {
+            return;
+        }
+        confirmado = posicao;
+        arquivoConfirmado.putLong(0, posicao);
+        long segmentoConfirmado = posicao / tamanhoSegmento;
+        while (menorSegmento < segmentoConfirmado) {
+            SegmentoSpool segmento = segmentos.remove(menorSegmento);
+            if (segmento == segmentoLido) {
+                segmentoLido = null;
+            }
+            if (segmento != null) {
+                segmento.apagar();
+            }
+            menorSegmento++;
+        }
+    }
+
+    // Grava no disco os segmentos com registros pendentes e a posição confirmada
+    public void forcar() {
+        for (SegmentoSpool segmento : segmentos.values()) {
+            segmento.forcar();
+        }
+        arquivoConfirmado.force();
+    }
+
+    public long getPosicaoEscrita() {
+        return posicaoEscrita;
+    }
+
+    public long getConfirmado() {
+        return confirmado;
+    }
+
+    // Bytes no log que ainda não foram confirmados, incluindo os cabeçalhos e o fim dos segmentos
+    public long getBytesPendentes() {
+        return posicaoEscrita - confirmado;
+    }
+
+    public File getDiretorio() {
+        return diretorio;
+    }
+
+    // Os arquivos ficam no diretório para a próxima abertura continuar de onde parou
+    @Override
+    public synchronized void close() throws IOException {
+        for (SegmentoSpool segmento : segmentos.values()) {
+            segmento.fechar();
+        }
+        segmentos.clear();
+        canalConfirmado.close();
+    }
+
+    private void recuperar() throws IOException {
+        long inicio = System.nanoTime();
+        long segmentoConfirmado = confirmado / tamanhoSegmento;
+        String[] nomes = diretorio.list();
+        long[] indices = new long[nomes == null ? 0 : nomes.length];
+        int quantidade = 0;
+        for (int i = 0; i < indices.length; i++) {
+            long indice = SegmentoSpool.indiceDoArquivo(nomes[i]);
+            if (indice >= 0) {
+                indices[quantidade++] = indice;
+            }
+        }
+        Arrays.sort(indices, 0, quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            if (indices[i] < segmentoConfirmado) {
+                apagarArquivo(indices[i]);
+            } else {
+                segmentos.put(indices[i], SegmentoSpool.abrir(diretorio, indices[i], tamanhoSegmento));
+            }
+        }
+        menorSegmento = segmentoConfirmado;
+
+        long posicao = varrer(confirmado);
+        long ultimoSegmento = posicao / tamanhoSegmento;
+        for (int i = 0; i < quantidade; i++) {
+            // Segmentos depois do fim válido só podem ter dados de uma escrita interrompida
+            if (indices[i] > ultimoSegmento) {
+                segmentos.remove(indices[i]).apagar();
+            }
+        }
+        segmentoEscrita = segmentos.get(ultimoSegmento);
+        if (segmentoEscrita == null) {
+            segmentoEscrita = abrirSegmento(ultimoSegmento);
+        }
+        limparCauda(posicao);
+        posicaoEscrita = posicao;
+
+        if (posicao > confirmado) {
+            logger.info(String.format("Spool %s recuperado em %d ms: %d bytes pendentes em %d segmentos",
+                    diretorio, (System.nanoTime() - inicio) / 1000000, posicao - confirmado, segmentos.size()));
+        }
+    }
+
+    // Percorre os registros a partir da posição e devolve a posição logo depois do último registro válido
+    private long varrer(long posicao) {
+        while (true) {
+            SegmentoSpool segmento = segmentos.get(posicao / tamanhoSegmento);
+            if (segmento == null) {
+                return posicao;
+            }
+            MappedByteBuffer mapeado = segmento.getMapeado();
+            int deslocamento = (int) (posicao % tamanhoSegmento);
+            if (deslocamento + CABECALHO > tamanhoSegmento || mapeado.getInt(deslocamento) == FIM_SEGMENTO) {
+                long proximo = (posicao / tamanhoSegmento + 1) * tamanhoSegmento;
+                if (!segmentos.containsKey(proximo / tamanhoSegmento)) {
+                    return proximo;
+                }
+                posicao = proximo;
+                continue;
+            }
+            int corpo = mapeado.getInt(deslocamento);
+            if (corpo <= 0 || deslocamento + CABECALHO + corpo > tamanhoSegmento) {
+                return posicao;
+            }
+            ByteBuffer visao = segmento.getLeitura();
+            janela(visao, deslocamento + CABECALHO, corpo);
+            crc.reset();
+            crc.update(visao);
+            if ((int) crc.getValue() != mapeado.getInt(deslocamento + 4)) {
+                logger.warn("Registro corrompido na posição " + posicao + " do spool " + diretorio
+                        + "; ele e os seguintes foram descartados");
+                return posicao;
+            }
+            posicao += CABECALHO + corpo;
+        }
+    }
+
+    // Zera o que uma escrita interrompida deixou depois do fim, para não ser confundido com um registro
+    private void limparCauda(long posicao) {
+        int deslocamento = (int) (posicao % tamanhoSegmento);
+        MappedByteBuffer mapeado = segmentoEscrita.getMapeado();
+        if (deslocamento + 4 > tamanhoSegmento || mapeado.getInt(deslocamento) == 0) {
+            return;
+        }
+        int i = deslocamento;
+        for (; i + 8 <= tamanhoSegmento; i += 8) {
+            mapeado.putLong(i, 0L);
+        }
+        for (; i < tamanhoSegmento; i++) {
+            mapeado.put(i, (byte) 0);
+        }
+    }
+
+    private SegmentoSpool abrirSegmento(long indice) throws IOException {
+        SegmentoSpool segmento = SegmentoSpool.abrir(diretorio, indice, tamanhoSegmento);
+        segmentos.put(indice, segmento);
+        return segmento;
+    }
+
+    private void apagarArquivo(long indice) throws IOException {
+        File arquivo = new File(diretorio, SegmentoSpool.nomeArquivo(indice));
+        if (!arquivo.delete() && arquivo.exists()) {
+            throw new IOException("Não foi possível apagar o segmento " + arquivo);
+        }
+    }
+
+    // Os tópicos são poucos; cada um é codificado uma única vez
+    private byte[] codificar(String topico) {
+        byte[] bytes = topicosCodificados.get(topico);
+        if (bytes == null) {
+            bytes = topico.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Nome de tópico muito grande: " + bytes.length + " bytes");
+            }
+            topicosCodificados.put(topico, bytes);
+        }
+        return bytes;
+    }
+
+    // Compara os bytes do tópico com os já lidos, para não criar uma String a cada registro
+    private String decodificar(ByteBuffer visao, int tamanho) {
+        int inicio = visao.position();
+        for (int i = 0; i < bytesTopicosLidos.size(); i++) {
+            byte[] conhecido = bytesTopicosLidos.get(i);
+            if (conhecido.length == tamanho && iguais(visao, inicio, conhecido)) {
+                ((Buffer) visao).position(inicio + tamanho);
+                return topicosLidos.get(i);
+            }
+        }
+        byte[] bytes = new byte[tamanho];
+        visao.get(bytes);
+        String topico = new String(bytes, StandardCharsets.UTF_8);
+        bytesTopicosLidos.add(bytes);
+        topicosLidos.add(topico);
+        return topico;
+    }
+
+    private static boolean iguais(ByteBuffer visao, int inicio, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (visao.get(inicio + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Posiciona a fatia reaproveitada sobre os próximos bytes da visão e avança a visão
+    private static ByteBuffer fatia(ByteBuffer fatia, ByteBuffer visao, int tamanho) {
+        if (tamanho < 0) {
+            return fatia;
+        }
+        janela(fatia, visao.position(), tamanho);
+        ((Buffer) visao).position(visao.position() + tamanho);
+        return fatia;
+    }
+
+    // Copia os bytes entre a posição e o limite da origem, deixando a posição dela como estava
+    private static void copiar(ByteBuffer origem, ByteBuffer destino) {
+        if (origem == null) {
+            return;
+        }
+        int posicao = origem.position();
+        destino.put(origem);
+        ((Buffer) origem).position(posicao);
+    }
+
+    private static void janela(ByteBuffer buffer, int inicio, int tamanho) {
+        ((Buffer) buffer).limit(buffer.capacity());
+        ((Buffer) buffer).position(inicio);
+        ((Buffer) buffer).limit(inicio + tamanho);
+    }
+}
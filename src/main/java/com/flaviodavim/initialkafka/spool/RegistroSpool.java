@@ -0,0 +1,33 @@
+package com.flaviodavim.initialkafka.spool;
+
+import java.nio.ByteBuffer;
+
+/* Um registro lido do LogSpool, reaproveitado a cada leitura
+ * A chave e o valor são visões do arquivo mapeado, sem cópia, válidas só até a próxima leitura.
+ */
+public final class RegistroSpool {
+
+    String topico;
+    int particao;
+    boolean temChave;
+    boolean temValor;
+    ByteBuffer chave;
+    ByteBuffer valor;
+
+    public String getTopico() {
+        return topico;
+    }
+
+    // null quando a partição fica a cargo do particionador do Produtor
+    public Integer getParticao() {
+        return particao < 0 ? null : particao;
+    }
+
+    public ByteBuffer getChave() {
+        return temChave ? chave : null;
+    }
+
+    public ByteBuffer getValor() {
+        return temValor ? valor : null;
+    }
+}
@@ -0,0 +1,111 @@
+package com.flaviodavim.initialkafka.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* Um arquivo de tamanho fixo do LogSpool, mapeado inteiro na memória
+ *
+ * O arquivo é criado com o tamanho final (esparso, cheio de zeros), então um tamanho zero marca o fim dos registros.
+ * O mapeamento é compartilhado; cada thread usa a sua própria visão (duplicate) para ter a própria posição:
+ * a escrita é feita pela thread que tem a trava do LogSpool e a leitura só pela thread leitora.
+ */
+final class SegmentoSpool {
+
+    private final long indice;
+    private final File arquivo;
+    private final FileChannel canal;
+    private final MappedByteBuffer mapeado;
+    private final ByteBuffer escrita;
+    private final ByteBuffer leitura;
+    private final ByteBuffer chave;
+    private final ByteBuffer valor;
+
+    private SegmentoSpool(long indice, File arquivo, FileChannel canal, MappedByteBuffer mapeado) {
+        this.indice = indice;
+        this.arquivo = arquivo;
+        this.canal = canal;
+        this.mapeado = mapeado;
+        this.escrita = mapeado.duplicate();
+        this.leitura = mapeado.duplicate();
+        this.chave = mapeado.duplicate();
+        this.valor = mapeado.duplicate();
+    }
+
+    static SegmentoSpool abrir(File diretorio, long indice, int tamanho) throws IOException {
+        File arquivo = new File(diretorio, nomeArquivo(indice));
+        RandomAccessFile acesso = new RandomAccessFile(arquivo, "rw");
+        try {
+            if (acesso.length() != tamanho) {
+                acesso.setLength(tamanho);
+            }
+            FileChannel canal = acesso.getChannel();
+            return new SegmentoSpool(indice, arquivo, canal, canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanho));
+        } catch (IOException | RuntimeException e) {
+            acesso.close();
+            throw e;
+        }
+    }
+
+    static String nomeArquivo(long indice) {
+        return String.format("%020d.spool", indice);
+    }
+
+    // Devolve o índice de um arquivo de segmento, ou -1 se o nome não for de um segmento
+    static long indiceDoArquivo(String nome) {
+        if (!nome.endsWith(".spool") || nome.length() != 26) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(nome.substring(0, 20));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    long getIndice() {
+        return indice;
+    }
+
+    // Acesso absoluto, sem posição: pode ser usado por qualquer thread
+    MappedByteBuffer getMapeado() {
+        return mapeado;
+    }
+
+    ByteBuffer getEscrita() {
+        return escrita;
+    }
+
+    ByteBuffer getLeitura() {
+        return leitura;
+    }
+
+    // Visões da chave e do valor do último registro lido, reaproveitadas pelo RegistroSpool
+    ByteBuffer getChave() {
+        return chave;
+    }
+
+    ByteBuffer getValor() {
+        return valor;
+    }
+
+    // Grava no disco as páginas alteradas; sem isso, os dados sobrevivem a uma queda do processo, mas não do sistema
+    void forcar() {
+        mapeado.force();
+    }
+
+    void fechar() throws IOException {
+        canal.close();
+    }
+
+    // O mapeamento só é liberado pelo GC, mas o arquivo pode ser apagado antes disso
+    void apagar() throws IOException {
+        fechar();
+        if (!arquivo.delete() && arquivo.exists()) {
+            throw new IOException("Não foi possível apagar o segmento " + arquivo);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.flaviodavim.initialkafka.spool;
+
+import com.flaviodavim.initialkafka.consumidor.RastreadorOffsets;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Produtor que não perde registros quando o broker está lento ou fora do ar
+ *
+ * O enviar() só acrescenta o registro, já serializado, ao LogSpool: não bloqueia e não depende do broker.
+ * Uma thread drenadora lê o spool em ordem e faz o send() de cada registro, com até maxEmVoo aguardando confirmação.
+ * Com o broker saudável o spool fica praticamente vazio e as páginas nem chegam a ir para o disco;
+ * quando ele para, o buffer.memory do Produtor não enche por causa da aplicação: os registros se acumulam no spool.
+ *
+ * A posição confirmada do spool só avança sobre registros contíguos já confirmados pelo broker.
+ * Se um envio falha (inclusive um send() que estoura o max.block.ms), o drenador espera os envios em voo terminarem,
+ * volta para o primeiro registro que falhou e tenta de novo depois de um intervalo que dobra a cada falha.
+ * A entrega é pelo menos uma vez: registros enviados depois do que falhou podem ser reenviados,
+ * e registros em voo quando o processo para são enviados de novo na próxima execução.
+ *
+ * A ordem só é garantida enquanto os envios dão certo. Se um registro A falha depois que um B seguinte,
+ * da mesma partição, já foi escrito em outro lote, o reenvio recomeça em A e a partição fica com B, A, B.
+ * Com max.in.flight=1 e a idempotência, o Produtor envia um lote por vez para cada broker e tenta de novo
+ * o que falhou antes de enviar o seguinte, então isso só acontece quando um lote expira no acumulador
+ * (request.timeout.ms no kafka-clients 2.0) ou recebe um erro que não pode ser tentado de novo.
+ *
+ * Todo registro passa pelo spool porque, depois do send(), os bytes só existem dentro do Produtor:
+ * um registro que falha no callback não poderia ser guardado. Assim a mesma ordem vale antes, durante e depois da queda.
+ */
+public class SpoolProdutor implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(SpoolProdutor.class);
+
+    private final Producer<ByteBuffer, ByteBuffer> produtor;
+    private final LogSpool spool;
+    private final int maxEmVoo;
+    private final Thread drenador;
+
+    private long backoffMinimoMs = 100;
+    private long backoffMaximoMs = 5000;
+    private long intervaloForcarMs;
+    private long tempoEncerramentoMs = 5000;
+
+    // Posição do primeiro registro que falhou na rodada atual de envios
+    private final AtomicLong primeiraFalha = new AtomicLong(Long.MAX_VALUE);
+    private volatile boolean esperando;
+    private volatile boolean degradado;
+    private volatile boolean encerrado;
+
+    private final AtomicLong anexados = new AtomicLong();
+    private final AtomicLong confirmados = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong reenvios = new AtomicLong();
+
+    public SpoolProdutor(Producer<ByteBuffer, ByteBuffer> produtor, LogSpool spool, int maxEmVoo) {
+        if (maxEmVoo <= 0) {
+            throw new IllegalArgumentException("maxEmVoo deve ser maior que zero: " + maxEmVoo);
+        }
+        this.produtor = produtor;
+        this.spool = spool;
+        this.maxEmVoo = maxEmVoo;
+        this.drenador = new Thread(new Drenador(), "drenador-spool");
+        this.drenador.setDaemon(true);
+    }
+
+    /* O send() do drenador não pode ficar bloqueado por muito tempo sem broker: max.block.ms curto devolve
+     * o controle para ele, que tenta de novo mais tarde. A idempotência mantém a ordem nas novas tentativas do Produtor,
+     * e um único lote em voo por conexão evita que um lote seguinte seja escrito antes de um que acabou falhando.
+     */
+    public static Properties configurar(Properties propriedades) {
+        propriedades.setProperty(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        propriedades.setProperty(ProducerConfig.ACKS_CONFIG, "all");
+        propriedades.setProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+        propriedades.setProperty(ProducerConfig.MAX_BLOCK_MS_CONFIG, "1000");
+        return propriedades;
+    }
+
+    public void setBackoff(long backoffMinimoMs, long backoffMaximoMs) {
+        this.backoffMinimoMs = backoffMinimoMs;
+        this.backoffMaximoMs = backoffMaximoMs;
+    }
+
+    // Com um intervalo maior que zero, o drenador grava o spool no disco periodicamente (sobrevive a uma queda do sistema)
+    public void setIntervaloForcarMs(long intervaloForcarMs) {
+        this.intervaloForcarMs = intervaloForcarMs;
+    }
+
+    // Quanto o close() espera os envios em voo; o que não for confirmado fica no spool
+    public void setTempoEncerramentoMs(long tempoEncerramentoMs) {
+        this.tempoEncerramentoMs = tempoEncerramentoMs;
+    }
+
+    // Começa a drenar, inclusive os registros que ficaram no spool de uma execução anterior
+    public void iniciar() {
+        drenador.start();
+    }
+
+    public boolean enviar(String topico, ByteBuffer chave, ByteBuffer valor) throws IOException {
+        return enviar(topico, null, chave, valor);
+    }
+
+    /* Guarda o registro no spool para ser enviado pelo drenador
+     * Os buffers podem ser reaproveitados assim que o método retorna.
+     * Devolve false se o spool está cheio (maxSegmentos), o que só acontece com o broker fora do ar por muito tempo.
+     */
+    public boolean enviar(String topico, Integer particao, ByteBuffer chave, ByteBuffer valor) throws IOException {
+        if (!spool.anexar(topico, particao, chave, valor)) {
+            return false;
+        }
+        anexados.incrementAndGet();
+        if (esperando) {
+            LockSupport.unpark(drenador);
+        }
+        return true;
+    }
+
+    // Espera tudo o que já foi enviado até agora ser confirmado pelo broker
+    public boolean aguardarDrenagem(long tempo, TimeUnit unidade) throws InterruptedException {
+        long alvo = spool.getPosicaoEscrita();
+        long limite = System.nanoTime() + unidade.toNanos(tempo);
+        while (spool.getConfirmado() < alvo) {
+            if (System.nanoTime() >= limite) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+
+    // true entre uma falha de envio e a próxima confirmação
+    public boolean isDegradado() {
+        return degradado;
+    }
+
+    public long getAnexados() {
+        return anexados.get();
+    }
+
+    public long getConfirmados() {
+        return confirmados.get();
+    }
+
+    public long getFalhas() {
+        return falhas.get();
+    }
+
+    public long getReenvios() {
+        return reenvios.get();
+    }
+
+    public long getBytesPendentes() {
+        return spool.getBytesPendentes();
+    }
+
+    /* Para o drenador, espera os envios em voo por até tempoEncerramentoMs e fecha o Produtor e o spool
+     * Os registros ainda não confirmados ficam no spool e são enviados quando ele for aberto de novo.
+     */
+    @Override
+    public void close() throws IOException {
+        encerrado = true;
+        LockSupport.unpark(drenador);
+        try {
+            if (drenador.isAlive()) {
+                drenador.join();
+            } else {
+                produtor.close(tempoEncerramentoMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (spool.getBytesPendentes() > 0) {
+                logger.info(spool.getBytesPendentes() + " bytes ficaram no spool " + spool.getDiretorio()
+                        + " para a próxima execução");
+            }
+            spool.forcar();
+            spool.close();
+        }
+    }
+
+    private final class Drenador implements Runnable {
+
+        private final RegistroSpool registro = new RegistroSpool();
+        private RastreadorOffsets emVoo = new RastreadorOffsets(maxEmVoo);
+        private long backoffMs = backoffMinimoMs;
+        private long ultimoForcar = System.nanoTime();
+
+        @Override
+        public void run() {
+            long leitura = spool.getConfirmado();
+            try {
+                while (!encerrado) {
+                    confirmarConcluidos();
+                    forcarPeriodicamente();
+
+                    long falha = primeiraFalha.get();
+                    if (falha != Long.MAX_VALUE) {
+                        if (emVoo.pendentes() > 0) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                            continue;
+                        }
+                        // Todos os envios da rodada terminaram; o rastreador recomeça do registro que falhou
+                        leitura = falha;
+                        emVoo = new RastreadorOffsets(maxEmVoo);
+                        primeiraFalha.set(Long.MAX_VALUE);
+                        degradado = true;
+                        reenvios.incrementAndGet();
+                        logger.warn("Reenviando o spool a partir da posição " + falha + " em " + backoffMs + " ms ("
+                                + spool.getBytesPendentes() + " bytes pendentes)");
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                        backoffMs = Math.min(backoffMs * 2, backoffMaximoMs);
+                        continue;
+                    }
+
+                    if (emVoo.cheio()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                        continue;
+                    }
+                    long proxima = spool.ler(leitura, registro);
+                    if (proxima < 0) {
+                        // O enviar() acorda o drenador quando vê esperando=true
+                        esperando = true;
+                        if (spool.getPosicaoEscrita() <= leitura) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                        }
+                        esperando = false;
+                        continue;
+                    }
+                    enviar(leitura, proxima);
+                    leitura = proxima;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Erro no drenador do spool, os registros pendentes ficam para a próxima execução", e);
+            } finally {
+                produtor.close(tempoEncerramentoMs, TimeUnit.MILLISECONDS);
+                try {
+                    confirmarConcluidos();
+                } catch (IOException e) {
+                    logger.error("Erro ao confirmar a posição do spool", e);
+                }
+            }
+        }
+
+        private void enviar(long inicio, long proxima) {
+            long sequencia = emVoo.registrar(proxima - 1);
+            CallbackSpool callback = new CallbackSpool(emVoo, sequencia, inicio);
+            try {
+                produtor.send(new ProducerRecord<ByteBuffer, ByteBuffer>(registro.getTopico(), registro.getParticao(),
+                        registro.getChave(), registro.getValor()), callback);
+            } catch (KafkaException e) {
+                // max.block.ms estourado sem metadados ou com o buffer.memory cheio: conta como uma falha de envio
+                callback.onCompletion(null, e);
+            }
+        }
+
+        // Confirma no spool tudo o que foi concluído em sequência, sem passar do primeiro registro que falhou
+        private void confirmarConcluidos() throws IOException {
+            long proximo = emVoo.avancar();
+            if (proximo < 0) {
+                return;
+            }
+            long limite = Math.min(proximo, primeiraFalha.get());
+            if (limite > spool.getConfirmado()) {
+                spool.confirmar(limite);
+                backoffMs = backoffMinimoMs;
+                degradado = false;
+            }
+        }
+
+        private void forcarPeriodicamente() {
+            if (intervaloForcarMs > 0 && System.nanoTime() - ultimoForcar >= TimeUnit.MILLISECONDS.toNanos(intervaloForcarMs)) {
+                spool.forcar();
+                ultimoForcar = System.nanoTime();
+            }
+        }
+    }
+
+    private final class CallbackSpool implements Callback {
+
+        private final RastreadorOffsets rastreador;
+        private final long sequencia;
+        private final long inicio;
+
+        CallbackSpool(RastreadorOffsets rastreador, long sequencia, long inicio) {
+            this.rastreador = rastreador;
+            this.sequencia = sequencia;
+            this.inicio = inicio;
+        }
+
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            if (e == null) {
+                confirmados.incrementAndGet();
+            } else {
+                falhas.incrementAndGet();
+                long atual = primeiraFalha.get();
+                while (inicio < atual && !primeiraFalha.compareAndSet(atual, inicio)) {
+                    atual = primeiraFalha.get();
+                }
+                if (atual == Long.MAX_VALUE) {
+                    logger.warn("Falha ao enviar o registro da posição " + inicio + " do spool", e);
+                }
+            }
+            // A falha é marcada antes de concluir, então o drenador nunca confirma o registro que falhou
+            rastreador.concluir(sequencia);
+        }
+    }
+}
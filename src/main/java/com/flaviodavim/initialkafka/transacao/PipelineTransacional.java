@@ -0,0 +1,338 @@
+package com.flaviodavim.initialkafka.transacao;
+
+import com.flaviodavim.initialkafka.metricas.MetricasConsumidor;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Consome, transforma e produz com exatamente uma vez, usando o Produtor transacional
+ *
+ * Em vez de commitar o offset de cada registro de forma síncrona depois de produzir o resultado,
+ * a saída e os offsets consumidos entram na mesma transação:
+ *      1. beginTransaction no primeiro poll com registros
+ *      2. cada registro do poll passa pelo Transformador e a saída é enviada sem esperar confirmação
+ *      3. sendOffsetsToTransaction com o próximo offset de cada partição, em nome do grupo do Consumidor
+ *      4. commitTransaction: a saída fica visível e os offsets são commitados de uma vez
+ * Se qualquer passo falhar, a transação é abortada e o Consumidor volta para o primeiro offset dela,
+ * então nada é perdido nem produzido duas vezes para quem lê com isolation.level=read_committed.
+ *
+ * Uma transação sempre contém polls inteiros. Ela é fechada depois do poll em que passou de
+ * registrosPorTransacao registros ou de intervaloTransacaoMs desde o início; transações maiores
+ * diluem o custo do commit, e transações menores deixam a saída visível mais cedo.
+ *
+ * Registros em que o Transformador lança uma exceção são registrados no log e pulados, como no PipelineConsumo.
+ * Uma falha no send() (ex: um envio anterior da transação já falhou) aborta a transação e volta o Consumidor,
+ * como uma falha no commit. ProducerFencedException (outra instância com o mesmo transactional.id),
+ * OutOfOrderSequenceException e AuthorizationException são fatais: o pipeline é encerrado sem abortar.
+ *
+ * Limitação do kafka-clients 2.0: o transactional.id só protege contra uma instância zumbi com o mesmo id.
+ * O commit dos offsets não confere a geração do grupo, então com subscribe() e um transactional.id fixo por instância,
+ * uma instância que perdeu partições num rebalanceamento e ainda não percebeu pode commitar uma transação com registros
+ * que o novo dono também vai processar, e a saída deles sai duplicada. O exatamente uma vez só é garantido quando cada
+ * transactional.id fica preso às mesmas partições de entrada: assign() com partições fixas por instância,
+ * ou um Produtor por partição com o id derivado dela, como faz o Kafka Streams dessa versão.
+ *
+ * Recebe as interfaces Consumer e Producer, então pode ser testado com o MockConsumer e o MockProducer do Kafka.
+ */
+public class PipelineTransacional<KE, VE, KS, VS> implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(PipelineTransacional.class);
+
+    private final Consumer<KE, VE> consumidor;
+    private final Producer<KS, VS> produtor;
+    private final Transformador<KE, VE, KS, VS> transformador;
+    private final String idGrupo;
+
+    private Duration tempoPoll = Duration.ofMillis(100);
+    private int registrosPorTransacao = 5000;
+    private long intervaloTransacaoMs = 100;
+    private MetricasConsumidor metricas;
+
+    // Só são acessados pela thread do poll
+    private final List<ProducerRecord<KS, VS>> saida = new ArrayList<ProducerRecord<KS, VS>>();
+    private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+    private final Map<TopicPartition, Long> iniciosTransacao = new HashMap<TopicPartition, Long>();
+    private boolean emTransacao;
+    private long inicioTransacaoMs;
+    private int registrosTransacao;
+    private int produzidosTransacao;
+
+    private final AtomicLong transacoes = new AtomicLong();
+    private final AtomicLong abortadas = new AtomicLong();
+    private final AtomicLong consumidos = new AtomicLong();
+    private final AtomicLong produzidos = new AtomicLong();
+    private final AtomicLong falhasTransformacao = new AtomicLong();
+
+    private final Callback callbackEnvio = new Callback() {
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            // Uma falha de envio também faz o commitTransaction falhar, que é onde a transação é abortada
+            if (e != null) {
+                logger.warn("Falha ao enviar um registro da transação", e);
+            }
+        }
+    };
+
+    private volatile boolean encerrado;
+
+    public PipelineTransacional(Consumer<KE, VE> consumidor,
+                                Producer<KS, VS> produtor,
+                                Transformador<KE, VE, KS, VS> transformador,
+                                String idGrupo) {
+        this.consumidor = consumidor;
+        this.produtor = produtor;
+        this.transformador = transformador;
+        this.idGrupo = idGrupo;
+    }
+
+    /* O transactional.id identifica o Produtor entre reinícios: uma nova instância com o mesmo id
+     * aborta o que a anterior deixou aberto e impede que ela continue produzindo
+     * A idempotência e acks=all são exigidos pelas transações
+     */
+    public static Properties configurarProdutor(Properties propriedades, String idTransacao) {
+        propriedades.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, idTransacao);
+        propriedades.setProperty(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        propriedades.setProperty(ProducerConfig.ACKS_CONFIG, "all");
+        return propriedades;
+    }
+
+    // Os offsets são commitados pela transação, e só os registros de transações confirmadas são lidos
+    public static Properties configurarConsumidor(Properties propriedades) {
+        propriedades.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        propriedades.setProperty(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        return propriedades;
+    }
+
+    public void setTempoPoll(Duration tempoPoll) {
+        this.tempoPoll = tempoPoll;
+    }
+
+    public void setRegistrosPorTransacao(int registrosPorTransacao) {
+        if (registrosPorTransacao <= 0) {
+            throw new IllegalArgumentException("registrosPorTransacao deve ser maior que zero: " + registrosPorTransacao);
+        }
+        this.registrosPorTransacao = registrosPorTransacao;
+    }
+
+    // Com 0, cada poll com registros é uma transação
+    public void setIntervaloTransacaoMs(long intervaloTransacaoMs) {
+        this.intervaloTransacaoMs = intervaloTransacaoMs;
+    }
+
+    // Opcional; registra o tamanho de cada poll, a latência desde a produção e o lag das partições
+    public void setMetricas(MetricasConsumidor metricas) {
+        this.metricas = metricas;
+    }
+
+    /* Ouvinte que deve ser passado no subscribe()
+     * Antes de perder as partições, fecha a transação aberta para que os offsets delas sejam commitados
+     */
+    public ConsumerRebalanceListener ouvinteRebalanceamento() {
+        return new ConsumerRebalanceListener() {
+            public void onPartitionsRevoked(Collection<TopicPartition> revogadas) {
+                if (emTransacao) {
+                    concluirTransacao();
+                }
+            }
+
+            public void onPartitionsAssigned(Collection<TopicPartition> atribuidas) {
+                // O Consumidor começa de cada partição pelo offset commitado na última transação
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        boolean fatal = false;
+        try {
+            produtor.initTransactions();
+            while (!encerrado) {
+                ConsumerRecords<KE, VE> registros = consumidor.poll(tempoPoll);
+                if (metricas != null) {
+                    metricas.registrarLote(registros);
+                    metricas.atualizarLag(consumidor);
+                }
+                if (!registros.isEmpty()) {
+                    transformar(registros);
+                }
+                if (emTransacao && (registrosTransacao >= registrosPorTransacao
+                        || System.currentTimeMillis() - inicioTransacaoMs >= intervaloTransacaoMs)) {
+                    concluirTransacao();
+                }
+            }
+        } catch (WakeupException e) {
+            // Lançada pelo encerrar(); só é um erro se ninguém pediu o encerramento
+            if (!encerrado) {
+                throw e;
+            }
+        } catch (KafkaException e) {
+            if (fatal(e)) {
+                fatal = true;
+                logger.error("Erro fatal no Produtor transacional, encerrando o pipeline", e);
+            }
+            throw e;
+        } finally {
+            try {
+                if (emTransacao && !fatal) {
+                    concluirTransacao();
+                }
+            } finally {
+                consumidor.close();
+                produtor.close();
+            }
+        }
+    }
+
+    // Pode ser chamado de outra thread, como o gancho de desligamento
+    public void encerrar() {
+        encerrado = true;
+        consumidor.wakeup();
+    }
+
+    public long getTransacoes() {
+        return transacoes.get();
+    }
+
+    public long getAbortadas() {
+        return abortadas.get();
+    }
+
+    // Só contam os registros de transações commitadas
+    public long getConsumidos() {
+        return consumidos.get();
+    }
+
+    public long getProduzidos() {
+        return produzidos.get();
+    }
+
+    public long getFalhasTransformacao() {
+        return falhasTransformacao.get();
+    }
+
+    private void transformar(ConsumerRecords<KE, VE> registros) {
+        if (!emTransacao) {
+            produtor.beginTransaction();
+            emTransacao = true;
+            inicioTransacaoMs = System.currentTimeMillis();
+        }
+        // O início de cada partição do poll é guardado antes de qualquer envio: se um send() falhar no meio,
+        // o abortar() volta também as partições que ainda não foram transformadas
+        for (TopicPartition particao : registros.partitions()) {
+            if (!iniciosTransacao.containsKey(particao)) {
+                iniciosTransacao.put(particao, registros.records(particao).get(0).offset());
+            }
+        }
+        try {
+            enviar(registros);
+        } catch (KafkaException e) {
+            if (fatal(e)) {
+                throw e;
+            }
+            logger.warn("Falha ao enviar a saída da transação com " + registrosTransacao + " registros, abortando", e);
+            abortar();
+            limparTransacao();
+        } finally {
+            saida.clear();
+        }
+    }
+
+    private void enviar(ConsumerRecords<KE, VE> registros) {
+        for (TopicPartition particao : registros.partitions()) {
+            List<ConsumerRecord<KE, VE>> lote = registros.records(particao);
+            for (int i = 0; i < lote.size(); i++) {
+                ConsumerRecord<KE, VE> registro = lote.get(i);
+                saida.clear();
+                try {
+                    transformador.transformar(registro, saida);
+                } catch (Exception e) {
+                    // A saída parcial do registro é descartada e ele é dado como consumido
+                    falhasTransformacao.incrementAndGet();
+                    logger.error("Erro ao transformar o registro " + registro.topic() + "-" + registro.partition()
+                            + "@" + registro.offset(), e);
+                    continue;
+                }
+                for (int j = 0; j < saida.size(); j++) {
+                    produtor.send(saida.get(j), callbackEnvio);
+                }
+                produzidosTransacao += saida.size();
+            }
+            offsets.put(particao, new OffsetAndMetadata(lote.get(lote.size() - 1).offset() + 1));
+            registrosTransacao += lote.size();
+        }
+    }
+
+    /* Envia os offsets e commita a transação; se falhar, aborta e volta o Consumidor para o início dela
+     * Os erros fatais são repassados para o run() encerrar o pipeline
+     */
+    private void concluirTransacao() {
+        try {
+            produtor.sendOffsetsToTransaction(offsets, idGrupo);
+            produtor.commitTransaction();
+            transacoes.incrementAndGet();
+            consumidos.addAndGet(registrosTransacao);
+            produzidos.addAndGet(produzidosTransacao);
+        } catch (KafkaException e) {
+            if (fatal(e)) {
+                throw e;
+            }
+            logger.warn("Falha ao commitar a transação com " + registrosTransacao + " registros, abortando", e);
+            abortar();
+        } finally {
+            limparTransacao();
+        }
+    }
+
+    private void limparTransacao() {
+        offsets.clear();
+        iniciosTransacao.clear();
+        emTransacao = false;
+        registrosTransacao = 0;
+        produzidosTransacao = 0;
+    }
+
+    // O send() repassa o erro fatal de um envio anterior embrulhado numa KafkaException
+    private static boolean fatal(KafkaException e) {
+        Throwable causa = e.getCause() != null ? e.getCause() : e;
+        return e instanceof ProducerFencedException || e instanceof OutOfOrderSequenceException
+                || e instanceof AuthorizationException || causa instanceof ProducerFencedException
+                || causa instanceof OutOfOrderSequenceException || causa instanceof AuthorizationException;
+    }
+
+    private void abortar() {
+        produtor.abortTransaction();
+        abortadas.incrementAndGet();
+        // Os registros da transação são lidos de novo no próximo poll
+        Set<TopicPartition> atribuidas = consumidor.assignment();
+        for (Map.Entry<TopicPartition, Long> inicio : iniciosTransacao.entrySet()) {
+            if (atribuidas.contains(inicio.getKey())) {
+                consumidor.seek(inicio.getKey(), inicio.getValue());
+            }
+        }
+    }
+}
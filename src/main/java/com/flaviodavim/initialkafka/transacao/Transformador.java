@@ -0,0 +1,15 @@
+package com.flaviodavim.initialkafka.transacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import java.util.List;
+
+/* Transforma um registro consumido em zero ou mais registros a serem produzidos
+ * Os registros de saída são adicionados na lista, que é reaproveitada entre as chamadas.
+ * É executado pela thread do poll, dentro da transação do PipelineTransacional.
+ */
+public interface Transformador<KE, VE, KS, VS> {
+
+    void transformar(ConsumerRecord<KE, VE> registro, List<ProducerRecord<KS, VS>> saida) throws Exception;
+}
@@ -0,0 +1,85 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.RetriableCommitFailedException;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/* O ConsumidorAdaptativo com o MockConsumer e um commit assíncrono que falha
+ *
+ * O run() é executado na thread do teste e cada passo é uma tarefa do MockConsumer, executada no começo de um poll.
+ */
+public class ConsumidorAdaptativoTest {
+
+    private static final TopicPartition P0 = new TopicPartition("entrada", 0);
+
+    @Test
+    public void commitQueFalhouVoltaParaOProximoComAParticaoParada() {
+        final ConsumidorCommitFalho consumidor = new ConsumidorCommitFalho();
+        consumidor.assign(Collections.singleton(P0));
+        consumidor.updateBeginningOffsets(Collections.singletonMap(P0, 0L));
+        final List<String> processados = new ArrayList<String>();
+        ProcessadorRegistro<String, String> processador = registro -> processados.add(registro.value());
+        final ConsumidorAdaptativo<String, String> adaptativo =
+                new ConsumidorAdaptativo<String, String>(consumidor, processador, new ControladorPoll(300000));
+        // Um commit assíncrono depois de cada poll
+        adaptativo.setIntervaloCommitMs(0);
+        final OffsetAndMetadata[] commitado = new OffsetAndMetadata[2];
+
+        consumidor.schedulePollTask(() -> {
+            consumidor.falharCommitAsync = true;
+            adicionar(consumidor, 0);
+            adicionar(consumidor, 1);
+        });
+        consumidor.schedulePollTask(() -> {
+            // Nenhum registro novo chega à partição
+            commitado[0] = consumidor.committed(P0);
+            consumidor.falharCommitAsync = false;
+        });
+        consumidor.schedulePollTask(() -> {
+            commitado[1] = consumidor.committed(P0);
+            adaptativo.encerrar();
+        });
+        adaptativo.run();
+
+        assertEquals(2, processados.size());
+        assertNull(commitado[0]);
+        assertEquals(2, commitado[1].offset());
+    }
+
+    private static void adicionar(MockConsumer<String, String> consumidor, long offset) {
+        consumidor.addRecord(new ConsumerRecord<String, String>(P0.topic(), P0.partition(), offset,
+                "chave-" + offset, "valor-" + offset));
+    }
+
+    // O commitAsync do MockConsumer sempre dá certo
+    private static final class ConsumidorCommitFalho extends MockConsumer<String, String> {
+
+        boolean falharCommitAsync;
+
+        ConsumidorCommitFalho() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+            if (falharCommitAsync) {
+                callback.onComplete(offsets, new RetriableCommitFailedException("falha simulada no commit"));
+            } else {
+                super.commitAsync(offsets, callback);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/* O PipelineConsumo com o MockConsumer: a pausa pela capacidade, o commit em ordem e o rebalanceamento
+ *
+ * Cada passo é uma tarefa do MockConsumer, executada no começo de um poll; o que o pipeline faz depois do poll
+ * (entregar o excedente, pausar, retomar, commitar) aparece no passo seguinte.
+ * O MockConsumer do kafka-clients 2.0 não chama o ConsumerRebalanceListener, então o teste faz o que o KafkaConsumer
+ * faria dentro do poll: numa tarefa do poll, chama o onPartitionsRevoked, troca as partições com rebalance()
+ * e chama o onPartitionsAssigned. O run() é executado na thread do teste, e o processamento nas threads do pipeline.
+ */
+public class PipelineConsumoTest {
+
+    private static final String TOPICO = "entrada";
+    private static final TopicPartition P0 = new TopicPartition(TOPICO, 0);
+    private static final TopicPartition P1 = new TopicPartition(TOPICO, 1);
+
+    private MockConsumer<String, String> consumidor;
+    private final List<String> processados = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void preparar() {
+        consumidor = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST);
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        inicios.put(P0, 0L);
+        inicios.put(P1, 0L);
+        consumidor.updateBeginningOffsets(inicios);
+    }
+
+    @Test
+    public void naRevogacaoEsperaOQueEstaEmProcessamentoCommitaERetomaAsPausadas() throws Exception {
+        final CountDownLatch iniciado = new CountDownLatch(1);
+        final CountDownLatch p1Concluido = new CountDownLatch(1);
+        // O primeiro registro da P0 ainda está em processamento quando a revogação começa
+        ProcessadorRegistro<String, String> processador = registro -> {
+            if (registro.partition() == 0 && registro.offset() == 0) {
+                iniciado.countDown();
+                TimeUnit.MILLISECONDS.sleep(200);
+            }
+            processados.add(registro.partition() + "@" + registro.offset());
+            if (registro.partition() == 1) {
+                p1Concluido.countDown();
+            }
+        };
+        // Com capacidade 1, os registros 1 e 2 da P0 ficam no excedente e a partição é pausada
+        final PipelineConsumo<String, String> pipeline = criar(processador, 1, 10000);
+        final ConsumerRebalanceListener ouvinte = inscrever(pipeline);
+
+        final Set<TopicPartition> pausadasAntes = new HashSet<TopicPartition>();
+        final Set<TopicPartition> pausadasDepois = new HashSet<TopicPartition>();
+        final OffsetAndMetadata[] commitados = new OffsetAndMetadata[2];
+        final boolean[] concluidoNaRevogacao = new boolean[1];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0);
+            adicionar(P0, 1);
+            adicionar(P0, 2);
+            adicionar(P1, 0);
+        }, () -> {
+            aguardar(iniciado);
+            aguardar(p1Concluido);
+            pausadasAntes.addAll(consumidor.paused());
+            ouvinte.onPartitionsRevoked(Arrays.asList(P0, P1));
+            // Quando a revogação termina, o registro que estava em processamento já terminou e foi commitado
+            concluidoNaRevogacao[0] = processados.contains("0@0");
+            pausadasDepois.addAll(consumidor.paused());
+            commitados[0] = consumidor.committed(P0);
+            commitados[1] = consumidor.committed(P1);
+            consumidor.rebalance(Collections.singleton(P1));
+            ouvinte.onPartitionsAssigned(Collections.singleton(P1));
+        });
+
+        assertEquals(Collections.singleton(P0), pausadasAntes);
+        assertTrue(concluidoNaRevogacao[0]);
+        assertTrue(pausadasDepois.isEmpty());
+        assertEquals(1, commitados[0].offset());
+        assertEquals(1, commitados[1].offset());
+        // Os registros que estavam na fila da P0 foram descartados, para o próximo dono lê-los
+        assertFalse(processados.contains("0@1"));
+        assertFalse(processados.contains("0@2"));
+        assertEquals(1, pipeline.getRebalanceamentos());
+    }
+
+    @Test
+    public void registroQuePassaDoTempoDeDrenagemNaoECommitado() throws Exception {
+        final CountDownLatch iniciado = new CountDownLatch(1);
+        ProcessadorRegistro<String, String> processador = registro -> {
+            iniciado.countDown();
+            TimeUnit.MILLISECONDS.sleep(500);
+            processados.add(registro.partition() + "@" + registro.offset());
+        };
+        final PipelineConsumo<String, String> pipeline = criar(processador, 10, 50);
+        final ConsumerRebalanceListener ouvinte = inscrever(pipeline);
+        final OffsetAndMetadata[] commitado = new OffsetAndMetadata[1];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0);
+        }, () -> {
+            aguardar(iniciado);
+            ouvinte.onPartitionsRevoked(Arrays.asList(P0, P1));
+            commitado[0] = consumidor.committed(P0);
+            consumidor.rebalance(Collections.singleton(P1));
+            ouvinte.onPartitionsAssigned(Collections.singleton(P1));
+        });
+
+        // A drenagem desistiu antes do registro terminar, então o próximo dono da P0 vai lê-lo de novo
+        assertNull(commitado[0]);
+    }
+
+    @Test
+    public void particaoVoltaParaORegistroNaoConcluidoEContinuaDepoisDeEncher() throws Exception {
+        final AtomicBoolean falhou = new AtomicBoolean();
+        final CountDownLatch falha = new CountDownLatch(1);
+        final CountDownLatch todos = new CountDownLatch(5);
+        // O registro 0 não é concluído na primeira vez; na segunda tudo funciona
+        ProcessadorRegistro<String, String> processador = registro -> {
+            if (registro.offset() == 0 && falhou.compareAndSet(false, true)) {
+                falha.countDown();
+                throw new RegistroNaoConcluidoException("falha simulada no encaminhamento", null);
+            }
+            processados.add(registro.partition() + "@" + registro.offset());
+            todos.countDown();
+        };
+        // Capacidade 2 com 5 registros: a partição enche e é pausada logo depois da falha
+        final PipelineConsumo<String, String> pipeline = criar(processador, 2, 10000);
+        pipeline.setIntervaloCommitMs(0);
+        pipeline.setIntervaloFalhaMs(50);
+        pipeline.setTempoMaximoEncerramentoMs(10000);
+        inscrever(pipeline);
+        final long[] posicao = new long[1];
+        final boolean[] pausada = new boolean[2];
+        final OffsetAndMetadata[] commitados = new OffsetAndMetadata[2];
+
+        List<Runnable> passos = new ArrayList<Runnable>();
+        passos.add(() -> {
+            for (long offset = 0; offset < 5; offset++) {
+                adicionar(P0, offset);
+            }
+        });
+        passos.add(() -> {
+            aguardar(falha);
+            dormir(20);
+        });
+        passos.add(() -> {
+            // Depois do poll anterior a partição voltou para o registro 0 e está esperando o intervalo
+            posicao[0] = consumidor.position(P0);
+            pausada[0] = consumidor.paused().contains(P0);
+            commitados[0] = consumidor.committed(P0);
+            dormir(100);
+        });
+        passos.add(() -> {
+            pausada[1] = consumidor.paused().contains(P0);
+            for (long offset = 0; offset < 5; offset++) {
+                adicionar(P0, offset);
+            }
+        });
+        // Polls curtos, sem prender a thread do poll: eles entregam o excedente conforme a fila da partição esvazia
+        for (int i = 0; i < 50; i++) {
+            passos.add(() -> dormir(5));
+        }
+        passos.add(() -> {
+            aguardar(todos);
+            dormir(20);
+        });
+        passos.add(() -> commitados[1] = consumidor.committed(P0));
+        long inicio = System.currentTimeMillis();
+        executar(pipeline, passos.toArray(new Runnable[0]));
+        long duracao = System.currentTimeMillis() - inicio;
+
+        assertEquals(0, posicao[0]);
+        assertTrue(pausada[0]);
+        assertNull(commitados[0]);
+        assertFalse(pausada[1]);
+        assertEquals(5, commitados[1].offset());
+        assertEquals(Arrays.asList("0@0", "0@1", "0@2", "0@3", "0@4"), processados);
+        assertEquals(1, pipeline.getNaoConcluidos());
+        // O encerramento não espera o tempo máximo por um registro que nunca termina
+        assertTrue("O encerramento levou " + duracao + " ms", duracao < 5000);
+    }
+
+    @Test
+    public void pausaNaCapacidadeERetomaNaMetade() throws Exception {
+        // Cada registro só termina quando o teste libera uma permissão
+        final Semaphore permissoes = new Semaphore(0);
+        ProcessadorRegistro<String, String> processador = registro -> {
+            permissoes.acquire();
+            processados.add(registro.partition() + "@" + registro.offset());
+        };
+        final PipelineConsumo<String, String> pipeline = criar(processador, 4, 10000);
+        pipeline.setIntervaloCommitMs(0);
+        inscrever(pipeline);
+        final boolean[] pausada = new boolean[4];
+        final OffsetAndMetadata[] commitado = new OffsetAndMetadata[1];
+
+        executar(pipeline, () -> {
+            for (long offset = 0; offset < 10; offset++) {
+                adicionar(P0, offset);
+            }
+        }, () -> {
+            // 4 registros despachados e 6 no excedente
+            pausada[0] = consumidor.paused().contains(P0);
+            liberar(permissoes, 4);
+        }, () -> {
+            // Os registros 4 a 7 foram despachados, mas 8 e 9 continuam no excedente
+            pausada[1] = consumidor.paused().contains(P0);
+            liberar(permissoes, 3);
+        }, () -> {
+            // O excedente acabou, mas ainda há 3 pendentes, mais que a metade da capacidade
+            pausada[2] = consumidor.paused().contains(P0);
+            liberar(permissoes, 1);
+        }, () -> {
+            // Com 2 pendentes a partição foi retomada
+            pausada[3] = consumidor.paused().contains(P0);
+            liberar(permissoes, 2);
+        }, () -> {
+            commitado[0] = consumidor.committed(P0);
+        });
+
+        assertTrue(pausada[0]);
+        assertTrue(pausada[1]);
+        assertTrue(pausada[2]);
+        assertFalse(pausada[3]);
+        assertEquals(10, commitado[0].offset());
+    }
+
+    @Test
+    public void modoChaveCommitaSoOPrefixoConcluido() throws Exception {
+        final CountDownLatch liberarPrimeiro = new CountDownLatch(1);
+        // O registro 0 fica preso; os de outras chaves, em outras faixas, terminam antes dele
+        ProcessadorRegistro<String, String> processador = registro -> {
+            if (registro.offset() == 0) {
+                liberarPrimeiro.await(5, TimeUnit.SECONDS);
+            }
+            processados.add(registro.partition() + "@" + registro.offset());
+        };
+        final PipelineConsumo<String, String> pipeline = criar(processador, 10, 10000);
+        pipeline.setModoOrdenacao(ModoOrdenacao.CHAVE);
+        pipeline.setFaixasPorParticao(4);
+        pipeline.setIntervaloCommitMs(0);
+        inscrever(pipeline);
+        final List<String> antesDoPrimeiro = new ArrayList<String>();
+        final OffsetAndMetadata[] commitados = new OffsetAndMetadata[2];
+
+        executar(pipeline, () -> {
+            for (long offset = 0; offset < 5; offset++) {
+                adicionar(P0, offset);
+            }
+        }, () -> {
+            dormir(100);
+        }, () -> {
+            // O poll anterior tentou commitar com o registro 0 ainda em processamento
+            commitados[0] = consumidor.committed(P0);
+            antesDoPrimeiro.addAll(processados);
+            liberarPrimeiro.countDown();
+            dormir(100);
+        }, () -> {
+            commitados[1] = consumidor.committed(P0);
+        });
+
+        // Registros depois do 0 terminaram primeiro, mas o commit esperou por ele
+        assertFalse(antesDoPrimeiro.isEmpty());
+        assertFalse(antesDoPrimeiro.contains("0@0"));
+        assertNull(commitados[0]);
+        assertEquals(5, commitados[1].offset());
+        assertEquals(5, processados.size());
+    }
+
+    private PipelineConsumo<String, String> criar(ProcessadorRegistro<String, String> processador,
+                                                  int capacidadePorParticao, long tempoMaximoDrenagemMs) {
+        PipelineConsumo<String, String> pipeline =
+                new PipelineConsumo<String, String>(consumidor, processador, 2, capacidadePorParticao);
+        pipeline.setTempoPoll(Duration.ZERO);
+        pipeline.setIntervaloCommitMs(TimeUnit.HOURS.toMillis(1));
+        pipeline.setTempoMaximoDrenagemMs(tempoMaximoDrenagemMs);
+        pipeline.setTempoMaximoEncerramentoMs(1000);
+        return pipeline;
+    }
+
+    private ConsumerRebalanceListener inscrever(PipelineConsumo<String, String> pipeline) {
+        ConsumerRebalanceListener ouvinte = pipeline.ouvinteRebalanceamento();
+        consumidor.subscribe(Collections.singleton(TOPICO), ouvinte);
+        consumidor.rebalance(Arrays.asList(P0, P1));
+        return ouvinte;
+    }
+
+    // Um passo por poll; o poll depois do último encerra o pipeline
+    private void executar(PipelineConsumo<String, String> pipeline, Runnable... passos) {
+        for (Runnable passo : passos) {
+            consumidor.schedulePollTask(passo);
+        }
+        consumidor.schedulePollTask(pipeline::encerrar);
+        pipeline.run();
+    }
+
+    private void adicionar(TopicPartition particao, long offset) {
+        consumidor.addRecord(new ConsumerRecord<String, String>(particao.topic(), particao.partition(), offset,
+                "chave-" + offset, "valor-" + offset));
+    }
+
+    // Libera mais registros e espera eles terminarem, para o próximo poll ver o rastreador atualizado
+    private void liberar(Semaphore permissoes, int registros) {
+        int esperados = processados.size() + registros;
+        permissoes.release(registros);
+        long limite = System.currentTimeMillis() + 5000;
+        while (processados.size() < esperados) {
+            if (System.currentTimeMillis() > limite) {
+                throw new AssertionError("Os registros não terminaram a tempo");
+            }
+            dormir(1);
+        }
+        // O registro entra na lista antes do rastreador ser atualizado pela thread de trabalho
+        dormir(10);
+    }
+
+    private static void dormir(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void aguardar(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new AssertionError("O processamento não começou a tempo");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.flaviodavim.initialkafka.consumidor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/* O buffer circular do RastreadorOffsets, chamado direto na thread do teste
+ */
+public class RastreadorOffsetsTest {
+
+    @Test
+    public void commitSoAvancaSobreOsConcluidosEmSequencia() {
+        RastreadorOffsets rastreador = new RastreadorOffsets(4);
+        long a = rastreador.registrar(10);
+        long b = rastreador.registrar(11);
+        long c = rastreador.registrar(12);
+
+        assertEquals(-1, rastreador.avancar());
+        // O 12 termina antes dos outros, mas não libera o commit
+        rastreador.concluir(c);
+        assertEquals(-1, rastreador.avancar());
+        rastreador.concluir(a);
+        assertEquals(11, rastreador.avancar());
+        assertEquals(11, rastreador.getProximoCommit());
+        assertEquals(2, rastreador.pendentes());
+        assertEquals(11, rastreador.primeiroPendente());
+
+        rastreador.concluir(b);
+        assertEquals(13, rastreador.avancar());
+        assertEquals(0, rastreador.pendentes());
+        assertEquals(-1, rastreador.primeiroPendente());
+    }
+
+    @Test
+    public void reaproveitaAsPosicoesDoBufferDepoisDeDarAVolta() {
+        RastreadorOffsets rastreador = new RastreadorOffsets(3);
+        long offset = 100;
+        // Várias voltas no buffer, sempre com a partição cheia e os registros terminando fora de ordem
+        for (int volta = 0; volta < 5; volta++) {
+            long primeira = rastreador.registrar(offset);
+            long segunda = rastreador.registrar(offset + 1);
+            long terceira = rastreador.registrar(offset + 2);
+            assertTrue(rastreador.cheio());
+
+            rastreador.concluir(terceira);
+            rastreador.concluir(segunda);
+            assertEquals(volta == 0 ? -1 : offset, rastreador.avancar());
+            assertTrue(rastreador.cheio());
+
+            rastreador.concluir(primeira);
+            assertEquals(offset + 3, rastreador.avancar());
+            assertFalse(rastreador.cheio());
+            offset += 3;
+        }
+        assertEquals(0, rastreador.pendentes());
+    }
+
+    @Test
+    public void descartadoSeguraOCommitMasNaoFicaEmAndamento() {
+        RastreadorOffsets rastreador = new RastreadorOffsets(4);
+        long a = rastreador.registrar(0);
+        long b = rastreador.registrar(1);
+        long c = rastreador.registrar(2);
+        rastreador.concluir(a);
+        rastreador.descartar(b);
+        assertTrue(rastreador.emAndamento());
+
+        rastreador.concluir(c);
+        assertFalse(rastreador.emAndamento());
+        // O commit para antes do descartado, que será lido de novo
+        assertEquals(1, rastreador.avancar());
+        assertEquals(1, rastreador.primeiroPendente());
+    }
+
+    @Test
+    public void naoRegistraAlemDaCapacidade() {
+        RastreadorOffsets rastreador = new RastreadorOffsets(2);
+        rastreador.registrar(0);
+        rastreador.registrar(1);
+        try {
+            rastreador.registrar(2);
+            fail("O rastreador cheio deveria recusar o registro");
+        } catch (IllegalStateException e) {
+            assertEquals(2, rastreador.pendentes());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* O ConjuntoVistos com janelas curtas e uma tabela exata pequena
+ *
+ * Os ids são espalhados pelo Hash64, como os do IdentificadorRegistro, e o filtro tem folga para não dar falso positivo.
+ */
+public class ConjuntoVistosTest {
+
+    private static final long JANELA_MS = 200;
+
+    @Test
+    public void idAdicionadoERepetidoEOsOutrosSaoNovos() {
+        ConjuntoVistos vistos = new ConjuntoVistos(60000, 1000, 0.0001, 100);
+        long id = Hash64.misturar(1);
+
+        assertEquals(ConjuntoVistos.Verificacao.NOVO, vistos.verificar(id));
+        vistos.adicionar(id);
+        assertEquals(ConjuntoVistos.Verificacao.REPETIDO, vistos.verificar(id));
+        assertEquals(ConjuntoVistos.Verificacao.NOVO, vistos.verificar(Hash64.misturar(2)));
+    }
+
+    @Test
+    public void idQueSaiuDosRecentesContinuaNoFiltroComoSuspeito() {
+        // A tabela exata só guarda 2 ids
+        ConjuntoVistos vistos = new ConjuntoVistos(60000, 1000, 0.0001, 2);
+        for (long i = 1; i <= 3; i++) {
+            vistos.adicionar(Hash64.misturar(i));
+        }
+
+        assertEquals(ConjuntoVistos.Verificacao.SUSPEITO, vistos.verificar(Hash64.misturar(1)));
+        assertEquals(ConjuntoVistos.Verificacao.REPETIDO, vistos.verificar(Hash64.misturar(3)));
+        assertTrue(vistos.isDescartarSuspeitos());
+    }
+
+    @Test
+    public void idELembradoPorUmaADuasJanelas() throws InterruptedException {
+        ConjuntoVistos vistos = new ConjuntoVistos(JANELA_MS, 1000, 0.0001, 1);
+        long id = Hash64.misturar(1);
+        vistos.adicionar(id);
+        // Tira o id da tabela exata, para só o filtro responder por ele
+        vistos.adicionar(Hash64.misturar(2));
+
+        Thread.sleep(JANELA_MS + 50);
+        // Na janela seguinte o id está no filtro anterior
+        assertEquals(ConjuntoVistos.Verificacao.SUSPEITO, vistos.verificar(id));
+
+        Thread.sleep(JANELA_MS + 50);
+        // Duas janelas depois os dois filtros foram limpos
+        assertEquals(ConjuntoVistos.Verificacao.NOVO, vistos.verificar(id));
+    }
+}
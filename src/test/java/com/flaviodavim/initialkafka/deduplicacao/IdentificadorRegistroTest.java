@@ -0,0 +1,70 @@
+package com.flaviodavim.initialkafka.deduplicacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/* Os dois identificadores de registro: pela posição e pelo conteúdo
+ *
+ * Cada registro é montado com arrays novos, como o desserializador entrega uma reentrega.
+ */
+public class IdentificadorRegistroTest {
+
+    @Test
+    public void posicaoIdentificaPeloTopicoParticaoEOffset() {
+        IdentificadorRegistro<byte[], ByteBuffer> posicao = IdentificadorRegistro.posicao();
+
+        long id = posicao.identificar(registro("entrada", 0, 10, "a", "x"));
+        // O mesmo offset com outro conteúdo é o mesmo registro
+        assertEquals(id, posicao.identificar(registro("entrada", 0, 10, "b", "y")));
+        assertNotEquals(id, posicao.identificar(registro("entrada", 0, 11, "a", "x")));
+        assertNotEquals(id, posicao.identificar(registro("entrada", 1, 10, "a", "x")));
+        assertNotEquals(id, posicao.identificar(registro("saida", 0, 10, "a", "x")));
+    }
+
+    @Test
+    public void conteudoComparaChavesByteArrayPeloConteudo() {
+        IdentificadorRegistro<byte[], ByteBuffer> conteudo = IdentificadorRegistro.conteudo();
+
+        long id = conteudo.identificar(registro("entrada", 0, 10, "a", "x"));
+        // O mesmo dado em outro offset, com outros arrays para a chave e o valor
+        assertEquals(id, conteudo.identificar(registro("entrada", 3, 99, "a", "x")));
+        assertNotEquals(id, conteudo.identificar(registro("entrada", 0, 10, "b", "x")));
+        assertNotEquals(id, conteudo.identificar(registro("entrada", 0, 10, "a", "y")));
+    }
+
+    @Test
+    public void conteudoComparaChavesByteBufferENulas() {
+        IdentificadorRegistro<ByteBuffer, ByteBuffer> conteudo = IdentificadorRegistro.conteudo();
+
+        assertEquals(conteudo.identificar(registroBuffer(0, bytes("a"), "x")),
+                conteudo.identificar(registroBuffer(1, bytes("a"), "x")));
+        assertEquals(conteudo.identificar(registroBuffer(0, null, "x")),
+                conteudo.identificar(registroBuffer(1, null, "x")));
+        assertNotEquals(conteudo.identificar(registroBuffer(0, null, "x")),
+                conteudo.identificar(registroBuffer(0, bytes(""), "x")));
+    }
+
+    private static ConsumerRecord<byte[], ByteBuffer> registro(String topico, int particao, long offset,
+                                                              String chave, String valor) {
+        return new ConsumerRecord<byte[], ByteBuffer>(topico, particao, offset, bytes(chave), buffer(valor));
+    }
+
+    private static ConsumerRecord<ByteBuffer, ByteBuffer> registroBuffer(long offset, byte[] chave, String valor) {
+        return new ConsumerRecord<ByteBuffer, ByteBuffer>("entrada", 0, offset,
+                chave == null ? null : ByteBuffer.wrap(chave), buffer(valor));
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer buffer(String texto) {
+        return ByteBuffer.wrap(bytes(texto));
+    }
+}
@@ -0,0 +1,193 @@
+package com.flaviodavim.initialkafka.gravacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.RetriableCommitFailedException;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/* O ConsumidorGravacao com o MockConsumer, uma falha no fsync feito no rebalanceamento e um commit assíncrono que falha
+ *
+ * O MockConsumer do kafka-clients 2.0 não chama o ConsumerRebalanceListener, então o teste chama o
+ * onPartitionsRevoked numa tarefa do poll, como o KafkaConsumer faria, e confere o que o run() faz depois.
+ */
+public class ConsumidorGravacaoTest {
+
+    private static final TopicPartition P0 = new TopicPartition("entrada", 0);
+    private static final TopicPartition P1 = new TopicPartition("entrada", 1);
+
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+
+    @Test
+    public void falhaNoFsyncDoRebalanceamentoEncerraORunSemCommitar() throws Exception {
+        final MockConsumer<ByteBuffer, ByteBuffer> consumidor =
+                new MockConsumer<ByteBuffer, ByteBuffer>(OffsetResetStrategy.EARLIEST);
+        final GravadorFalho gravador = new GravadorFalho(pasta.newFolder());
+        final ConsumidorGravacao gravacao = new ConsumidorGravacao(consumidor, gravador);
+        // O fsync só acontece no rebalanceamento
+        gravacao.setIntervaloFsync(60000, Long.MAX_VALUE);
+        final ConsumerRebalanceListener ouvinte = gravacao.ouvinteRebalanceamento();
+        consumidor.subscribe(Collections.singleton(P0.topic()), ouvinte);
+        consumidor.rebalance(Collections.singleton(P0));
+        consumidor.updateBeginningOffsets(Collections.singletonMap(P0, 0L));
+        final OffsetAndMetadata[] commitado = new OffsetAndMetadata[1];
+
+        consumidor.schedulePollTask(() -> {
+            adicionar(consumidor, 0);
+            adicionar(consumidor, 1);
+        });
+        consumidor.schedulePollTask(() -> {
+            gravador.falhar = true;
+            // O KafkaConsumer engole o que o ouvinte lança, então ele não pode depender de uma exceção
+            ouvinte.onPartitionsRevoked(Collections.singleton(P0));
+            commitado[0] = consumidor.committed(P0);
+        });
+        // Não deve ser executada: o run() termina quando o poll anterior volta
+        consumidor.schedulePollTask(gravacao::encerrar);
+
+        try {
+            gravacao.run();
+            fail("O run() deveria ter lançado a falha do fsync");
+        } catch (UncheckedIOException e) {
+            assertSame(gravador.erro, e.getCause());
+        }
+        assertNull(commitado[0]);
+        // Depois da falha não houve outro fsync, nem o do encerramento
+        assertEquals(1, gravador.chamadas);
+    }
+
+    @Test
+    public void commitAssincronoQueFalhaNaoVoltaParaParticaoRevogada() throws Exception {
+        final ConsumidorCommitFalho consumidor = new ConsumidorCommitFalho();
+        final ConsumidorGravacao gravacao = new ConsumidorGravacao(consumidor, new GravadorSegmentos(pasta.newFolder()));
+        // Fsync e commit assíncrono depois de cada poll com registros
+        gravacao.setIntervaloFsync(0, Long.MAX_VALUE);
+        final ConsumerRebalanceListener ouvinte = gravacao.ouvinteRebalanceamento();
+        consumidor.subscribe(Collections.singleton(P0.topic()), ouvinte);
+        consumidor.rebalance(Arrays.asList(P0, P1));
+        Map<TopicPartition, Long> inicio = new HashMap<TopicPartition, Long>();
+        inicio.put(P0, 0L);
+        inicio.put(P1, 0L);
+        consumidor.updateBeginningOffsets(inicio);
+        final OffsetAndMetadata[] commitado = new OffsetAndMetadata[1];
+
+        consumidor.schedulePollTask(() -> {
+            consumidor.falharCommitAsync = true;
+            adicionar(consumidor, P0, 0);
+            adicionar(consumidor, P1, 0);
+        });
+        consumidor.schedulePollTask(() -> {
+            // A resposta do commit chega depois de P0 ir para outro consumidor
+            ouvinte.onPartitionsRevoked(Arrays.asList(P0, P1));
+            consumidor.rebalance(Collections.singleton(P1));
+            ouvinte.onPartitionsAssigned(Collections.singleton(P1));
+            consumidor.falharCommitAsync = false;
+            consumidor.responderCommitsPendentes();
+            adicionar(consumidor, P1, 1);
+        });
+        consumidor.schedulePollTask(() -> {
+            commitado[0] = consumidor.committed(P1);
+            gravacao.encerrar();
+        });
+        gravacao.run();
+
+        // O MockConsumer devolve 0 no committed() de uma partição que não está atribuída, então os commits são conferidos
+        for (Map<TopicPartition, OffsetAndMetadata> commit : consumidor.commits) {
+            assertFalse(commit.containsKey(P0));
+        }
+        assertEquals(2, commitado[0].offset());
+    }
+
+    private static void adicionar(MockConsumer<ByteBuffer, ByteBuffer> consumidor, long offset) {
+        adicionar(consumidor, P0, offset);
+    }
+
+    private static void adicionar(MockConsumer<ByteBuffer, ByteBuffer> consumidor, TopicPartition particao, long offset) {
+        consumidor.addRecord(new ConsumerRecord<ByteBuffer, ByteBuffer>(particao.topic(), particao.partition(), offset,
+                ByteBuffer.wrap(("chave-" + offset).getBytes(StandardCharsets.UTF_8)),
+                ByteBuffer.wrap(("valor-" + offset).getBytes(StandardCharsets.UTF_8))));
+    }
+
+    // O commitAsync do MockConsumer sempre dá certo; aqui a resposta com falha fica guardada até o teste entregá-la
+    private static final class ConsumidorCommitFalho extends MockConsumer<ByteBuffer, ByteBuffer> {
+
+        final List<Map<TopicPartition, OffsetAndMetadata>> pendentes = new ArrayList<Map<TopicPartition, OffsetAndMetadata>>();
+        final List<OffsetCommitCallback> callbacks = new ArrayList<OffsetCommitCallback>();
+        final List<Map<TopicPartition, OffsetAndMetadata>> commits = new ArrayList<Map<TopicPartition, OffsetAndMetadata>>();
+        boolean falharCommitAsync;
+
+        ConsumidorCommitFalho() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            commits.add(new HashMap<TopicPartition, OffsetAndMetadata>(offsets));
+            super.commitSync(offsets);
+        }
+
+        @Override
+        public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+            if (!falharCommitAsync) {
+                commits.add(new HashMap<TopicPartition, OffsetAndMetadata>(offsets));
+                super.commitAsync(offsets, callback);
+                return;
+            }
+            pendentes.add(offsets);
+            callbacks.add(callback);
+        }
+
+        void responderCommitsPendentes() {
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).onComplete(pendentes.get(i), new RetriableCommitFailedException("falha simulada no commit"));
+            }
+            pendentes.clear();
+            callbacks.clear();
+        }
+    }
+
+    private static final class GravadorFalho extends GravadorSegmentos {
+
+        final IOException erro = new IOException("falha simulada no fsync");
+        boolean falhar;
+        int chamadas;
+
+        GravadorFalho(File diretorio) throws IOException {
+            super(diretorio);
+        }
+
+        @Override
+        public Map<TopicPartition, OffsetAndMetadata> forcar() throws IOException {
+            chamadas++;
+            if (falhar) {
+                throw erro;
+            }
+            return super.forcar();
+        }
+    }
+}
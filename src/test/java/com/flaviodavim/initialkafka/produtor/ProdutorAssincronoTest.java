@@ -0,0 +1,111 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/* O ProdutorAssincrono com o MockProducer sem conclusão automática
+ *
+ * Cada envio só é confirmado (completeNext) ou falha (errorNext) quando o teste manda, como a resposta do broker.
+ */
+public class ProdutorAssincronoTest {
+
+    private MockProducer<String, String> mock;
+    private final List<ProducerRecord<String, String>> registrosComFalha = new ArrayList<ProducerRecord<String, String>>();
+    private final List<Exception> falhas = new ArrayList<Exception>();
+    private ProdutorAssincrono<String, String> produtor;
+
+    @Before
+    public void preparar() {
+        mock = new MockProducer<String, String>(false, new StringSerializer(), new StringSerializer());
+        produtor = new ProdutorAssincrono<String, String>(mock, 2, (registro, e) -> {
+            registrosComFalha.add(registro);
+            falhas.add(e);
+        });
+    }
+
+    @Test
+    public void bloqueiaNoLimiteDaJanelaELiberaNaConfirmacao() throws Exception {
+        produtor.enviar(registro("a"));
+        produtor.enviar(registro("b"));
+        assertEquals(2, produtor.getEmVoo());
+
+        ExecutorService outraThread = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> terceiro = outraThread.submit(() -> {
+                produtor.enviar(registro("c"));
+                return null;
+            });
+            try {
+                terceiro.get(200, TimeUnit.MILLISECONDS);
+                fail("O terceiro envio deveria esperar uma vaga na janela");
+            } catch (TimeoutException e) {
+                assertEquals(2, mock.history().size());
+            }
+
+            // A confirmação do primeiro abre uma vaga
+            assertTrue(mock.completeNext());
+            terceiro.get(5, TimeUnit.SECONDS);
+            assertEquals(3, mock.history().size());
+            assertEquals(2, produtor.getEmVoo());
+        } finally {
+            outraThread.shutdownNow();
+        }
+
+        // O flush do MockProducer conclui os envios pendentes, como o do KafkaProducer manda os lotes em espera
+        assertTrue(produtor.aguardarConclusao(1, TimeUnit.SECONDS));
+        assertEquals(0, produtor.getEmVoo());
+        assertEquals(3, produtor.getEnviados());
+        assertEquals(3, produtor.getConfirmados());
+        assertEquals(0, produtor.getFalhas());
+    }
+
+    @Test
+    public void falhaChamaOOuvinteEOCallbackEDevolveAVaga() throws Exception {
+        final List<Exception> noCallback = new ArrayList<Exception>();
+        ProducerRecord<String, String> registro = registro("a");
+        produtor.enviar(registro, (metadados, e) -> noCallback.add(e));
+
+        RuntimeException erro = new RuntimeException("falha simulada no broker");
+        assertTrue(mock.errorNext(erro));
+
+        assertEquals(1, produtor.getFalhas());
+        assertEquals(0, produtor.getConfirmados());
+        assertEquals(0, produtor.getEmVoo());
+        assertSame(registro, registrosComFalha.get(0));
+        assertSame(erro, falhas.get(0));
+        assertSame(erro, noCallback.get(0));
+    }
+
+    @Test
+    public void erroLancadoPeloSendDevolveAVaga() throws Exception {
+        mock.close();
+        try {
+            produtor.enviar(registro("a"));
+            fail("O send() num Produtor fechado deveria falhar");
+        } catch (IllegalStateException e) {
+            assertEquals(0, produtor.getEmVoo());
+            assertEquals(1, produtor.getFalhas());
+            assertSame(e, falhas.get(0));
+        }
+    }
+
+    private static ProducerRecord<String, String> registro(String valor) {
+        return new ProducerRecord<String, String>("saida", valor, valor);
+    }
+}
@@ -0,0 +1,56 @@
+package com.flaviodavim.initialkafka.produtor;
+
+import com.flaviodavim.initialkafka.metricas.RegistroJmx;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* O RegistroProdutores com o MockProducer no lugar do KafkaProducer
+ *
+ * As métricas de cada ProdutorCompartilhado são conferidas no MBeanServer da própria JVM do teste.
+ */
+public class RegistroProdutoresTest {
+
+    private RegistroProdutores<String, String> registro;
+
+    @Before
+    public void preparar() {
+        registro = new RegistroProdutores<String, String>((perfil, ajustes) ->
+                new MockProducer<String, String>(true, new StringSerializer(), new StringSerializer()), 0);
+    }
+
+    @After
+    public void fechar() {
+        registro.close();
+    }
+
+    @Test
+    public void mesmoChamadorDuasVezesTemMetricasSeparadasNoJmx() throws Exception {
+        ObjectName consulta = new ObjectName(RegistroJmx.DOMINIO + ":type=MetricasProdutor,name=padrao-repetido*");
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+
+        ProdutorCompartilhado<String, String> primeiro = registro.adquirir("repetido");
+        ProdutorCompartilhado<String, String> segundo = registro.adquirir("repetido");
+        assertEquals(2, servidor.queryNames(consulta, null).size());
+        assertEquals(2, registro.getReferencias(RegistroProdutores.PERFIL_PADRAO));
+
+        // Devolver um deles não pode tirar do JMX as métricas do outro
+        primeiro.close();
+        assertEquals(1, servidor.queryNames(consulta, null).size());
+        assertTrue(servidor.isRegistered(new ObjectName(RegistroJmx.DOMINIO
+                + ":type=MetricasProdutor,name=padrao-repetido-2")));
+
+        segundo.close();
+        assertEquals(0, servidor.queryNames(consulta, null).size());
+        assertEquals(0, registro.getReferencias(RegistroProdutores.PERFIL_PADRAO));
+    }
+}
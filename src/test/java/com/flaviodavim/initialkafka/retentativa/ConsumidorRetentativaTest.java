@@ -0,0 +1,128 @@
+package com.flaviodavim.initialkafka.retentativa;
+
+import com.flaviodavim.initialkafka.consumidor.ProcessadorRegistro;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* O ConsumidorRetentativa com um ProcessadorComRetentativa que não consegue encaminhar o registro
+ *
+ * O run() é executado na thread do teste e cada passo é uma tarefa do MockConsumer, executada no começo de um poll.
+ * O processador sempre falha, então todo registro é encaminhado para o nível seguinte pelo MockProducer.
+ */
+public class ConsumidorRetentativaTest {
+
+    private static final TopicPartition P0 = new TopicPartition("entrada.retry-5s", 0);
+
+    private MockConsumer<String, String> consumidor;
+    private ProdutorTeste produtor;
+    private ConsumidorRetentativa<String, String> retentativa;
+
+    @Before
+    public void preparar() {
+        consumidor = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST);
+        consumidor.assign(Collections.singleton(P0));
+        consumidor.updateBeginningOffsets(Collections.singletonMap(P0, 0L));
+        produtor = new ProdutorTeste();
+
+        ProcessadorRegistro<String, String> instavel = registro -> {
+            throw new IllegalStateException("falha simulada no processamento");
+        };
+        ProcessadorComRetentativa<String, String> comRetentativa = new ProcessadorComRetentativa<String, String>(
+                instavel, produtor, PoliticaRetentativa.padrao("entrada", Duration.ofSeconds(5), Duration.ofMinutes(1)));
+        comRetentativa.setTentativasEnvio(2);
+        comRetentativa.setIntervaloEnvioMs(1);
+        retentativa = new ConsumidorRetentativa<String, String>(consumidor, comRetentativa);
+        retentativa.setTempoPoll(Duration.ofMillis(10));
+        retentativa.setIntervaloFalhaMs(100);
+    }
+
+    @Test
+    public void voltaParaORegistroEPausaAParticaoQuandoOEncaminhamentoFalha() {
+        // As duas tentativas de envio do primeiro registro falham
+        produtor.falharEnvios = 2;
+        final long[] posicao = new long[1];
+        final boolean[] pausada = new boolean[1];
+        final OffsetAndMetadata[] commitados = new OffsetAndMetadata[2];
+
+        consumidor.schedulePollTask(() -> {
+            adicionar(0);
+            adicionar(1);
+        });
+        consumidor.schedulePollTask(() -> {
+            posicao[0] = consumidor.position(P0);
+            pausada[0] = consumidor.paused().contains(P0);
+            commitados[0] = consumidor.committed(P0);
+            dormir(150);
+        });
+        consumidor.schedulePollTask(() -> {
+            // O intervalo passou e a partição foi retomada: os mesmos registros são entregues de novo
+            adicionar(0);
+            adicionar(1);
+        });
+        consumidor.schedulePollTask(() -> {
+            commitados[1] = consumidor.committed(P0);
+            retentativa.encerrar();
+        });
+        retentativa.run();
+
+        assertEquals(0, posicao[0]);
+        assertTrue(pausada[0]);
+        // O commit não passou do registro que não foi encaminhado
+        assertEquals(0, commitados[0].offset());
+        assertEquals(2, commitados[1].offset());
+        assertEquals(2, produtor.history().size());
+        assertEquals("entrada.retry-5s", produtor.history().get(0).topic());
+        assertEquals(2, retentativa.getProcessados());
+        assertEquals(1, retentativa.getAdiamentos());
+    }
+
+    private void adicionar(long offset) {
+        consumidor.addRecord(new ConsumerRecord<String, String>(P0.topic(), P0.partition(), offset,
+                "chave-" + offset, "valor-" + offset));
+    }
+
+    private static void dormir(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // O MockProducer do kafka-clients 2.0 não tem como simular uma falha no send()
+    private static final class ProdutorTeste extends MockProducer<String, String> {
+
+        int falharEnvios;
+
+        ProdutorTeste() {
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> registro, Callback callback) {
+            if (falharEnvios > 0) {
+                falharEnvios--;
+                throw new KafkaException("falha simulada no envio");
+            }
+            return super.send(registro, callback);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.flaviodavim.initialkafka.spool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/* A recuperação do LogSpool depois de uma queda, com segmentos de 1024 bytes
+ *
+ * Cada teste escreve registros, fecha o spool, altera os arquivos como uma queda no meio de uma escrita
+ * (ou um disco com defeito) deixaria, e abre o spool de novo no mesmo diretório.
+ */
+public class LogSpoolTest {
+
+    private static final int TAMANHO_SEGMENTO = 1024;
+
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+
+    @Test
+    public void reabreDaPosicaoConfirmadaComOsRegistrosPendentes() throws IOException {
+        File diretorio = pasta.newFolder();
+        LogSpool spool = abrir(diretorio);
+        anexar(spool, 0, 3);
+        spool.confirmar(spool.ler(0, new RegistroSpool()));
+        long confirmado = spool.getConfirmado();
+        long fim = spool.getPosicaoEscrita();
+        spool.close();
+
+        spool = abrir(diretorio);
+        assertEquals(confirmado, spool.getConfirmado());
+        assertEquals(fim, spool.getPosicaoEscrita());
+        assertEquals(Arrays.asList("valor-1", "valor-2"), lerValores(spool));
+        spool.close();
+    }
+
+    @Test
+    public void varreduraAtravessaOFimDoSegmento() throws IOException {
+        File diretorio = pasta.newFolder();
+        LogSpool spool = abrir(diretorio);
+        // Registros de 34 bytes: 30 cabem no primeiro segmento, que termina com a marca de fim, e os outros vão para o segundo
+        anexar(spool, 10, 40);
+        long fim = spool.getPosicaoEscrita();
+        spool.close();
+
+        spool = abrir(diretorio);
+        assertEquals(fim, spool.getPosicaoEscrita());
+        List<String> valores = lerValores(spool);
+        assertEquals(40, valores.size());
+        assertEquals("valor-10", valores.get(0));
+        assertEquals("valor-49", valores.get(39));
+        spool.close();
+    }
+
+    @Test
+    public void crcDiferenteDescartaORegistroEOsSeguintes() throws IOException {
+        File diretorio = pasta.newFolder();
+        LogSpool spool = abrir(diretorio);
+        anexar(spool, 0, 2);
+        long corrompido = spool.getPosicaoEscrita();
+        // Registros suficientes para o último ficar no segundo segmento
+        anexar(spool, 2, 40);
+        spool.close();
+
+        // Um byte do valor do registro 2 muda, mas o tamanho e o crc continuam os mesmos
+        escrever(diretorio, 0, (int) corrompido + 30, new byte[]{'X'});
+        spool = abrir(diretorio);
+        assertEquals(corrompido, spool.getPosicaoEscrita());
+        assertEquals(Arrays.asList("valor-0", "valor-1"), lerValores(spool));
+        assertFalse(new File(diretorio, SegmentoSpool.nomeArquivo(1)).exists());
+
+        // O próximo registro ocupa o lugar do corrompido
+        anexar(spool, 100, 1);
+        spool.close();
+        spool = abrir(diretorio);
+        assertEquals(Arrays.asList("valor-0", "valor-1", "valor-100"), lerValores(spool));
+        spool.close();
+    }
+
+    @Test
+    public void escritaInterrompidaTemACaudaZerada() throws IOException {
+        File diretorio = pasta.newFolder();
+        LogSpool spool = abrir(diretorio);
+        anexar(spool, 0, 2);
+        int fim = (int) spool.getPosicaoEscrita();
+        spool.close();
+
+        // O tamanho de um registro foi escrito, mas o crc e parte do corpo não
+        ByteBuffer cauda = ByteBuffer.allocate(60);
+        cauda.putInt(52);
+        while (cauda.hasRemaining()) {
+            cauda.put((byte) 0x7f);
+        }
+        escrever(diretorio, 0, fim, cauda.array());
+        // E um segmento seguinte chegou a ser criado
+        escrever(diretorio, 1, 0, cauda.array());
+
+        spool = abrir(diretorio);
+        assertEquals(fim, spool.getPosicaoEscrita());
+        assertEquals(Arrays.asList("valor-0", "valor-1"), lerValores(spool));
+        spool.close();
+        assertArrayEquals(new byte[TAMANHO_SEGMENTO - fim], ler(diretorio, 0, fim, TAMANHO_SEGMENTO - fim));
+        assertFalse(new File(diretorio, SegmentoSpool.nomeArquivo(1)).exists());
+
+        // Um registro menor que o lixo anterior não deixa restos dele depois do seu fim
+        spool = abrir(diretorio);
+        anexar(spool, 2, 1);
+        long novoFim = spool.getPosicaoEscrita();
+        spool.close();
+        spool = abrir(diretorio);
+        assertEquals(novoFim, spool.getPosicaoEscrita());
+        assertEquals(Arrays.asList("valor-0", "valor-1", "valor-2"), lerValores(spool));
+        spool.close();
+    }
+
+    private static LogSpool abrir(File diretorio) throws IOException {
+        return new LogSpool(diretorio, TAMANHO_SEGMENTO, 4);
+    }
+
+    private static void anexar(LogSpool spool, int primeiro, int quantidade) throws IOException {
+        for (int i = primeiro; i < primeiro + quantidade; i++) {
+            assertTrue(spool.anexar("t", 0, ByteBuffer.wrap(("k" + i).getBytes(StandardCharsets.UTF_8)),
+                    ByteBuffer.wrap(("valor-" + i).getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+
+    private static List<String> lerValores(LogSpool spool) {
+        RegistroSpool registro = new RegistroSpool();
+        List<String> valores = new ArrayList<String>();
+        long posicao = spool.getConfirmado();
+        while ((posicao = spool.ler(posicao, registro)) >= 0) {
+            ByteBuffer valor = registro.getValor();
+            byte[] bytes = new byte[valor.remaining()];
+            valor.duplicate().get(bytes);
+            valores.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return valores;
+    }
+
+    private static void escrever(File diretorio, long segmento, int deslocamento, byte[] bytes) throws IOException {
+        RandomAccessFile arquivo = new RandomAccessFile(new File(diretorio, SegmentoSpool.nomeArquivo(segmento)), "rw");
+        try {
+            arquivo.setLength(TAMANHO_SEGMENTO);
+            arquivo.seek(deslocamento);
+            arquivo.write(bytes);
+        } finally {
+            arquivo.close();
+        }
+    }
+
+    private static byte[] ler(File diretorio, long segmento, int deslocamento, int tamanho) throws IOException {
+        RandomAccessFile arquivo = new RandomAccessFile(new File(diretorio, SegmentoSpool.nomeArquivo(segmento)), "r");
+        try {
+            byte[] bytes = new byte[tamanho];
+            arquivo.seek(deslocamento);
+            arquivo.readFully(bytes);
+            return bytes;
+        } finally {
+            arquivo.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.flaviodavim.initialkafka.spool;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* O drenador do SpoolProdutor com o MockProducer sem conclusão automática
+ *
+ * Cada envio só é confirmado (completeNext) ou falha (errorNext) quando o teste manda, como a resposta do broker.
+ */
+public class SpoolProdutorTest {
+
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+
+    @Test
+    public void falhaReenviaAPartirDoRegistroQueFalhou() throws Exception {
+        ProdutorTeste produtor = new ProdutorTeste();
+        LogSpool spool = new LogSpool(pasta.newFolder(), 1024, 4);
+        SpoolProdutor spoolProdutor = new SpoolProdutor(produtor, spool, 10);
+        spoolProdutor.setBackoff(1, 1);
+        spoolProdutor.iniciar();
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(spoolProdutor.enviar("t", 0, null, ByteBuffer.wrap(("valor-" + i).getBytes(StandardCharsets.UTF_8))));
+            }
+            aguardarEnvios(produtor, 3);
+
+            // O primeiro falha depois que os dois seguintes já foram enviados, e eles são confirmados
+            produtor.errorNext(new KafkaException("falha simulada no broker"));
+            produtor.completeNext();
+            produtor.completeNext();
+            aguardarEnvios(produtor, 6);
+            produtor.flush();
+
+            assertTrue(spoolProdutor.aguardarDrenagem(5, TimeUnit.SECONDS));
+            // Os registros seguintes ao que falhou são escritos de novo depois dele
+            assertEquals(Arrays.asList("valor-0", "valor-1", "valor-2", "valor-0", "valor-1", "valor-2"), produtor.valores());
+            assertEquals(1, spoolProdutor.getFalhas());
+            assertEquals(1, spoolProdutor.getReenvios());
+            assertEquals(5, spoolProdutor.getConfirmados());
+            assertEquals(0, spoolProdutor.getBytesPendentes());
+        } finally {
+            spoolProdutor.close();
+        }
+    }
+
+    private static void aguardarEnvios(ProdutorTeste produtor, int quantidade) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (produtor.valores().size() < quantidade) {
+            if (System.nanoTime() >= limite) {
+                throw new AssertionError("O drenador fez " + produtor.valores().size() + " envios, eram esperados " + quantidade);
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    // O drenador reaproveita os buffers do registro, então o valor é copiado no send()
+    private static final class ProdutorTeste extends MockProducer<ByteBuffer, ByteBuffer> {
+
+        private final List<String> valores = new ArrayList<String>();
+
+        ProdutorTeste() {
+            super(false, new ByteBufferSerializer(), new ByteBufferSerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<ByteBuffer, ByteBuffer> registro, Callback callback) {
+            byte[] bytes = new byte[registro.value().remaining()];
+            registro.value().duplicate().get(bytes);
+            valores.add(new String(bytes, StandardCharsets.UTF_8));
+            return super.send(registro, callback);
+        }
+
+        synchronized List<String> valores() {
+            return new ArrayList<String>(valores);
+        }
+    }
+}
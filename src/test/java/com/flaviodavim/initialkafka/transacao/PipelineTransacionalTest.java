@@ -0,0 +1,285 @@
+package com.flaviodavim.initialkafka.transacao;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/* O PipelineTransacional com o MockConsumer e o MockProducer transacional
+ *
+ * O run() é executado na thread do teste. Cada passo é uma tarefa do MockConsumer, executada no começo de um poll:
+ * ela adiciona os registros que esse poll entrega ou guarda o estado que o teste confere depois.
+ * O último passo chama encerrar(), e o poll seguinte lança a WakeupException que termina o run().
+ */
+public class PipelineTransacionalTest {
+
+    private static final String GRUPO = "grupo-teste";
+    private static final String SAIDA = "saida";
+    private static final TopicPartition P0 = new TopicPartition("entrada", 0);
+    private static final TopicPartition P1 = new TopicPartition("entrada", 1);
+
+    private MockConsumer<String, String> consumidor;
+    private ProdutorTeste produtor;
+
+    // Copia cada registro para o tópico de saída; o valor "ruim" faz a transformação falhar
+    private final Transformador<String, String, String, String> copiar = (registro, saida) -> {
+        if ("ruim".equals(registro.value())) {
+            throw new IllegalArgumentException("registro inválido");
+        }
+        saida.add(new ProducerRecord<String, String>(SAIDA, registro.key(), registro.value()));
+    };
+
+    @Before
+    public void preparar() {
+        consumidor = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST);
+        consumidor.assign(Arrays.asList(P0, P1));
+        Map<TopicPartition, Long> inicios = new HashMap<TopicPartition, Long>();
+        inicios.put(P0, 0L);
+        inicios.put(P1, 0L);
+        consumidor.updateBeginningOffsets(inicios);
+        produtor = new ProdutorTeste();
+    }
+
+    @Test
+    public void commitaASaidaEOsOffsetsNaMesmaTransacao() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(3, TimeUnit.HOURS.toMillis(1));
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+            adicionar(P0, 1, "b");
+            adicionar(P1, 0, "c");
+        });
+
+        assertEquals(1, produtor.commitCount());
+        assertEquals(3, produtor.history().size());
+        assertEquals(1, produtor.consumerGroupOffsetsHistory().size());
+        Map<TopicPartition, OffsetAndMetadata> offsets = produtor.consumerGroupOffsetsHistory().get(0).get(GRUPO);
+        assertEquals(2, offsets.get(P0).offset());
+        assertEquals(1, offsets.get(P1).offset());
+        assertEquals(1, pipeline.getTransacoes());
+        assertEquals(3, pipeline.getConsumidos());
+        assertEquals(3, pipeline.getProduzidos());
+        assertTrue(produtor.closed());
+        assertTrue(consumidor.closed());
+    }
+
+    @Test
+    public void abortaEVoltaParaOInicioQuandoOCommitFalha() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(2, TimeUnit.HOURS.toMillis(1));
+        produtor.falharCommits = 1;
+        final long[] posicoes = new long[2];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+            adicionar(P1, 0, "b");
+        }, () -> {
+            // O commit do poll anterior falhou: o Consumidor voltou e os mesmos registros são entregues de novo
+            posicoes[0] = consumidor.position(P0);
+            posicoes[1] = consumidor.position(P1);
+            adicionar(P0, 0, "a");
+            adicionar(P1, 0, "b");
+        });
+
+        assertEquals(0, posicoes[0]);
+        assertEquals(0, posicoes[1]);
+        assertEquals(1, pipeline.getAbortadas());
+        assertEquals(1, pipeline.getTransacoes());
+        // A saída da transação abortada é descartada pelo MockProducer; só a da segunda tentativa fica
+        assertEquals(2, produtor.history().size());
+        assertEquals(2, pipeline.getConsumidos());
+    }
+
+    @Test
+    public void abortaEVoltaTodasAsParticoesDoPollQuandoOEnvioFalha() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(2, TimeUnit.HOURS.toMillis(1));
+        produtor.falharEnvios = 1;
+        final long[] posicoes = new long[2];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+            adicionar(P1, 0, "b");
+        }, () -> {
+            posicoes[0] = consumidor.position(P0);
+            posicoes[1] = consumidor.position(P1);
+            adicionar(P0, 0, "a");
+            adicionar(P1, 0, "b");
+        });
+
+        // O envio falhou no primeiro registro, mas as duas partições voltam, inclusive a que não foi transformada
+        assertEquals(0, posicoes[0]);
+        assertEquals(0, posicoes[1]);
+        assertEquals(1, pipeline.getAbortadas());
+        assertEquals(1, pipeline.getTransacoes());
+        assertEquals(2, produtor.history().size());
+    }
+
+    @Test
+    public void registroComFalhaNaTransformacaoEPulado() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(3, TimeUnit.HOURS.toMillis(1));
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+            adicionar(P0, 1, "ruim");
+            adicionar(P0, 2, "c");
+        });
+
+        assertEquals(1, pipeline.getFalhasTransformacao());
+        assertEquals(1, pipeline.getTransacoes());
+        assertEquals(0, pipeline.getAbortadas());
+        assertEquals(2, produtor.history().size());
+        // O registro com falha é dado como consumido, então o offset passa dele
+        assertEquals(3, produtor.consumerGroupOffsetsHistory().get(0).get(GRUPO).get(P0).offset());
+    }
+
+    @Test
+    public void fechaATransacaoPeloNumeroDeRegistros() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(2, TimeUnit.HOURS.toMillis(1));
+        final long[] commits = new long[2];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+        }, () -> {
+            // Um registro só não fecha a transação
+            commits[0] = produtor.commitCount();
+            adicionar(P0, 1, "b");
+        }, () -> {
+            commits[1] = produtor.commitCount();
+            adicionar(P0, 2, "c");
+            adicionar(P0, 3, "d");
+            adicionar(P0, 4, "e");
+        });
+
+        assertEquals(0, commits[0]);
+        assertEquals(1, commits[1]);
+        assertEquals(2, pipeline.getTransacoes());
+        List<Long> offsets = new ArrayList<Long>();
+        for (Map<String, Map<TopicPartition, OffsetAndMetadata>> transacao : produtor.consumerGroupOffsetsHistory()) {
+            offsets.add(transacao.get(GRUPO).get(P0).offset());
+        }
+        assertEquals(Arrays.asList(2L, 5L), offsets);
+    }
+
+    @Test
+    public void fechaATransacaoPeloIntervalo() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(1000, 200);
+        final long[] commits = new long[2];
+
+        executar(pipeline, () -> {
+            adicionar(P0, 0, "a");
+        }, () -> {
+            // Logo depois do primeiro poll o intervalo ainda não passou
+            commits[0] = produtor.commitCount();
+            dormir(250);
+        }, () -> {
+            // O poll anterior, mesmo vazio, fechou a transação que passou do intervalo
+            commits[1] = produtor.commitCount();
+        });
+
+        assertEquals(0, commits[0]);
+        assertEquals(1, commits[1]);
+        assertEquals(1, pipeline.getTransacoes());
+    }
+
+    @Test
+    public void encerraSemAbortarQuandoOProdutorEFenced() {
+        PipelineTransacional<String, String, String, String> pipeline = criar(1, TimeUnit.HOURS.toMillis(1));
+        consumidor.schedulePollTask(() -> {
+            adicionar(P0, 0, "a");
+            produtor.fenceProducer();
+        });
+
+        try {
+            pipeline.run();
+            fail("O pipeline deveria ter repassado a ProducerFencedException");
+        } catch (KafkaException e) {
+            assertTrue(e instanceof ProducerFencedException || e.getCause() instanceof ProducerFencedException);
+        }
+        assertEquals(0, pipeline.getTransacoes());
+        assertFalse(produtor.transactionCommitted());
+        assertTrue(consumidor.closed());
+    }
+
+    private PipelineTransacional<String, String, String, String> criar(int registrosPorTransacao, long intervaloMs) {
+        PipelineTransacional<String, String, String, String> pipeline =
+                new PipelineTransacional<String, String, String, String>(consumidor, produtor, copiar, GRUPO);
+        pipeline.setTempoPoll(Duration.ZERO);
+        pipeline.setRegistrosPorTransacao(registrosPorTransacao);
+        pipeline.setIntervaloTransacaoMs(intervaloMs);
+        return pipeline;
+    }
+
+    // Um passo por poll; o poll depois do último encerra o pipeline
+    private void executar(final PipelineTransacional<String, String, String, String> pipeline, Runnable... passos) {
+        for (Runnable passo : passos) {
+            consumidor.schedulePollTask(passo);
+        }
+        consumidor.schedulePollTask(pipeline::encerrar);
+        pipeline.run();
+    }
+
+    private void adicionar(TopicPartition particao, long offset, String valor) {
+        consumidor.addRecord(new ConsumerRecord<String, String>(particao.topic(), particao.partition(), offset,
+                "chave-" + offset, valor));
+    }
+
+    private static void dormir(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // O MockProducer do kafka-clients 2.0 não tem como simular uma falha no commit ou no send() da transação
+    private static final class ProdutorTeste extends MockProducer<String, String> {
+
+        int falharCommits;
+        int falharEnvios;
+
+        ProdutorTeste() {
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public void commitTransaction() {
+            if (falharCommits > 0) {
+                falharCommits--;
+                throw new KafkaException("falha simulada no commit");
+            }
+            super.commitTransaction();
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> registro, Callback callback) {
+            if (falharEnvios > 0) {
+                falharEnvios--;
+                throw new KafkaException("falha simulada no envio");
+            }
+            return super.send(registro, callback);
+        }
+    }
+}